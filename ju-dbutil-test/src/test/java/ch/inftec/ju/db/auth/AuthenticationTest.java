@@ -1,7 +1,13 @@
 package ch.inftec.ju.db.auth;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import junit.framework.Assert;
 
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +17,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import ch.inftec.ju.db.auth.repo.AuthRoleRepo;
 import ch.inftec.ju.db.auth.repo.AuthUserRepo;
+import ch.inftec.ju.util.TestUtils;
 
 /**
  * Contains tests for the Authentication functionality.
@@ -23,12 +30,28 @@ public class AuthenticationTest extends AbstractAuthBaseDbTest {
 	@Autowired
 	private JuUserDetailsService service;
 	
+	@Autowired
+	private AuthenticationEditorModel model;
+	
+	@Autowired
+	private AuthUserCache userCache;
+	
+	@Autowired
+	private LoginCountBuffer loginCountBuffer;
+	
 	@Autowired
 	private AuthUserRepo userRepo;
 	
 	@Autowired
 	private AuthRoleRepo roleRepo;
 	
+	@Before
+	public void clearUserCache() {
+		// The datasets are imported without notifying the cache
+		this.userCache.invalidateAll();
+		this.loginCountBuffer.flush();
+	}
+	
 	@Test
 	public void authRepositoryTest() {
 		this.createDbDataUtil().cleanImport("/datasets/auth/singleUser.xml");
@@ -60,4 +83,56 @@ public class AuthenticationTest extends AbstractAuthBaseDbTest {
 //		Assert.assertNotNull(userRepo.getByName("user2"));
 //		Assert.assertNotNull(roleRepo.getByName("NEW_ROLE"));		
 	}
+	
+	@Test
+	public void juUserDetailsService_cacheIsInvalidated() {
+		this.createDbDataUtil().cleanImport("/datasets/auth/singleUser.xml");
+		
+		Assert.assertEquals("role1", this.service.loadUserByUsername("user1").getAuthorities().iterator().next().getAuthority());
+		Assert.assertEquals("pwd1", this.service.loadUserByUsername("user1").getPassword());
+		
+		this.model.setRoles(this.model.getUser("user1"), Arrays.asList("role2"));
+		Assert.assertEquals("role2", this.service.loadUserByUsername("user1").getAuthorities().iterator().next().getAuthority());
+	}
+	
+	@Test
+	public void loginCountBuffer_coalescesLogins() {
+		this.createDbDataUtil().cleanImport("/datasets/auth/singleUser.xml");
+		
+		for (int i = 0; i < 3; i++) {
+			this.service.loadUserByUsername("user1");
+		}
+		Assert.assertNull(this.userRepo.getByName("user1").getLoginCount());
+		
+		Assert.assertEquals(1, this.loginCountBuffer.flush());
+		Assert.assertEquals(3, this.userRepo.getByName("user1").getLoginCount().intValue());
+		Assert.assertNotNull(this.userRepo.getByName("user1").getLastLogin());
+		
+		Assert.assertEquals(0, this.loginCountBuffer.flush());
+	}
+	
+	@Test
+	public void provisionRoles() {
+		this.createDbDataUtil().cleanImport("/datasets/auth/singleUser.xml");
+		this.model.addUser("user2", "pwd2");
+		
+		Map<String, List<String>> userRoles = new HashMap<>();
+		userRoles.put("user1", Arrays.asList("newRole"));
+		userRoles.put("user2", Arrays.asList("role1", "newRole"));
+		userRoles.put("unknownUser", Arrays.asList("role1"));
+		
+		RoleProvisioningResult result = this.model.provisionRoles(userRoles);
+		TestUtils.assertCollectionEquals(result.getCreatedRoles(), "newRole");
+		TestUtils.assertCollectionEquals(result.getUnknownUsers(), "unknownUser");
+		TestUtils.assertCollectionEquals(result.getRemovedRoles().get("user1"), "role1");
+		TestUtils.assertCollectionEquals(result.getAddedRoles().get("user2"), "newRole", "role1");
+		Assert.assertEquals(3, result.getAddedAssignmentCount());
+		Assert.assertEquals(1, result.getRemovedAssignmentCount());
+		
+		TestUtils.assertCollectionEquals(this.model.getRoles(this.model.getUser("user1")), "newRole");
+		TestUtils.assertCollectionEquals(this.model.getRoles(this.model.getUser("user2")), "newRole", "role1");
+		
+		// Provisioning the same mapping again doesn't change anything
+		Assert.assertFalse(this.model.provisionRoles(userRoles).hasChanges());
+	}
 }
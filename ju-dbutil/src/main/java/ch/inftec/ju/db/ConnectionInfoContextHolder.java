@@ -1,6 +1,10 @@
 package ch.inftec.ju.db;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -12,6 +16,10 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Note that the ConnectionInfo will only apply to the NEXT Spring transaction.
  * We cannot change the ConnectionInfo for the currently running transaction.
+ * <p>
+ * The available ConnectionInfos are kept in an immutable snapshot indexed by name that
+ * is replaced atomically when the ConnectionInfoRoutingDataSource adds or removes targets,
+ * so lookups don't need any locking.
  * @author Martin
  *
  */
@@ -19,7 +27,7 @@ public class ConnectionInfoContextHolder {
 	final Logger logger = LoggerFactory.getLogger(ConnectionInfoContextHolder.class);
 	
 	private final ThreadLocal<ConnectionInfo> contextHolder = new ThreadLocal<>();
-	private Set<ConnectionInfo> availableConnectionInfos = new LinkedHashSet<>();
+	private volatile Snapshot snapshot = new Snapshot(Collections.<ConnectionInfo>emptySet());
 	
 	/**
 	 * Sets the ConnectionInfo to be used by the following database interactions / transaction.
@@ -42,14 +50,21 @@ public class ConnectionInfoContextHolder {
 	 * @param connectionInfoName New ConnectionInfo name
 	 */
 	public void setConnectionInfoByName(String connectionInfoName) {
-		for (ConnectionInfo connectionInfo : availableConnectionInfos) {
-			if (connectionInfoName.equals(connectionInfo.getName())) {
-				setConnectionInfo(connectionInfo);
-				return;
-			}
+		ConnectionInfo connectionInfo = this.getConnectionInfoByName(connectionInfoName);
+		if (connectionInfo == null) {
+			throw new JuDbException("No ConnectionInfo available by the name " + connectionInfoName);
 		}
 		
-		throw new JuDbException("No ConnectionInfo available by the name " + connectionInfoName);
+		setConnectionInfo(connectionInfo);
+	}
+	
+	/**
+	 * Gets the available ConnectionInfo with the specified name.
+	 * @param connectionInfoName ConnectionInfo name
+	 * @return ConnectionInfo or null if none is available by the name
+	 */
+	public ConnectionInfo getConnectionInfoByName(String connectionInfoName) {
+		return this.snapshot.byName.get(connectionInfoName);
 	}
 	
 	public ConnectionInfo getConnectionInfo() {
@@ -63,16 +78,16 @@ public class ConnectionInfoContextHolder {
 		contextHolder.remove();
 	}
 	
-	void setAvailableConnectionInfos(Set<ConnectionInfo> availableConnectionInfos) {
-		this.availableConnectionInfos = availableConnectionInfos; 
+	synchronized void setAvailableConnectionInfos(Collection<ConnectionInfo> availableConnectionInfos) {
+		this.snapshot = new Snapshot(availableConnectionInfos);
 	}
 	
 	/**
 	 * Gets a set of all available ConnectionInfo instances.
-	 * @return Set of available ConnectionInfo instances
+	 * @return Unmodifiable snapshot of the available ConnectionInfo instances
 	 */
 	public Set<ConnectionInfo> getAvailableConnectionInfos() {
-		return availableConnectionInfos;
+		return this.snapshot.connectionInfos;
 	}
 	
 	/**
@@ -81,10 +96,26 @@ public class ConnectionInfoContextHolder {
 	 * @return True if the ConnectionInfo exists, false otherwise
 	 */
 	public boolean hasConnectionInfo(String name) {
-		for (ConnectionInfo connectionInfo : getAvailableConnectionInfos()) {
-			if (connectionInfo.getName().equals(name)) return true;
-		}
+		return this.snapshot.byName.containsKey(name);
+	}
+	
+	/**
+	 * Immutable set of ConnectionInfos with an index by name.
+	 * @author Martin
+	 *
+	 */
+	private static final class Snapshot {
+		private final Set<ConnectionInfo> connectionInfos;
+		private final Map<String, ConnectionInfo> byName;
 		
-		return false;
+		private Snapshot(Collection<ConnectionInfo> connectionInfos) {
+			this.connectionInfos = Collections.unmodifiableSet(new LinkedHashSet<>(connectionInfos));
+			
+			Map<String, ConnectionInfo> byName = new HashMap<>();
+			for (ConnectionInfo connectionInfo : connectionInfos) {
+				byName.put(connectionInfo.getName(), connectionInfo);
+			}
+			this.byName = Collections.unmodifiableMap(byName);
+		}
 	}
 }
@@ -0,0 +1,17 @@
+package ch.inftec.ju.db;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource that connects to the database described by a ConnectionInfo. Instances
+ * can be used as targets of the ConnectionInfoRoutingDataSource.
+ * @author Martin
+ *
+ */
+public interface ConnectionInfoDataSource extends DataSource {
+	/**
+	 * Gets the ConnectionInfo of this DataSource.
+	 * @return ConnectionInfo
+	 */
+	public ConnectionInfo getConnectionInfo();
+}
@@ -11,7 +11,7 @@ import ch.inftec.ju.util.JuStringUtils;
  * @author Martin
  *
  */
-public class ConnectionInfoDriverManagerDataSource extends DriverManagerDataSource {
+public class ConnectionInfoDriverManagerDataSource extends DriverManagerDataSource implements ConnectionInfoDataSource {
 	private ConnectionInfo connectionInfo;
 	
 	public void setConnectionInfo(ConnectionInfo connectionInfo) {
@@ -22,6 +22,7 @@ public class ConnectionInfoDriverManagerDataSource extends DriverManagerDataSour
 		this.connectionInfo = connectionInfo;
 	}
 	
+	@Override
 	public ConnectionInfo getConnectionInfo() {
 		return this.connectionInfo;
 	}
@@ -0,0 +1,117 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.lang3.ObjectUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Pooled DataSource (based on Apache DBCP) that has a ConnectionInfo property to set
+ * parameters using a ConnectionInfo instance. Can be used as a drop-in replacement of the
+ * ConnectionInfoDriverManagerDataSource.
+ * <p>
+ * Connections are validated when they are borrowed from the pool and idle connections are
+ * evicted after IDLE_TIMEOUT ms. If no validation query is set, a default query is derived from
+ * the connection string (VALUES 1 for Derby, SELECT 1 FROM DUAL for Oracle, SELECT 1 otherwise).
+ * All other settings (like maxActive, minIdle, maxWait) can be configured using the
+ * properties of the BasicDataSource.
+ * <p>
+ * The pool is closed when the Spring context is destroyed.
+ * @author Martin
+ *
+ */
+public class ConnectionInfoPooledDataSource extends BasicDataSource implements ConnectionInfoDataSource, DisposableBean {
+	/**
+	 * Default time in milliseconds after which idle connections are evicted.
+	 */
+	public static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+	
+	/**
+	 * Default interval in milliseconds of the idle connection eviction runs.
+	 */
+	public static final long EVICTION_INTERVAL = 60 * 1000;
+	
+	private ConnectionInfo connectionInfo;
+	private final AtomicLong borrowCount = new AtomicLong();
+	
+	public ConnectionInfoPooledDataSource() {
+		this.setTestOnBorrow(true);
+		this.setMinEvictableIdleTimeMillis(ConnectionInfoPooledDataSource.IDLE_TIMEOUT);
+		this.setTimeBetweenEvictionRunsMillis(ConnectionInfoPooledDataSource.EVICTION_INTERVAL);
+	}
+	
+	public void setConnectionInfo(ConnectionInfo connectionInfo) {
+		this.setUrl(connectionInfo.getConnectionString());
+		this.setUsername(connectionInfo.getUserName());
+		this.setPassword(connectionInfo.getPassword());
+		
+		if (this.getValidationQuery() == null) {
+			this.setValidationQuery(ConnectionInfoPooledDataSource.getDefaultValidationQuery(connectionInfo.getConnectionString()));
+		}
+		
+		this.connectionInfo = connectionInfo;
+	}
+	
+	@Override
+	public ConnectionInfo getConnectionInfo() {
+		return this.connectionInfo;
+	}
+	
+	private static String getDefaultValidationQuery(String connectionString) {
+		if (connectionString == null) return null;
+		
+		if (connectionString.startsWith("jdbc:derby:")) {
+			return "VALUES 1";
+		} else if (connectionString.startsWith("jdbc:oracle:")) {
+			return "SELECT 1 FROM DUAL";
+		} else {
+			return "SELECT 1";
+		}
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		this.borrowCount.incrementAndGet();
+		return super.getConnection();
+	}
+	
+	@Override
+	public Connection getConnection(String user, String pass) throws SQLException {
+		this.borrowCount.incrementAndGet();
+		return super.getConnection(user, pass);
+	}
+	
+	/**
+	 * Gets a snapshot of the statistics of the pool.
+	 * @return ConnectionPoolStats
+	 */
+	public ConnectionPoolStats getStats() {
+		return new ConnectionPoolStats(this.getNumActive(), this.getNumIdle(), this.getMaxActive(), this.borrowCount.get());
+	}
+	
+	/**
+	 * DBCP 1.4 implements JDBC 4.0 that didn't know getParentLogger yet.
+	 */
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException("getParentLogger not supported");
+	}
+	
+	@Override
+	public void destroy() throws SQLException {
+		this.close();
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "connectionInfoName", 
+				this.connectionInfo == null ? null : ObjectUtils.toString(this.connectionInfo.getName()));
+	}
+}
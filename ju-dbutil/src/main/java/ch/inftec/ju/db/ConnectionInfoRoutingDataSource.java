@@ -1,9 +1,11 @@
 package ch.inftec.ju.db;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -12,12 +14,37 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
 
+/**
+ * RoutingDataSource that uses the ConnectionInfo of the ConnectionInfoContextHolder
+ * as lookup key.
+ * <p>
+ * Target DataSources can be added and removed at runtime using addTargetDataSource and
+ * removeTargetDataSource. The resolved targets are published atomically, so lookups don't
+ * need any locking. The targets of AbstractRoutingDataSource are only set up with the configuration
+ * and aren't used for lookups.
+ * @author Martin
+ *
+ */
 public class ConnectionInfoRoutingDataSource extends AbstractRoutingDataSource {
 	final Logger logger = LoggerFactory.getLogger(ConnectionInfoRoutingDataSource.class);
 	
 	@Autowired
 	private ConnectionInfoContextHolder contextHolder;
 	
+	/**
+	 * Target DataSources as specified, i.e. values may still be DataSource names.
+	 */
+	private Map<Object, Object> targetDataSources = Collections.emptyMap();
+	
+	/**
+	 * Resolved target DataSources, replaced as a whole when the targets change.
+	 */
+	private volatile Map<Object, DataSource> resolvedTargets = Collections.emptyMap();
+	
+	private Object defaultTargetDataSource;
+	private volatile DataSource resolvedDefaultDataSource;
+	private boolean lenientFallback = true;
+	
 	@Override
 	protected Object determineCurrentLookupKey() {
 		ConnectionInfo connectionInfo = this.contextHolder.getConnectionInfo();
@@ -26,21 +53,153 @@ public class ConnectionInfoRoutingDataSource extends AbstractRoutingDataSource {
 		return connectionInfo;
 	}
 	
+	/**
+	 * Looks up the target in the resolved targets published by this class. The targets of AbstractRoutingDataSource
+	 * aren't used as they are resolved in place and not updated when targets are added or removed at runtime.
+	 */
+	@Override
+	protected DataSource determineTargetDataSource() {
+		Object lookupKey = this.determineCurrentLookupKey();
+		
+		DataSource dataSource = lookupKey != null ? this.resolvedTargets.get(lookupKey) : null;
+		if (dataSource == null && (this.lenientFallback || lookupKey == null)) {
+			dataSource = this.resolvedDefaultDataSource;
+		}
+		if (dataSource == null) {
+			throw new IllegalStateException("Cannot determine target DataSource for lookup key [" + lookupKey + "]");
+		}
+		
+		return dataSource;
+	}
+	
 	@Override
 	@SuppressWarnings("unchecked")
-	public void setTargetDataSources(@SuppressWarnings("rawtypes") Map targetDataSources) {
-		Set<ConnectionInfo> connectionInfos = targetDataSources.keySet();
-		this.contextHolder.setAvailableConnectionInfos(connectionInfos);
+	public synchronized void setTargetDataSources(@SuppressWarnings("rawtypes") Map targetDataSources) {
+		this.targetDataSources = new LinkedHashMap<Object, Object>(targetDataSources);
 		
 		super.setTargetDataSources(targetDataSources);
 	}
 	
-	public void setTargetConnectionInfoDataSources(List<ConnectionInfoDriverManagerDataSource> dataSources) {
+	@Override
+	public synchronized void setDefaultTargetDataSource(Object defaultTargetDataSource) {
+		this.defaultTargetDataSource = defaultTargetDataSource;
+		
+		super.setDefaultTargetDataSource(defaultTargetDataSource);
+	}
+	
+	@Override
+	public synchronized void setLenientFallback(boolean lenientFallback) {
+		this.lenientFallback = lenientFallback;
+		
+		super.setLenientFallback(lenientFallback);
+	}
+	
+	@Override
+	public synchronized void afterPropertiesSet() {
+		super.afterPropertiesSet();
+		
+		if (this.defaultTargetDataSource != null) {
+			this.resolvedDefaultDataSource = this.resolveSpecifiedDataSource(this.defaultTargetDataSource);
+		}
+		this.publishTargets(this.targetDataSources);
+	}
+	
+	/**
+	 * Resolves the specified targets and publishes them. The resolved targets are published before the
+	 * ConnectionInfos of the ConnectionInfoContextHolder, so every available ConnectionInfo can be routed.
+	 */
+	private void publishTargets(Map<Object, Object> targetDataSources) {
+		Map<Object, DataSource> resolvedTargets = new LinkedHashMap<>();
+		for (Map.Entry<Object, Object> entry : targetDataSources.entrySet()) {
+			resolvedTargets.put(this.resolveSpecifiedLookupKey(entry.getKey()), this.resolveSpecifiedDataSource(entry.getValue()));
+		}
+		
+		this.targetDataSources = targetDataSources;
+		this.resolvedTargets = Collections.unmodifiableMap(resolvedTargets);
+		
+		List<ConnectionInfo> connectionInfos = new ArrayList<>();
+		for (Object lookupKey : resolvedTargets.keySet()) {
+			connectionInfos.add((ConnectionInfo)lookupKey);
+		}
+		this.contextHolder.setAvailableConnectionInfos(connectionInfos);
+	}
+	
+	/**
+	 * Sets the target DataSources, using their ConnectionInfos as lookup keys.
+	 * <p>
+	 * Use ConnectionInfoPooledDataSource instances for connection pooling or
+	 * ConnectionInfoDriverManagerDataSource instances to open a new connection for every request.
+	 * @param dataSources Target DataSources
+	 */
+	public void setTargetConnectionInfoDataSources(List<? extends ConnectionInfoDataSource> dataSources) {
 		Map<ConnectionInfo, DataSource> map = new LinkedHashMap<>();
-		for (ConnectionInfoDriverManagerDataSource dataSource : dataSources) {
+		for (ConnectionInfoDataSource dataSource : dataSources) {
 			map.put(dataSource.getConnectionInfo(), dataSource);
 		}
 		
 		this.setTargetDataSources(map);
 	}
+	
+	/**
+	 * Adds a target DataSource at runtime. An existing target with the same ConnectionInfo name is replaced.
+	 * <p>
+	 * The ConnectionInfo is added to the available ConnectionInfos of the ConnectionInfoContextHolder.
+	 * @param dataSource DataSource
+	 */
+	public synchronized void addTargetDataSource(ConnectionInfoDataSource dataSource) {
+		Map<Object, Object> targetDataSources = new LinkedHashMap<>(this.targetDataSources);
+		// Remove first as ConnectionInfos are equal by name and the key wouldn't be replaced
+		targetDataSources.remove(dataSource.getConnectionInfo());
+		targetDataSources.put(dataSource.getConnectionInfo(), dataSource);
+		
+		this.publishTargets(targetDataSources);
+		
+		logger.info("Added target DataSource for " + dataSource.getConnectionInfo().getName());
+	}
+	
+	/**
+	 * Removes a target DataSource at runtime. The ConnectionInfo is removed from the available ConnectionInfos
+	 * of the ConnectionInfoContextHolder. Pooled DataSources are closed.
+	 * @param connectionInfoName Name of the ConnectionInfo of the target
+	 * @return True if the target was removed, false if no target exists for the name
+	 */
+	public synchronized boolean removeTargetDataSource(String connectionInfoName) {
+		ConnectionInfo connectionInfo = this.contextHolder.getConnectionInfoByName(connectionInfoName);
+		if (connectionInfo == null) return false;
+		
+		DataSource dataSource = this.resolvedTargets.get(connectionInfo);
+		
+		Map<Object, Object> targetDataSources = new LinkedHashMap<>(this.targetDataSources);
+		targetDataSources.remove(connectionInfo);
+		
+		this.publishTargets(targetDataSources);
+		
+		if (dataSource instanceof ConnectionInfoPooledDataSource) {
+			try {
+				((ConnectionInfoPooledDataSource)dataSource).close();
+			} catch (SQLException ex) {
+				logger.warn("Couldn't close pooled DataSource of " + connectionInfoName, ex);
+			}
+		}
+		
+		logger.info("Removed target DataSource for " + connectionInfoName);
+		return true;
+	}
+	
+	/**
+	 * Gets the statistics of the connection pools of all target DataSources that are
+	 * ConnectionInfoPooledDataSources.
+	 * @return Map of the pool statistics by ConnectionInfo name
+	 */
+	public Map<String, ConnectionPoolStats> getPoolStats() {
+		Map<String, ConnectionPoolStats> stats = new LinkedHashMap<>();
+		for (DataSource dataSource : this.resolvedTargets.values()) {
+			if (dataSource instanceof ConnectionInfoPooledDataSource) {
+				ConnectionInfoPooledDataSource pooledDataSource = (ConnectionInfoPooledDataSource)dataSource;
+				stats.put(pooledDataSource.getConnectionInfo().getName(), pooledDataSource.getStats());
+			}
+		}
+		
+		return stats;
+	}
 }
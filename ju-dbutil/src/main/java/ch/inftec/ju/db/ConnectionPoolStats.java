@@ -0,0 +1,59 @@
+package ch.inftec.ju.db;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Immutable snapshot of the statistics of the connection pool of a ConnectionInfoPooledDataSource.
+ * @author Martin
+ *
+ */
+public final class ConnectionPoolStats {
+	private final int active;
+	private final int idle;
+	private final int maxActive;
+	private final long borrowCount;
+	
+	ConnectionPoolStats(int active, int idle, int maxActive, long borrowCount) {
+		this.active = active;
+		this.idle = idle;
+		this.maxActive = maxActive;
+		this.borrowCount = borrowCount;
+	}
+	
+	/**
+	 * Gets the number of connections that are currently in use.
+	 * @return Number of active connections
+	 */
+	public int getActive() {
+		return this.active;
+	}
+	
+	/**
+	 * Gets the number of open connections that are currently waiting in the pool.
+	 * @return Number of idle connections
+	 */
+	public int getIdle() {
+		return this.idle;
+	}
+	
+	/**
+	 * Gets the maximum number of connections of the pool.
+	 * @return Maximum number of active connections
+	 */
+	public int getMaxActive() {
+		return this.maxActive;
+	}
+	
+	/**
+	 * Gets the number of connections that have been borrowed from the pool.
+	 * @return Number of getConnection calls
+	 */
+	public long getBorrowCount() {
+		return this.borrowCount;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "active", this.active, "idle", this.idle, "maxActive", this.maxActive, "borrowCount", this.borrowCount);
+	}
+}
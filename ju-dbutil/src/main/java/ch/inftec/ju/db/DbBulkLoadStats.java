@@ -0,0 +1,68 @@
+package ch.inftec.ju.db;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Immutable snapshot of the progress of a DbBulkLoader run.
+ * @author Martin
+ *
+ */
+public final class DbBulkLoadStats {
+	private final String tableName;
+	private final long rowCount;
+	private final long committedRowCount;
+	private final long elapsedMillis;
+	
+	DbBulkLoadStats(String tableName, long rowCount, long committedRowCount, long elapsedMillis) {
+		this.tableName = tableName;
+		this.rowCount = rowCount;
+		this.committedRowCount = committedRowCount;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	/**
+	 * Gets the name of the table the rows are loaded into.
+	 * @return Table name
+	 */
+	public String getTableName() {
+		return this.tableName;
+	}
+	
+	/**
+	 * Gets the number of rows that have been sent to the database so far.
+	 * @return Number of inserted rows
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+	
+	/**
+	 * Gets the number of rows that have been committed so far.
+	 * @return Number of committed rows
+	 */
+	public long getCommittedRowCount() {
+		return this.committedRowCount;
+	}
+	
+	/**
+	 * Gets the time elapsed since the load was started.
+	 * @return Elapsed time in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return this.elapsedMillis;
+	}
+	
+	/**
+	 * Gets the average number of rows inserted per second.
+	 * @return Rows per second
+	 */
+	public double getRowsPerSecond() {
+		return this.elapsedMillis > 0 ? this.rowCount * 1000.0 / this.elapsedMillis : 0;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "tableName", this.tableName, "rowCount", this.rowCount, "committedRowCount", this.committedRowCount,
+				"elapsedMillis", this.elapsedMillis, "rowsPerSecond", Math.round(this.getRowsPerSecond()));
+	}
+}
@@ -0,0 +1,518 @@
+package ch.inftec.ju.db;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.bytecode.opencsv.CSVReader;
+import ch.inftec.ju.util.IOUtil;
+import ch.inftec.ju.util.JuStringUtils;
+import ch.inftec.ju.util.event.JuEventUtils;
+import ch.inftec.ju.util.event.JuEventUtils.UpdateEventNotifier;
+import ch.inftec.ju.util.event.UpdateListener;
+
+/**
+ * Loads large amounts of rows into database tables.
+ * <p>
+ * In contrast to the insert actions of DbActionUtils, the column meta data of a table is only
+ * evaluated once per loader and table, and the rows are inserted using a single PreparedStatement
+ * that is executed in JDBC batches. The rows are read from a streaming source, i.e. a CSV file,
+ * a DbRowCursor or DbRows, and are never held in memory as a whole.
+ * <p>
+ * Every load uses its own connection of the DataSource that is committed periodically, i.e. a failing
+ * load only rolls back the rows inserted since the last commit. The load doesn't participate in Spring
+ * transactions.
+ * <p>
+ * Use the build() method to get a builder to create new DbBulkLoader instances. Loaders are thread safe.
+ * @author Martin
+ *
+ */
+public final class DbBulkLoader {
+	/**
+	 * Default number of rows sent to the database in one JDBC batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * Default number of rows after which the load is committed.
+	 */
+	public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+	
+	/**
+	 * Default separator character of CSV sources, the same as the one used by CsvTableLookup.
+	 */
+	public static final char DEFAULT_SEPARATOR_CHAR = ';';
+	
+	private final Logger log = LoggerFactory.getLogger(DbBulkLoader.class);
+	
+	private final DataSource dataSource;
+	private final int batchSize;
+	private final int commitInterval;
+	private final char separatorChar;
+	private final UpdateEventNotifier<DbBulkLoadStats> progressNotifier = JuEventUtils.newUpdateEventNotifier();
+	
+	/**
+	 * Column types by upper case column name, by upper case table name.
+	 */
+	private final Map<String, Map<String, Integer>> columnTypes = new ConcurrentHashMap<>();
+	
+	private DbBulkLoader(DataSource dataSource, int batchSize, int commitInterval, char separatorChar) {
+		this.dataSource = dataSource;
+		this.batchSize = batchSize;
+		this.commitInterval = commitInterval;
+		this.separatorChar = separatorChar;
+	}
+	
+	/**
+	 * Gets a builder to create a new DbBulkLoader.
+	 * @param dataSource DataSource to get the connections of the loads from
+	 * @return DbBulkLoaderBuilder
+	 */
+	public static DbBulkLoaderBuilder build(DataSource dataSource) {
+		return new DbBulkLoaderBuilder(dataSource);
+	}
+	
+	/**
+	 * Builder to create DbBulkLoader instances.
+	 * @author Martin
+	 *
+	 */
+	public static final class DbBulkLoaderBuilder {
+		private final DataSource dataSource;
+		private int batchSize = DbBulkLoader.DEFAULT_BATCH_SIZE;
+		private int commitInterval = DbBulkLoader.DEFAULT_COMMIT_INTERVAL;
+		private char separatorChar = DbBulkLoader.DEFAULT_SEPARATOR_CHAR;
+		private final List<UpdateListener<DbBulkLoadStats>> progressListeners = new ArrayList<>();
+		
+		private DbBulkLoaderBuilder(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+		
+		/**
+		 * Sets the number of rows that are sent to the database in one JDBC batch.
+		 * @param batchSize Batch size, must be greater than 0
+		 * @return This builder to allow for chaining
+		 */
+		public DbBulkLoaderBuilder batchSize(int batchSize) {
+			if (batchSize < 1) throw new IllegalArgumentException("Batch size must be greater than 0: " + batchSize);
+			
+			this.batchSize = batchSize;
+			return this;
+		}
+		
+		/**
+		 * Sets the number of rows after which a load is committed. The load is committed
+		 * after the first batch that reaches the interval, so the interval should be a multiple
+		 * of the batch size.
+		 * @param commitInterval Commit interval. 0 to commit only at the end of the load
+		 * @return This builder to allow for chaining
+		 */
+		public DbBulkLoaderBuilder commitInterval(int commitInterval) {
+			if (commitInterval < 0) throw new IllegalArgumentException("Commit interval must not be negative: " + commitInterval);
+			
+			this.commitInterval = commitInterval;
+			return this;
+		}
+		
+		/**
+		 * Sets the separator character of CSV sources.
+		 * @param separatorChar Separator character
+		 * @return This builder to allow for chaining
+		 */
+		public DbBulkLoaderBuilder separator(char separatorChar) {
+			this.separatorChar = separatorChar;
+			return this;
+		}
+		
+		/**
+		 * Adds a listener that is notified with the current DbBulkLoadStats after every commit.
+		 * @param listener UpdateListener
+		 * @return This builder to allow for chaining
+		 */
+		public DbBulkLoaderBuilder progressListener(UpdateListener<DbBulkLoadStats> listener) {
+			this.progressListeners.add(listener);
+			return this;
+		}
+		
+		/**
+		 * Creates the DbBulkLoader.
+		 * @return DbBulkLoader instance
+		 */
+		public DbBulkLoader create() {
+			DbBulkLoader loader = new DbBulkLoader(this.dataSource, this.batchSize, this.commitInterval, this.separatorChar);
+			for (UpdateListener<DbBulkLoadStats> listener : this.progressListeners) {
+				loader.progressNotifier.addListener(listener);
+			}
+			
+			return loader;
+		}
+	}
+	
+	/**
+	 * Loads the rows of a CSV resource into the specified table.
+	 * <p>
+	 * The first row of the CSV contains the names of the columns to be loaded. Empty cells are
+	 * inserted as NULL, all other values are converted to the type of their column.
+	 * @param tableName Table name
+	 * @param url URL of the CSV resource
+	 * @return Stats of the completed load
+	 * @throws JuDbException If the load fails
+	 */
+	public DbBulkLoadStats loadCsv(String tableName, URL url) throws JuDbException {
+		return this.loadCsv(tableName, new IOUtil().createReader(url));
+	}
+	
+	/**
+	 * Loads the rows of a CSV into the specified table. The reader is closed when the load
+	 * is completed.
+	 * @param tableName Table name
+	 * @param reader Reader of the CSV data
+	 * @return Stats of the completed load
+	 * @throws JuDbException If the load fails
+	 * @see #loadCsv(String, URL)
+	 */
+	public DbBulkLoadStats loadCsv(String tableName, Reader reader) throws JuDbException {
+		try (CSVReader csvReader = new CSVReader(reader, this.separatorChar)) {
+			String[] header = csvReader.readNext();
+			if (header == null) throw new JuDbException("CSV for table " + tableName + " doesn't contain a header row");
+			
+			return this.load(tableName, Arrays.asList(header), new CsvIterator(csvReader, header.length));
+		} catch (IOException ex) {
+			throw new JuDbException("Couldn't read CSV for table " + tableName, ex);
+		}
+	}
+	
+	/**
+	 * Loads the rows of a DbRowCursor into the specified table. The columns of the cursor
+	 * are mapped to the table columns by their names. The cursor is closed when the load is completed.
+	 * @param tableName Table name
+	 * @param cursor DbRowCursor
+	 * @return Stats of the completed load
+	 * @throws JuDbException If the load fails
+	 */
+	public DbBulkLoadStats load(String tableName, DbRowCursor cursor) throws JuDbException {
+		try (DbRowCursor c = cursor) {
+			List<String> columnNames = new ArrayList<>();
+			for (int i = 0; i < c.getColumnCount(); i++) {
+				columnNames.add(c.getColumnName(i));
+			}
+			
+			return this.load(tableName, columnNames, new DbRowIterator(c, columnNames.size()));
+		}
+	}
+	
+	/**
+	 * Loads the rows of a DbRows instance into the specified table. The columns of the rows
+	 * are mapped to the table columns by their names.
+	 * @param tableName Table name
+	 * @param rows DbRows
+	 * @return Stats of the completed load
+	 * @throws JuDbException If the load fails
+	 */
+	public DbBulkLoadStats load(String tableName, DbRows rows) throws JuDbException {
+		List<String> columnNames = new ArrayList<>();
+		for (int i = 0; i < rows.getColumnCount(); i++) {
+			columnNames.add(rows.getColumnName(i));
+		}
+		
+		return this.load(tableName, columnNames, new DbRowIterator(rows.iterator(), columnNames.size()));
+	}
+	
+	private DbBulkLoadStats load(String tableName, List<String> columnNames, Iterator<Object[]> rows) throws JuDbException {
+		long startTime = System.currentTimeMillis();
+		long rowCount = 0;
+		long committedRowCount = 0;
+		
+		Connection conn = null;
+		Boolean autoCommit = null;
+		
+		try {
+			conn = this.dataSource.getConnection();
+			
+			int[] types = this.getColumnTypes(conn, tableName, columnNames);
+			String insert = this.createInsert(tableName, columnNames);
+			this.log.debug("Bulk loading {}: {}", tableName, insert);
+			
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			
+			try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+				int batchRows = 0;
+				
+				while (rows.hasNext()) {
+					Object[] values = rows.next();
+					for (int i = 0; i < types.length; i++) {
+						DbBulkLoader.setValue(stmt, i + 1, values[i], types[i]);
+					}
+					stmt.addBatch();
+					
+					rowCount++;
+					if (++batchRows == this.batchSize) {
+						stmt.executeBatch();
+						batchRows = 0;
+						
+						if (this.commitInterval > 0 && rowCount - committedRowCount >= this.commitInterval) {
+							conn.commit();
+							committedRowCount = rowCount;
+							this.fireProgress(tableName, rowCount, committedRowCount, startTime);
+						}
+					}
+				}
+				
+				if (batchRows > 0) stmt.executeBatch();
+			}
+			
+			conn.commit();
+			committedRowCount = rowCount;
+			
+			DbBulkLoadStats stats = this.fireProgress(tableName, rowCount, committedRowCount, startTime);
+			this.log.info("Bulk loaded {}", stats);
+			
+			return stats;
+		} catch (SQLException | RuntimeException ex) {
+			if (conn != null) {
+				try {
+					conn.rollback();
+				} catch (SQLException rollbackEx) {
+					this.log.warn("Couldn't roll back bulk load", rollbackEx);
+				}
+			}
+			
+			SQLException cause = ex instanceof SQLException && ((SQLException) ex).getNextException() != null
+					? ((SQLException) ex).getNextException()
+					: null;
+			throw new JuDbException(String.format("Couldn't bulk load table %s after %d committed rows", tableName, committedRowCount),
+					cause != null ? cause : ex);
+		} finally {
+			if (conn != null) {
+				try {
+					if (autoCommit != null) conn.setAutoCommit(autoCommit);
+				} catch (SQLException ex) {
+					this.log.warn("Couldn't reset auto commit of connection", ex);
+				}
+				JuDbUtils.closeQuietly(conn);
+			}
+		}
+	}
+	
+	private DbBulkLoadStats fireProgress(String tableName, long rowCount, long committedRowCount, long startTime) {
+		DbBulkLoadStats stats = new DbBulkLoadStats(tableName, rowCount, committedRowCount, System.currentTimeMillis() - startTime);
+		this.log.debug("Bulk load progress: {}", stats);
+		this.progressNotifier.fireUpdateEvent(stats);
+		
+		return stats;
+	}
+	
+	private String createInsert(String tableName, List<String> columnNames) {
+		return String.format("INSERT INTO %s (%s) VALUES (%s)", tableName
+				, StringUtils.join(columnNames, ", ")
+				, StringUtils.repeat("?", ", ", columnNames.size()));
+	}
+	
+	/**
+	 * Gets the SQL types of the specified columns. The types of all columns of the table are evaluated
+	 * with an empty query the first time a table is loaded.
+	 */
+	private int[] getColumnTypes(Connection conn, String tableName, List<String> columnNames) throws SQLException {
+		String key = tableName.toUpperCase();
+		
+		Map<String, Integer> tableTypes = this.columnTypes.get(key);
+		if (tableTypes == null) {
+			Map<String, Integer> loadedTypes = new LinkedHashMap<>();
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1=0")) {
+				ResultSetMetaData md = rs.getMetaData();
+				for (int i = 1; i <= md.getColumnCount(); i++) {
+					loadedTypes.put(md.getColumnName(i).toUpperCase(), md.getColumnType(i));
+				}
+			}
+			
+			tableTypes = Collections.unmodifiableMap(loadedTypes);
+			this.columnTypes.put(key, tableTypes);
+		}
+		
+		int[] types = new int[columnNames.size()];
+		for (int i = 0; i < types.length; i++) {
+			Integer type = tableTypes.get(columnNames.get(i).trim().toUpperCase());
+			if (type == null) throw new JuDbException("Table " + tableName + " has no column " + columnNames.get(i));
+			
+			types[i] = type;
+		}
+		
+		return types;
+	}
+	
+	/**
+	 * Sets a parameter value. String values (i.e. CSV cells) are converted to the type of the column,
+	 * empty strings being treated as NULL. DbLobs are inserted by value.
+	 */
+	private static void setValue(PreparedStatement stmt, int index, Object value, int type) throws SQLException {
+		if (value instanceof String) {
+			String s = (String) value;
+			if (s.isEmpty()) {
+				value = null;
+			} else {
+				switch (type) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+				case Types.DECIMAL:
+				case Types.NUMERIC:
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+					value = new BigDecimal(s.trim());
+					break;
+				case Types.BIT:
+				case Types.BOOLEAN:
+					value = Boolean.valueOf(s.trim());
+					break;
+				case Types.DATE:
+					value = Date.valueOf(s.trim());
+					break;
+				case Types.TIME:
+					value = Time.valueOf(s.trim());
+					break;
+				case Types.TIMESTAMP:
+					value = Timestamp.valueOf(s.trim());
+					break;
+				default:
+					stmt.setString(index, s);
+					return;
+				}
+			}
+		} else if (value instanceof DbLob) {
+			DbLob lob = (DbLob) value;
+			value = lob.isCharacter() ? lob.getString() : lob.getBytes();
+		} else if (value != null && value.getClass() == java.util.Date.class) {
+			value = new Timestamp(((java.util.Date) value).getTime());
+		}
+		
+		if (value == null) {
+			stmt.setNull(index, type);
+		} else {
+			stmt.setObject(index, value, type);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "batchSize", this.batchSize, "commitInterval", this.commitInterval);
+	}
+	
+	/**
+	 * Iterator over the rows of a CSVReader.
+	 * @author Martin
+	 *
+	 */
+	private static final class CsvIterator implements Iterator<Object[]> {
+		private final CSVReader reader;
+		private final int columnCount;
+		private String[] next;
+		private long line = 1;
+		
+		private CsvIterator(CSVReader reader, int columnCount) {
+			this.reader = reader;
+			this.columnCount = columnCount;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (this.next == null) {
+				try {
+					do {
+						this.next = this.reader.readNext();
+						this.line++;
+					} while (this.next != null && this.next.length == 1 && StringUtils.isBlank(this.next[0]));
+				} catch (IOException ex) {
+					throw new JuDbException("Couldn't read CSV line " + this.line, ex);
+				}
+			}
+			
+			return this.next != null;
+		}
+		
+		@Override
+		public Object[] next() {
+			if (!this.hasNext()) throw new NoSuchElementException();
+			
+			if (this.next.length != this.columnCount) {
+				throw new JuDbException(String.format("CSV line %d has %d values, expected %d", this.line, this.next.length, this.columnCount));
+			}
+			
+			Object[] values = this.next;
+			this.next = null;
+			
+			return values;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * Iterator over the values of DbRows.
+	 * @author Martin
+	 *
+	 */
+	private static final class DbRowIterator implements Iterator<Object[]> {
+		private final Iterator<DbRow> rows;
+		private final int columnCount;
+		
+		private DbRowIterator(Iterator<DbRow> rows, int columnCount) {
+			this.rows = rows;
+			this.columnCount = columnCount;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.rows.hasNext();
+		}
+		
+		@Override
+		public Object[] next() {
+			DbRow row = this.rows.next();
+			
+			Object[] values = new Object[this.columnCount];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = row.getValue(i);
+			}
+			
+			return values;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
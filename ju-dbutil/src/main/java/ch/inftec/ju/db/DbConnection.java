@@ -2,6 +2,8 @@ package ch.inftec.ju.db;
 
 import java.sql.Connection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 /**
@@ -40,6 +42,15 @@ public interface DbConnection {
 	 */
 	public String getPrimaryColumnName(String tableName) throws JuDbException;
 	
+	/**
+	 * Gets the names of the table's primary key columns in key sequence order. In contrast to
+	 * getPrimaryColumnName, this supports multi-column primary keys. Column names are upper case.
+	 * @param tableName Table name
+	 * @return Names of the table's primary key columns
+	 * @throws JuDbException If the primary key cannot be evaluated or the table has no primary key
+	 */
+	public List<String> getPrimaryKeyColumnNames(String tableName) throws JuDbException;
+	
 	/**
 	 * Gets all column names of the specified table in the order they are defined, or rather in the
 	 * order the driver returns them. Column names are upper case.
@@ -55,6 +66,15 @@ public interface DbConnection {
 	 */
 	public DbQueryRunner getQueryRunner();
 	
+	/**
+	 * Gets the counters of the PreparedStatement cache of this connection.
+	 * <p>
+	 * Within a Spring transaction, the DbQueryRunner keeps the PreparedStatements
+	 * of the transaction's connection in an LRU cache that is closed when the transaction completes.
+	 * @return Snapshot of the cache counters
+	 */
+	public StatementCacheStats getStatementCacheStats();
+	
 	/**
 	 * Gets the raw JDBC connection of the current Spring transaction scope.
 	 * <p>
@@ -63,4 +83,26 @@ public interface DbConnection {
 	 * @return Connection instance
 	 */
 	public Connection getConnection();
+	
+	/**
+	 * Submits work to be executed asynchronously in a new transaction on a connection of its own,
+	 * i.e. independent of the transaction of the calling thread. All queries of this DbConnection that
+	 * the work performs use this connection.
+	 * <p>
+	 * The transaction is committed when the work completes and rolled back if it throws an exception.
+	 * @param work Work to be executed
+	 * @return Future of the work's result
+	 */
+	public <T> Future<T> submitInNewTransaction(Callable<T> work);
+	
+	/**
+	 * Executes work within a savepoint of the current transaction. If the work throws an exception,
+	 * the changes it made are rolled back to the savepoint and the exception is rethrown.
+	 * <p>
+	 * If there is no transaction, the work is just executed.
+	 * @param work Work to be executed
+	 * @return Result of the work
+	 * @throws JuDbException If the savepoint cannot be created or the work throws a checked exception
+	 */
+	public <T> T doInSavepoint(Callable<T> work) throws JuDbException;
 }	
@@ -1,13 +1,31 @@
 package ch.inftec.ju.db;
 
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PreDestroy;
 
 import javax.sql.DataSource;
 
@@ -16,10 +34,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.ConnectionHolder;
 import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ObjectUtils;
 
+import ch.inftec.ju.db.DbMetaDataCache.SchemaMetaData;
 import ch.inftec.ju.db.DbRowUtils.DbRowsImpl;
 import ch.inftec.ju.util.JuStringUtils;
+import ch.inftec.ju.util.XString;
 import ch.inftec.ju.util.change.DbAction;
 import ch.inftec.ju.util.change.DbActionUtils;
 
@@ -28,6 +52,9 @@ import ch.inftec.ju.util.change.DbActionUtils;
  * Implementation of the DbConnection interface.
  * <p>
  * Expects a DataSource and JdbcTemplate to be autowired by Spring.
+ * <p>
+ * If a Spring transaction is active, the PreparedStatements used by the DbQueryRunner are
+ * cached for the connection of the transaction and closed when the transaction completes.
  * @author Martin
  *
  */
@@ -40,9 +67,46 @@ final class DbConnectionImpl implements DbConnection {
 	@Autowired
 	private DataSource dataSource;
 	
+	@Autowired(required = false)
+	private ConnectionInfoContextHolder contextHolder;
+	
 	private String name;
 	private String schemaName;
 	
+	/**
+	 * Default maximum number of cached PreparedStatements per transaction.
+	 */
+	static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+	
+	private int statementCacheSize = DbConnectionImpl.DEFAULT_STATEMENT_CACHE_SIZE;
+	private final PreparedStatementCache.Counters statementCacheCounters = new PreparedStatementCache.Counters();
+	
+	/**
+	 * Cache for table names, primary keys and column names.
+	 */
+	private final DbMetaDataCache metaDataCache = new DbMetaDataCache();
+	
+	/**
+	 * Key used to bind the PreparedStatementCache to the transaction.
+	 */
+	private final Object statementCacheKey = new Object();
+	
+	private int inListLimit;
+	
+	/**
+	 * Default number of threads of the executor for asynchronous queries.
+	 */
+	static final int DEFAULT_ASYNC_POOL_SIZE = 4;
+	
+	/**
+	 * Maximum number of asynchronous statements waiting for execution. If the queue is full,
+	 * statements are executed by the calling thread.
+	 */
+	static final int ASYNC_QUEUE_SIZE = 1000;
+	
+	private ExecutorService asyncExecutor;
+	private boolean ownsAsyncExecutor;
+	
 //	/**
 //	 * Creates a new connection creator with the specified name.
 //	 * @param name Unique name of the connection
@@ -66,20 +130,58 @@ final class DbConnectionImpl implements DbConnection {
 
 	@Override
 	public List<String> getTableNames() throws JuDbException {
-		DbMetaData md = new DbMetaData();
-		return md.getTableNames();
+		return new ArrayList<>(this.getMetaData().getTableNames());
 	}
 	
 	@Override
 	public String getPrimaryColumnName(String tableName) throws JuDbException {
-		DbMetaData md = new DbMetaData();
-		return md.getPrimaryColumnName(tableName);
+		return this.getMetaData().getPrimaryColumnName(tableName);
 	}
 
+	@Override
+	public List<String> getPrimaryKeyColumnNames(String tableName) throws JuDbException {
+		List<String> pkColumns = this.getMetaData().getPrimaryKeyColumnNames(tableName);
+		if (pkColumns.size() == 0) {
+			throw new JuDbException("Couldn't evaluate primary key for table " + tableName);
+		}
+		
+		return pkColumns;
+	}
+	
 	@Override
 	public List<String> getColumnNames(String tableName) throws JuDbException {
-		DbMetaData md = new DbMetaData();
-		return Arrays.asList(md.getColumnNames(tableName));			
+		return new ArrayList<>(this.getMetaData().getColumnNames(tableName));
+	}
+	
+	/**
+	 * Sets the time to live of the cached meta data.
+	 * @param timeToLive Time to live in milliseconds. 0 to keep the meta data until
+	 * it is invalidated using invalidateMetaData. Defaults to DbMetaDataCache.DEFAULT_TIME_TO_LIVE
+	 */
+	public void setMetaDataTimeToLive(long timeToLive) {
+		this.metaDataCache.setTimeToLive(timeToLive);
+	}
+	
+	/**
+	 * Removes the cached meta data of the current ConnectionInfo. Must be called when the schema has been
+	 * changed by other means than the DDL statements executed using the DbQueryRunner's update method.
+	 */
+	public void invalidateMetaData() {
+		this.metaDataCache.invalidate(this.getMetaDataName());
+	}
+	
+	private SchemaMetaData getMetaData() {
+		return this.metaDataCache.getMetaData(this.getMetaDataName(), this.dataSource, this.getSchemaName());
+	}
+	
+	/**
+	 * Gets the name the meta data is cached by, i.e. the name of the ConnectionInfo the DataSource
+	 * routes to or the name of the DbConnection if no ConnectionInfo is set.
+	 */
+	private String getMetaDataName() {
+		ConnectionInfo connectionInfo = this.contextHolder != null ? this.contextHolder.getConnectionInfo() : null;
+		
+		return connectionInfo != null ? connectionInfo.getName() : this.getName();
 	}
 	
 	@Override
@@ -93,112 +195,279 @@ final class DbConnectionImpl implements DbConnection {
 	}
 	
 	/**
-	 * Helper class to wrap around a DatabaseMetaData object.
-	 * Make sure to call the close() method when the object is not used any longer.
-	 * @author Martin
-	 *
+	 * Sets the maximum number of PreparedStatements that are cached per transaction.
+	 * @param statementCacheSize Maximum number of statements. 0 disables the cache
 	 */
-	private class DbMetaData {
-		private DatabaseMetaData metaData;
-		private ResultSet rs;
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+	
+	/**
+	 * Sets the maximum number of parameters used for the IN lists of primaryKeysQuery. Larger
+	 * key collections are queried in chunks.
+	 * @param inListLimit Maximum number of parameters. 0 (default) to use the limit of the database
+	 */
+	public void setInListLimit(int inListLimit) {
+		this.inListLimit = inListLimit;
+	}
+	
+	private int getInListLimit() {
+		if (this.inListLimit > 0) return this.inListLimit;
 		
-		/**
-		 * Creates a new DbMetaData instance. If an exception occurs, close will be called
-		 * implicitly.
-		 * @throws JuDbException If the MetaData cannot be accessed
-		 */
-		public DbMetaData() throws JuDbException {
-			try {
-				this.metaData = DbConnectionImpl.this.getConnection().getMetaData();
-			} catch (SQLException ex) {
-				throw new JuDbException("Couldn't access DatabaseMetaData", ex);
-			}
+		String productName = this.getMetaData().getDatabaseProductName();
+		if (productName != null && productName.contains("SQL Server")) {
+			// SQL Server allows 2100 parameters per statement
+			return 2000;
+		} else if (productName != null && productName.contains("Derby")) {
+			// Derby fails to compile statements with too many parameters and tends to
+			// choose table scans over index probes for large IN lists
+			return 200;
+		} else {
+			// Oracle allows 1000 expressions in an IN list. Other databases don't have a fixed limit,
+			// but compiling huge statements gets slow
+			return 1000;
+		}
+	}
+	
+	/**
+	 * Sets the executor used for the asynchronous queries of the DbQueryRunner. The executor
+	 * isn't shut down by this DbConnection.
+	 * <p>
+	 * If no executor is set, a bounded pool of DEFAULT_ASYNC_POOL_SIZE daemon threads is used.
+	 * @param asyncExecutor Executor
+	 */
+	public synchronized void setAsyncExecutor(ExecutorService asyncExecutor) {
+		this.shutdown();
+		this.asyncExecutor = asyncExecutor;
+	}
+	
+	private synchronized ExecutorService getAsyncExecutor() {
+		if (this.asyncExecutor == null) {
+			final String threadNamePrefix = "DbConnection-" + this.getName() + "-async-";
+			final AtomicInteger threadCount = new AtomicInteger();
+			
+			this.asyncExecutor = new ThreadPoolExecutor(DbConnectionImpl.DEFAULT_ASYNC_POOL_SIZE, DbConnectionImpl.DEFAULT_ASYNC_POOL_SIZE,
+					0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(DbConnectionImpl.ASYNC_QUEUE_SIZE),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					},
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			this.ownsAsyncExecutor = true;
 		}
 		
-		public List<String> getTableNames() throws JuDbException {
-			try {
-				this.rs = this.metaData.getTables(getSchemaName(), null, null, new String[]{"TABLE"});
-				
-				List<String> tableNames = new ArrayList<>();
-				while (rs.next()) {
-					String tableName = rs.getString("TABLE_NAME");
-					tableNames.add(tableName.toUpperCase());
-				}
-				
-				Collections.sort(tableNames);
-				
-				return tableNames;
-			} catch (JuDbException ex) {
-				throw ex;
-			} catch (SQLException ex) {
-				throw new JuDbException("Couldn't evaluate table names", ex);
-			} finally {
-				JuDbUtils.closeQuietly(this.rs);
-				this.rs = null;
-			}
+		return this.asyncExecutor;
+	}
+	
+	/**
+	 * Shuts down the default executor for asynchronous queries if it has been created.
+	 * Running queries are completed.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (this.ownsAsyncExecutor) {
+			this.asyncExecutor.shutdown();
+			this.asyncExecutor = null;
+			this.ownsAsyncExecutor = false;
 		}
+	}
+	
+	/**
+	 * Submits a task to the async executor. The task runs with the ConnectionInfo of the calling thread
+	 * and uses its own connection that is bound to the worker thread while the task runs.
+	 * @param task Task
+	 * @return Future of the task
+	 */
+	private <T> Future<T> submitAsync(Callable<T> task) {
+		return this.submitAsync(this.contextHolder != null ? this.contextHolder.getConnectionInfo() : null, task);
+	}
+	
+	/**
+	 * Submits a task to the async executor that runs with the specified ConnectionInfo.
+	 * @param connectionInfo ConnectionInfo to be set on the worker thread, may be null
+	 * @param task Task
+	 * @return Future of the task
+	 */
+	private <T> Future<T> submitAsync(final ConnectionInfo connectionInfo, final Callable<T> task) {
+		return this.submitAsync(connectionInfo, task, false);
+	}
+	
+	/**
+	 * Submits a task to the async executor that runs with the specified ConnectionInfo.
+	 * <p>
+	 * If the executor lets the calling thread run the task, the task only joins the transaction of the
+	 * calling thread if the calling thread has the same ConnectionInfo set. Otherwise, the transaction is
+	 * suspended while the task runs with a connection of its own.
+	 * <p>
+	 * If the DataSource is a ThreadBindingDataSource, the task runs with the thread binding of the calling thread.
+	 * @param connectionInfo ConnectionInfo to be set on the worker thread, may be null
+	 * @param task Task
+	 * @param newTransaction If true, the task runs in a transaction of its own, even if the executor
+	 * lets the calling thread run the task
+	 * @return Future of the task
+	 */
+	private <T> Future<T> submitAsync(final ConnectionInfo connectionInfo, final Callable<T> task, final boolean newTransaction) {
+		final ThreadBindingDataSource bindingDataSource = this.dataSource instanceof ThreadBindingDataSource
+				? (ThreadBindingDataSource) this.dataSource
+				: null;
+		final Object threadBinding = bindingDataSource != null ? bindingDataSource.getThreadBinding() : null;
 		
-		/**
-		 * Gets the primary column name for the specified table.
-		 * @param tableName Table name
-		 * @return Primary column name
-		 * @throws JuDbException If the primary column name cannot be evaluated
-		 */
-		public String getPrimaryColumnName(String tableName) throws JuDbException {
-			try {
-				this.rs = this.metaData.getPrimaryKeys(null, null, tableName.toUpperCase());
-				
-				String columnName = null;
-				if (rs.next()) columnName = rs.getString("COLUMN_NAME");
-				else throw new JuDbException("Couldn't evaluate primary key for table " + tableName);
+		return this.getAsyncExecutor().submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				ConnectionInfoContextHolder contextHolder = DbConnectionImpl.this.contextHolder;
+				ConnectionInfo previousConnectionInfo = contextHolder != null ? contextHolder.getConnectionInfo() : null;
+				DbConnectionImpl.setConnectionInfo(contextHolder, connectionInfo);
 				
-				if (rs.next()) {
-					throw new JuDbException("Driver returned multiple primary keys for table " + tableName);
+				Object previousThreadBinding = null;
+				if (bindingDataSource != null) {
+					previousThreadBinding = bindingDataSource.getThreadBinding();
+					bindingDataSource.setThreadBinding(threadBinding);
 				}
 				
-				return columnName.toUpperCase();
-			} catch (JuDbException ex) {
-				throw ex;
+				try {
+					// If the executor lets the calling thread run the task, we might already be in a transaction.
+					// Its connection may only be used if it connects to the database of the task
+					if (!newTransaction && TransactionSynchronizationManager.hasResource(DbConnectionImpl.this.dataSource)
+							&& ObjectUtils.nullSafeEquals(connectionInfo, previousConnectionInfo)) {
+						return task.call();
+					}
+					
+					Object suspendedResource = TransactionSynchronizationManager.unbindResourceIfPossible(DbConnectionImpl.this.dataSource);
+					Connection conn = DbConnectionImpl.this.dataSource.getConnection();
+					TransactionSynchronizationManager.bindResource(DbConnectionImpl.this.dataSource, new ConnectionHolder(conn));
+					try {
+						return newTransaction ? DbConnectionImpl.this.callInTransaction(conn, task) : task.call();
+					} finally {
+						TransactionSynchronizationManager.unbindResource(DbConnectionImpl.this.dataSource);
+						JuDbUtils.closeQuietly(conn);
+						
+						if (suspendedResource != null) {
+							TransactionSynchronizationManager.bindResource(DbConnectionImpl.this.dataSource, suspendedResource);
+						}
+					}
+				} finally {
+					if (bindingDataSource != null) bindingDataSource.setThreadBinding(previousThreadBinding);
+					DbConnectionImpl.setConnectionInfo(contextHolder, previousConnectionInfo);
+				}
+			}
+		});
+	}
+	
+	private <T> T callInTransaction(Connection conn, Callable<T> task) throws Exception {
+		conn.setAutoCommit(false);
+		try {
+			T result = task.call();
+			conn.commit();
+			
+			return result;
+		} catch (Exception ex) {
+			try {
+				conn.rollback();
+			} catch (SQLException rollbackEx) {
+				this.log.warn("Couldn't roll back transaction", rollbackEx);
+			}
+			throw ex;
+		} finally {
+			try {
+				conn.setAutoCommit(true);
 			} catch (SQLException ex) {
-				throw new JuDbException("Couldn't evaluate primary key for table " + tableName, ex);
-			} finally {
-				JuDbUtils.closeQuietly(this.rs);
-				this.rs = null;
+				this.log.warn("Couldn't reset auto commit", ex);
 			}
 		}
+	}
+	
+	@Override
+	public <T> Future<T> submitInNewTransaction(Callable<T> work) {
+		return this.submitAsync(this.contextHolder != null ? this.contextHolder.getConnectionInfo() : null, work, true);
+	}
+	
+	@Override
+	public <T> T doInSavepoint(Callable<T> work) throws JuDbException {
+		Connection conn = null;
+		Savepoint savepoint = null;
+		try {
+			if (TransactionSynchronizationManager.hasResource(this.dataSource)) {
+				conn = DataSourceUtils.getConnection(this.dataSource);
+				if (!conn.getAutoCommit()) savepoint = conn.setSavepoint();
+			}
+		} catch (SQLException ex) {
+			throw new JuDbException("Couldn't create savepoint", ex);
+		}
 		
-		/**
-		 * Gets all column names of the specified table in the order they are defined, or rather in the
-		 * order the driver returns them.
-		 * @param tableName Table name
-		 * @return Column names of the table
-		 * @throws JuDbException If the column names cannot be evaluated
-		 */
-		public String[] getColumnNames(String tableName) throws JuDbException {
-			try {
-				this.rs = this.metaData.getColumns(null, null, tableName.toUpperCase(), null);			
-				
-				ArrayList<String> columnNames = new ArrayList<String>();
-				
-				while (rs.next()) {
-					String columnName = rs.getString("COLUMN_NAME");
-					columnNames.add(columnName.toUpperCase());
+		try {
+			T result = work.call();
+			
+			if (savepoint != null) {
+				try {
+					conn.releaseSavepoint(savepoint);
+				} catch (SQLException ex) {
+					// Not all drivers support releasing savepoints. They are released when the transaction completes
+					this.log.debug("Couldn't release savepoint", ex);
 				}
-				
-				if (columnNames.size() == 0) {
-					throw new JuDbException("Couldn't evaluate column names for table " + tableName + ": Driver returned empty ResultSet.");
+			}
+			
+			return result;
+		} catch (Exception ex) {
+			if (savepoint != null) {
+				try {
+					conn.rollback(savepoint);
+				} catch (SQLException rollbackEx) {
+					this.log.warn("Couldn't roll back to savepoint", rollbackEx);
 				}
-				
-				return (String[])columnNames.toArray(new String[0]);
-			} catch (JuDbException ex) {
-				throw ex;
-			} catch (SQLException ex) {
-				throw new JuDbException("Couldn't evaluate primary key for table " + tableName, ex);
-			} finally {
-				JuDbUtils.closeQuietly(this.rs);
-				this.rs = null;
 			}
+			
+			if (ex instanceof RuntimeException) throw (RuntimeException) ex;
+			throw new JuDbException("Work failed", ex);
+		}
+	}
+	
+	private static void setConnectionInfo(ConnectionInfoContextHolder contextHolder, ConnectionInfo connectionInfo) {
+		if (contextHolder == null) return;
+		
+		if (connectionInfo != null) {
+			contextHolder.setConnectionInfo(connectionInfo);
+		} else {
+			contextHolder.clearConnectionInfo();
+		}
+	}
+	
+	@Override
+	public StatementCacheStats getStatementCacheStats() {
+		return this.statementCacheCounters.getStats();
+	}
+	
+	/**
+	 * Gets the PreparedStatementCache for the specified connection. The cache is bound to the current
+	 * transaction and closed when the transaction completes.
+	 * @param conn Connection of the current transaction
+	 * @return PreparedStatementCache or null if no transaction synchronization is active, the cache
+	 * is disabled or the cache of the transaction belongs to a different connection
+	 */
+	private PreparedStatementCache getStatementCache(Connection conn) {
+		if (this.statementCacheSize <= 0 || !TransactionSynchronizationManager.isSynchronizationActive()) return null;
+		
+		PreparedStatementCache cache = (PreparedStatementCache)TransactionSynchronizationManager.getResource(this.statementCacheKey);
+		if (cache == null) {
+			final PreparedStatementCache newCache = new PreparedStatementCache(conn, this.statementCacheSize, this.statementCacheCounters);
+			TransactionSynchronizationManager.bindResource(this.statementCacheKey, newCache);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(DbConnectionImpl.this.statementCacheKey);
+					newCache.close();
+				}
+			});
+			
+			cache = newCache;
 		}
+		
+		return cache.getConnection() == conn ? cache : null;
 	}
 	
 	@Override
@@ -234,29 +503,235 @@ final class DbConnectionImpl implements DbConnection {
 			
 		@Override
 		public DbRowsImpl query(String query, Object... params) throws JuDbException {
+			return this.query(DbLob.Mode.STRING, query, params);
+		}
+		
+		@Override
+		public DbRowsImpl query(DbLob.Mode lobMode, String query, Object... params) throws JuDbException {
+			if (lobMode == DbLob.Mode.SPILL) {
+				throw new IllegalArgumentException("SPILL mode is only supported by queryCursor, its LOBs are freed when the cursor is closed");
+			}
+			
+			Connection conn = this.getConnection();
+			PreparedStatementCache cache = DbConnectionImpl.this.getStatementCache(conn);
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+			
 			try {
-				QueryRunner qr = new QueryRunner();
-				return qr.query(this.getConnection(), query, new DbRowResultSetHandler(), this.processParams(params));
+				stmt = this.prepareStatement(conn, cache, query);
+				new QueryRunner().fillStatement(stmt, this.processParams(params));
+				rs = stmt.executeQuery();
+				
+				return new DbRowResultSetHandler(lobMode, 0).handle(rs);
 			} catch (SQLException ex) {
+				this.invalidateStatement(cache, query);
 				throw new JuDbException("Couldn't execute query: " + query, ex);
+			} finally {
+				JuDbUtils.closeQuietly(rs);
+				this.releaseStatement(cache, stmt);
 			}
 		}
 
+		@Override
+		public DbRowCursor queryCursor(String query, Object... params) throws JuDbException {
+			return this.queryCursor(0, query, params);
+		}
+		
+		@Override
+		public DbRowCursor queryCursor(int fetchSize, String query, Object... params) throws JuDbException {
+			return this.queryCursor(fetchSize, DbLob.Mode.STRING, 0, query, params);
+		}
+		
+		@Override
+		public DbRowCursor queryCursor(int fetchSize, DbLob.Mode lobMode, long lobSpillThreshold, String query, Object... params) throws JuDbException {
+			Connection conn = this.getConnection();
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+			
+			try {
+				stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				stmt.setFetchSize(fetchSize);
+				new QueryRunner().fillStatement(stmt, this.processParams(params));
+				rs = stmt.executeQuery();
+				
+				return new DbRowCursorImpl(conn, DbConnectionImpl.this.dataSource, stmt, rs, new DbRowResultSetHandler(lobMode, lobSpillThreshold));
+			} catch (SQLException ex) {
+				JuDbUtils.closeQuietly(rs);
+				JuDbUtils.closeQuietly(stmt);
+				DataSourceUtils.releaseConnection(conn, DbConnectionImpl.this.dataSource);
+				
+				throw new JuDbException("Couldn't execute query: " + query, ex);
+			}
+		}
+		
 		@Override
 		public int update(String query, Object... params) throws JuDbException {
+			Connection conn = this.getConnection();
+			PreparedStatementCache cache = DbConnectionImpl.this.getStatementCache(conn);
+			PreparedStatement stmt = null;
+			
 			try {
-				QueryRunner qr = new QueryRunner();
-				return qr.update(this.getConnection(), query, this.processParams(params));
+				stmt = this.prepareStatement(conn, cache, query);
+				new QueryRunner().fillStatement(stmt, this.processParams(params));
+				
+				return stmt.executeUpdate();
 			} catch (SQLException ex) {
+				this.invalidateStatement(cache, query);
 				throw new JuDbException("Couldn't execute update: " + query, ex);
+			} finally {
+				this.releaseStatement(cache, stmt);
+				
+				// Invalidate even if the statement failed as DDL may be partially executed on some DBs
+				if (DbMetaDataCache.isSchemaChange(query)) DbConnectionImpl.this.invalidateMetaData();
+			}
+		}
+		
+		@Override
+		public Future<DbRows> queryAsync(final String query, final Object... params) {
+			return DbConnectionImpl.this.submitAsync(new Callable<DbRows>() {
+				@Override
+				public DbRows call() {
+					return DbQueryRunnerImpl.this.query(query, params);
+				}
+			});
+		}
+		
+		@Override
+		public Future<Integer> updateAsync(final String query, final Object... params) {
+			return DbConnectionImpl.this.submitAsync(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return DbQueryRunnerImpl.this.update(query, params);
+				}
+			});
+		}
+		
+		@Override
+		public DbRows scatterQuery(Collection<? extends ConnectionInfo> connectionInfos, long timeout, final String query, final Object... params) throws JuDbException {
+			if (DbConnectionImpl.this.contextHolder == null) {
+				throw new JuDbException("Scatter queries need a ConnectionInfoContextHolder");
+			}
+			
+			// The timeout of a query starts when a worker begins to execute it, as queries may wait
+			// for a thread of the async executor
+			final AtomicLongArray startTimes = new AtomicLongArray(connectionInfos.size());
+			
+			List<String> names = new ArrayList<>();
+			List<Future<DbRowsImpl>> futures = new ArrayList<>();
+			for (ConnectionInfo connectionInfo : connectionInfos) {
+				final int index = names.size();
+				names.add(connectionInfo.getName());
+				futures.add(DbConnectionImpl.this.submitAsync(connectionInfo, new Callable<DbRowsImpl>() {
+					@Override
+					public DbRowsImpl call() {
+						startTimes.set(index, System.currentTimeMillis());
+						return DbQueryRunnerImpl.this.query(query, params);
+					}
+				}));
+			}
+			
+			try {
+				List<DbRows> results = new ArrayList<>();
+				for (int i = 0; i < futures.size(); i++) {
+					try {
+						results.add(this.getResult(futures.get(i), startTimes, i, timeout));
+					} catch (TimeoutException ex) {
+						throw new JuDbException(String.format("Query on %s timed out after %d ms: %s", names.get(i), timeout, query), ex);
+					} catch (ExecutionException ex) {
+						throw new JuDbException(String.format("Query on %s failed: %s", names.get(i), query), ex.getCause());
+					}
+				}
+				
+				return DbRowUtils.concat(DbQueryRunner.CONNECTION_NAME_COLUMN, names, results);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new JuDbException("Interrupted while executing query: " + query, ex);
+			} finally {
+				// Cancel the queries that are still running if we failed
+				for (Future<DbRowsImpl> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		
+		/**
+		 * Waits for the result of a scatter query until its timeout has expired, measured from the time the
+		 * query started. Doesn't time out while the query is still waiting for a thread.
+		 */
+		private DbRowsImpl getResult(Future<DbRowsImpl> future, AtomicLongArray startTimes, int index, long timeout)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			while (true) {
+				long startTime = startTimes.get(index);
+				long waitTime = startTime == 0 ? Math.max(timeout, 1) : startTime + timeout - System.currentTimeMillis();
+				
+				try {
+					return future.get(Math.max(0, waitTime), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException ex) {
+					if (startTimes.get(index) != 0 && startTimes.get(index) + timeout <= System.currentTimeMillis()) throw ex;
+				}
+			}
+		}
+		
+		@Override
+		public int[] batch(String query, Object[][] params) throws JuDbException {
+			Connection conn = this.getConnection();
+			PreparedStatementCache cache = DbConnectionImpl.this.getStatementCache(conn);
+			PreparedStatement stmt = null;
+			
+			try {
+				stmt = this.prepareStatement(conn, cache, query);
+				
+				QueryRunner qr = new QueryRunner();
+				for (Object[] batchParams : params) {
+					qr.fillStatement(stmt, this.processParams(batchParams));
+					stmt.addBatch();
+				}
+				
+				return stmt.executeBatch();
+			} catch (SQLException ex) {
+				this.invalidateStatement(cache, query);
+				throw new JuDbException("Couldn't execute batch: " + query, ex);
+			} finally {
+				this.releaseStatement(cache, stmt);
 			}
 		}
 		
+		/**
+		 * Prepares a statement, using the cache if available.
+		 * @param conn Connection
+		 * @param cache PreparedStatementCache, may be null
+		 * @param query SQL of the statement
+		 * @return PreparedStatement
+		 * @throws SQLException If the statement cannot be prepared
+		 */
+		private PreparedStatement prepareStatement(Connection conn, PreparedStatementCache cache, String query) throws SQLException {
+			return cache != null ? cache.prepare(query) : conn.prepareStatement(query);
+		}
+		
+		/**
+		 * Releases a statement obtained by prepareStatement. Cached statements are kept open.
+		 * @param cache PreparedStatementCache, may be null
+		 * @param stmt Statement, may be null
+		 */
+		private void releaseStatement(PreparedStatementCache cache, PreparedStatement stmt) {
+			if (cache == null) JuDbUtils.closeQuietly(stmt);
+		}
+		
+		/**
+		 * Removes a statement from the cache after a failed execution as its state is unknown.
+		 * @param cache PreparedStatementCache, may be null
+		 * @param query SQL of the statement
+		 */
+		private void invalidateStatement(PreparedStatementCache cache, String query) {
+			if (cache != null) cache.invalidate(query);
+		}
+		
 		@Override
 		public DbRow primaryKeyQuery(String tableName, Object primaryKeyValue) throws JuDbException {
-			String selectQry = "SELECT * FROM " + tableName + " WHERE " + this.dbConnection.getPrimaryColumnName(tableName) + "=?";
+			List<String> pkColumns = this.dbConnection.getPrimaryKeyColumnNames(tableName);
+			String selectQry = "SELECT * FROM " + tableName + " WHERE " + DbKeyUtils.getKeyCondition(pkColumns);
 
-			DbRows dbRows = this.query(selectQry, primaryKeyValue);
+			DbRows dbRows = this.query(selectQry, DbKeyUtils.getKeyValues(primaryKeyValue, pkColumns.size()));
 			
 			if (dbRows.getRowCount() > 1) {
 				throw new JuDbException("PrimaryKeyQuery for " + tableName + " with key=" + primaryKeyValue 
@@ -266,6 +741,155 @@ final class DbConnectionImpl implements DbConnection {
 			return dbRows.getRowCount() == 0 ? null : dbRows.getRow(0);
 		}
 		
+		@Override
+		public Map<Object, DbRow> primaryKeysQuery(String tableName, Collection<?> primaryKeyValues) throws JuDbException {
+			return this.primaryKeysQuery(tableName, primaryKeyValues, 1);
+		}
+		
+		@Override
+		public Map<Object, DbRow> primaryKeysQuery(String tableName, Collection<?> primaryKeyValues, int parallelism) throws JuDbException {
+			Map<Object, DbRow> rows = new LinkedHashMap<>();
+			if (primaryKeyValues.isEmpty()) return rows;
+			
+			List<String> pkColumns = this.dbConnection.getPrimaryKeyColumnNames(tableName);
+			
+			List<Object[]> keys = new ArrayList<>();
+			for (Object primaryKeyValue : primaryKeyValues) {
+				keys.add(DbKeyUtils.getKeyValues(primaryKeyValue, pkColumns.size()));
+			}
+			
+			// All chunks have the same size so they share the same SQL (and PreparedStatement). Composite keys
+			// need a parameter for the IN list and one for each key column
+			int paramsPerKey = pkColumns.size() == 1 ? 1 : pkColumns.size() + 1;
+			int chunkSize = Math.min(keys.size(), Math.max(1, DbConnectionImpl.this.getInListLimit() / paramsPerKey));
+			String selectQry = this.createKeysQuery(tableName, pkColumns, chunkSize);
+			
+			List<Object[]> chunkParams = new ArrayList<>();
+			for (int i = 0; i < keys.size(); i += chunkSize) {
+				List<Object[]> chunk = keys.subList(i, Math.min(i + chunkSize, keys.size()));
+				
+				Set<Object> leadingValues = new LinkedHashSet<>();
+				for (Object[] keyValues : chunk) {
+					leadingValues.add(keyValues[0]);
+				}
+				List<Object> params = new ArrayList<>(leadingValues);
+				// Pad the IN list by repeating its last value
+				for (int j = leadingValues.size(); j < chunkSize; j++) {
+					params.add(params.get(params.size() - 1));
+				}
+				
+				if (pkColumns.size() > 1) {
+					// Pad the key conditions by repeating the last key
+					for (int j = 0; j < chunkSize; j++) {
+						params.addAll(Arrays.asList(chunk.get(Math.min(j, chunk.size() - 1))));
+					}
+				}
+				chunkParams.add(params.toArray());
+			}
+			
+			List<DbRows> chunkRows = new ArrayList<>();
+			// Parallel queries couldn't see the uncommitted changes of the transaction
+			if (parallelism <= 1 || chunkParams.size() == 1 || TransactionSynchronizationManager.hasResource(DbConnectionImpl.this.dataSource)) {
+				for (Object[] params : chunkParams) {
+					chunkRows.add(this.query(selectQry, params));
+				}
+			} else {
+				chunkRows = this.parallelQuery(selectQry, chunkParams, parallelism);
+			}
+			
+			for (DbRows dbRows : chunkRows) {
+				for (DbRow row : dbRows) {
+					rows.put(DbKeyUtils.getKey(row, pkColumns), row);
+				}
+			}
+			
+			return rows;
+		}
+		
+		/**
+		 * Creates the query for primaryKeysQuery, using an IN list for the leading key column.
+		 * <p>
+		 * Composite keys are matched exactly by an additional condition like (A=? AND B=?) OR (A=? AND B=?).
+		 * The IN list is redundant then, but lets databases that don't use an index for OR conditions (e.g. Derby)
+		 * probe the primary key index. Row value constructors would be shorter, but aren't supported by all databases.
+		 * @param tableName Table name
+		 * @param pkColumns Primary key columns
+		 * @param keyCount Number of keys, i.e. values of the IN list and conditions for composite keys
+		 * @return Query
+		 */
+		private String createKeysQuery(String tableName, List<String> pkColumns, int keyCount) {
+			XString selectQry = new XString("SELECT * FROM " + tableName + " WHERE " + pkColumns.get(0) + " IN (");
+			for (int i = 0; i < keyCount; i++) {
+				selectQry.assertText("(", ", ");
+				selectQry.addText("?");
+			}
+			selectQry.addText(")");
+			
+			if (pkColumns.size() > 1) {
+				String keyCondition = "(" + DbKeyUtils.getKeyCondition(pkColumns) + ")";
+				selectQry.addText(" AND (");
+				for (int i = 0; i < keyCount; i++) {
+					selectQry.assertText("(", " OR ");
+					selectQry.addText(keyCondition);
+				}
+				selectQry.addText(")");
+			}
+			
+			return selectQry.toString();
+		}
+		
+		/**
+		 * Executes the query once for each parameter array, using up to parallelism tasks of the async executor.
+		 * The tasks use the ConnectionInfo of the calling thread and connections of their own, i.e. they run
+		 * outside of the current transaction.
+		 * @param query Query
+		 * @param params Parameters for each execution
+		 * @param parallelism Maximum number of parallel queries
+		 * @return Results in the order of the parameters
+		 * @throws JuDbException If a query fails
+		 */
+		private List<DbRows> parallelQuery(final String query, final List<Object[]> params, int parallelism) throws JuDbException {
+			final int taskCount = Math.min(parallelism, params.size());
+			
+			List<Future<List<DbRows>>> futures = new ArrayList<>();
+			for (int i = 0; i < taskCount; i++) {
+				final int firstIndex = i;
+				futures.add(DbConnectionImpl.this.submitAsync(new Callable<List<DbRows>>() {
+					@Override
+					public List<DbRows> call() {
+						List<DbRows> results = new ArrayList<>();
+						for (int j = firstIndex; j < params.size(); j += taskCount) {
+							results.add(DbQueryRunnerImpl.this.query(query, params.get(j)));
+						}
+						return results;
+					}
+				}));
+			}
+			
+			try {
+				List<List<DbRows>> taskResults = new ArrayList<>();
+				for (Future<List<DbRows>> future : futures) {
+					taskResults.add(future.get());
+				}
+				
+				List<DbRows> results = new ArrayList<>();
+				for (int i = 0; i < params.size(); i++) {
+					results.add(taskResults.get(i % taskCount).get(i / taskCount));
+				}
+				
+				return results;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new JuDbException("Interrupted while executing query: " + query, ex);
+			} catch (ExecutionException ex) {
+				throw new JuDbException("Couldn't execute query: " + query, ex.getCause());
+			} finally {
+				for (Future<List<DbRows>> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		
 		/**
 		 * Executes a select * query on the specified table that returns no rows. Can be used
 		 * to obtain an empty DbRows instance.
@@ -311,6 +935,9 @@ final class DbConnectionImpl implements DbConnection {
 				if (param != null) {
 					if (param.getClass() == java.util.Date.class) {
 						newParams[i] = new java.sql.Date(((java.util.Date)param).getTime());
+					} else if (param instanceof DbLob) {
+						DbLob lob = (DbLob)param;
+						newParams[i] = lob.isCharacter() ? lob.getString() : lob.getBytes();
 					}
 				}
 			}
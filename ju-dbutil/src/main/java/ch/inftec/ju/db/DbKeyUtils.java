@@ -0,0 +1,153 @@
+package ch.inftec.ju.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helper class to work with primary key values.
+ * <p>
+ * The key of a table with a single primary key column is just the column value. The key of a table
+ * with a composite primary key is a List (or an Object array) containing the values of the key columns
+ * in key sequence order (see DbConnection.getPrimaryKeyColumnNames).
+ * @author Martin
+ *
+ */
+public final class DbKeyUtils {
+	private DbKeyUtils() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Creates a key from the specified key column values. Keys created with this method
+	 * can be used as Map keys.
+	 * @param values Values of the key columns in key sequence order
+	 * @return The value itself if there is just one value, an unmodifiable List of the values otherwise
+	 */
+	public static Object newKey(Object... values) {
+		if (values.length == 1) {
+			return values[0];
+		} else {
+			return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(values, values.length)));
+		}
+	}
+	
+	/**
+	 * Normalizes the specified key so that keys with numeric values of different types are equal if the
+	 * values are numerically equal, e.g. an Integer 1 and a Long or BigDecimal 1 read from the database.
+	 * <p>
+	 * Integral numbers are converted to Long (or BigDecimal if they exceed the long range), other numbers
+	 * to BigDecimal without trailing zeros. Other values are left unchanged.
+	 * @param key Key, either a single value or a List or Object array for composite keys
+	 * @return Normalized key as returned by newKey
+	 */
+	public static Object normalizeKey(Object key) {
+		Object[] values = null;
+		if (key instanceof Object[]) {
+			values = Arrays.copyOf((Object[])key, ((Object[])key).length, Object[].class);
+		} else if (key instanceof List) {
+			values = ((List<?>)key).toArray(new Object[0]);
+		} else {
+			return DbKeyUtils.normalizeValue(key);
+		}
+		
+		for (int i = 0; i < values.length; i++) {
+			values[i] = DbKeyUtils.normalizeValue(values[i]);
+		}
+		
+		return DbKeyUtils.newKey(values);
+	}
+	
+	private static Object normalizeValue(Object value) {
+		if (value instanceof Long) {
+			return value;
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number)value).longValue();
+		} else if (value instanceof Number) {
+			BigDecimal decimal;
+			if (value instanceof BigDecimal) {
+				decimal = (BigDecimal)value;
+			} else if (value instanceof BigInteger) {
+				decimal = new BigDecimal((BigInteger)value);
+			} else if (value instanceof Double || value instanceof Float) {
+				double doubleValue = ((Number)value).doubleValue();
+				if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) return value;
+				decimal = BigDecimal.valueOf(doubleValue);
+			} else {
+				return value;
+			}
+			
+			decimal = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+			if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 19) {
+				try {
+					return decimal.longValueExact();
+				} catch (ArithmeticException ex) {
+					// Exceeds the long range
+				}
+			}
+			
+			return decimal;
+		} else {
+			return value;
+		}
+	}
+	
+	/**
+	 * Creates the key of the specified row.
+	 * @param row DbRow
+	 * @param keyColumnNames Names of the key columns in key sequence order
+	 * @return Key as returned by newKey
+	 */
+	public static Object getKey(DbRow row, List<String> keyColumnNames) {
+		Object[] values = new Object[keyColumnNames.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = row.getValue(keyColumnNames.get(i));
+		}
+		
+		return DbKeyUtils.newKey(values);
+	}
+	
+	/**
+	 * Gets the values of the key columns of the specified key.
+	 * @param key Key, either a single value or a List or Object array for composite keys
+	 * @param keyColumnCount Number of key columns
+	 * @return Array containing the key column values
+	 * @throws JuDbException If the key doesn't match the number of key columns
+	 */
+	public static Object[] getKeyValues(Object key, int keyColumnCount) throws JuDbException {
+		if (keyColumnCount == 1) {
+			return new Object[] {key};
+		}
+		
+		Object[] values = null;
+		if (key instanceof Object[]) {
+			values = (Object[])key;
+		} else if (key instanceof List) {
+			values = ((List<?>)key).toArray();
+		}
+		
+		if (values == null || values.length != keyColumnCount) {
+			throw new JuDbException(String.format("Expected a List or array of %d values as composite key, got %s", keyColumnCount,
+					key instanceof Object[] ? Arrays.toString((Object[])key) : key));
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Creates a where condition for the specified key columns, e.g. A=? AND B=?
+	 * @param keyColumnNames Names of the key columns
+	 * @return Condition with ? place holders for the key values
+	 */
+	public static String getKeyCondition(List<String> keyColumnNames) {
+		StringBuilder condition = new StringBuilder();
+		for (int i = 0; i < keyColumnNames.size(); i++) {
+			if (i > 0) condition.append(" AND ");
+			condition.append(keyColumnNames.get(i)).append("=?");
+		}
+		
+		return condition.toString();
+	}
+}
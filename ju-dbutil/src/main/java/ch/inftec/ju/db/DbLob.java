@@ -0,0 +1,95 @@
+package ch.inftec.ju.db;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Handle to the content of a CLOB or BLOB value of a DbRow.
+ * <p>
+ * DbRows only contain DbLob handles if the query is executed using the LAZY or SPILL Mode,
+ * see DbQueryRunner. By default, CLOBs are converted to Strings.
+ * <p>
+ * Readers and InputStreams returned by a handle must be closed by the caller.
+ * @author Martin
+ *
+ */
+public interface DbLob {
+	/**
+	 * Mode used to handle LOB values when reading rows.
+	 * @author Martin
+	 *
+	 */
+	public enum Mode {
+		/**
+		 * CLOBs are converted to Strings, BLOBs are returned as returned by the driver.
+		 */
+		STRING,
+		
+		/**
+		 * LOBs are returned as DbLob handles that read the content from the database on demand.
+		 * The handles are only valid as long as the driver keeps the LOB locators, which is usually
+		 * until the end of the transaction.
+		 */
+		LAZY,
+		
+		/**
+		 * LOBs are read when the row is read and returned as DbLob handles. Values up to the spill
+		 * threshold are kept in memory, larger values are written to a temporary file that is deleted
+		 * when the handle is freed. The handles are valid after the transaction.
+		 * <p>
+		 * Only supported by DbRowCursors, which free the handles when they are closed.
+		 */
+		SPILL;
+	}
+	
+	/**
+	 * Checks if this LOB contains characters (CLOB) or bytes (BLOB).
+	 * @return True for a CLOB, false for a BLOB
+	 */
+	public boolean isCharacter();
+	
+	/**
+	 * Gets the length of the LOB.
+	 * @return Number of characters for a CLOB, number of bytes for a BLOB
+	 * @throws JuDbException If the length cannot be evaluated
+	 */
+	public long length() throws JuDbException;
+	
+	/**
+	 * Gets a Reader to stream the content of a CLOB.
+	 * @return Reader
+	 * @throws JuDbException If the content cannot be read
+	 * @throws IllegalStateException If this is a BLOB
+	 */
+	public Reader getReader() throws JuDbException;
+	
+	/**
+	 * Gets an InputStream to stream the content of a BLOB.
+	 * @return InputStream
+	 * @throws JuDbException If the content cannot be read
+	 * @throws IllegalStateException If this is a CLOB
+	 */
+	public InputStream getInputStream() throws JuDbException;
+	
+	/**
+	 * Reads the whole content of a CLOB into a String.
+	 * @return Content
+	 * @throws JuDbException If the content cannot be read
+	 * @throws IllegalStateException If this is a BLOB
+	 */
+	public String getString() throws JuDbException;
+	
+	/**
+	 * Reads the whole content of a BLOB into a byte array.
+	 * @return Content
+	 * @throws JuDbException If the content cannot be read
+	 * @throws IllegalStateException If this is a CLOB
+	 */
+	public byte[] getBytes() throws JuDbException;
+	
+	/**
+	 * Releases the resources of this handle, i.e. the temporary file of a spilled LOB or the
+	 * LOB locator of a lazy LOB. The handle cannot be used any longer afterwards.
+	 */
+	public void free();
+}
@@ -0,0 +1,438 @@
+package ch.inftec.ju.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.inftec.ju.util.IOUtil;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Implementations of the DbLob interface.
+ * @author Martin
+ *
+ */
+final class DbLobs {
+	private static final Logger logger = LoggerFactory.getLogger(DbLobs.class);
+	
+	/**
+	 * Charset used to write spilled CLOBs to temporary files.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private DbLobs() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Creates a lazy handle for the specified LOB.
+	 * @param lob Clob or Blob
+	 * @return DbLob handle
+	 */
+	static DbLob newLazyLob(Object lob) {
+		return new LazyLob(lob);
+	}
+	
+	/**
+	 * Reads the content of the specified CLOB, keeping it in memory if it doesn't have more than
+	 * spillThreshold characters and writing it to a temporary file otherwise.
+	 * @param clob Clob
+	 * @param spillThreshold Maximum number of characters kept in memory
+	 * @return DbLob handle
+	 * @throws JuDbException If the CLOB cannot be read
+	 */
+	static DbLob spill(Clob clob, long spillThreshold) throws JuDbException {
+		Reader reader = null;
+		Writer writer = null;
+		File file = null;
+		
+		try {
+			reader = clob.getCharacterStream();
+			CharArrayWriter memory = new CharArrayWriter();
+			long length = 0;
+			
+			char[] buffer = new char[DbLobs.BUFFER_SIZE];
+			int read;
+			while ((read = reader.read(buffer)) >= 0) {
+				length += read;
+				
+				if (writer == null && length > spillThreshold) {
+					file = DbLobs.createTempFile();
+					writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), DbLobs.CHARSET));
+					memory.writeTo(writer);
+					memory = null;
+				}
+				
+				if (writer != null) {
+					writer.write(buffer, 0, read);
+				} else {
+					memory.write(buffer, 0, read);
+				}
+			}
+			
+			if (writer != null) {
+				writer.close();
+				return new FileLob(true, file, length);
+			} else {
+				return new MemoryLob(memory.toString());
+			}
+		} catch (IOException | SQLException ex) {
+			DbLobs.closeQuietly(writer);
+			if (file != null) file.delete();
+			throw new JuDbException("Couldn't read CLOB", ex);
+		} finally {
+			IOUtil.close(reader);
+			DbLobs.free(clob);
+		}
+	}
+	
+	/**
+	 * Reads the content of the specified BLOB, keeping it in memory if it doesn't have more than
+	 * spillThreshold bytes and writing it to a temporary file otherwise.
+	 * @param blob Blob
+	 * @param spillThreshold Maximum number of bytes kept in memory
+	 * @return DbLob handle
+	 * @throws JuDbException If the BLOB cannot be read
+	 */
+	static DbLob spill(Blob blob, long spillThreshold) throws JuDbException {
+		InputStream in = null;
+		OutputStream out = null;
+		File file = null;
+		
+		try {
+			in = blob.getBinaryStream();
+			ByteArrayOutputStream memory = new ByteArrayOutputStream();
+			long length = 0;
+			
+			byte[] buffer = new byte[DbLobs.BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				length += read;
+				
+				if (out == null && length > spillThreshold) {
+					file = DbLobs.createTempFile();
+					out = new BufferedOutputStream(new FileOutputStream(file));
+					memory.writeTo(out);
+					memory = null;
+				}
+				
+				if (out != null) {
+					out.write(buffer, 0, read);
+				} else {
+					memory.write(buffer, 0, read);
+				}
+			}
+			
+			if (out != null) {
+				out.close();
+				return new FileLob(false, file, length);
+			} else {
+				return new MemoryLob(memory.toByteArray());
+			}
+		} catch (IOException | SQLException ex) {
+			IOUtil.close(out);
+			if (file != null) file.delete();
+			throw new JuDbException("Couldn't read BLOB", ex);
+		} finally {
+			IOUtil.close(in);
+			DbLobs.free(blob);
+		}
+	}
+	
+	/**
+	 * Releases the driver resources of the specified Clob or Blob.
+	 * @param lob Clob or Blob
+	 */
+	private static void free(Object lob) {
+		try {
+			if (lob instanceof Clob) {
+				((Clob)lob).free();
+			} else if (lob instanceof Blob) {
+				((Blob)lob).free();
+			}
+		} catch (SQLException | UnsupportedOperationException ex) {
+			logger.debug("Couldn't free LOB", ex);
+		}
+	}
+	
+	private static void closeQuietly(Writer writer) {
+		try {
+			if (writer != null) writer.close();
+		} catch (IOException ex) {
+			logger.debug("Couldn't close Writer", ex);
+		}
+	}
+	
+	/**
+	 * Checks if the specified handle holds its content in a temporary file that has to be deleted
+	 * using free.
+	 * @param lob DbLob
+	 * @return True if the LOB has been spilled to a file
+	 */
+	static boolean isSpilledToFile(DbLob lob) {
+		return lob instanceof FileLob;
+	}
+	
+	/**
+	 * Creates the temporary file of a spilled LOB. The file isn't registered with deleteOnExit
+	 * as the JVM would keep its name until shutdown; the owner of the handle has to free it.
+	 */
+	private static File createTempFile() throws IOException {
+		File file = File.createTempFile("ju-lob", ".tmp");
+		
+		logger.debug("Spilling LOB to " + file);
+		return file;
+	}
+	
+	private static String toString(Reader reader) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[DbLobs.BUFFER_SIZE];
+		int read;
+		while ((read = reader.read(buffer)) >= 0) {
+			sb.append(buffer, 0, read);
+		}
+		return sb.toString();
+	}
+	
+	private static byte[] toBytes(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[DbLobs.BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Base class implementing getString and getBytes using getReader and getInputStream.
+	 * @author Martin
+	 *
+	 */
+	private static abstract class AbstractLob implements DbLob {
+		private final boolean character;
+		
+		protected AbstractLob(boolean character) {
+			this.character = character;
+		}
+		
+		@Override
+		public boolean isCharacter() {
+			return this.character;
+		}
+		
+		protected void checkCharacter(boolean character) {
+			if (this.character != character) {
+				throw new IllegalStateException(this.character ? "LOB is a CLOB" : "LOB is a BLOB");
+			}
+		}
+		
+		@Override
+		public String getString() throws JuDbException {
+			Reader reader = this.getReader();
+			try {
+				return DbLobs.toString(reader);
+			} catch (IOException ex) {
+				throw new JuDbException("Couldn't read CLOB", ex);
+			} finally {
+				IOUtil.close(reader);
+			}
+		}
+		
+		@Override
+		public byte[] getBytes() throws JuDbException {
+			InputStream in = this.getInputStream();
+			try {
+				return DbLobs.toBytes(in);
+			} catch (IOException ex) {
+				throw new JuDbException("Couldn't read BLOB", ex);
+			} finally {
+				IOUtil.close(in);
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "character", this.isCharacter());
+		}
+	}
+	
+	/**
+	 * DbLob wrapping the Clob or Blob of the driver.
+	 * @author Martin
+	 *
+	 */
+	private static final class LazyLob extends AbstractLob {
+		private final Object lob;
+		
+		private LazyLob(Object lob) {
+			super(lob instanceof Clob);
+			this.lob = lob;
+		}
+		
+		@Override
+		public long length() throws JuDbException {
+			try {
+				return this.isCharacter() ? ((Clob)this.lob).length() : ((Blob)this.lob).length();
+			} catch (SQLException ex) {
+				throw new JuDbException("Couldn't evaluate LOB length", ex);
+			}
+		}
+		
+		@Override
+		public Reader getReader() throws JuDbException {
+			this.checkCharacter(true);
+			try {
+				return ((Clob)this.lob).getCharacterStream();
+			} catch (SQLException ex) {
+				throw new JuDbException("Couldn't read CLOB", ex);
+			}
+		}
+		
+		@Override
+		public InputStream getInputStream() throws JuDbException {
+			this.checkCharacter(false);
+			try {
+				return ((Blob)this.lob).getBinaryStream();
+			} catch (SQLException ex) {
+				throw new JuDbException("Couldn't read BLOB", ex);
+			}
+		}
+		
+		@Override
+		public void free() {
+			DbLobs.free(this.lob);
+		}
+	}
+	
+	/**
+	 * DbLob holding its content in memory.
+	 * @author Martin
+	 *
+	 */
+	private static final class MemoryLob extends AbstractLob {
+		private final String string;
+		private final byte[] bytes;
+		
+		private MemoryLob(String string) {
+			super(true);
+			this.string = string;
+			this.bytes = null;
+		}
+		
+		private MemoryLob(byte[] bytes) {
+			super(false);
+			this.string = null;
+			this.bytes = bytes;
+		}
+		
+		@Override
+		public long length() {
+			return this.isCharacter() ? this.string.length() : this.bytes.length;
+		}
+		
+		@Override
+		public Reader getReader() {
+			this.checkCharacter(true);
+			return new StringReader(this.string);
+		}
+		
+		@Override
+		public InputStream getInputStream() {
+			this.checkCharacter(false);
+			return new ByteArrayInputStream(this.bytes);
+		}
+		
+		@Override
+		public String getString() {
+			this.checkCharacter(true);
+			return this.string;
+		}
+		
+		@Override
+		public void free() {
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "character", this.isCharacter(), "length", this.length());
+		}
+	}
+	
+	/**
+	 * DbLob holding its content in a temporary file. CLOBs are stored UTF-8 encoded.
+	 * @author Martin
+	 *
+	 */
+	private static final class FileLob extends AbstractLob {
+		private final File file;
+		private final long length;
+		
+		private FileLob(boolean character, File file, long length) {
+			super(character);
+			this.file = file;
+			this.length = length;
+		}
+		
+		@Override
+		public long length() {
+			return this.length;
+		}
+		
+		@Override
+		public Reader getReader() throws JuDbException {
+			this.checkCharacter(true);
+			try {
+				return new BufferedReader(new InputStreamReader(new FileInputStream(this.file), DbLobs.CHARSET));
+			} catch (IOException ex) {
+				throw new JuDbException("Couldn't read spilled CLOB from " + this.file, ex);
+			}
+		}
+		
+		@Override
+		public InputStream getInputStream() throws JuDbException {
+			this.checkCharacter(false);
+			try {
+				return new BufferedInputStream(new FileInputStream(this.file));
+			} catch (IOException ex) {
+				throw new JuDbException("Couldn't read spilled BLOB from " + this.file, ex);
+			}
+		}
+		
+		@Override
+		public void free() {
+			if (this.file.exists() && !this.file.delete()) {
+				logger.warn("Couldn't delete " + this.file);
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "character", this.isCharacter(), "length", this.length, "file", this.file);
+		}
+	}
+}
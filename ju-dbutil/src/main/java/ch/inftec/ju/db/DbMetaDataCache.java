@@ -0,0 +1,359 @@
+package ch.inftec.ju.db;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.support.DatabaseMetaDataCallback;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Cache for database meta data (table names, primary keys and column names), keyed by the
+ * name of the ConnectionInfo (or DbConnection).
+ * <p>
+ * When the meta data of a connection is accessed for the first time, the table names and the
+ * columns of all tables are loaded in bulk. Primary keys are loaded per table on first access
+ * as JDBC doesn't provide a bulk query for them. Use warmUp to load all meta data at once,
+ * e.g. when the application starts.
+ * <p>
+ * The cache doesn't notice schema changes made by other means than the DDL statements executed by
+ * DbConnection (see isSchemaChange). It has to be invalidated explicitly in that case, otherwise the meta
+ * data is reloaded after its time to live (DEFAULT_TIME_TO_LIVE by default) has expired.
+ * <p>
+ * Table and column names are all upper case. Lookups are case insensitive.
+ * @author Martin
+ *
+ */
+public final class DbMetaDataCache {
+	private static final Logger logger = LoggerFactory.getLogger(DbMetaDataCache.class);
+	
+	/**
+	 * Default time to live of the cached meta data in milliseconds (5 minutes).
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+	
+	private static final Pattern SCHEMA_CHANGE_PATTERN = Pattern.compile("^\\s*(CREATE|ALTER|DROP|RENAME)\\s", Pattern.CASE_INSENSITIVE);
+	
+	private final ConcurrentHashMap<String, SchemaMetaData> schemas = new ConcurrentHashMap<>();
+	
+	private volatile long timeToLive = DbMetaDataCache.DEFAULT_TIME_TO_LIVE;
+	
+	/**
+	 * Checks whether the specified SQL statement is a DDL statement that may change the meta data, i.e.
+	 * a CREATE, ALTER, DROP or RENAME statement.
+	 * @param sql SQL statement
+	 * @return True if the meta data should be invalidated after the statement has been executed
+	 */
+	public static boolean isSchemaChange(String sql) {
+		return sql != null && DbMetaDataCache.SCHEMA_CHANGE_PATTERN.matcher(sql).find();
+	}
+	
+	/**
+	 * Sets the time to live of the cached meta data. After this time, the meta data will
+	 * be reloaded on the next access.
+	 * @param timeToLive Time to live in milliseconds. 0 to keep the meta data until
+	 * it is invalidated explicitly. Defaults to DEFAULT_TIME_TO_LIVE
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Gets the meta data for the specified connection, loading it if it isn't cached yet or
+	 * has expired.
+	 * @param name Name of the ConnectionInfo or DbConnection
+	 * @param dataSource DataSource to load the meta data from
+	 * @param catalog Catalog to get the tables from, may be null
+	 * @return SchemaMetaData
+	 * @throws JuDbException If the meta data cannot be loaded
+	 */
+	public SchemaMetaData getMetaData(String name, DataSource dataSource, String catalog) throws JuDbException {
+		String key = String.valueOf(name);
+		
+		SchemaMetaData metaData = this.schemas.get(key);
+		if (metaData == null || metaData.isExpired(this.timeToLive)) {
+			metaData = SchemaMetaData.load(key, dataSource, catalog);
+			this.schemas.put(key, metaData);
+		}
+		
+		return metaData;
+	}
+	
+	/**
+	 * Loads all meta data of the specified connection, including all primary keys.
+	 * @param name Name of the ConnectionInfo or DbConnection
+	 * @param dataSource DataSource to load the meta data from
+	 * @param catalog Catalog to get the tables from, may be null
+	 * @throws JuDbException If the meta data cannot be loaded
+	 */
+	public void warmUp(String name, DataSource dataSource, String catalog) throws JuDbException {
+		this.invalidate(name);
+		this.getMetaData(name, dataSource, catalog).loadAllPrimaryKeys();
+	}
+	
+	/**
+	 * Removes the meta data of the specified connection from the cache.
+	 * @param name Name of the ConnectionInfo or DbConnection
+	 */
+	public void invalidate(String name) {
+		this.schemas.remove(String.valueOf(name));
+	}
+	
+	/**
+	 * Removes the meta data of all connections from the cache.
+	 */
+	public void invalidateAll() {
+		this.schemas.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "schemas", this.schemas.keySet(), "timeToLive", this.timeToLive);
+	}
+	
+	/**
+	 * Cached meta data of one connection.
+	 * @author Martin
+	 *
+	 */
+	public static final class SchemaMetaData {
+		private final String name;
+		private final DataSource dataSource;
+		private final long loadTime;
+		private final String databaseProductName;
+		
+		/**
+		 * Sorted, upper case table names.
+		 */
+		private final List<String> tableNames;
+		
+		/**
+		 * Column names by upper case table name. Tables that are not returned by the bulk load
+		 * (e.g. views) are added on first access.
+		 */
+		private final ConcurrentHashMap<String, List<String>> columnNames;
+		
+		/**
+		 * Primary key column names by upper case table name, loaded on first access.
+		 */
+		private final ConcurrentHashMap<String, List<String>> primaryKeys = new ConcurrentHashMap<>();
+		
+		private SchemaMetaData(String name, DataSource dataSource, String databaseProductName, List<String> tableNames, Map<String, List<String>> columnNames) {
+			this.name = name;
+			this.dataSource = dataSource;
+			this.databaseProductName = databaseProductName;
+			this.loadTime = System.currentTimeMillis();
+			this.tableNames = Collections.unmodifiableList(tableNames);
+			this.columnNames = new ConcurrentHashMap<>(columnNames);
+		}
+		
+		/**
+		 * Loads the table names and the columns of all tables.
+		 */
+		private static SchemaMetaData load(final String name, final DataSource dataSource, final String catalog) {
+			final List<String> tableNames = new ArrayList<>();
+			final Map<String, List<String>> columnNames = new HashMap<>();
+			
+			String databaseProductName = (String) DbMetaDataCache.extract(dataSource, "Couldn't load meta data for " + name, new DatabaseMetaDataCallback() {
+				@Override
+				public Object processMetaData(DatabaseMetaData dbmd) throws SQLException, MetaDataAccessException {
+					Set<String> schemas = new LinkedHashSet<>();
+					
+					try (ResultSet rs = dbmd.getTables(catalog, null, null, new String[]{"TABLE"})) {
+						while (rs.next()) {
+							String tableName = rs.getString("TABLE_NAME").toUpperCase();
+							// Oracle seems to return the same table names multiple times on some schemas...
+							if (!columnNames.containsKey(tableName)) {
+								tableNames.add(tableName);
+								columnNames.put(tableName, new ArrayList<String>());
+							}
+							schemas.add(rs.getString("TABLE_SCHEM"));
+						}
+					}
+					
+					// Get the columns of all tables with one query per schema
+					for (String schema : schemas) {
+						try (ResultSet rs = dbmd.getColumns(null, schema, null, null)) {
+							while (rs.next()) {
+								List<String> tableColumns = columnNames.get(rs.getString("TABLE_NAME").toUpperCase());
+								if (tableColumns != null) tableColumns.add(rs.getString("COLUMN_NAME").toUpperCase());
+							}
+						}
+					}
+					
+					return dbmd.getDatabaseProductName();
+				}
+			});
+			
+			Collections.sort(tableNames);
+			for (Map.Entry<String, List<String>> entry : columnNames.entrySet()) {
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			}
+			
+			logger.debug("Loaded meta data of {} tables for {}", tableNames.size(), name);
+			
+			return new SchemaMetaData(name, dataSource, databaseProductName, tableNames, columnNames);
+		}
+		
+		private boolean isExpired(long timeToLive) {
+			return timeToLive > 0 && System.currentTimeMillis() - this.loadTime > timeToLive;
+		}
+		
+		/**
+		 * Loads the primary keys of all tables.
+		 */
+		private void loadAllPrimaryKeys() {
+			DbMetaDataCache.extract(this.dataSource, "Couldn't load primary keys for " + this.name, new DatabaseMetaDataCallback() {
+				@Override
+				public Object processMetaData(DatabaseMetaData dbmd) throws SQLException, MetaDataAccessException {
+					for (String tableName : SchemaMetaData.this.tableNames) {
+						SchemaMetaData.this.primaryKeys.put(tableName, SchemaMetaData.loadPrimaryKeys(dbmd, tableName));
+					}
+					return null;
+				}
+			});
+		}
+		
+		/**
+		 * Gets the product name of the database as returned by the driver.
+		 * @return Database product name, e.g. Oracle
+		 */
+		public String getDatabaseProductName() {
+			return this.databaseProductName;
+		}
+		
+		/**
+		 * Gets a list of all table names of the DB. Table names are all upper case.
+		 * @return Sorted, unmodifiable list of table names
+		 */
+		public List<String> getTableNames() {
+			return this.tableNames;
+		}
+		
+		/**
+		 * Gets the column names of the table's primary key in key sequence order.
+		 * @param tableName Table name
+		 * @return Unmodifiable list of upper case column names. Empty if the table has no primary key
+		 * @throws JuDbException If the primary key cannot be evaluated
+		 */
+		public List<String> getPrimaryKeyColumnNames(String tableName) throws JuDbException {
+			final String key = tableName.toUpperCase();
+			
+			List<String> pkColumns = this.primaryKeys.get(key);
+			if (pkColumns == null) {
+				@SuppressWarnings("unchecked")
+				List<String> loadedPkColumns = (List<String>) DbMetaDataCache.extract(this.dataSource, "Couldn't evaluate primary key for table " + tableName, new DatabaseMetaDataCallback() {
+					@Override
+					public Object processMetaData(DatabaseMetaData dbmd) throws SQLException, MetaDataAccessException {
+						return SchemaMetaData.loadPrimaryKeys(dbmd, key);
+					}
+				});
+				
+				this.primaryKeys.put(key, loadedPkColumns);
+				pkColumns = loadedPkColumns;
+			}
+			
+			return pkColumns;
+		}
+		
+		/**
+		 * Gets the name of the table's primary key column. Multi-Column primary keys are not supported.
+		 * @param tableName Table name
+		 * @return Upper case name of the table's primary key
+		 * @throws JuDbException If the primary key cannot be evaluated or the table has no or
+		 * a multi-column primary key
+		 */
+		public String getPrimaryColumnName(String tableName) throws JuDbException {
+			List<String> pkColumns = this.getPrimaryKeyColumnNames(tableName);
+			
+			if (pkColumns.size() == 0) {
+				throw new JuDbException("Couldn't evaluate primary key for table " + tableName);
+			} else if (pkColumns.size() > 1) {
+				throw new JuDbException("Driver returned multiple primary keys for table " + tableName);
+			}
+			
+			return pkColumns.get(0);
+		}
+		
+		/**
+		 * Gets all column names of the specified table in the order the driver returns them.
+		 * @param tableName Table name
+		 * @return Unmodifiable list of upper case column names
+		 * @throws JuDbException If the column names cannot be evaluated or the table doesn't exist
+		 */
+		public List<String> getColumnNames(final String tableName) throws JuDbException {
+			final String key = tableName.toUpperCase();
+			
+			List<String> columns = this.columnNames.get(key);
+			if (columns == null || columns.isEmpty()) {
+				@SuppressWarnings("unchecked")
+				List<String> loadedColumns = (List<String>) DbMetaDataCache.extract(this.dataSource, "Couldn't evaluate column names for table " + tableName, new DatabaseMetaDataCallback() {
+					@Override
+					public Object processMetaData(DatabaseMetaData dbmd) throws SQLException, MetaDataAccessException {
+						List<String> columns = new ArrayList<>();
+						try (ResultSet rs = dbmd.getColumns(null, null, key, null)) {
+							while (rs.next()) {
+								columns.add(rs.getString("COLUMN_NAME").toUpperCase());
+							}
+						}
+						return Collections.unmodifiableList(columns);
+					}
+				});
+				
+				if (loadedColumns.size() == 0) {
+					throw new JuDbException("Couldn't evaluate column names for table " + tableName + ": Driver returned empty ResultSet.");
+				}
+				
+				this.columnNames.put(key, loadedColumns);
+				columns = loadedColumns;
+			}
+			
+			return columns;
+		}
+		
+		private static List<String> loadPrimaryKeys(DatabaseMetaData dbmd, String tableName) throws SQLException {
+			// Sort by KEY_SEQ as the driver returns the columns ordered by name
+			Map<Short, String> columns = new TreeMap<>();
+			try (ResultSet rs = dbmd.getPrimaryKeys(null, null, tableName)) {
+				while (rs.next()) {
+					columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME").toUpperCase());
+				}
+			}
+			
+			return Collections.unmodifiableList(new ArrayList<>(columns.values()));
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "name", this.name, "tableCount", this.tableNames.size());
+		}
+	}
+	
+	/**
+	 * Extracts meta data using Spring's JdbcUtils, converting exceptions to JuDbExceptions.
+	 */
+	private static Object extract(DataSource dataSource, String errorMessage, DatabaseMetaDataCallback callback) throws JuDbException {
+		try {
+			return JdbcUtils.extractDatabaseMetaData(dataSource, callback);
+		} catch (MetaDataAccessException ex) {
+			throw new JuDbException(errorMessage, ex);
+		}
+	}
+}
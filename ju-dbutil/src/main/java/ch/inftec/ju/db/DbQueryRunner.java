@@ -1,8 +1,17 @@
 package ch.inftec.ju.db;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 import ch.inftec.ju.util.change.DbAction;
 
 public interface DbQueryRunner {
+	/**
+	 * Name of the column containing the ConnectionInfo name in the result of scatterQuery.
+	 */
+	public static final String CONNECTION_NAME_COLUMN = "CONNECTION_NAME";
+	
 	/**
 	 * Executes a select query and returns the result as an array of DbRow instances.
 	 * @param query Select query to be executed
@@ -12,8 +21,68 @@ public interface DbQueryRunner {
 	 */
 	public DbRows query(String query, Object... params) throws JuDbException;
 	
+	/**
+	 * Executes a select query and returns the result as an array of DbRow instances, handling
+	 * CLOB and BLOB values using the specified mode.
+	 * <p>
+	 * LAZY handles should be freed using DbRowUtils.freeLobs when the rows are not used any longer.
+	 * @param lobMode STRING or LAZY. Use queryCursor for SPILL mode
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return Array of DbRow instances
+	 * @throws JuDbException If the query fails
+	 * @throws IllegalArgumentException If the mode is SPILL
+	 */
+	public DbRows query(DbLob.Mode lobMode, String query, Object... params) throws JuDbException;
+	
+	/**
+	 * Executes a select query and returns a cursor that reads the rows one at a time, using
+	 * the driver's default fetch size.
+	 * <p>
+	 * In contrast to query, the result is not loaded into memory, so this method should be
+	 * used for large results. The cursor must be closed when it is not used any longer.
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return DbRowCursor instance
+	 * @throws JuDbException If the query fails
+	 */
+	public DbRowCursor queryCursor(String query, Object... params) throws JuDbException;
+	
+	/**
+	 * Executes a select query and returns a cursor that reads the rows one at a time.
+	 * <p>
+	 * The cursor must be closed when it is not used any longer.
+	 * @param fetchSize JDBC fetch size, i.e. the number of rows that the driver fetches from
+	 * the database in one round trip. 0 to use the driver's default
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return DbRowCursor instance
+	 * @throws JuDbException If the query fails
+	 */
+	public DbRowCursor queryCursor(int fetchSize, String query, Object... params) throws JuDbException;
+	
+	/**
+	 * Executes a select query and returns a cursor that reads the rows one at a time, handling
+	 * CLOB and BLOB values using the specified mode.
+	 * <p>
+	 * The cursor must be closed when it is not used any longer. Closing the cursor deletes the temporary
+	 * files of the LOBs read in SPILL mode.
+	 * @param fetchSize JDBC fetch size, i.e. the number of rows that the driver fetches from
+	 * the database in one round trip. 0 to use the driver's default
+	 * @param lobMode Mode used to handle LOB values
+	 * @param lobSpillThreshold Maximum number of characters (CLOB) or bytes (BLOB) of a LOB that are kept
+	 * in memory in SPILL mode. Larger LOBs are written to temporary files
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return DbRowCursor instance
+	 * @throws JuDbException If the query fails
+	 */
+	public DbRowCursor queryCursor(int fetchSize, DbLob.Mode lobMode, long lobSpillThreshold, String query, Object... params) throws JuDbException;
+	
 	/**
 	 * Executes a DB update and returns the result value.
+	 * <p>
+	 * DDL statements (CREATE, ALTER, DROP, RENAME) invalidate the cached meta data of the connection.
 	 * @param query Update query to be executed
 	 * @param params Parameters that will substitute ? place holders in the query
 	 * @return Value as returned by the database
@@ -21,8 +90,66 @@ public interface DbQueryRunner {
 	 */
 	public int update(String query, Object... params) throws JuDbException;
 	
+	/**
+	 * Executes a select query asynchronously, using the executor of the DbConnection.
+	 * <p>
+	 * The query runs on its own connection outside of the current transaction, using the ConnectionInfo
+	 * that is set for the calling thread. Queries on different ConnectionInfos can therefore run in parallel.
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return Future of the result. Future.get will throw an ExecutionException with a JuDbException
+	 * cause if the query fails
+	 */
+	public Future<DbRows> queryAsync(String query, Object... params);
+	
+	/**
+	 * Executes an update query asynchronously, using the executor of the DbConnection.
+	 * <p>
+	 * The update runs on its own connection outside of the current transaction, i.e. it is committed
+	 * if the connection is in auto commit mode (which is the default for JDBC connections). Uses the ConnectionInfo
+	 * that is set for the calling thread.
+	 * @param query Update query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return Future of the number of affected rows
+	 */
+	public Future<Integer> updateAsync(String query, Object... params);
+	
+	/**
+	 * Executes a select query concurrently on each of the specified ConnectionInfos and merges the results.
+	 * <p>
+	 * The DbConnection must use a DataSource that routes by the ConnectionInfoContextHolder, like the
+	 * ConnectionInfoRoutingDataSource. The queries are run by the async executor of the DbConnection, so
+	 * the number of concurrent queries is limited by its pool size (4 threads by default). Queries of further
+	 * ConnectionInfos wait for a free thread, so the scatter query may take longer than the timeout if there
+	 * are more ConnectionInfos than threads.
+	 * @param connectionInfos ConnectionInfos to execute the query on
+	 * @param timeout Maximum time in milliseconds to wait for the result of each ConnectionInfo, measured
+	 * from the time its query starts executing
+	 * @param query Select query to be executed
+	 * @param params Parameters that will substitute ? place holders in the query
+	 * @return DbRows with the rows of all ConnectionInfos in the order of the ConnectionInfos. The first column
+	 * (CONNECTION_NAME_COLUMN) contains the name of the ConnectionInfo the row was read from
+	 * @throws JuDbException If the query fails or times out on any ConnectionInfo
+	 */
+	public DbRows scatterQuery(Collection<? extends ConnectionInfo> connectionInfos, long timeout, String query, Object... params) throws JuDbException;
+	
+	/**
+	 * Executes a DB update multiple times with different parameters using JDBC batching,
+	 * i.e. the update is prepared once and sent to the database in a single round trip.
+	 * @param query Update query to be executed
+	 * @param params Parameters for each execution. Each array will substitute the ? place holders
+	 * for one execution of the query
+	 * @return Values as returned by the database, one for each execution. Drivers may return
+	 * java.sql.Statement.SUCCESS_NO_INFO if the number of affected rows is unknown
+	 * @throws JuDbException If the update fails
+	 */
+	public int[] batch(String query, Object[][] params) throws JuDbException;
+	
 	/**
 	 * Executes a primary key query on the specified row.
+	 * <p>
+	 * For tables with a composite primary key, the key has to be a List or an Object array containing
+	 * the values of the key columns in key sequence order, see DbKeyUtils.
 	 * @param tableName Table name
 	 * @param primaryKeyValue Primary key value
 	 * @return DbRow instance of the column with the specified key or null if no such column can be found
@@ -30,6 +157,36 @@ public interface DbQueryRunner {
 	 */
 	public DbRow primaryKeyQuery(String tableName, Object primaryKeyValue) throws JuDbException;
 	
+	/**
+	 * Gets the rows with the specified primary keys. The keys are queried using IN lists
+	 * of up to the parameter limit of the database, i.e. large collections result in multiple queries.
+	 * <p>
+	 * For tables with a composite primary key, the keys have to be Lists or Object arrays containing
+	 * the values of the key columns in key sequence order, see DbKeyUtils.
+	 * @param tableName Table name
+	 * @param primaryKeyValues Primary key values
+	 * @return Map of the rows that were found by their key as created by DbKeyUtils.newKey, i.e.
+	 * the key value itself or a List for composite keys. The keys contain the values as returned by the DB
+	 * (e.g. Integer for INTEGER columns), use DbKeyUtils.normalizeKey to match keys of other numeric types.
+	 * Keys that don't exist are not contained in the map
+	 * @throws JuDbException If the query cannot be performed
+	 */
+	public Map<Object, DbRow> primaryKeysQuery(String tableName, Collection<?> primaryKeyValues) throws JuDbException;
+	
+	/**
+	 * Gets the rows with the specified primary keys, executing up to parallelism chunk queries in parallel.
+	 * <p>
+	 * The parallel queries are run by the async executor of the DbConnection with the ConnectionInfo of the
+	 * calling thread, each using a connection of its own. If a transaction is active, the chunks are queried
+	 * sequentially within the transaction so the uncommitted changes of the transaction are visible.
+	 * @param tableName Table name
+	 * @param primaryKeyValues Primary key values
+	 * @param parallelism Maximum number of parallel queries. 1 to query sequentially
+	 * @return Map of the rows that were found by their key, see primaryKeysQuery(String, Collection)
+	 * @throws JuDbException If the query cannot be performed
+	 */
+	public Map<Object, DbRow> primaryKeysQuery(String tableName, Collection<?> primaryKeyValues, int parallelism) throws JuDbException;
+	
 	/**
 	 * Executes an empty rows query on the specified row, i.e. a query that returns no row, but initializes
 	 * the DbRow result instance with the appropriate columns.
@@ -8,6 +8,8 @@ package ch.inftec.ju.db;
  * (including order and type) and values are considered equal.
  * <p>
  * Column names are always converted to upper case, but getValue must be case insensitive.
+ * <p>
+ * See PrimitiveDbRow for index based and unboxed access to the values.
  * @author Martin
  *
  */
@@ -0,0 +1,55 @@
+package ch.inftec.ju.db;
+
+import java.util.Iterator;
+
+/**
+ * Forward only cursor over the rows of a query. In contrast to DbRows, the rows
+ * are read one at a time from the underlying ResultSet, so memory consumption doesn't
+ * depend on the size of the result.
+ * <p>
+ * A cursor holds an open ResultSet, Statement and Connection and must be closed
+ * when it is not used any longer, preferably using a try-with-resources block. The cursor
+ * releases the JDBC resources itself as soon as the last row has been read, but close still
+ * has to be called to free LOBs read in SPILL mode.
+ * <p>
+ * The remove method is not supported.
+ * @author Martin
+ *
+ */
+public interface DbRowCursor extends Iterator<DbRow>, AutoCloseable {
+	/**
+	 * Gets the number of columns of the result.
+	 * @return Number of columns
+	 */
+	public int getColumnCount();
+	
+	/**
+	 * Gets the name of the specified column. Column names are always
+	 * converted to all upper case.
+	 * @param index Column index, starting with 0
+	 * @return Column name
+	 */
+	public String getColumnName(int index);
+	
+	/**
+	 * Gets the type of the specified column as returned by the ResultSetMetaData object.
+	 * @param index Column index, starting with 0
+	 * @return Column type
+	 */
+	public int getColumnType(int index);
+	
+	/**
+	 * Gets the number of rows that have been read from the cursor so far.
+	 * @return Number of rows read
+	 */
+	public int getRowCount();
+	
+	/**
+	 * Releases the ResultSet, Statement and Connection of this cursor and frees the DbLob handles
+	 * of the rows read in SPILL mode, deleting their temporary files. Calling close multiple times
+	 * has no effect.
+	 * @throws JuDbException If the cursor cannot be closed
+	 */
+	@Override
+	public void close() throws JuDbException;
+}
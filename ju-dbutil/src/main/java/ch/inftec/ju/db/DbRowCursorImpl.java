@@ -0,0 +1,150 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import ch.inftec.ju.db.DbRowUtils.DbColumns;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Implementation of the DbRowCursor interface that reads the rows of an open ResultSet.
+ * <p>
+ * The connection is released using Spring's DataSourceUtils, i.e. it will only be closed
+ * if it isn't bound to a running transaction.
+ * <p>
+ * The JDBC resources are released as soon as the last row has been read, LOBs spilled to
+ * temporary files are freed when close is called explicitly.
+ * @author Martin
+ *
+ */
+final class DbRowCursorImpl implements DbRowCursor {
+	private final Connection connection;
+	private final DataSource dataSource;
+	private final Statement statement;
+	private final ResultSet rs;
+	private final DbRowResultSetHandler handler;
+	
+	/**
+	 * Columns of the result, shared by all rows of the cursor.
+	 */
+	private final DbColumns columns;
+	
+	/**
+	 * Row that has been read by hasNext, but not yet returned by next.
+	 */
+	private DbRow nextRow;
+	
+	private int rowCount = 0;
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new cursor. If the ResultSetMetaData cannot be accessed, all resources
+	 * are released.
+	 * @param connection Connection the statement was created with
+	 * @param dataSource DataSource the connection was obtained from
+	 * @param statement Statement the ResultSet was created with
+	 * @param rs Open ResultSet
+	 * @param handler Handler used to convert the values of the rows
+	 * @throws JuDbException If the cursor cannot be initialized
+	 */
+	DbRowCursorImpl(Connection connection, DataSource dataSource, Statement statement, ResultSet rs, DbRowResultSetHandler handler) throws JuDbException {
+		this.connection = connection;
+		this.dataSource = dataSource;
+		this.statement = statement;
+		this.rs = rs;
+		this.handler = handler;
+		
+		try {
+			this.columns = DbRowResultSetHandler.toDbColumns(rs.getMetaData());
+		} catch (SQLException ex) {
+			this.release();
+			throw new JuDbException("Couldn't access ResultSetMetaData", ex);
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (this.nextRow != null) return true;
+		if (this.closed) return false;
+		
+		try {
+			if (this.rs.next()) {
+				this.nextRow = DbRowUtils.newDbRow(this.columns, this.handler.toValues(this.rs, this.columns));
+				return true;
+			} else {
+				this.release();
+				return false;
+			}
+		} catch (SQLException ex) {
+			this.release();
+			throw new JuDbException("Couldn't read next row", ex);
+		}
+	}
+	
+	@Override
+	public DbRow next() {
+		if (!this.hasNext()) throw new NoSuchElementException("No more rows available");
+		
+		DbRow row = this.nextRow;
+		this.nextRow = null;
+		this.rowCount++;
+		
+		return row;
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("DbRowCursor is read only");
+	}
+	
+	@Override
+	public int getColumnCount() {
+		return this.columns.getColumnCount();
+	}
+	
+	@Override
+	public String getColumnName(int index) {
+		return this.columns.getColumnName(index);
+	}
+	
+	@Override
+	public int getColumnType(int index) {
+		return this.columns.getColumnType(index);
+	}
+	
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+	
+	@Override
+	public void close() throws JuDbException {
+		this.release();
+		this.handler.freeSpilledLobs();
+	}
+	
+	/**
+	 * Releases the ResultSet, Statement and Connection, keeping the spilled LOBs of the rows
+	 * that have been read.
+	 */
+	private void release() {
+		if (this.closed) return;
+		this.closed = true;
+		
+		JuDbUtils.closeQuietly(this.rs);
+		JuDbUtils.closeQuietly(this.statement);
+		DataSourceUtils.releaseConnection(this.connection, this.dataSource);
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "rowCount", this.rowCount, "closed", this.closed);
+	}
+}
@@ -1,62 +1,176 @@
 package ch.inftec.ju.db;
 
+import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.dbutils.ResultSetHandler;
 
-import ch.inftec.ju.db.DbRowUtils.DbRowBuilder;
+import ch.inftec.ju.db.DbRowUtils.DbColumns;
 import ch.inftec.ju.db.DbRowUtils.DbRowsImpl;
 
 /**
  * Implementation of the ResultSetHandler interface that yields a DbRows instance containing
  * all the rows of the ResultSet.
+ * <p>
+ * The column information is read once from the ResultSetMetaData and shared by all rows.
+ * Numeric columns are read using getLong and getDouble so they don't need to be boxed.
+ * <p>
+ * LOB values are handled according to the DbLob.Mode of the handler. The handler keeps track of
+ * the LOBs it spilled to temporary files, so they can be freed if reading the rows fails or when
+ * a cursor is closed.
  * @author Martin
  *
  */
 class DbRowResultSetHandler implements ResultSetHandler<DbRowsImpl> {
+	private final DbLob.Mode lobMode;
+	private final long lobSpillThreshold;
+	
+	/**
+	 * LOBs that have been spilled to temporary files.
+	 */
+	private final List<DbLob> spilledLobs = new ArrayList<>();
+	
+	/**
+	 * Creates a new handler that converts CLOBs to Strings.
+	 */
+	DbRowResultSetHandler() {
+		this(DbLob.Mode.STRING, 0);
+	}
+	
+	/**
+	 * Creates a new handler using the specified LOB mode.
+	 * @param lobMode Mode used to handle LOB values
+	 * @param lobSpillThreshold Maximum number of characters or bytes of a LOB that are kept in
+	 * memory in SPILL mode
+	 */
+	DbRowResultSetHandler(DbLob.Mode lobMode, long lobSpillThreshold) {
+		this.lobMode = lobMode;
+		this.lobSpillThreshold = lobSpillThreshold;
+	}
 
 	@Override
 	public DbRowsImpl handle(ResultSet rs) throws SQLException {
-		DbRowsImpl dbRows = new DbRowsImpl();
-		
-		ResultSetMetaData rsmd = rs.getMetaData();
-		while (rs.next()) {
-			if (rsmd == null) rsmd = rs.getMetaData();
+		try {
+			DbColumns columns = DbRowResultSetHandler.toDbColumns(rs.getMetaData());
+			DbRowsImpl dbRows = new DbRowsImpl(columns);
 			
-			DbRowBuilder rowBuilder = DbRowUtils.newDbRow();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-				rowBuilder.addValue(rsmd.getColumnName(i), rsmd.getColumnType(i), this.processValue(rs.getObject(i)));
+			while (rs.next()) {
+				this.addRow(rs, dbRows);
 			}
-			dbRows.addRow(rowBuilder.getRow());
+			
+			return dbRows;
+		} catch (SQLException | RuntimeException ex) {
+			this.freeSpilledLobs();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Frees all LOBs this handler has spilled to temporary files so far.
+	 */
+	void freeSpilledLobs() {
+		for (DbLob lob : this.spilledLobs) {
+			lob.free();
+		}
+		this.spilledLobs.clear();
+	}
+	
+	/**
+	 * Creates the DbColumns for the specified ResultSetMetaData.
+	 * @param rsmd ResultSetMetaData
+	 * @return DbColumns containing the column names and types
+	 * @throws SQLException If the meta data cannot be read
+	 */
+	static DbColumns toDbColumns(ResultSetMetaData rsmd) throws SQLException {
+		int columnCount = rsmd.getColumnCount();
+		String[] names = new String[columnCount];
+		int[] types = new int[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			names[i] = rsmd.getColumnName(i + 1);
+			types[i] = rsmd.getColumnType(i + 1);
 		}
 		
-		// Set base row if query yielded no rows
-		if (dbRows.getRowCount() == 0) {
-			DbRowBuilder rowBuilder = DbRowUtils.newDbRow();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-				rowBuilder.addValue(rsmd.getColumnName(i), rsmd.getColumnType(i), null);
+		return new DbColumns(names, types);
+	}
+	
+	/**
+	 * Adds the current row of the specified ResultSet to the DbRows.
+	 * @param rs ResultSet, positioned on a valid row
+	 * @param dbRows DbRows to add the row to
+	 * @throws SQLException If the values cannot be read
+	 */
+	private void addRow(ResultSet rs, DbRowsImpl dbRows) throws SQLException {
+		DbColumns columns = dbRows.getColumns();
+		int row = dbRows.addRow();
+		
+		for (int i = 0; i < columns.getColumnCount(); i++) {
+			switch (columns.getStorage(i)) {
+			case DbColumns.STORAGE_LONG:
+				long longValue = rs.getLong(i + 1);
+				if (rs.wasNull()) {
+					dbRows.setNull(row, i);
+				} else {
+					dbRows.setLong(row, i, longValue);
+				}
+				break;
+			case DbColumns.STORAGE_DOUBLE:
+				double doubleValue = rs.getDouble(i + 1);
+				if (rs.wasNull()) {
+					dbRows.setNull(row, i);
+				} else {
+					dbRows.setDouble(row, i, doubleValue);
+				}
+				break;
+			default:
+				dbRows.setObject(row, i, this.processValue(rs.getObject(i + 1)));
 			}
-			dbRows.setBaseRow(rowBuilder.getRow());
 		}
-		
-		return dbRows;
+	}
+	
+	/**
+	 * Reads the values of the current row of the specified ResultSet.
+	 * @param rs ResultSet, positioned on a valid row
+	 * @param columns Columns of the ResultSet
+	 * @return Array containing the values of the current row
+	 * @throws SQLException If the values cannot be read
+	 */
+	Object[] toValues(ResultSet rs, DbColumns columns) throws SQLException {
+		Object[] values = new Object[columns.getColumnCount()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.processValue(rs.getObject(i + 1));
+		}
+		return values;
 	}
 	
 	/**
 	 * Processes the value returned by the DB (if necessary) so it matches a
 	 * Java base type.
 	 * <p>
-	 * For instance, a Clob object will be converted to a String.
+	 * For instance, a Clob object will be converted to a String in STRING mode or
+	 * to a DbLob handle in the other modes.
 	 * @param obj Object to be processed
 	 * @return Processes object as a Java base type
 	 */
 	private Object processValue(Object obj) {
-		if (obj instanceof Clob) {
-			Clob clob = (Clob)obj;
-			return JuDbUtils.getClobString(clob);			
+		if (obj instanceof Clob || obj instanceof Blob) {
+			switch (this.lobMode) {
+			case LAZY:
+				return DbLobs.newLazyLob(obj);
+			case SPILL:
+				DbLob lob = obj instanceof Clob
+						? DbLobs.spill((Clob)obj, this.lobSpillThreshold)
+						: DbLobs.spill((Blob)obj, this.lobSpillThreshold);
+				if (DbLobs.isSpilledToFile(lob)) this.spilledLobs.add(lob);
+				
+				return lob;
+			default:
+				return obj instanceof Clob ? JuDbUtils.getClobString((Clob)obj) : obj;
+			}
 		} else {
 			return obj;
 		}
@@ -1,17 +1,28 @@
 package ch.inftec.ju.db;
 
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
-import ch.inftec.ju.util.JuCollectionUtils;
 import ch.inftec.ju.util.JuStringUtils;
 
 /**
  * Helper class for DbRow related objects.
+ * <p>
+ * DbRows are stored in a compact layout: All rows of a DbRows instance share one immutable
+ * DbColumns instance containing column names and types. The values are stored column wise,
+ * numeric columns as primitive arrays with a null bitmap so they can be accessed without
+ * boxing.
  * @author tgdmemae
  *
  */
@@ -24,13 +35,179 @@ public final class DbRowUtils {
 		return new DbRowBuilder();
 	}
 	
+	/**
+	 * Creates a new DbRow for the specified columns and values.
+	 * @param columns Columns of the row, may be shared among multiple rows
+	 * @param values Values of the row in the same order as the columns. The array must not
+	 * be modified after the row has been created
+	 * @return DbRow instance
+	 */
+	static DbRow newDbRow(DbColumns columns, Object[] values) {
+		return new DbRowImpl(columns, values);
+	}
+	
+	/**
+	 * Frees all DbLob handles contained in the specified rows, releasing the LOB locators of
+	 * LOBs read in LAZY mode. Should be called by the owner of the rows when they are not used
+	 * any longer.
+	 * @param rows DbRows
+	 */
+	public static void freeLobs(DbRows rows) {
+		for (DbRow row : rows) {
+			for (int i = 0; i < row.getColumnCount(); i++) {
+				Object value = DbRowUtils.getValue(row, i);
+				if (value instanceof DbLob) ((DbLob)value).free();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the value of the specified column of any DbRow. Uses index based access if the row
+	 * is a PrimitiveDbRow, the column name otherwise.
+	 * @param row DbRow
+	 * @param index Column index, starting with 0
+	 * @return Value, may be null
+	 */
+	public static Object getValue(DbRow row, int index) {
+		if (row instanceof PrimitiveDbRow) {
+			return ((PrimitiveDbRow)row).getValue(index);
+		} else {
+			return row.getValue(row.getColumnName(index));
+		}
+	}
+	
+	/**
+	 * Checks if the value of the specified column of any DbRow is null.
+	 * @param row DbRow
+	 * @param index Column index, starting with 0
+	 * @return True if the value is null
+	 */
+	public static boolean isNull(DbRow row, int index) {
+		if (row instanceof PrimitiveDbRow) {
+			return ((PrimitiveDbRow)row).isNull(index);
+		} else {
+			return DbRowUtils.getValue(row, index) == null;
+		}
+	}
+	
+	/**
+	 * Gets the value of the specified column of any DbRow as an int.
+	 * @param row DbRow
+	 * @param index Column index, starting with 0
+	 * @return Value as int or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public static int getInt(DbRow row, int index) {
+		return (int)DbRowUtils.getLong(row, index);
+	}
+	
+	/**
+	 * Gets the value of the specified column of any DbRow as a long.
+	 * @param row DbRow
+	 * @param index Column index, starting with 0
+	 * @return Value as long or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public static long getLong(DbRow row, int index) {
+		if (row instanceof PrimitiveDbRow) {
+			return ((PrimitiveDbRow)row).getLong(index);
+		} else {
+			Number number = DbRowUtils.getNumber(row, index);
+			return number == null ? 0L : number.longValue();
+		}
+	}
+	
+	/**
+	 * Gets the value of the specified column of any DbRow as a double.
+	 * @param row DbRow
+	 * @param index Column index, starting with 0
+	 * @return Value as double or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public static double getDouble(DbRow row, int index) {
+		if (row instanceof PrimitiveDbRow) {
+			return ((PrimitiveDbRow)row).getDouble(index);
+		} else {
+			Number number = DbRowUtils.getNumber(row, index);
+			return number == null ? 0.0 : number.doubleValue();
+		}
+	}
+	
+	private static Number getNumber(DbRow row, int index) {
+		Object value = DbRowUtils.getValue(row, index);
+		if (value == null || value instanceof Number) {
+			return (Number)value;
+		} else {
+			throw new IllegalArgumentException(String.format("Column %s is not numeric: %s", row.getColumnName(index), value.getClass().getName()));
+		}
+	}
+	
+	/**
+	 * Concatenates the rows of multiple DbRows instances with the same columns into one
+	 * DbRows instance, prepending a VARCHAR column containing the tag of the source of each row.
+	 * @param tagColumnName Name of the tag column
+	 * @param tags Tags of the DbRows instances
+	 * @param rowsList DbRows instances, in the same order as the tags
+	 * @return DbRows instance
+	 * @throws IllegalArgumentException If the DbRows instances don't have the same columns or
+	 * if they contain a column with the name of the tag column
+	 */
+	static DbRows concat(String tagColumnName, List<String> tags, List<? extends DbRows> rowsList) {
+		if (tags.size() != rowsList.size()) {
+			throw new IllegalArgumentException("Tags and DbRows must have the same size");
+		}
+		
+		DbRows first = rowsList.isEmpty() ? null : rowsList.get(0);
+		int columnCount = first == null ? 0 : first.getColumnCount();
+		
+		String[] names = new String[columnCount + 1];
+		int[] types = new int[columnCount + 1];
+		names[0] = tagColumnName;
+		types[0] = Types.VARCHAR;
+		for (int i = 0; i < columnCount; i++) {
+			names[i + 1] = first.getColumnName(i);
+			types[i + 1] = first.getColumnType(i);
+		}
+		
+		DbRowsImpl result = new DbRowsImpl(new DbColumns(names, types));
+		
+		for (int r = 0; r < rowsList.size(); r++) {
+			DbRows rows = rowsList.get(r);
+			if (rows.getColumnCount() != columnCount) {
+				throw new IllegalArgumentException(String.format("Expected %d columns for %s, but got %d", columnCount, tags.get(r), rows.getColumnCount()));
+			}
+			for (int i = 0; i < columnCount; i++) {
+				if (!rows.getColumnName(i).equalsIgnoreCase(names[i + 1])) {
+					throw new IllegalArgumentException(String.format("Expected column %s for %s, but got %s", names[i + 1], tags.get(r), rows.getColumnName(i)));
+				}
+			}
+			
+			for (DbRow row : rows) {
+				int rowIndex = result.addRow();
+				result.setObject(rowIndex, 0, tags.get(r));
+				for (int i = 0; i < columnCount; i++) {
+					result.setObject(rowIndex, i + 1, DbRowUtils.getValue(row, i));
+				}
+			}
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Builder to create intances of DbRow.
 	 * @author tgdmemae
 	 *
 	 */
 	public static final class DbRowBuilder {
-		private DbRowImpl dbRow = new DbRowImpl();
+		private final ArrayList<String> columnNames = new ArrayList<>();
+		private final ArrayList<Integer> columnTypes = new ArrayList<>();
+		private final ArrayList<Object> values = new ArrayList<>();
+		
+		/**
+		 * Row that has been built by getRow. Will be reset when a value is added.
+		 */
+		private DbRow dbRow;
 		
 		/**
 		 * Adds a value to the DbRow.
@@ -40,7 +217,20 @@ public final class DbRowUtils {
 		 * @return This builder to allow for chaining
 		 */
 		public DbRowBuilder addValue(String columnName, int columnType, Object value) {
-			this.dbRow.addValue(columnName, columnType, value);
+			// We will convert the column to upper case here.
+			columnName = columnName.toUpperCase();
+			
+			// Make sure we have no duplicate columns
+			if (this.columnNames.contains(columnName)) {
+				throw new IllegalArgumentException("Duplicate column name: " + columnName);
+			}
+			
+			this.columnNames.add(columnName);
+			this.columnTypes.add(columnType);
+			this.values.add(value);
+			
+			this.dbRow = null;
+			
 			return this;
 		}
 		
@@ -49,137 +239,383 @@ public final class DbRowUtils {
 		 * @return DbRow
 		 */
 		public DbRow getRow() {
+			if (this.dbRow == null) {
+				int[] types = new int[this.columnTypes.size()];
+				for (int i = 0; i < types.length; i++) {
+					types[i] = this.columnTypes.get(i);
+				}
+				
+				DbColumns columns = new DbColumns(this.columnNames.toArray(new String[0]), types);
+				this.dbRow = new DbRowImpl(columns, this.values.toArray());
+			}
+			
 			return this.dbRow;
 		}
 	}
 	
 	/**
-	 * Implementation of the DbRow interface. Note that DbRow instances are
-	 * to be immutable.
+	 * Immutable column information (names and types) of a DbRow. A DbColumns instance is
+	 * shared by all rows of a result.
 	 * @author Martin
 	 *
 	 */
-	private static class DbRowImpl implements DbRow {
+	static final class DbColumns {
 		/**
-		 * Contains the column names in order of adding, converted to all upper case.
+		 * Values are stored as objects.
 		 */
-		private ArrayList<String> columnNames = new ArrayList<String>();
+		static final int STORAGE_OBJECT = 0;
 		
 		/**
-		 * Contains the corresponding type of the columns in the same order as the names.
+		 * Values are integral numbers that can be stored as primitive longs.
 		 */
-		private ArrayList<Integer> columnTypes = new ArrayList<Integer>();
+		static final int STORAGE_LONG = 1;
 		
 		/**
-		 * Contains the corresponding values of the columns.
+		 * Values are floating point numbers that can be stored as primitive doubles.
 		 */
-		private HashMap<String, Object> values = new HashMap<String, Object>();
+		static final int STORAGE_DOUBLE = 2;
 		
 		/**
-		 * Cache of the rows hashCode.
+		 * Column names in order of the result, converted to all upper case.
 		 */
-		private Integer hashCode = null;
+		private final String[] names;
 		
 		/**
-		 * Adds a new value to the row.
-		 * @param columnName Column name. Will be converted to all upper case
-		 * @param columnType Column type as returned by the ResultSetMetaData
-		 * @param value Value of the column
+		 * Column types in the same order as the names.
 		 */
-		void addValue(String columnName, int columnType, Object value) {
-			// We will convert the column to upper case here.
-			columnName = columnName.toUpperCase();
+		private final int[] types;
+		
+		/**
+		 * Storage types of the columns, derived from the column types.
+		 */
+		private final int[] storages;
+		
+		/**
+		 * Maps upper case column names to column indexes.
+		 */
+		private final HashMap<String, Integer> indexes;
+		
+		private final int hashCode;
+		
+		/**
+		 * Creates a new DbColumns instance.
+		 * @param names Column names. Will be converted to all upper case
+		 * @param types Column types as returned by the ResultSetMetaData
+		 * @throws IllegalArgumentException If names and types don't have the same length or
+		 * if the names contain duplicates
+		 */
+		DbColumns(String[] names, int[] types) {
+			if (names.length != types.length) {
+				throw new IllegalArgumentException("Column names and types must have the same length");
+			}
 			
-			// Make sure we have no duplicate columns
-			if (this.values.containsKey(columnName)) {
-				throw new IllegalArgumentException("Duplicate column name: " + columnName);
+			this.names = new String[names.length];
+			this.types = Arrays.copyOf(types, types.length);
+			this.storages = new int[types.length];
+			this.indexes = new HashMap<>(names.length * 2);
+			
+			for (int i = 0; i < names.length; i++) {
+				this.names[i] = names[i].toUpperCase();
+				this.storages[i] = DbColumns.toStorage(types[i]);
+				if (this.indexes.put(this.names[i], i) != null) {
+					throw new IllegalArgumentException("Duplicate column name: " + this.names[i]);
+				}
 			}
 			
-			this.columnNames.add(columnName);
-			this.columnTypes.add(columnType);
-			this.values.put(columnName, value);
+			this.hashCode = 31 * Arrays.hashCode(this.names) + Arrays.hashCode(this.types);
+		}
+		
+		/**
+		 * Gets the storage type for the specified SQL type.
+		 * @param sqlType SQL type as defined in java.sql.Types
+		 * @return Storage type
+		 */
+		private static int toStorage(int sqlType) {
+			switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return DbColumns.STORAGE_LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return DbColumns.STORAGE_DOUBLE;
+			default:
+				return DbColumns.STORAGE_OBJECT;
+			}
+		}
+		
+		int getColumnCount() {
+			return this.names.length;
+		}
+		
+		String getColumnName(int index) {
+			return this.names[index];
+		}
+		
+		int getColumnType(int index) {
+			return this.types[index];
+		}
+		
+		/**
+		 * Gets the storage type of the specified column, i.e. whether values of the
+		 * column can be kept as primitive long or double values.
+		 * @param index Column index
+		 * @return One of the STORAGE_ constants
+		 */
+		int getStorage(int index) {
+			return this.storages[index];
+		}
+		
+		/**
+		 * Boxes a primitive value of a STORAGE_LONG column to the type JDBC's getObject
+		 * method would return for the column type.
+		 * @param index Column index
+		 * @param value Primitive value
+		 * @return Boxed value
+		 */
+		Object box(int index, long value) {
+			return this.types[index] == Types.BIGINT
+					? (Object)Long.valueOf(value)
+					: (Object)Integer.valueOf((int)value);
+		}
+		
+		/**
+		 * Boxes a primitive value of a STORAGE_DOUBLE column to the type JDBC's getObject
+		 * method would return for the column type.
+		 * @param index Column index
+		 * @param value Primitive value
+		 * @return Boxed value
+		 */
+		Object box(int index, double value) {
+			return this.types[index] == Types.REAL
+					? (Object)Float.valueOf((float)value)
+					: (Object)Double.valueOf(value);
+		}
+		
+		/**
+		 * Gets the index of the specified column. The lookup is case insensitive.
+		 * @param columnName Column name
+		 * @return Column index or -1 if the column name is null or doesn't exist
+		 */
+		int indexOf(String columnName) {
+			if (columnName == null) return -1;
 			
-			// Reset the HashCode (if any)
-			this.hashCode = null;
+			// Try the name as is first, so we don't need to convert upper case names
+			Integer index = this.indexes.get(columnName);
+			if (index == null) index = this.indexes.get(columnName.toUpperCase());
+			
+			return index == null ? -1 : index;
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (obj == null || !(obj instanceof DbColumns)) return false;
+			
+			DbColumns columns = (DbColumns)obj;
+			return this.hashCode == columns.hashCode
+					&& Arrays.equals(this.types, columns.types)
+					&& Arrays.equals(this.names, columns.names);
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "names", Arrays.toString(this.names));
+		}
+	}
+	
+	/**
+	 * Base class for DbRow implementations. Implements name lookup, the numeric accessors,
+	 * equals and hashCode based on getValue(int).
+	 * @author Martin
+	 *
+	 */
+	private static abstract class AbstractDbRow implements PrimitiveDbRow {
+		/**
+		 * Column information, shared among all rows of a result.
+		 */
+		protected final DbColumns columns;
+		
+		protected AbstractDbRow(DbColumns columns) {
+			this.columns = columns;
 		}
 		
 		@Override
 		public Object getValue(String columnName) {
-			if (columnName == null) return null;
-			return this.values.get(columnName.toUpperCase());
+			int index = this.columns.indexOf(columnName);
+			return index < 0 ? null : this.getValue(index);
 		}
-
+		
+		@Override
+		public boolean isNull(int index) {
+			return this.getValue(index) == null;
+		}
+		
+		@Override
+		public int getInt(int index) {
+			return (int)this.getLong(index);
+		}
+		
+		@Override
+		public long getLong(int index) {
+			Number number = DbRowUtils.getNumber(this, index);
+			return number == null ? 0L : number.longValue();
+		}
+		
+		@Override
+		public double getDouble(int index) {
+			Number number = DbRowUtils.getNumber(this, index);
+			return number == null ? 0.0 : number.doubleValue();
+		}
+		
 		@Override
 		public int getColumnCount() {
-			return this.columnNames.size();
+			return this.columns.getColumnCount();
 		}
-
+		
 		@Override
 		public String getColumnName(int index) {
-			return this.columnNames.get(index);
+			return this.columns.getColumnName(index);
 		}
-
+		
 		@Override
 		public int getColumnType(int index) {
-			return this.columnTypes.get(index);
+			return this.columns.getColumnType(index);
 		}
 		
 		@Override
 		public String toString() {
-			return JuStringUtils.toString(this, "values", this.values);
+			Map<String, Object> values = new LinkedHashMap<>();
+			for (int i = 0; i < this.getColumnCount(); i++) {
+				values.put(this.getColumnName(i), this.getValue(i));
+			}
+			
+			return JuStringUtils.toString(this, "values", values);
 		}
 		
 		@Override
 		public int hashCode() {
-			if (this.hashCode == null) {
-				HashCodeBuilder h = new HashCodeBuilder();
-				for (int i = 0; i < this.getColumnCount(); i++) {
-					h.append(this.getColumnName(i));
-					h.append(this.getColumnType(i));
-					h.append(this.getValue(this.getColumnName(i)));
-				}
-				
-				this.hashCode = h.toHashCode();
+			HashCodeBuilder h = new HashCodeBuilder();
+			for (int i = 0; i < this.getColumnCount(); i++) {
+				h.append(this.getColumnName(i));
+				h.append(this.getColumnType(i));
+				h.append(this.getValue(i));
 			}
 			
-			return this.hashCode;
+			return h.toHashCode();
 		}
 		
 		@Override
 		public boolean equals(Object obj) {
 			if (this == obj) return true;
-			if (obj == null || !(obj instanceof DbRowImpl)) return false;
-			
-			DbRowImpl row = (DbRowImpl)obj;
-			if (this.getColumnCount() == row.getColumnCount() 
-					&& this.hashCode() == row.hashCode()
-					&& JuCollectionUtils.mapEquals(this.values, row.values)) {
-				return JuCollectionUtils.collectionEquals(this.columnTypes, row.columnTypes)
-						&& JuCollectionUtils.collectionEquals(this.columnNames, row.columnNames)
-						&& JuCollectionUtils.mapEquals(this.values, row.values);
-			} else {
-				return false;
+			if (obj == null || !(obj instanceof AbstractDbRow)) return false;
+			
+			AbstractDbRow row = (AbstractDbRow)obj;
+			if (!this.columns.equals(row.columns) || this.hashCode() != row.hashCode()) return false;
+			
+			for (int i = 0; i < this.getColumnCount(); i++) {
+				if (!ObjectUtils.equals(this.getValue(i), row.getValue(i))) return false;
 			}
+			return true;
 		}
 	}
 	
 	/**
-	 * Implementation of the DbRows interface. Note that DbRow instances are
-	 * to be immutable.
+	 * Implementation of the DbRow interface that holds its values in an array. Note that
+	 * DbRow instances are to be immutable.
+	 * @author Martin
+	 *
+	 */
+	private static class DbRowImpl extends AbstractDbRow {
+		/**
+		 * Contains the values of the columns in the same order as the columns.
+		 */
+		private final Object[] values;
+		
+		/**
+		 * Cache of the rows hashCode.
+		 */
+		private Integer hashCode = null;
+		
+		private DbRowImpl(DbColumns columns, Object[] values) {
+			super(columns);
+			
+			if (columns.getColumnCount() != values.length) {
+				throw new IllegalArgumentException(String.format("Expected %d values, got %d", columns.getColumnCount(), values.length));
+			}
+			
+			this.values = values;
+		}
+		
+		@Override
+		public Object getValue(int index) {
+			return this.values[index];
+		}
+		
+		@Override
+		public int hashCode() {
+			if (this.hashCode == null) {
+				this.hashCode = super.hashCode();
+			}
+			
+			return this.hashCode;
+		}
+	}
+	
+	/**
+	 * Implementation of the DbRows interface. Values are stored column wise: Numeric columns
+	 * (see DbColumns.getStorage) are kept in primitive arrays with a BitSet marking null
+	 * values, all other columns in object arrays. DbRow instances returned by getRow and the
+	 * iterator are lightweight views on these arrays.
+	 * <p>
+	 * Rows are added using addRow and the setXxx methods. DbRows instances are to be immutable
+	 * once they have been returned to the client.
 	 * @author Martin
 	 *
 	 */
 	static class DbRowsImpl implements DbRows {
+		private static final int INITIAL_CAPACITY = 16;
+		
 		/**
-		 * The row that defines the columns of the DbRows implementation. This can either be the first row
-		 * of the result or a DbRow with empty values if the result is empty.
+		 * Columns of the DbRows instance, shared by all rows.
 		 */
-		private DbRow baseRow;
+		private final DbColumns columns;
 		
 		/**
-		 * Rows of the DbRows instance.
+		 * Values of STORAGE_OBJECT columns, indexed by column and row. Null for other columns.
 		 */
-		private ArrayList<DbRow> rows = new ArrayList<DbRow>();
+		private final Object[][] objectValues;
+		
+		/**
+		 * Values of STORAGE_LONG columns, indexed by column and row. Null for other columns.
+		 */
+		private final long[][] longValues;
+		
+		/**
+		 * Values of STORAGE_DOUBLE columns, indexed by column and row. Null for other columns.
+		 */
+		private final double[][] doubleValues;
+		
+		/**
+		 * Null bitmaps of primitive columns. A set bit means the value of the row is null.
+		 */
+		private final BitSet[] nulls;
+		
+		private int rowCount = 0;
+		private int capacity = 0;
+		
+		/**
+		 * Row views returned by getRow and the iterator, created on first access. Views are
+		 * immutable, so concurrent readers may at worst create a view twice.
+		 */
+		private ColumnarRow[] rowViews = new ColumnarRow[0];
 		
 		/**
 		 * Cache of the DbRows hashCode.
@@ -187,55 +623,169 @@ public final class DbRowUtils {
 		private Integer hashCode = null;
 		
 		/**
-		 * Adds a row to this DbRows instance. If it's the first row, it will also be used
-		 * as the base row to get column name and type information.
-		 * @param row DbRow instance
+		 * Creates a new DbRows instance with the specified columns.
+		 * @param columns Columns of the rows
 		 */
-		void addRow(DbRow row) {
-			this.rows.add(row);
+		DbRowsImpl(DbColumns columns) {
+			this.columns = columns;
 			
-			if (this.baseRow == null) this.baseRow = row;
+			int columnCount = columns.getColumnCount();
+			this.objectValues = new Object[columnCount][];
+			this.longValues = new long[columnCount][];
+			this.doubleValues = new double[columnCount][];
+			this.nulls = new BitSet[columnCount];
 			
-			this.hashCode = null;
+			for (int i = 0; i < columnCount; i++) {
+				if (columns.getStorage(i) != DbColumns.STORAGE_OBJECT) {
+					this.nulls[i] = new BitSet();
+				}
+			}
+		}
+		
+		/**
+		 * Gets the columns of this DbRows instance.
+		 * @return DbColumns
+		 */
+		DbColumns getColumns() {
+			return this.columns;
 		}
 		
 		/**
-		 * Explicitly sets the base row. This is only necessary if the DbRows instance contains no rows.
-		 * In this case, a DbRow instance with null values, but with column name and type infos has
-		 * to be set as the base row.
-		 * @param row DbRow instance, values can be null
+		 * Adds a new row. The values of the row have to be set using the setXxx methods.
+		 * @return Index of the new row
 		 */
-		void setBaseRow(DbRow row) {
-			this.baseRow = row;
+		int addRow() {
+			if (this.rowCount == this.capacity) {
+				this.capacity = Math.max(DbRowsImpl.INITIAL_CAPACITY, this.capacity * 2);
+				
+				for (int i = 0; i < this.columns.getColumnCount(); i++) {
+					switch (this.columns.getStorage(i)) {
+					case DbColumns.STORAGE_LONG:
+						this.longValues[i] = this.longValues[i] == null
+								? new long[this.capacity]
+								: Arrays.copyOf(this.longValues[i], this.capacity);
+						break;
+					case DbColumns.STORAGE_DOUBLE:
+						this.doubleValues[i] = this.doubleValues[i] == null
+								? new double[this.capacity]
+								: Arrays.copyOf(this.doubleValues[i], this.capacity);
+						break;
+					default:
+						this.objectValues[i] = this.objectValues[i] == null
+								? new Object[this.capacity]
+								: Arrays.copyOf(this.objectValues[i], this.capacity);
+					}
+				}
+			}
+			
 			this.hashCode = null;
+			
+			return this.rowCount++;
+		}
+		
+		/**
+		 * Sets the value of the specified cell. Values of primitive columns are unboxed.
+		 * @param row Row index
+		 * @param col Column index
+		 * @param value Value, may be null
+		 */
+		void setObject(int row, int col, Object value) {
+			if (value == null) {
+				this.setNull(row, col);
+				return;
+			}
+			
+			switch (this.columns.getStorage(col)) {
+			case DbColumns.STORAGE_LONG:
+				this.setLong(row, col, ((Number)value).longValue());
+				break;
+			case DbColumns.STORAGE_DOUBLE:
+				this.setDouble(row, col, ((Number)value).doubleValue());
+				break;
+			default:
+				this.objectValues[col][row] = value;
+			}
+		}
+		
+		/**
+		 * Sets the value of a STORAGE_LONG column.
+		 * @param row Row index
+		 * @param col Column index
+		 * @param value Value
+		 */
+		void setLong(int row, int col, long value) {
+			this.longValues[col][row] = value;
+			this.nulls[col].clear(row);
 		}
 		
 		/**
-		 * Gets the base row of this DbRows.
+		 * Sets the value of a STORAGE_DOUBLE column.
+		 * @param row Row index
+		 * @param col Column index
+		 * @param value Value
+		 */
+		void setDouble(int row, int col, double value) {
+			this.doubleValues[col][row] = value;
+			this.nulls[col].clear(row);
+		}
+		
+		/**
+		 * Sets the value of the specified cell to null.
+		 * @param row Row index
+		 * @param col Column index
+		 */
+		void setNull(int row, int col) {
+			if (this.columns.getStorage(col) == DbColumns.STORAGE_OBJECT) {
+				this.objectValues[col][row] = null;
+			} else {
+				this.nulls[col].set(row);
+				if (this.longValues[col] != null) this.longValues[col][row] = 0L;
+				if (this.doubleValues[col] != null) this.doubleValues[col][row] = 0.0;
+			}
+		}
+		
+		/**
+		 * Gets the base row of this DbRows, i.e. the first row or a row with null values
+		 * if the DbRows contain no rows.
 		 * @return DbRow instance, values will be null if the DbRows contain no rows
 		 */
 		DbRow getBaseRow() {
-			return this.baseRow;
+			if (this.rowCount > 0) {
+				return this.getRow(0);
+			} else {
+				return new DbRowImpl(this.columns, new Object[this.columns.getColumnCount()]);
+			}
+		}
+		
+		private Object getValue(int row, int col) {
+			switch (this.columns.getStorage(col)) {
+			case DbColumns.STORAGE_LONG:
+				return this.nulls[col].get(row) ? null : this.columns.box(col, this.longValues[col][row]);
+			case DbColumns.STORAGE_DOUBLE:
+				return this.nulls[col].get(row) ? null : this.columns.box(col, this.doubleValues[col][row]);
+			default:
+				return this.objectValues[col][row];
+			}
 		}
 		
 		@Override
 		public int getColumnCount() {
-			return this.baseRow.getColumnCount();
+			return this.columns.getColumnCount();
 		}
-
+		
 		@Override
 		public String getColumnName(int index) {
-			return this.baseRow.getColumnName(index);
+			return this.columns.getColumnName(index);
 		}
-
+		
 		@Override
 		public int getColumnType(int index) {
-			return this.baseRow.getColumnType(index);
+			return this.columns.getColumnType(index);
 		}
 		
 		@Override
 		public String toString() {
-			return JuStringUtils.toString(this, "rowsCount", this.rows.size(), "baseRow", this.baseRow);
+			return JuStringUtils.toString(this, "rowsCount", this.rowCount, "columns", this.columns);
 		}
 		
 		@Override
@@ -244,7 +794,7 @@ public final class DbRowUtils {
 				HashCodeBuilder h = new HashCodeBuilder();
 				for (int i = 0; i < this.getColumnCount(); i++) {
 					h.append(this.getColumnName(i));
-					h.append(this.getColumnType(i));				
+					h.append(this.getColumnType(i));
 				}
 				for (DbRow row : this) {
 					h.append(row);
@@ -262,24 +812,119 @@ public final class DbRowUtils {
 			if (obj == null || !(obj instanceof DbRowsImpl)) return false;
 			
 			DbRowsImpl rows = (DbRowsImpl)obj;
-			return ObjectUtils.equals(this.baseRow, rows.baseRow) 
-					&& this.hashCode() == rows.hashCode()
-					&& JuCollectionUtils.collectionEquals(this.rows, rows.rows);		
+			if (!this.columns.equals(rows.columns)
+					|| this.rowCount != rows.rowCount
+					|| this.hashCode() != rows.hashCode()) {
+				return false;
+			}
+			
+			for (int i = 0; i < this.rowCount; i++) {
+				if (!this.getRow(i).equals(rows.getRow(i))) return false;
+			}
+			return true;
 		}
-
+		
 		@Override
 		public int getRowCount() {
-			return this.rows.size();
+			return this.rowCount;
 		}
-
+		
 		@Override
 		public DbRow getRow(int i) {
-			return this.rows.get(i);
+			if (i < 0 || i >= this.rowCount) {
+				throw new IndexOutOfBoundsException(String.format("Row %d doesn't exist (rowCount: %d)", i, this.rowCount));
+			}
+			
+			ColumnarRow[] rowViews = this.rowViews;
+			if (rowViews.length < this.rowCount) {
+				rowViews = Arrays.copyOf(rowViews, this.rowCount);
+				this.rowViews = rowViews;
+			}
+			
+			ColumnarRow row = rowViews[i];
+			if (row == null) {
+				row = new ColumnarRow(i);
+				rowViews[i] = row;
+			}
+			
+			return row;
 		}
-
+		
 		@Override
 		public Iterator<DbRow> iterator() {
-			return this.rows.iterator();
+			return new Iterator<DbRow>() {
+				private int index = 0;
+				
+				@Override
+				public boolean hasNext() {
+					return this.index < DbRowsImpl.this.rowCount;
+				}
+				
+				@Override
+				public DbRow next() {
+					if (!this.hasNext()) throw new NoSuchElementException();
+					return DbRowsImpl.this.getRow(this.index++);
+				}
+				
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("DbRows are immutable");
+				}
+			};
+		}
+		
+		/**
+		 * DbRow view on a row of the DbRowsImpl. Primitive accessors read the primitive
+		 * arrays directly without boxing. The views are cached, so every row is allocated once.
+		 * @author Martin
+		 *
+		 */
+		private final class ColumnarRow extends AbstractDbRow {
+			private final int row;
+			
+			private ColumnarRow(int row) {
+				super(DbRowsImpl.this.columns);
+				
+				this.row = row;
+			}
+			
+			@Override
+			public Object getValue(int index) {
+				return DbRowsImpl.this.getValue(this.row, index);
+			}
+			
+			@Override
+			public boolean isNull(int index) {
+				if (this.columns.getStorage(index) == DbColumns.STORAGE_OBJECT) {
+					return super.isNull(index);
+				} else {
+					return DbRowsImpl.this.nulls[index].get(this.row);
+				}
+			}
+			
+			@Override
+			public long getLong(int index) {
+				switch (this.columns.getStorage(index)) {
+				case DbColumns.STORAGE_LONG:
+					return DbRowsImpl.this.longValues[index][this.row];
+				case DbColumns.STORAGE_DOUBLE:
+					return (long)DbRowsImpl.this.doubleValues[index][this.row];
+				default:
+					return super.getLong(index);
+				}
+			}
+			
+			@Override
+			public double getDouble(int index) {
+				switch (this.columns.getStorage(index)) {
+				case DbColumns.STORAGE_LONG:
+					return DbRowsImpl.this.longValues[index][this.row];
+				case DbColumns.STORAGE_DOUBLE:
+					return DbRowsImpl.this.doubleValues[index][this.row];
+				default:
+					return super.getDouble(index);
+				}
+			}
 		}
 	}
 }
@@ -3,11 +3,10 @@ package ch.inftec.ju.db;
 import java.io.BufferedReader;
 import java.sql.Clob;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -26,12 +25,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.DatabaseMetaDataCallback;
-import org.springframework.jdbc.support.JdbcUtils;
-import org.springframework.jdbc.support.MetaDataAccessException;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import ch.inftec.ju.db.DbMetaDataCache.SchemaMetaData;
 import ch.inftec.ju.util.IOUtil;
 import ch.inftec.ju.util.JuObjectUtils;
 
@@ -61,6 +58,8 @@ public class JuDbUtils {
 	
 	private EntityManagerFactory emf;
 	
+	private final DbMetaDataCache metaDataCache = new DbMetaDataCache();
+	
 	public void setEntityManagerFactory(EntityManagerFactory emf) {
 		this.emf = emf;
 	}
@@ -112,6 +111,8 @@ public class JuDbUtils {
 		});
 		
 		em.close();
+		
+		this.invalidateMetaData();
 	}
 	
 	/**
@@ -197,6 +198,18 @@ public class JuDbUtils {
 		}
 	}
 	
+	/**
+	 * Closes the specified statement, catching any SQLException that might be thrown.
+	 * @param stmt Statement to be closed
+	 */
+	public static void closeQuietly(Statement stmt) {
+		try {
+			DbUtils.close(stmt);
+		} catch (SQLException ex) {
+			log.error("Couldn't close statement", ex);
+		}
+	}
+	
 	/**
 	 * Converts the specified Clob into a String
 	 * @param clob Database Clob
@@ -222,40 +235,46 @@ public class JuDbUtils {
 		return sb.toString();
 	}
 
+	/**
+	 * Sets the time to live of the cached meta data (table names, primary keys and column names).
+	 * @param timeToLive Time to live in milliseconds. 0 to keep the meta data until it is
+	 * invalidated using invalidateMetaData. Defaults to DbMetaDataCache.DEFAULT_TIME_TO_LIVE
+	 */
+	public void setMetaDataTimeToLive(long timeToLive) {
+		this.metaDataCache.setTimeToLive(timeToLive);
+	}
+	
+	/**
+	 * Loads the meta data of all tables of the current ConnectionInfo into the cache. Can be
+	 * used to avoid meta data round trips later on, e.g. as Spring init-method.
+	 * @throws JuDbException If the meta data cannot be loaded
+	 */
+	public void warmUpMetaData() throws JuDbException {
+		this.metaDataCache.warmUp(this.connectionInfo.getName(), this.dataSource, this.connectionInfo.getSchema());
+	}
+	
+	/**
+	 * Removes the cached meta data of the current ConnectionInfo. Must be called when the
+	 * schema has been changed.
+	 */
+	public void invalidateMetaData() {
+		this.metaDataCache.invalidate(this.connectionInfo.getName());
+	}
+	
+	private SchemaMetaData getMetaData() {
+		return this.metaDataCache.getMetaData(this.connectionInfo.getName(), this.dataSource, this.connectionInfo.getSchema());
+	}
+	
 	/**
 	 * Gets a list of all table names of the DB. Table names are all upper case.
+	 * <p>
+	 * The meta data is cached per ConnectionInfo, see DbMetaDataCache.
 	 * @return List of Table names
 	 * @throws JuDbException If the list cannot be evaluated
 	 */
 	public List<String> getTableNames() throws JuDbException {
 		try {
-			@SuppressWarnings("unchecked")
-			List<String> tableNames = (List<String>) JdbcUtils.extractDatabaseMetaData(dataSource, new DatabaseMetaDataCallback() {
-				@Override
-				public Object processMetaData(DatabaseMetaData dbmd)
-						throws SQLException, MetaDataAccessException {
-					
-					ResultSet rs = dbmd.getTables(connectionInfo.getSchema(), null, null, new String[]{"TABLE"});
-					
-					List<String> tableNames = new ArrayList<>();
-					while (rs.next()) {
-						String tableName = rs.getString("TABLE_NAME").toUpperCase();
-						// We check if the TableName already exists in the list as
-						// Oracle seems to return the same table names multiple times on some
-						// Schemas...
-						if (!tableNames.contains(tableName)) {
-							tableNames.add(tableName);
-						}
-					}
-					rs.close();
-					
-					Collections.sort(tableNames);
-					
-					return tableNames;
-				}
-			});
-			
-			return tableNames;
+			return new ArrayList<>(this.getMetaData().getTableNames());
 		} catch (Exception ex) {
 			throw new JuDbException("Couldn't evaluate table names", ex);
 		}
@@ -270,32 +289,34 @@ public class JuDbUtils {
 	 */
 	public String getPrimaryColumnName(final String tableName) throws JuDbException {
 		try {
-			String columnName = (String) JdbcUtils.extractDatabaseMetaData(dataSource, new DatabaseMetaDataCallback() {
-				@Override
-				public Object processMetaData(DatabaseMetaData dbmd)
-						throws SQLException, MetaDataAccessException {
-					
-					ResultSet rs = dbmd.getPrimaryKeys(null, null, tableName.toUpperCase());
-					
-					String columnName = null;
-					if (rs.next()) columnName = rs.getString("COLUMN_NAME");
-					else throw new JuDbException("Couldn't evaluate primary key for table " + tableName);
-					
-					if (rs.next()) {
-						throw new JuDbException("Driver returned multiple primary keys for table " + tableName);
-					}
-					rs.close();
-					
-					return columnName.toUpperCase();
-				}
-			});
-			
-			return columnName;
+			return this.getMetaData().getPrimaryColumnName(tableName);
 		} catch (Exception ex) {
 			throw new JuDbException("Couldn't evaluate primary column name", ex);
 		}
 	}
 	
+	/**
+	 * Gets the names of the table's primary key columns in key sequence order. In contrast to
+	 * getPrimaryColumnName, this supports multi-column primary keys. Column names are upper case.
+	 * @param tableName Table name
+	 * @return Names of the table's primary key columns
+	 * @throws JuDbException If the primary key cannot be evaluated or the table has no primary key
+	 */
+	public List<String> getPrimaryKeyColumnNames(String tableName) throws JuDbException {
+		List<String> pkColumns;
+		try {
+			pkColumns = this.getMetaData().getPrimaryKeyColumnNames(tableName);
+		} catch (Exception ex) {
+			throw new JuDbException("Couldn't evaluate primary key column names", ex);
+		}
+		
+		if (pkColumns.size() == 0) {
+			throw new JuDbException("Couldn't evaluate primary key for table " + tableName);
+		}
+		
+		return new ArrayList<>(pkColumns);
+	}
+	
 	/**
 	 * Gets all column names of the specified table in the order they are defined, or rather in the
 	 * order the driver returns them. Column names are upper case.
@@ -305,32 +326,9 @@ public class JuDbUtils {
 	 */
 	public List<String> getColumnNames(final String tableName) throws JuDbException {
 		try {
-			@SuppressWarnings("unchecked")
-			List<String> columnNames = (List<String>) JdbcUtils.extractDatabaseMetaData(dataSource, new DatabaseMetaDataCallback() {
-				@Override
-				public Object processMetaData(DatabaseMetaData dbmd)
-						throws SQLException, MetaDataAccessException {
-					
-					ResultSet rs = dbmd.getColumns(null, null, tableName.toUpperCase(), null);
-					
-					List<String> columnNames = new ArrayList<>();
-					while (rs.next()) {
-						String columnName = rs.getString("COLUMN_NAME");
-						columnNames.add(columnName.toUpperCase());
-					}
-					rs.close();
-					
-					if (columnNames.size() == 0) {
-						throw new JuDbException("Couldn't evaluate column names for table " + tableName + ": Driver returned empty ResultSet.");
-					}
-					
-					return columnNames;
-				}
-			});
-			
-			return columnNames;
+			return new ArrayList<>(this.getMetaData().getColumnNames(tableName));
 		} catch (Exception ex) {
-			throw new JuDbException("Couldn't evaluate primary column name", ex);
+			throw new JuDbException("Couldn't evaluate column names", ex);
 		}
 	}
 
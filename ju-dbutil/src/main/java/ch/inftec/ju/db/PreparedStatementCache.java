@@ -0,0 +1,133 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * LRU cache of PreparedStatements of one JDBC connection, keyed by their SQL text.
+ * <p>
+ * When the cache reaches its maximum size, the least recently used statement is evicted
+ * and closed. All statements are closed when the cache is closed, which must happen before or
+ * when the connection is closed.
+ * <p>
+ * Instances are not thread safe, but neither are JDBC connections.
+ * @author Martin
+ *
+ */
+final class PreparedStatementCache implements AutoCloseable {
+	private final Connection connection;
+	private final int maxSize;
+	private final Counters counters;
+	
+	private final LinkedHashMap<String, PreparedStatement> statements;
+	
+	/**
+	 * Creates a new cache for the specified connection.
+	 * @param connection Connection to prepare the statements with
+	 * @param maxSize Maximum number of statements to keep open
+	 * @param counters Counters to record hits, misses and evictions
+	 */
+	PreparedStatementCache(Connection connection, final int maxSize, Counters counters) {
+		this.connection = connection;
+		this.maxSize = maxSize;
+		this.counters = counters;
+		
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (this.size() > maxSize) {
+					JuDbUtils.closeQuietly(eldest.getValue());
+					PreparedStatementCache.this.counters.evictions.incrementAndGet();
+					return true;
+				} else {
+					return false;
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Gets the connection the statements of this cache belong to.
+	 * @return Connection
+	 */
+	Connection getConnection() {
+		return this.connection;
+	}
+	
+	/**
+	 * Gets a PreparedStatement for the specified SQL. If the cache contains an open statement
+	 * for the SQL, it is returned, otherwise a new statement is prepared and cached.
+	 * <p>
+	 * The returned statement must not be closed by the caller.
+	 * @param sql SQL text
+	 * @return PreparedStatement
+	 * @throws SQLException If the statement cannot be prepared
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this.statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			this.counters.hits.incrementAndGet();
+			return stmt;
+		}
+		
+		this.counters.misses.incrementAndGet();
+		
+		stmt = this.connection.prepareStatement(sql);
+		this.statements.put(sql, stmt);
+		
+		return stmt;
+	}
+	
+	/**
+	 * Removes and closes the statement for the specified SQL, e.g. if its
+	 * execution failed.
+	 * @param sql SQL text
+	 */
+	void invalidate(String sql) {
+		JuDbUtils.closeQuietly(this.statements.remove(sql));
+	}
+	
+	/**
+	 * Closes all cached statements.
+	 */
+	@Override
+	public void close() {
+		for (PreparedStatement stmt : this.statements.values()) {
+			JuDbUtils.closeQuietly(stmt);
+		}
+		this.statements.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "size", this.statements.size(), "maxSize", this.maxSize);
+	}
+	
+	/**
+	 * Thread safe counters for hits, misses and evictions that can be shared by
+	 * multiple caches.
+	 * @author Martin
+	 *
+	 */
+	static final class Counters {
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+		
+		/**
+		 * Gets a snapshot of the current counter values.
+		 * @return StatementCacheStats
+		 */
+		StatementCacheStats getStats() {
+			return new StatementCacheStats(this.hits.get(), this.misses.get(), this.evictions.get());
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package ch.inftec.ju.db;
+
+/**
+ * DbRow that provides index based access to its values. Numeric values can be accessed without
+ * boxing using the primitive accessors getInt, getLong and getDouble. As with JDBC, these return 0
+ * for null values, so isNull has to be used to distinguish between 0 and null.
+ * <p>
+ * All DbRows created by this library implement this interface. Use the static accessors of DbRowUtils
+ * to access rows that may be implemented elsewhere.
+ * @author Martin
+ *
+ */
+public interface PrimitiveDbRow extends DbRow {
+	/**
+	 * Gets the value of the specified column.
+	 * @param index Column index, starting with 0
+	 * @return Value, may be null
+	 */
+	public Object getValue(int index);
+	
+	/**
+	 * Checks if the value of the specified column is null.
+	 * @param index Column index, starting with 0
+	 * @return True if the value is null
+	 */
+	public boolean isNull(int index);
+	
+	/**
+	 * Gets the value of the specified column as an int.
+	 * @param index Column index, starting with 0
+	 * @return Value as int or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public int getInt(int index);
+	
+	/**
+	 * Gets the value of the specified column as a long.
+	 * @param index Column index, starting with 0
+	 * @return Value as long or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public long getLong(int index);
+	
+	/**
+	 * Gets the value of the specified column as a double.
+	 * @param index Column index, starting with 0
+	 * @return Value as double or 0 if the value is null
+	 * @throws IllegalArgumentException If the column doesn't contain a numeric value
+	 */
+	public double getDouble(int index);
+}
@@ -0,0 +1,49 @@
+package ch.inftec.ju.db;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Immutable snapshot of the PreparedStatement cache counters of a DbConnection.
+ * @author Martin
+ *
+ */
+public final class StatementCacheStats {
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	
+	StatementCacheStats(long hits, long misses, long evictions) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+	
+	/**
+	 * Gets the number of statements that could be taken from the cache.
+	 * @return Number of cache hits
+	 */
+	public long getHits() {
+		return this.hits;
+	}
+	
+	/**
+	 * Gets the number of statements that had to be prepared because they weren't cached.
+	 * @return Number of cache misses
+	 */
+	public long getMisses() {
+		return this.misses;
+	}
+	
+	/**
+	 * Gets the number of statements that were closed because the cache was full.
+	 * @return Number of evictions
+	 */
+	public long getEvictions() {
+		return this.evictions;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "hits", this.hits, "misses", this.misses, "evictions", this.evictions);
+	}
+}
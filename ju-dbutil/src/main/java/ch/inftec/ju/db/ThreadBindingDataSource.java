@@ -0,0 +1,26 @@
+package ch.inftec.ju.db;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource that connects threads to different databases, depending on a binding of the thread.
+ * <p>
+ * The DbConnection runs async tasks on threads of its executor. It gets the binding of the calling
+ * thread when a task is submitted and sets it on the executor thread while the task runs, so the
+ * task connects to the same database as the calling thread.
+ * @author Martin
+ *
+ */
+public interface ThreadBindingDataSource extends DataSource {
+	/**
+	 * Gets the binding of the current thread.
+	 * @return Binding or null if the thread has none
+	 */
+	public Object getThreadBinding();
+	
+	/**
+	 * Sets the binding of the current thread.
+	 * @param binding Binding as returned by getThreadBinding, null to clear the binding
+	 */
+	public void setThreadBinding(Object binding);
+}
@@ -1,23 +1,55 @@
 package ch.inftec.ju.db.auth;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+
 import ch.inftec.ju.db.JuDbUtils;
 import ch.inftec.ju.db.auth.entity.AuthRole;
 import ch.inftec.ju.db.auth.entity.AuthUser;
 import ch.inftec.ju.db.auth.repo.AuthRoleRepo;
 import ch.inftec.ju.db.auth.repo.AuthUserRepo;
+import ch.inftec.ju.util.JuCollectionUtils;
 
 /**
  * Helper class for the AuthUser and AuthRole entities.
+ * <p>
+ * Use provisionRoles to synchronize the roles of many users at once.
+ * <p>
+ * If an AuthUserCache is available, the users whose roles are changed are invalidated.
  * @author Martin
  *
  */
 public class AuthDao {
+	/**
+	 * Maximum number of parameters of the IN lists and of statements per JDBC batch used by provisionRoles.
+	 */
+	private static final int CHUNK_SIZE = 500;
+	
 	@PersistenceContext(unitName="juAuth")
 	private EntityManager em;
 	
+	@Autowired(required=false)
+	private AuthUserCache userCache;
+	
 	/**
 	 * Adds the specified role to the User.
 	 * <p>
@@ -44,6 +76,8 @@ public class AuthDao {
 			role.getUsers().add(user);
 			userRepo.save(user);
 			roleRepo.save(role);
+			
+			this.invalidateUser(user);
 		}
 	}
 	
@@ -67,7 +101,184 @@ public class AuthDao {
 				user.getRoles().remove(role);
 				roleRepo.save(role);
 				userRepo.save(user);
+				
+				this.invalidateUser(user);
+			}
+		}
+	}
+	
+	private void invalidateUser(AuthUser user) {
+		if (this.userCache != null) {
+			this.userCache.invalidate(user.getName());
+		}
+	}
+	
+	/**
+	 * Provisions the roles of many users at once.
+	 * <p>
+	 * The mapping must contain all roles of each contained user, i.e. roles the user has, but that aren't
+	 * listed are removed. Users that aren't contained in the mapping are left untouched. Roles that don't
+	 * exist yet are created. Users that don't exist are skipped and reported in the result.
+	 * <p>
+	 * The current assignments are loaded with a few set based queries and only the difference is written
+	 * to the join table using JDBC batches. AuthUser and AuthRole entities that have already been loaded
+	 * by the EntityManager won't reflect the changes.
+	 * <p>
+	 * Must be called within a transaction.
+	 * @param userRoles Mapping of user names to all their role names
+	 * @return RoleProvisioningResult describing the changes
+	 */
+	public RoleProvisioningResult provisionRoles(Map<String, ? extends Collection<String>> userRoles) {
+		if (userRoles.isEmpty()) {
+			return new RoleProvisioningResult(new TreeSet<String>(), new TreeMap<String, Set<String>>(),
+					new TreeMap<String, Set<String>>(), new TreeSet<String>());
+		}
+		
+		// Resolve the IDs of the users. For large mappings, we read all users as long IN lists are slow.
+		String userQry = "select u.name, u.id from AuthUser u";
+		List<Object[]> userRows = userRoles.size() <= AuthDao.CHUNK_SIZE
+				? this.em.createQuery(userQry + " where u.name in :names", Object[].class)
+						.setParameter("names", new ArrayList<>(userRoles.keySet()))
+						.getResultList()
+				: this.em.createQuery(userQry, Object[].class).getResultList();
+		
+		Map<String, Long> userIds = new HashMap<>();
+		for (Object[] row : userRows) {
+			if (userRoles.containsKey(row[0])) {
+				userIds.put((String) row[0], (Long) row[1]);
+			}
+		}
+		
+		Set<String> unknownUsers = new TreeSet<>(userRoles.keySet());
+		unknownUsers.removeAll(userIds.keySet());
+		
+		// Resolve the IDs of the roles, creating the missing ones. There are few roles, so we load all of them.
+		Map<String, Long> roleIds = new HashMap<>();
+		for (Object[] row : this.em.createQuery("select r.name, r.id from AuthRole r", Object[].class).getResultList()) {
+			roleIds.put((String) row[0], (Long) row[1]);
+		}
+		
+		Map<String, AuthRole> newRoles = new TreeMap<>();
+		for (String userName : userIds.keySet()) {
+			for (String roleName : JuCollectionUtils.emptyForNull(userRoles.get(userName))) {
+				if (!roleIds.containsKey(roleName) && !newRoles.containsKey(roleName)) {
+					AuthRole role = new AuthRole();
+					role.setName(roleName);
+					this.em.persist(role);
+					newRoles.put(roleName, role);
+				}
 			}
 		}
+		
+		// Write pending changes (including the new roles) before we access the join table
+		this.em.flush();
+		
+		Map<Long, String> roleNames = new HashMap<>();
+		for (AuthRole role : newRoles.values()) {
+			roleIds.put(role.getName(), role.getId());
+		}
+		for (Map.Entry<String, Long> roleId : roleIds.entrySet()) {
+			roleNames.put(roleId.getValue(), roleId.getKey());
+		}
+		
+		// Load the current assignments
+		String assignmentQry = "select u.id, r.id from AuthUser u join u.roles r";
+		List<Object[]> assignmentRows;
+		if (userIds.isEmpty()) {
+			assignmentRows = Collections.emptyList();
+		} else if (userIds.size() <= AuthDao.CHUNK_SIZE) {
+			assignmentRows = this.em.createQuery(assignmentQry + " where u.id in :ids", Object[].class)
+					.setParameter("ids", new ArrayList<>(userIds.values()))
+					.getResultList();
+		} else {
+			assignmentRows = this.em.createQuery(assignmentQry, Object[].class).getResultList();
+		}
+		
+		Map<Long, Set<Long>> currentRoleIds = new HashMap<>();
+		for (Object[] row : assignmentRows) {
+			Set<Long> roles = currentRoleIds.get(row[0]);
+			if (roles == null) {
+				roles = new HashSet<>();
+				currentRoleIds.put((Long) row[0], roles);
+			}
+			roles.add((Long) row[1]);
+		}
+		
+		// Compute the difference
+		List<Long[]> inserts = new ArrayList<>();
+		List<Long[]> deletes = new ArrayList<>();
+		Map<String, Set<String>> addedRoles = new TreeMap<>();
+		Map<String, Set<String>> removedRoles = new TreeMap<>();
+		
+		for (Map.Entry<String, Long> user : userIds.entrySet()) {
+			Set<Long> targetRoles = new HashSet<>();
+			for (String roleName : JuCollectionUtils.emptyForNull(userRoles.get(user.getKey()))) {
+				targetRoles.add(roleIds.get(roleName));
+			}
+			Set<Long> currentRoles = currentRoleIds.containsKey(user.getValue())
+					? currentRoleIds.get(user.getValue())
+					: Collections.<Long>emptySet();
+			
+			for (Long roleId : targetRoles) {
+				if (!currentRoles.contains(roleId)) {
+					inserts.add(new Long[] {user.getValue(), roleId});
+					AuthDao.addRoleName(addedRoles, user.getKey(), roleNames.get(roleId));
+				}
+			}
+			for (Long roleId : currentRoles) {
+				if (!targetRoles.contains(roleId)) {
+					deletes.add(new Long[] {user.getValue(), roleId});
+					AuthDao.addRoleName(removedRoles, user.getKey(), roleNames.get(roleId));
+				}
+			}
+		}
+		
+		// Apply it, using the join table of the AuthUser mapping
+		AbstractCollectionPersister rolesPersister = (AbstractCollectionPersister)this.em.unwrap(Session.class)
+				.getSessionFactory().getCollectionMetadata(AuthUser.class.getName() + ".roles");
+		String joinTable = rolesPersister.getTableName();
+		String userColumn = rolesPersister.getKeyColumnNames()[0];
+		String roleColumn = rolesPersister.getElementColumnNames()[0];
+		
+		this.executeBatches(String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", joinTable, userColumn, roleColumn), deletes);
+		this.executeBatches(String.format("INSERT INTO %s (%s, %s) VALUES (?, ?)", joinTable, userColumn, roleColumn), inserts);
+		
+		if (this.userCache != null) {
+			Set<String> changedUsers = new HashSet<>(addedRoles.keySet());
+			changedUsers.addAll(removedRoles.keySet());
+			if (!changedUsers.isEmpty()) this.userCache.invalidate(changedUsers);
+		}
+		
+		return new RoleProvisioningResult(new TreeSet<>(newRoles.keySet()), addedRoles, removedRoles, unknownUsers);
+	}
+	
+	private static void addRoleName(Map<String, Set<String>> userRoles, String userName, String roleName) {
+		Set<String> roleNames = userRoles.get(userName);
+		if (roleNames == null) {
+			roleNames = new TreeSet<>();
+			userRoles.put(userName, roleNames);
+		}
+		roleNames.add(roleName);
+	}
+	
+	private void executeBatches(final String sql, final List<Long[]> rows) {
+		if (rows.isEmpty()) return;
+		
+		JuDbUtils.doWork(this.em, new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+					for (int i = 0; i < rows.size(); i++) {
+						stmt.setLong(1, rows.get(i)[0]);
+						stmt.setLong(2, rows.get(i)[1]);
+						stmt.addBatch();
+						
+						if ((i + 1) % AuthDao.CHUNK_SIZE == 0) stmt.executeBatch();
+					}
+					
+					if (rows.size() % AuthDao.CHUNK_SIZE != 0) stmt.executeBatch();
+				}
+			}
+		});
 	}
 }
@@ -0,0 +1,231 @@
+package ch.inftec.ju.db.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.inftec.ju.db.auth.entity.AuthRole;
+import ch.inftec.ju.db.auth.entity.AuthUser;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Bounded cache of the users and their roles as resolved by the JuUserDetailsService.
+ * <p>
+ * Define an instance as Spring bean to enable caching. The JuUserDetailsService, the AuthenticationEditorModel
+ * and the AuthDao will pick it up automatically. The AuthenticationEditorModel and the AuthDao invalidate the
+ * entries of the users whose roles they change or that they delete. The invalidation is repeated after the current
+ * transaction completes as lookups running concurrently may have cached the state from before the change.
+ * <p>
+ * Changes made by other means (e.g. by another application on the same database) aren't noticed. The
+ * time to live limits how long such changes (and the rare lookup that was still running when the transaction
+ * completed) may be ignored.
+ * <p>
+ * When the cache reaches its maximum size, the least recently used user is evicted.
+ * <p>
+ * Instances are thread safe.
+ * @author Martin
+ *
+ */
+public class AuthUserCache {
+	/**
+	 * Default maximum number of cached users.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	/**
+	 * Default time to live in milliseconds (5 minutes).
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000L;
+	
+	private volatile int maxSize = AuthUserCache.DEFAULT_MAX_SIZE;
+	private volatile long timeToLive = AuthUserCache.DEFAULT_TIME_TO_LIVE;
+	
+	private final LinkedHashMap<String, CachedUser> users = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+			return this.size() > AuthUserCache.this.maxSize;
+		}
+	};
+	
+	/**
+	 * Sets the maximum number of cached users.
+	 * @param maxSize Maximum size, defaults to DEFAULT_MAX_SIZE
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Sets the time to live of the cached users. After this time, the user will be
+	 * reloaded on the next access.
+	 * @param timeToLive Time to live in milliseconds, defaults to DEFAULT_TIME_TO_LIVE
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Gets the cached user with the specified name.
+	 * @param userName User name
+	 * @return CachedUser or null if the user isn't cached or has expired
+	 */
+	public CachedUser get(String userName) {
+		synchronized (this.users) {
+			CachedUser user = this.users.get(userName);
+			if (user != null && user.isExpired(this.timeToLive)) {
+				this.users.remove(userName);
+				return null;
+			}
+			
+			return user;
+		}
+	}
+	
+	/**
+	 * Caches a snapshot of the specified user and its roles.
+	 * @param authUser AuthUser with loaded roles
+	 * @return CachedUser
+	 */
+	public CachedUser put(AuthUser authUser) {
+		CachedUser user = new CachedUser(authUser);
+		synchronized (this.users) {
+			this.users.put(user.getName(), user);
+		}
+		
+		return user;
+	}
+	
+	/**
+	 * Removes the specified user from the cache.
+	 * <p>
+	 * If a transaction is active, the user is removed again after the transaction has completed.
+	 * @param userName User name
+	 */
+	public void invalidate(String userName) {
+		this.invalidate(Collections.singleton(userName));
+	}
+	
+	/**
+	 * Removes the specified users from the cache.
+	 * <p>
+	 * If a transaction is active, the users are removed again after the transaction has completed.
+	 * @param userNames User names
+	 */
+	public void invalidate(final Collection<String> userNames) {
+		this.remove(userNames);
+		
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					AuthUserCache.this.remove(userNames);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Removes all users from the cache.
+	 */
+	public void invalidateAll() {
+		synchronized (this.users) {
+			this.users.clear();
+		}
+	}
+	
+	private void remove(Collection<String> userNames) {
+		synchronized (this.users) {
+			for (String userName : userNames) {
+				this.users.remove(userName);
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		synchronized (this.users) {
+			return JuStringUtils.toString(this, "size", this.users.size(), "maxSize", this.maxSize, "timeToLive", this.timeToLive);
+		}
+	}
+	
+	/**
+	 * Immutable snapshot of a user and its roles.
+	 * @author Martin
+	 *
+	 */
+	public static final class CachedUser {
+		private final Long id;
+		private final String name;
+		private final String password;
+		private final List<GrantedAuthority> authorities;
+		private final long loadTime = System.currentTimeMillis();
+		
+		CachedUser(AuthUser authUser) {
+			this.id = authUser.getId();
+			this.name = authUser.getName();
+			this.password = authUser.getPassword();
+			
+			List<GrantedAuthority> authorities = new ArrayList<>();
+			for (AuthRole authRole : authUser.getRoles()) {
+				authorities.add(new SimpleGrantedAuthority(authRole.getName()));
+			}
+			this.authorities = Collections.unmodifiableList(authorities);
+		}
+		
+		private boolean isExpired(long timeToLive) {
+			return timeToLive > 0 && System.currentTimeMillis() - this.loadTime > timeToLive;
+		}
+		
+		/**
+		 * Gets the ID of the AuthUser.
+		 * @return ID
+		 */
+		public Long getId() {
+			return this.id;
+		}
+		
+		/**
+		 * Gets the user name.
+		 * @return User name
+		 */
+		public String getName() {
+			return this.name;
+		}
+		
+		/**
+		 * Gets the authorities, i.e. the roles of the user.
+		 * @return Unmodifiable list of authorities
+		 */
+		public List<GrantedAuthority> getAuthorities() {
+			return this.authorities;
+		}
+		
+		/**
+		 * Creates new UserDetails for the user.
+		 * <p>
+		 * A new instance is created on every call as Spring Security may erase the credentials
+		 * of the returned instance after the authentication.
+		 * @return UserDetails
+		 */
+		public UserDetails toUserDetails() {
+			return new User(this.name, this.password, this.authorities);
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "id", this.id, "name", this.name, "authorities", this.authorities);
+		}
+	}
+}
@@ -1,16 +1,27 @@
 package ch.inftec.ju.db.auth;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.db.JuDbUtils;
+import ch.inftec.ju.db.auth.LoginCountBuffer.LoginCount;
 import ch.inftec.ju.db.auth.entity.AuthRole;
 import ch.inftec.ju.db.auth.entity.AuthUser;
 import ch.inftec.ju.db.auth.repo.AuthUserRepo;
@@ -21,6 +32,8 @@ import ch.inftec.ju.util.JuRuntimeException;
  * Model to manage users and roles for Authentication Services.
  * <p>
  * This class works with the AuthUser and AuthRole entities.
+ * <p>
+ * If an AuthUserCache is available, the users that are deleted or whose roles are changed are invalidated.
  * 
  * @author Martin
  *
@@ -39,6 +52,9 @@ public class AuthenticationEditorModel {
 	@Autowired
 	private AuthDao authDao;
 	
+	@Autowired(required=false)
+	private AuthUserCache userCache;
+	
 	/**
 	 * Gets a list of all available users.
 	 * @return List of users, sorted by the UserName
@@ -90,6 +106,7 @@ public class AuthenticationEditorModel {
 		AuthUser user = this.getUser(userName);
 		if (user != null) {
 			this.userRepo.delete(user);
+			this.invalidateUser(userName);
 		}
 	}
 	
@@ -113,11 +130,7 @@ public class AuthenticationEditorModel {
 	 * @return AuthUser instance or null if the user doesn't exist
 	 */
 	public AuthUser getUser(String userName) {
-		// Make sure the user doesn't exist yet
-		for (AuthUser user : this.getUsers()) {
-			if (user.getName().equals(userName)) return user;
-		}
-		return null;
+		return this.userRepo.getByName(userName);
 	}
 	
 	/**
@@ -171,11 +184,93 @@ public class AuthenticationEditorModel {
 		for (String role : JuCollectionUtils.emptyForNull(currentRoles)) {
 			this.authDao.removeRole(user, role);
 		}
+		
+		this.invalidateUser(user.getName());
 	}
 	
+	/**
+	 * Provisions the roles of many users at once, creating missing roles.
+	 * <p>
+	 * See AuthDao.provisionRoles.
+	 * @param userRoles Mapping of user names to all their role names
+	 * @return RoleProvisioningResult describing the changes
+	 */
+	public RoleProvisioningResult provisionRoles(Map<String, ? extends Collection<String>> userRoles) {
+		return this.authDao.provisionRoles(userRoles);
+	}
+	
+	/**
+	 * Increments the login count and sets the last login of the specified user.
+	 * <p>
+	 * The JuUserDetailsService records the logins in a LoginCountBuffer instead if one is available.
+	 * @param user AuthUser
+	 */
 	public void updateLoginCount(AuthUser user) {
 		user.setLastLogin(new Date());
 		user.setLoginCount(user.getLoginCount() != null ? user.getLoginCount() + 1 : 1);
 		this.userRepo.save(user);
 	}
+	
+	/**
+	 * Increments the login count and sets the last login of the user with the specified ID.
+	 * <p>
+	 * Uses a single update statement, so the user doesn't need to be loaded.
+	 * @param userId ID of the AuthUser
+	 */
+	public void updateLoginCount(Long userId) {
+		this.em.createQuery("update AuthUser u set u.loginCount = coalesce(u.loginCount, 0) + 1, u.lastLogin = :lastLogin where u.id = :id")
+			.setParameter("lastLogin", new Date())
+			.setParameter("id", userId)
+			.executeUpdate();
+	}
+	
+	/**
+	 * Adds the specified logins to the login counts and sets the last logins of the users.
+	 * <p>
+	 * All users are updated in one JDBC batch. The table and column names are taken from the
+	 * Hibernate mapping of AuthUser.
+	 * @param loginCounts Coalesced logins, e.g. collected by a LoginCountBuffer
+	 */
+	public void updateLoginCounts(final List<LoginCount> loginCounts) {
+		final String update = this.getLoginCountsUpdateSql();
+		
+		JuDbUtils.doWork(this.em, new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				try (PreparedStatement stmt = connection.prepareStatement(update)) {
+					for (LoginCount loginCount : loginCounts) {
+						stmt.setInt(1, loginCount.getCount());
+						stmt.setTimestamp(2, new Timestamp(loginCount.getLastLogin()));
+						stmt.setLong(3, loginCount.getUserId());
+						stmt.addBatch();
+					}
+					
+					stmt.executeBatch();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Creates the SQL statement to add logins to the login count of a user, using the
+	 * table and column names of the AuthUser mapping.
+	 * @return SQL with place holders for the login count, the last login and the user ID
+	 */
+	private String getLoginCountsUpdateSql() {
+		AbstractEntityPersister persister = (AbstractEntityPersister)this.em.unwrap(Session.class)
+				.getSessionFactory().getClassMetadata(AuthUser.class);
+		
+		String loginCountColumn = persister.getPropertyColumnNames("loginCount")[0];
+		String lastLoginColumn = persister.getPropertyColumnNames("lastLogin")[0];
+		String idColumn = persister.getIdentifierColumnNames()[0];
+		
+		return String.format("UPDATE %s SET %s = COALESCE(%s, 0) + ?, %s = ? WHERE %s = ?",
+				persister.getTableName(), loginCountColumn, loginCountColumn, lastLoginColumn, idColumn);
+	}
+	
+	private void invalidateUser(String userName) {
+		if (this.userCache != null) {
+			this.userCache.invalidate(userName);
+		}
+	}
 }
@@ -1,18 +1,12 @@
 package ch.inftec.ju.db.auth;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
+import ch.inftec.ju.db.auth.AuthUserCache.CachedUser;
 import ch.inftec.ju.db.auth.UnknownUserHandler.NewUserInfo;
-import ch.inftec.ju.db.auth.entity.AuthRole;
 import ch.inftec.ju.db.auth.entity.AuthUser;
 
 /**
@@ -31,6 +25,13 @@ import ch.inftec.ju.db.auth.entity.AuthUser;
  * The service will close the connection when it's done with the lookup.
  * <p>
  * An optional UnknownUserHandler implementation can be injected to handle unknown users.
+ * <p>
+ * If an AuthUserCache is available, the users and their roles are cached and only the login
+ * count is updated in the database for cached users. Users that don't exist aren't cached, so the
+ * UnknownUserHandler is consulted on every lookup of an unknown user.
+ * <p>
+ * If a LoginCountBuffer is available, the logins are recorded there and written to the database
+ * asynchronously. Together with an AuthUserCache, repeated logins don't access the database at all.
  * @author Martin
  *
  */
@@ -38,11 +39,25 @@ public class JuUserDetailsService implements UserDetailsService {
 	@Autowired(required=false)
 	private UnknownUserHandler unknownUserHandler;
 	
+	@Autowired(required=false)
+	private AuthUserCache userCache;
+	
+	@Autowired(required=false)
+	private LoginCountBuffer loginCountBuffer;
+	
 	@Autowired
 	private AuthenticationEditorModel authenticationEditorModel;
 	
 	@Override
 	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+		if (this.userCache != null) {
+			CachedUser cachedUser = this.userCache.get(username);
+			if (cachedUser != null) {
+				this.countLogin(cachedUser.getId());
+				return cachedUser.toUserDetails();
+			}
+		}
+		
 		AuthUser authUser = this.authenticationEditorModel.getUser(username);
 		
 		if (authUser == null) {
@@ -58,17 +73,24 @@ public class JuUserDetailsService implements UserDetailsService {
 			if (authUser == null) {
 				throw new UsernameNotFoundException("No such user: " + username);
 			}
+		} else if (this.loginCountBuffer != null) {
+			this.loginCountBuffer.recordLogin(authUser.getId());
 		} else {
 			this.authenticationEditorModel.updateLoginCount(authUser);
 		}
 		
-		List<GrantedAuthority> grantedAuths = new ArrayList<>();
-		for (AuthRole authRole : authUser.getRoles()) {
-			grantedAuths.add(new SimpleGrantedAuthority(authRole.getName()));
-		}
-		
-		User user = new User(username, authUser.getPassword(), grantedAuths);
+		CachedUser user = this.userCache != null
+				? this.userCache.put(authUser)
+				: new AuthUserCache.CachedUser(authUser);
 		
-		return user;
+		return user.toUserDetails();
+	}
+	
+	private void countLogin(Long userId) {
+		if (this.loginCountBuffer != null) {
+			this.loginCountBuffer.recordLogin(userId);
+		} else {
+			this.authenticationEditorModel.updateLoginCount(userId);
+		}
 	}
 }
@@ -0,0 +1,242 @@
+package ch.inftec.ju.db.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Collects the logins of users in memory and writes them to the database periodically.
+ * <p>
+ * Define an instance as Spring bean to take the login count updates off the login path. The
+ * JuUserDetailsService will pick it up automatically and only record the logins here. The logins are
+ * coalesced per user and written by AuthenticationEditorModel.updateLoginCounts in one batched
+ * update every flush interval.
+ * <p>
+ * Logins recorded since the last flush are lost if the application terminates without destroying the
+ * bean, so the flush interval bounds the loss. If a flush fails, the logins are kept and written by the
+ * next flush.
+ * <p>
+ * Instances are thread safe.
+ * @author Martin
+ *
+ */
+public class LoginCountBuffer {
+	private final Logger logger = LoggerFactory.getLogger(LoginCountBuffer.class);
+	
+	/**
+	 * Default flush interval in milliseconds.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+	
+	@Autowired
+	private AuthenticationEditorModel authenticationEditorModel;
+	
+	private final ConcurrentHashMap<Long, PendingLogins> pendingLogins = new ConcurrentHashMap<>();
+	
+	private long flushInterval = LoginCountBuffer.DEFAULT_FLUSH_INTERVAL;
+	private ScheduledExecutorService flushExecutor;
+	
+	/**
+	 * Sets the interval of the periodic flushes.
+	 * @param flushInterval Flush interval in milliseconds, defaults to DEFAULT_FLUSH_INTERVAL
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+	
+	/**
+	 * Starts the periodic flushes.
+	 */
+	@PostConstruct
+	public synchronized void start() {
+		if (this.flushExecutor != null) return;
+		
+		this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "LoginCountBuffer-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.flushExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					LoginCountBuffer.this.flush();
+				} catch (RuntimeException ex) {
+					// Don't cancel the periodic flushes, the logins are flushed with the next run
+					LoginCountBuffer.this.logger.warn("Couldn't flush login counts", ex);
+				}
+			}
+		}, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the periodic flushes and flushes the pending logins.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (this.flushExecutor != null) {
+			this.flushExecutor.shutdown();
+			this.flushExecutor = null;
+		}
+		
+		this.flush();
+	}
+	
+	/**
+	 * Records a login of the specified user.
+	 * <p>
+	 * Doesn't access the database.
+	 * @param userId ID of the AuthUser
+	 */
+	public void recordLogin(Long userId) {
+		this.addLogins(userId, 1, System.currentTimeMillis());
+	}
+	
+	private void addLogins(Long userId, int count, long loginTime) {
+		while (true) {
+			PendingLogins logins = this.pendingLogins.get(userId);
+			if (logins == null) {
+				logins = new PendingLogins();
+				PendingLogins existingLogins = this.pendingLogins.putIfAbsent(userId, logins);
+				if (existingLogins != null) logins = existingLogins;
+			}
+			
+			if (logins.add(count, loginTime)) return;
+			
+			// The logins have just been drained by a flush, so retry with new ones
+			this.pendingLogins.remove(userId, logins);
+		}
+	}
+	
+	/**
+	 * Writes the pending logins to the database.
+	 * <p>
+	 * Is called periodically, but may also be called explicitly.
+	 * @return Number of users whose login count was updated
+	 */
+	public int flush() {
+		List<LoginCount> loginCounts = new ArrayList<>();
+		for (Map.Entry<Long, PendingLogins> entry : this.pendingLogins.entrySet()) {
+			PendingLogins logins = entry.getValue();
+			
+			int count = logins.drain();
+			this.pendingLogins.remove(entry.getKey(), logins);
+			
+			if (count > 0) {
+				loginCounts.add(new LoginCount(entry.getKey(), count, logins.lastLogin));
+			}
+		}
+		
+		if (loginCounts.isEmpty()) return 0;
+		
+		try {
+			this.authenticationEditorModel.updateLoginCounts(loginCounts);
+		} catch (RuntimeException ex) {
+			// Keep the logins for the next flush
+			for (LoginCount loginCount : loginCounts) {
+				this.addLogins(loginCount.getUserId(), loginCount.getCount(), loginCount.getLastLogin());
+			}
+			throw ex;
+		}
+		
+		this.logger.debug("Flushed login counts of {} users", loginCounts.size());
+		return loginCounts.size();
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "pendingUsers", this.pendingLogins.size(), "flushInterval", this.flushInterval);
+	}
+	
+	/**
+	 * Logins of a user since the last flush. Once drained by a flush, no more logins can be added
+	 * and the instance must be replaced.
+	 */
+	private static final class PendingLogins {
+		private final AtomicInteger count = new AtomicInteger();
+		private volatile long lastLogin;
+		
+		private boolean add(int count, long loginTime) {
+			// Set the time first so the flush doesn't see a count without its time
+			if (loginTime > this.lastLogin) this.lastLogin = loginTime;
+			
+			while (true) {
+				int current = this.count.get();
+				if (current < 0) return false;
+				if (this.count.compareAndSet(current, current + count)) return true;
+			}
+		}
+		
+		/**
+		 * Drains the logins.
+		 * @return Number of logins
+		 */
+		private int drain() {
+			return this.count.getAndSet(-1);
+		}
+	}
+	
+	/**
+	 * Coalesced logins of a user.
+	 * @author Martin
+	 *
+	 */
+	public static final class LoginCount {
+		private final Long userId;
+		private final int count;
+		private final long lastLogin;
+		
+		LoginCount(Long userId, int count, long lastLogin) {
+			this.userId = userId;
+			this.count = count;
+			this.lastLogin = lastLogin;
+		}
+		
+		/**
+		 * Gets the ID of the AuthUser.
+		 * @return ID
+		 */
+		public Long getUserId() {
+			return this.userId;
+		}
+		
+		/**
+		 * Gets the number of logins.
+		 * @return Number of logins
+		 */
+		public int getCount() {
+			return this.count;
+		}
+		
+		/**
+		 * Gets the time of the last login.
+		 * @return Time in milliseconds
+		 */
+		public long getLastLogin() {
+			return this.lastLogin;
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "userId", this.userId, "count", this.count, "lastLogin", this.lastLogin);
+		}
+	}
+}
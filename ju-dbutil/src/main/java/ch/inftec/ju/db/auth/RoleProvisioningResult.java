@@ -0,0 +1,102 @@
+package ch.inftec.ju.db.auth;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Immutable result of a bulk role provisioning, see AuthDao.provisionRoles.
+ * @author Martin
+ *
+ */
+public final class RoleProvisioningResult {
+	private final Set<String> createdRoles;
+	private final Map<String, Set<String>> addedRoles;
+	private final Map<String, Set<String>> removedRoles;
+	private final Set<String> unknownUsers;
+	private final int addedAssignmentCount;
+	private final int removedAssignmentCount;
+	
+	RoleProvisioningResult(Set<String> createdRoles, Map<String, Set<String>> addedRoles, Map<String, Set<String>> removedRoles,
+			Set<String> unknownUsers) {
+		this.createdRoles = Collections.unmodifiableSet(createdRoles);
+		this.addedRoles = Collections.unmodifiableMap(addedRoles);
+		this.removedRoles = Collections.unmodifiableMap(removedRoles);
+		this.unknownUsers = Collections.unmodifiableSet(unknownUsers);
+		this.addedAssignmentCount = RoleProvisioningResult.countRoles(addedRoles);
+		this.removedAssignmentCount = RoleProvisioningResult.countRoles(removedRoles);
+	}
+	
+	private static int countRoles(Map<String, Set<String>> userRoles) {
+		int count = 0;
+		for (Set<String> roles : userRoles.values()) {
+			count += roles.size();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the roles that didn't exist and have been created.
+	 * @return Set of role names
+	 */
+	public Set<String> getCreatedRoles() {
+		return this.createdRoles;
+	}
+	
+	/**
+	 * Gets the roles that have been assigned to the users.
+	 * @return Map of user names to the added role names, only containing users that got new roles
+	 */
+	public Map<String, Set<String>> getAddedRoles() {
+		return this.addedRoles;
+	}
+	
+	/**
+	 * Gets the roles that have been removed from the users.
+	 * @return Map of user names to the removed role names, only containing users that lost roles
+	 */
+	public Map<String, Set<String>> getRemovedRoles() {
+		return this.removedRoles;
+	}
+	
+	/**
+	 * Gets the users of the mapping that don't exist. Their roles haven't been provisioned.
+	 * @return Set of user names
+	 */
+	public Set<String> getUnknownUsers() {
+		return this.unknownUsers;
+	}
+	
+	/**
+	 * Gets the total number of roles assigned to users.
+	 * @return Number of added user role assignments
+	 */
+	public int getAddedAssignmentCount() {
+		return this.addedAssignmentCount;
+	}
+	
+	/**
+	 * Gets the total number of roles removed from users.
+	 * @return Number of removed user role assignments
+	 */
+	public int getRemovedAssignmentCount() {
+		return this.removedAssignmentCount;
+	}
+	
+	/**
+	 * Checks whether anything has been changed.
+	 * @return True if roles have been created, assigned or removed
+	 */
+	public boolean hasChanges() {
+		return !this.createdRoles.isEmpty() || this.addedAssignmentCount > 0 || this.removedAssignmentCount > 0;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "createdRoles", this.createdRoles.size(), "addedAssignments", this.addedAssignmentCount,
+				"removedAssignments", this.removedAssignmentCount, "unknownUsers", this.unknownUsers.size());
+	}
+}
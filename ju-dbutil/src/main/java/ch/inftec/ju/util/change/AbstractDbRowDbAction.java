@@ -1,14 +1,19 @@
 package ch.inftec.ju.util.change;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
 
 import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.DbKeyUtils;
 import ch.inftec.ju.db.DbRow;
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.util.JuRuntimeException;
 import ch.inftec.ju.util.JuStringUtils;
 import ch.inftec.ju.util.XString;
 import ch.inftec.ju.util.general.Descriptor;
@@ -60,10 +65,31 @@ abstract class AbstractDbRowDbAction implements DbAction {
 	}
 	
 	/**
-	 * Extending classes must implement this method that will perform the
-	 * DB changes.
+	 * Extending classes must implement this method to create the SQL statement
+	 * that performs the DB changes.
+	 * <p>
+	 * Actions with equal SQL can be executed in one JDBC batch, see DbActionBatch.
+	 * @return SqlStatement or null if the action doesn't need to change anything
 	 */
-	abstract protected void execute();
+	abstract SqlStatement createStatement();
+	
+	/**
+	 * Performs the DB changes of this action.
+	 */
+	protected final void execute() {
+		SqlStatement statement = null;
+		try {
+			statement = this.createStatement();
+			if (statement == null) return;
+			
+			int res = this.getDbConnection().getQueryRunner().update(statement.getSql(), statement.getParams());
+			if (res != 1) throw new JuDbException("Execution of query returned " + res + ", expected 1: " + statement.getSql());
+		} catch (Exception ex) {
+			String operation = statement == null ? DbChangeUtils.TYPE_HANDLER.getTypeName(this) : statement.getOperation();
+			String sql = statement == null ? null : statement.getSql();
+			throw new JuRuntimeException(String.format("Failed to execute %s: %s", operation, sql), ex);
+		}
+	}
 	
 	@Override
 	public final Descriptor getDescriptor() {
@@ -72,7 +98,7 @@ abstract class AbstractDbRowDbAction implements DbAction {
 				String.format("%s(%s.%s)", 
 						DbChangeUtils.TYPE_HANDLER.getTypeName(this),
 						this.getTableName(),
-						this.getPrimaryKeyValue())); 
+						this.getPrimaryKeyString()));
 	}
 
 	@Override
@@ -143,11 +169,81 @@ abstract class AbstractDbRowDbAction implements DbAction {
 	}
 	
 	/**
-	 * Gets the primary key value for this action's table.
-	 * @param dbConn DbConnection used to evaluate the primary key column name
+	 * Gets the Val instances of the primary key columns of this action's table
+	 * in key sequence order.
+	 * @return Val instances of the primary key columns
+	 */
+	protected final Val[] getPrimaryKeyVals() {
+		List<String> pkColumns = this.getPrimaryKeyColumnNames();
+		
+		Val[] pkVals = new Val[pkColumns.size()];
+		for (int i = 0; i < pkVals.length; i++) {
+			pkVals[i] = this.getVal(pkColumns.get(i));
+		}
+		
+		return pkVals;
+	}
+	
+	/**
+	 * Gets the primary key column names of this action's table in key sequence order.
+	 * @return Primary key column names
+	 */
+	protected final List<String> getPrimaryKeyColumnNames() {
+		return this.getDbConnection().getPrimaryKeyColumnNames(this.getTableName());
+	}
+	
+	/**
+	 * Copies the original values of the primary key columns to the specified array, to be
+	 * used as parameters for a key condition created by DbKeyUtils.getKeyCondition.
+	 * @param params Parameter array
+	 * @param offset Index of the first key value in the array
+	 * @return Parameter array
 	 */
-	protected final Val getPrimaryKeyValue() {
-		return this.getVal(this.getDbConnection().getPrimaryColumnName(this.getTableName()));
+	protected final Object[] getPrimaryKeyValues(Object[] params, int offset) {
+		List<String> pkColumns = this.getPrimaryKeyColumnNames();
+		for (int i = 0; i < pkColumns.size(); i++) {
+			params[offset + i] = this.getVal(pkColumns.get(i)).getOriginalValue();
+		}
+		
+		return params;
+	}
+	
+	/**
+	 * Gets the keys of the rows this action changes, i.e. the key of the original row and the new key if
+	 * the action sets a different primary key. A key is a List of the upper case table name and the primary key
+	 * as created by DbKeyUtils.normalizeKey, so keys of the same row are equal even if the key values have
+	 * different numeric types. Keys containing null values (e.g. of rows to be inserted with generated keys)
+	 * are omitted.
+	 * @return Keys of the changed rows
+	 */
+	final List<Object> getRowKeys() {
+		List<String> pkColumns = this.getPrimaryKeyColumnNames();
+		
+		Object[] originalValues = new Object[pkColumns.size()];
+		Object[] values = new Object[pkColumns.size()];
+		for (int i = 0; i < pkColumns.size(); i++) {
+			Val val = this.getVal(pkColumns.get(i));
+			originalValues[i] = val.getOriginalValue();
+			values[i] = val.getValue();
+		}
+		
+		String tableName = this.getTableName().toUpperCase();
+		
+		List<Object> rowKeys = new ArrayList<>(2);
+		if (!ArrayUtils.contains(originalValues, null)) {
+			rowKeys.add(Arrays.asList(tableName, DbKeyUtils.normalizeKey(originalValues)));
+		}
+		if (!ArrayUtils.contains(values, null)) {
+			List<Object> rowKey = Arrays.asList(tableName, DbKeyUtils.normalizeKey(values));
+			if (!rowKeys.contains(rowKey)) rowKeys.add(rowKey);
+		}
+		
+		return rowKeys;
+	}
+	
+	private String getPrimaryKeyString() {
+		Val[] pkVals = this.getPrimaryKeyVals();
+		return pkVals.length == 1 ? pkVals[0].toString() : Arrays.toString(pkVals);
 	}
 	
 	/**
@@ -172,8 +268,17 @@ abstract class AbstractDbRowDbAction implements DbAction {
 		
 		builder
 			.add(DbPersistenceStorage.ATTR_CONNECTION_NAME, this.dbConnection.getName())
-			.add(".table", this.getTableName())
-			.add(".id", this.getPrimaryKeyValue().getValuePrioOriginal());
+			.add(".table", this.getTableName());
+		
+		// Single column keys are stored as .id, composite keys as .id.COLUMN for every key column
+		Val[] pkVals = this.getPrimaryKeyVals();
+		if (pkVals.length == 1) {
+			builder.add(".id", pkVals[0].getValuePrioOriginal());
+		} else {
+			for (Val pkVal : pkVals) {
+				builder.add(".id." + pkVal.getColumnName(), pkVal.getValuePrioOriginal());
+			}
+		}
 		
 		for (Val val : this.getChangedColumns()) {
 			builder.add(val.getColumnName() + ".orig", val.getOriginalValue());
@@ -190,7 +295,7 @@ abstract class AbstractDbRowDbAction implements DbAction {
 	
 	@Override
 	public final String toString() {
-		return JuStringUtils.toString(this, "tableName", this.tableName, "primaryKeyValue", this.getPrimaryKeyValue(), "dbConnection", this.dbConnection);
+		return JuStringUtils.toString(this, "tableName", this.tableName, "primaryKey", this.getPrimaryKeyString(), "dbConnection", this.dbConnection);
 	}
 	
 	/**
@@ -264,4 +369,44 @@ abstract class AbstractDbRowDbAction implements DbAction {
 			return val.toString();
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * SQL statement along with its parameters that performs the changes of an action.
+	 * @author Martin
+	 *
+	 */
+	static final class SqlStatement {
+		private final String operation;
+		private final String sql;
+		private final Object[] params;
+		
+		/**
+		 * Creates a new SqlStatement.
+		 * @param operation Name of the operation (e.g. insert), used for messages
+		 * @param sql SQL with ? place holders
+		 * @param params Parameters for the place holders
+		 */
+		SqlStatement(String operation, String sql, Object[] params) {
+			this.operation = operation;
+			this.sql = sql;
+			this.params = params;
+		}
+		
+		String getOperation() {
+			return this.operation;
+		}
+		
+		String getSql() {
+			return this.sql;
+		}
+		
+		Object[] getParams() {
+			return this.params;
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "operation", this.operation, "sql", this.sql);
+		}
+	}
+}
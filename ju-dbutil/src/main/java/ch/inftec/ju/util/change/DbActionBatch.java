@@ -0,0 +1,173 @@
+package ch.inftec.ju.util.change;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.util.JuRuntimeException;
+import ch.inftec.ju.util.JuStringUtils;
+import ch.inftec.ju.util.change.AbstractDbRowDbAction.SqlStatement;
+
+/**
+ * Helper class to execute DbRow based actions using JDBC batching.
+ * <p>
+ * Consecutive actions with the same connection and the same SQL (i.e. the same table,
+ * operation and columns) are collected and executed in one batch when an action with a different
+ * SQL is added or when flush is called. The order of the actions is preserved.
+ * <p>
+ * Every action is expected to change exactly one row. Batches are executed within a savepoint.
+ * If the driver doesn't report the number of changed rows (Statement.SUCCESS_NO_INFO), the batch
+ * is rolled back to the savepoint and the actions are executed one by one to check their counts.
+ * Actions of that DbConnection aren't batched anymore then, as reporting update counts is a property
+ * of the driver rather than of a statement. Without a transaction, the batch cannot be rolled back
+ * and the counts aren't checked.
+ * @author Martin
+ *
+ */
+final class DbActionBatch {
+	/**
+	 * Maximum number of actions that are executed in one batch.
+	 */
+	static final int MAX_BATCH_SIZE = 1000;
+	
+	/**
+	 * DbConnections whose driver didn't report update counts for a batch. Weak keys, so the
+	 * DbConnections can still be garbage collected.
+	 */
+	private static final Set<DbConnection> unbatchedConnections = Collections.synchronizedSet(
+			Collections.newSetFromMap(new WeakHashMap<DbConnection, Boolean>()));
+	
+	private final Logger log = LoggerFactory.getLogger(DbActionBatch.class);
+	
+	private final List<AbstractDbRowDbAction> actions = new ArrayList<>();
+	private final List<Object[]> params = new ArrayList<>();
+	
+	private DbConnection dbConnection;
+	private SqlStatement statement;
+	
+	/**
+	 * Adds the specified action to the batch. If the action cannot be executed
+	 * in the current batch, the batch is flushed first.
+	 * @param action Action
+	 */
+	void add(AbstractDbRowDbAction action) {
+		SqlStatement statement = null;
+		try {
+			statement = action.createStatement();
+		} catch (Exception ex) {
+			throw new JuRuntimeException("Failed to create statement for action " + action, ex);
+		}
+		
+		// Actions that don't change anything don't need to be executed
+		if (statement == null) return;
+		
+		if (this.statement != null) {
+			if (this.dbConnection != action.getDbConnection()
+					|| !this.statement.getSql().equals(statement.getSql())
+					|| this.actions.size() >= DbActionBatch.MAX_BATCH_SIZE) {
+				this.flush();
+			}
+		}
+		
+		if (this.statement == null) {
+			this.dbConnection = action.getDbConnection();
+			this.statement = statement;
+		}
+		
+		this.actions.add(action);
+		this.params.add(statement.getParams());
+	}
+	
+	/**
+	 * Executes all actions that have been added to the batch so far.
+	 */
+	void flush() {
+		if (this.statement == null) return;
+		
+		try {
+			if (this.actions.size() == 1 || DbActionBatch.unbatchedConnections.contains(this.dbConnection) || !this.executeBatch()) {
+				for (AbstractDbRowDbAction action : this.actions) {
+					action.execute();
+				}
+			}
+		} finally {
+			this.actions.clear();
+			this.params.clear();
+			this.dbConnection = null;
+			this.statement = null;
+		}
+	}
+	
+	/**
+	 * Executes the actions in a JDBC batch within a savepoint.
+	 * @return False if the driver didn't report the update counts and the batch has been rolled back,
+	 * i.e. the actions have to be executed one by one
+	 */
+	private boolean executeBatch() {
+		final DbConnection dbConnection = this.dbConnection;
+		final String sql = this.statement.getSql();
+		
+		try {
+			dbConnection.doInSavepoint(new Callable<Void>() {
+				@Override
+				public Void call() {
+					int[] res = dbConnection.getQueryRunner().batch(sql, DbActionBatch.this.params.toArray(new Object[0][]));
+					
+					boolean noInfo = false;
+					for (int i = 0; i < res.length; i++) {
+						if (res[i] == Statement.SUCCESS_NO_INFO) {
+							noInfo = true;
+						} else if (res[i] != 1) {
+							throw new JuDbException(String.format("Execution of batch entry %d (%s) returned %d, expected 1: %s",
+									i, DbActionBatch.this.actions.get(i), res[i], sql));
+						}
+					}
+					
+					if (noInfo) {
+						DbActionBatch.unbatchedConnections.add(dbConnection);
+						
+						if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+							DbActionBatch.this.log.warn("Driver didn't report update counts, couldn't check the counts without transaction: {}", sql);
+						} else {
+							throw new MissingUpdateCountsException();
+						}
+					}
+					
+					return null;
+				}
+			});
+			
+			return true;
+		} catch (MissingUpdateCountsException ex) {
+			this.log.debug("Driver didn't report update counts, executing actions one by one: {}", sql);
+			return false;
+		} catch (Exception ex) {
+			throw new JuRuntimeException(String.format("Failed to execute %s batch: %s",
+					this.statement.getOperation(), sql), ex);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "statement", this.statement, "size", this.actions.size());
+	}
+	
+	/**
+	 * Thrown to roll back a batch to its savepoint if the driver didn't report the update counts.
+	 * @author Martin
+	 *
+	 */
+	private static final class MissingUpdateCountsException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -15,7 +15,8 @@ public final class DbActionUtils {
 	 * Gets a new UpdateActionBuilder for the specified row, using a primaryKeyValue.
 	 * @param dbConn DbConnection
 	 * @param tableName Table name
-	 * @param primaryKeyValue Primary key value
+	 * @param primaryKeyValue Primary key value. For composite keys a List or Object array
+	 * of the key column values, see DbKeyUtils
 	 * @return AbstractActionBuilder instance to build the action
 	 * @throws IllegalArgumentException If the specified row cannot be found
 	 */
@@ -53,7 +54,8 @@ public final class DbActionUtils {
 	 * Gets a new Delete Action for the specified row, using a primaryKeyValue.
 	 * @param dbConn DbConnection
 	 * @param tableName Table name
-	 * @param primaryKeyValue Primary key value
+	 * @param primaryKeyValue Primary key value. For composite keys a List or Object array
+	 * of the key column values, see DbKeyUtils
 	 * @return DbAction instance to delete the row
 	 * @throws IllegalArgumentException If the specified row cannot be found
 	 */
@@ -0,0 +1,277 @@
+package ch.inftec.ju.util.change;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.util.JuRuntimeException;
+import ch.inftec.ju.util.JuStringUtils;
+import ch.inftec.ju.util.event.JuEventUtils.UpdateEventNotifier;
+
+/**
+ * Executes the groups of a change set.
+ * <p>
+ * Every group is executed within a savepoint, so a failing group is rolled back completely while the
+ * changes of the groups executed before are kept. Execution stops at the first failing group. Consecutive
+ * DbRow based actions with the same SQL are executed in JDBC batches, see DbActionBatch.
+ * <p>
+ * With a parallelism greater than 1, the groups are split into independent units that don't change any
+ * common rows (by table and primary key). Groups changing common rows are kept in one unit and executed in
+ * their original order. The units are executed in parallel, each worker using a new transaction on a connection
+ * of its own (see DbConnection.submitInNewTransaction). The transactions commit the groups executed successfully,
+ * i.e. parallel execution isn't atomic. Dependencies the executor cannot see, like foreign keys between rows of
+ * different groups or triggers, must be avoided by putting dependent changes into the same group. If a group
+ * contains actions that aren't DbRow based, the rows it changes are unknown and the set is executed serially.
+ * <p>
+ * Serial execution uses the transaction of the calling thread. Without a transaction, every statement is
+ * committed immediately and failing groups cannot be rolled back.
+ * <p>
+ * The progress is published to the notifier after each group, serialized by the executor.
+ * @author Martin
+ *
+ */
+final class DbChangeSetExecutor {
+	private final Logger log = LoggerFactory.getLogger(DbChangeSetExecutor.class);
+	
+	private final DbConnection dbConn;
+	private final int parallelism;
+	private final UpdateEventNotifier<DbChangeSetProgress> progressNotifier;
+	
+	private int groupCount;
+	private int actionCount;
+	private int completedGroupCount;
+	private int failedGroupCount;
+	private int completedActionCount;
+	private int usedParallelism;
+	private long startTime;
+	
+	/**
+	 * Creates a new executor.
+	 * @param dbConn DbConnection of the change set
+	 * @param parallelism Maximum number of groups to be executed in parallel
+	 * @param progressNotifier Notifier to publish the progress to
+	 */
+	DbChangeSetExecutor(DbConnection dbConn, int parallelism, UpdateEventNotifier<DbChangeSetProgress> progressNotifier) {
+		this.dbConn = dbConn;
+		this.parallelism = parallelism;
+		this.progressNotifier = progressNotifier;
+	}
+	
+	/**
+	 * Executes the specified groups. The children of the groups are expected to be DbActions.
+	 * @param groups Groups
+	 * @return Progress after the execution
+	 */
+	DbChangeSetProgress execute(List<? extends ChangeItem> groups) {
+		synchronized (this) {
+			this.groupCount = groups.size();
+			this.actionCount = 0;
+			for (ChangeItem group : groups) {
+				this.actionCount += group.getChildItems().size();
+			}
+			this.completedGroupCount = 0;
+			this.failedGroupCount = 0;
+			this.completedActionCount = 0;
+			this.startTime = System.currentTimeMillis();
+		}
+		
+		List<List<ChangeItem>> units = this.parallelism > 1 ? this.getIndependentUnits(groups) : null;
+		if (units == null || units.size() < 2) {
+			this.usedParallelism = 1;
+			for (ChangeItem group : groups) {
+				this.executeGroup(group);
+			}
+		} else {
+			this.usedParallelism = Math.min(this.parallelism, units.size());
+			this.executeParallel(units);
+		}
+		
+		return this.getProgress();
+	}
+	
+	/**
+	 * Splits the groups into units that don't change common rows.
+	 * @return Units in the order of their first group, or null if the rows of a group are unknown
+	 */
+	private List<List<ChangeItem>> getIndependentUnits(List<? extends ChangeItem> groups) {
+		// Union-find over the group indexes, groups changing common rows are joined
+		int[] parents = new int[groups.size()];
+		Map<Object, Integer> rowOwners = new HashMap<>();
+		
+		for (int i = 0; i < groups.size(); i++) {
+			parents[i] = i;
+			
+			for (ChangeItem action : groups.get(i).getChildItems()) {
+				if (!(action instanceof AbstractDbRowDbAction)) {
+					this.log.debug("Executing change set serially as group {} contains an action that isn't DbRow based: {}", i, action);
+					return null;
+				}
+				
+				for (Object rowKey : ((AbstractDbRowDbAction) action).getRowKeys()) {
+					Integer owner = rowOwners.get(rowKey);
+					if (owner == null) {
+						rowOwners.put(rowKey, i);
+					} else {
+						parents[DbChangeSetExecutor.find(parents, owner)] = DbChangeSetExecutor.find(parents, i);
+					}
+				}
+			}
+		}
+		
+		Map<Integer, List<ChangeItem>> units = new LinkedHashMap<>();
+		for (int i = 0; i < groups.size(); i++) {
+			int root = DbChangeSetExecutor.find(parents, i);
+			
+			List<ChangeItem> unit = units.get(root);
+			if (unit == null) {
+				unit = new ArrayList<>();
+				units.put(root, unit);
+			}
+			unit.add(groups.get(i));
+		}
+		
+		return new ArrayList<>(units.values());
+	}
+	
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		
+		return i;
+	}
+	
+	private void executeParallel(List<List<ChangeItem>> units) {
+		// Start with the largest units to balance the load of the workers
+		List<List<ChangeItem>> sortedUnits = new ArrayList<>(units);
+		Collections.sort(sortedUnits, new Comparator<List<ChangeItem>>() {
+			@Override
+			public int compare(List<ChangeItem> u1, List<ChangeItem> u2) {
+				return Integer.compare(DbChangeSetExecutor.getActionCount(u2), DbChangeSetExecutor.getActionCount(u1));
+			}
+		});
+		
+		final ConcurrentLinkedQueue<List<ChangeItem>> queue = new ConcurrentLinkedQueue<>(sortedUnits);
+		final AtomicReference<Exception> failure = new AtomicReference<>();
+		
+		this.log.debug("Executing {} independent units of change set using {} workers", units.size(), this.usedParallelism);
+		
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < this.usedParallelism; i++) {
+			futures.add(this.dbConn.submitInNewTransaction(new Callable<Void>() {
+				@Override
+				public Void call() {
+					List<ChangeItem> unit;
+					while (failure.get() == null && (unit = queue.poll()) != null) {
+						for (ChangeItem group : unit) {
+							if (failure.get() != null) break;
+							
+							try {
+								DbChangeSetExecutor.this.executeGroup(group);
+							} catch (RuntimeException ex) {
+								// Don't throw so the groups completed by this worker are committed
+								failure.compareAndSet(null, ex);
+							}
+						}
+					}
+					
+					return null;
+				}
+			}));
+		}
+		
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ex) {
+				failure.compareAndSet(null, ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, ex);
+			}
+		}
+		
+		if (failure.get() != null) {
+			DbChangeSetProgress progress = this.getProgress();
+			throw new JuRuntimeException(String.format("Failed to execute change set, %d of %d groups completed",
+					progress.getCompletedGroupCount(), progress.getGroupCount()), failure.get());
+		}
+	}
+	
+	private static int getActionCount(List<ChangeItem> unit) {
+		int actionCount = 0;
+		for (ChangeItem group : unit) {
+			actionCount += group.getChildItems().size();
+		}
+		
+		return actionCount;
+	}
+	
+	private void executeGroup(final ChangeItem group) {
+		final List<ChangeItem> actions = group.getChildItems();
+		
+		try {
+			this.dbConn.doInSavepoint(new Callable<Void>() {
+				@Override
+				public Void call() {
+					DbActionBatch batch = new DbActionBatch();
+					
+					for (ChangeItem action : actions) {
+						if (action instanceof AbstractDbRowDbAction) {
+							batch.add((AbstractDbRowDbAction)action);
+						} else {
+							batch.flush();
+							action.getHandler().execute();
+						}
+					}
+					
+					batch.flush();
+					return null;
+				}
+			});
+		} catch (RuntimeException ex) {
+			this.log.debug("Group {} failed and was rolled back", group.getDescriptor().getName());
+			this.groupDone(0, false);
+			throw ex;
+		}
+		
+		this.groupDone(actions.size(), true);
+	}
+	
+	private synchronized void groupDone(int actionCount, boolean success) {
+		if (success) {
+			this.completedGroupCount++;
+			this.completedActionCount += actionCount;
+		} else {
+			this.failedGroupCount++;
+		}
+		
+		if (this.progressNotifier != null) {
+			this.progressNotifier.fireUpdateEvent(this.getProgress());
+		}
+	}
+	
+	private synchronized DbChangeSetProgress getProgress() {
+		return new DbChangeSetProgress(this.groupCount, this.completedGroupCount, this.failedGroupCount, this.actionCount, this.completedActionCount,
+				this.usedParallelism, System.currentTimeMillis() - this.startTime);
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "dbConn", this.dbConn, "parallelism", this.parallelism);
+	}
+}
@@ -0,0 +1,101 @@
+package ch.inftec.ju.util.change;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Immutable snapshot of the progress of a change set execution.
+ * @author Martin
+ *
+ */
+public final class DbChangeSetProgress {
+	private final int groupCount;
+	private final int completedGroupCount;
+	private final int failedGroupCount;
+	private final int actionCount;
+	private final int completedActionCount;
+	private final int parallelism;
+	private final long elapsedMillis;
+	
+	DbChangeSetProgress(int groupCount, int completedGroupCount, int failedGroupCount, int actionCount, int completedActionCount,
+			int parallelism, long elapsedMillis) {
+		this.groupCount = groupCount;
+		this.completedGroupCount = completedGroupCount;
+		this.failedGroupCount = failedGroupCount;
+		this.actionCount = actionCount;
+		this.completedActionCount = completedActionCount;
+		this.parallelism = parallelism;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	/**
+	 * Gets the number of groups of the change set.
+	 * @return Number of groups
+	 */
+	public int getGroupCount() {
+		return this.groupCount;
+	}
+	
+	/**
+	 * Gets the number of groups that have been executed successfully so far.
+	 * @return Number of completed groups
+	 */
+	public int getCompletedGroupCount() {
+		return this.completedGroupCount;
+	}
+	
+	/**
+	 * Gets the number of groups that failed and have been rolled back.
+	 * @return Number of failed groups
+	 */
+	public int getFailedGroupCount() {
+		return this.failedGroupCount;
+	}
+	
+	/**
+	 * Gets the number of actions of all groups of the change set.
+	 * @return Number of actions
+	 */
+	public int getActionCount() {
+		return this.actionCount;
+	}
+	
+	/**
+	 * Gets the number of actions of the completed groups.
+	 * @return Number of completed actions
+	 */
+	public int getCompletedActionCount() {
+		return this.completedActionCount;
+	}
+	
+	/**
+	 * Gets the number of groups that are executed in parallel, i.e. 1 if the change set
+	 * is executed serially.
+	 * @return Parallelism
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+	
+	/**
+	 * Gets the time elapsed since the execution was started.
+	 * @return Elapsed time in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return this.elapsedMillis;
+	}
+	
+	/**
+	 * Checks whether all groups have been executed successfully.
+	 * @return True if the execution is complete
+	 */
+	public boolean isComplete() {
+		return this.completedGroupCount == this.groupCount;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "completedGroupCount", this.completedGroupCount, "groupCount", this.groupCount,
+				"failedGroupCount", this.failedGroupCount, "completedActionCount", this.completedActionCount, "actionCount", this.actionCount,
+				"parallelism", this.parallelism, "elapsedMillis", this.elapsedMillis);
+	}
+}
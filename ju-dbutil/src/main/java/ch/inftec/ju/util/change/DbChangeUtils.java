@@ -1,13 +1,21 @@
 package ch.inftec.ju.util.change;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.DbKeyUtils;
+import ch.inftec.ju.db.DbRow;
 import ch.inftec.ju.util.JuBeanUtils;
 import ch.inftec.ju.util.JuStringUtils;
 import ch.inftec.ju.util.change.DbActionUtils.AbstractActionBuilder;
+import ch.inftec.ju.util.event.JuEventUtils;
+import ch.inftec.ju.util.event.JuEventUtils.UpdateEventNotifier;
+import ch.inftec.ju.util.event.UpdateListener;
 import ch.inftec.ju.util.general.Descriptor;
 import ch.inftec.ju.util.general.DescriptorUtils;
 import ch.inftec.ju.util.persistable.DbPersistenceStorage;
@@ -52,13 +60,46 @@ public class DbChangeUtils {
 		
 		private String name;
 		private String description;
+		private int parallelism = 1;
+		private final List<UpdateListener<DbChangeSetProgress>> progressListeners = new ArrayList<>();
 		
 		private List<DbChangeGroupBuilder> groupBuilders = new ArrayList<>();
 		
+		/**
+		 * Rows loaded by DbChangeGroupBuilder.prefetch, by upper case table name and normalized key.
+		 */
+		private Map<String, Map<Object, DbRow>> prefetchedRows = new HashMap<>();
+		
 		private DbChangeSetBuilder(DbConnection dbConn) {
 			this.dbConn = dbConn;
 		}
 		
+		private void prefetch(String tableName, Collection<?> primaryKeyValues) {
+			Map<Object, DbRow> rows = this.prefetchedRows.get(tableName.toUpperCase());
+			if (rows == null) {
+				rows = new HashMap<>();
+				this.prefetchedRows.put(tableName.toUpperCase(), rows);
+			}
+			
+			for (Map.Entry<Object, DbRow> row : this.dbConn.getQueryRunner().primaryKeysQuery(tableName, primaryKeyValues).entrySet()) {
+				rows.put(DbKeyUtils.normalizeKey(row.getKey()), row.getValue());
+			}
+		}
+		
+		/**
+		 * Gets a prefetched row.
+		 * @param tableName Table name
+		 * @param primaryKeyValue Primary key value
+		 * @return Row or null if the row hasn't been prefetched
+		 */
+		private DbRow getPrefetchedRow(String tableName, Object primaryKeyValue) {
+			Map<Object, DbRow> rows = this.prefetchedRows.get(tableName.toUpperCase());
+			if (rows == null) return null;
+			
+			int keyColumnCount = this.dbConn.getPrimaryKeyColumnNames(tableName).size();
+			return rows.get(DbKeyUtils.normalizeKey(DbKeyUtils.getKeyValues(primaryKeyValue, keyColumnCount)));
+		}
+		
 		/**
 		 * Sets the name of the change set.
 		 * @return This builder to allow for chaining
@@ -77,6 +118,39 @@ public class DbChangeUtils {
 			return this;
 		}
 		
+		/**
+		 * Sets the maximum number of groups that are executed in parallel. Defaults to 1, i.e. the groups
+		 * are executed one after another in the transaction of the calling thread.
+		 * <p>
+		 * With a parallelism greater than 1, groups that don't change common rows are executed in parallel,
+		 * each worker using a transaction of its own. The changes of completed groups are committed even if
+		 * another group fails, so use parallel execution for independent changes only. The effective parallelism
+		 * is limited by the async executor of the DbConnection.
+		 * <p>
+		 * The workers don't see uncommitted changes of the calling thread's transaction and wait for its locks,
+		 * so don't execute a parallel change set in a transaction that changed the same rows.
+		 * @param parallelism Maximum number of parallel groups
+		 * @return This builder to allow for chaining
+		 */
+		public DbChangeSetBuilder parallelism(int parallelism) {
+			if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be greater than 0: " + parallelism);
+			
+			this.parallelism = parallelism;
+			return this;
+		}
+		
+		/**
+		 * Adds a listener that is notified about the progress of the execution after every group.
+		 * <p>
+		 * The listener is called by the threads executing the groups, but never concurrently.
+		 * @param listener UpdateListener
+		 * @return This builder to allow for chaining
+		 */
+		public DbChangeSetBuilder progressListener(UpdateListener<DbChangeSetProgress> listener) {
+			this.progressListeners.add(listener);
+			return this;
+		}
+		
 		/**
 		 * Returns a GroupBuilder for a new change group.
 		 * <p>
@@ -99,7 +173,7 @@ public class DbChangeUtils {
 		public PersistableChangeItem build() {
 			JuBeanUtils.checkFieldsNotNull(this, "name", "description");
 			
-			DbChangeSet changeSet = new DbChangeSet(this.dbConn, this.name, this.description);
+			DbChangeSet changeSet = new DbChangeSet(this.dbConn, this.name, this.description, this.parallelism, this.progressListeners);
 			for (DbChangeGroupBuilder groupBuilder : this.groupBuilders) {
 				changeSet.groups.add(groupBuilder.group);
 			}
@@ -135,14 +209,38 @@ public class DbChangeUtils {
 		/**
 		 * Returns a builder to configure a new update action to be added to the group.
 		 * @param tableName TableName of the row to be updated
-		 * @param primaryKeyValue Primary key value of the row to be updated
+		 * @param primaryKeyValue Primary key value of the row to be updated. For composite keys a List or
+		 * Object array of the key column values, see DbKeyUtils
 		 * @return Builder to define the updates to be performed
 		 */
 		public DbChangeGroupActionBuilder newUpdateAction(String tableName, Object primaryKeyValue) {
-			AbstractActionBuilder actionBuilder = DbActionUtils.newUpdateAction(this.parentBuilder.dbConn, tableName, primaryKeyValue);
+			DbRow row = this.parentBuilder.getPrefetchedRow(tableName, primaryKeyValue);
+			AbstractActionBuilder actionBuilder = row != null
+					? DbActionUtils.newUpdateAction(this.parentBuilder.dbConn, row, tableName)
+					: DbActionUtils.newUpdateAction(this.parentBuilder.dbConn, tableName, primaryKeyValue);
 			return new DbChangeGroupActionBuilder(this, actionBuilder);
 		}
 		
+		/**
+		 * Returns builders to configure new update actions for all specified rows. The rows are loaded
+		 * using bulk queries.
+		 * <p>
+		 * The actions are added to the group in the order endAction is called on their builders.
+		 * @param tableName TableName of the rows to be updated
+		 * @param primaryKeyValues Primary key values of the rows to be updated
+		 * @return Builders to define the updates to be performed, in the order of the primary key values
+		 * @throws IllegalArgumentException If a row cannot be found
+		 */
+		public List<DbChangeGroupActionBuilder> newUpdateActions(String tableName, Collection<?> primaryKeyValues) {
+			this.prefetch(tableName, primaryKeyValues);
+			
+			List<DbChangeGroupActionBuilder> actionBuilders = new ArrayList<>();
+			for (Object primaryKeyValue : primaryKeyValues) {
+				actionBuilders.add(this.newUpdateAction(tableName, primaryKeyValue));
+			}
+			return actionBuilders;
+		}
+		
 		/**
 		 * Returns a builder to configure a new insert action to be added to the group.
 		 * @param tableName TableName of the row to be inserted
@@ -156,11 +254,47 @@ public class DbChangeUtils {
 		/**
 		 * Returns a builder to configure a new insert action to be added to the group.
 		 * @param tableName TableName of the row to be inserted
-		 * @param primaryKeyValue Primary Key value of the row to be deleted
+		 * @param primaryKeyValue Primary Key value of the row to be deleted. For composite keys a List or
+		 * Object array of the key column values, see DbKeyUtils
 		 * @return This builder to allow for chaining
 		 */
 		public DbChangeGroupBuilder newDeleteAction(String tableName, Object primaryKeyValue) {
-			this.addAction(DbActionUtils.newDeleteAction(this.parentBuilder.dbConn, tableName, primaryKeyValue));
+			DbRow row = this.parentBuilder.getPrefetchedRow(tableName, primaryKeyValue);
+			this.addAction(row != null
+					? DbActionUtils.newDeleteAction(this.parentBuilder.dbConn, row, tableName)
+					: DbActionUtils.newDeleteAction(this.parentBuilder.dbConn, tableName, primaryKeyValue));
+			return this;
+		}
+		
+		/**
+		 * Adds delete actions for all specified rows to the group. The rows are loaded using
+		 * bulk queries.
+		 * @param tableName Table name of the rows to be deleted
+		 * @param primaryKeyValues Primary key values of the rows to be deleted
+		 * @return This builder to allow for chaining
+		 * @throws IllegalArgumentException If a row cannot be found
+		 */
+		public DbChangeGroupBuilder newDeleteActions(String tableName, Collection<?> primaryKeyValues) {
+			this.prefetch(tableName, primaryKeyValues);
+			for (Object primaryKeyValue : primaryKeyValues) {
+				this.newDeleteAction(tableName, primaryKeyValue);
+			}
+			return this;
+		}
+		
+		/**
+		 * Loads the rows with the specified keys using bulk queries. Subsequent calls of newUpdateAction
+		 * and newDeleteAction for these rows won't need to query them one by one. newUpdateActions and
+		 * newDeleteActions prefetch their rows themselves.
+		 * <p>
+		 * Prefetched rows are shared by all groups of the set and reflect the state of the DB at the time
+		 * they were prefetched.
+		 * @param tableName Table name
+		 * @param primaryKeyValues Primary key values of the rows
+		 * @return This builder to allow for chaining
+		 */
+		public DbChangeGroupBuilder prefetch(String tableName, Collection<?> primaryKeyValues) {
+			this.parentBuilder.prefetch(tableName, primaryKeyValues);
 			return this;
 		}
 		
@@ -211,12 +345,16 @@ public class DbChangeUtils {
 	private static class DbChangeSet implements PersistableChangeItem {
 		private final DbConnection dbConn;
 		private final Descriptor descriptor;
+		private final int parallelism;
+		private final List<UpdateListener<DbChangeSetProgress>> progressListeners;
 		
 		private List<DbChangeGroup> groups = new ArrayList<DbChangeGroup>();
 		
-		private DbChangeSet(DbConnection dbConn, String name, String description) {
+		private DbChangeSet(DbConnection dbConn, String name, String description, int parallelism, List<UpdateListener<DbChangeSetProgress>> progressListeners) {
 			this.dbConn = dbConn;
 			this.descriptor = DescriptorUtils.newInstance(name, description);
+			this.parallelism = parallelism;
+			this.progressListeners = new ArrayList<>(progressListeners);
 		}
 		
 		@Override
@@ -245,7 +383,11 @@ public class DbChangeUtils {
 			public ChangeItem createUndoItem() {
 				DbChangeSetBuilder setBuilder = DbChangeUtils.buildChangeSet(set.dbConn)
 					.name(set.getDescriptor().getName() + DbChangeUtils.UNDO_SUFFIX)
-					.description(set.getDescriptor().getDescription() + DbChangeUtils.UNDO_SUFFIX);
+					.description(set.getDescriptor().getDescription() + DbChangeUtils.UNDO_SUFFIX)
+					.parallelism(set.parallelism);
+				for (UpdateListener<DbChangeSetProgress> listener : set.progressListeners) {
+					setBuilder.progressListener(listener);
+				}
 				
 				for (int i = set.groups.size() - 1; i >= 0; i--) {
 					DbChangeGroup group = set.groups.get(i);
@@ -262,13 +404,20 @@ public class DbChangeUtils {
 				return setBuilder.build();
 			}
 
+			/**
+			 * Executes the actions of all groups, see DbChangeSetExecutor.
+			 */
 			@Override
 			public void execute() {
-				for (DbChangeGroup group : set.groups) {
-					for (DbAction action : group.actions) {
-						action.getHandler().execute();
+				UpdateEventNotifier<DbChangeSetProgress> progressNotifier = null;
+				if (!set.progressListeners.isEmpty()) {
+					progressNotifier = JuEventUtils.newUpdateEventNotifier();
+					for (UpdateListener<DbChangeSetProgress> listener : set.progressListeners) {
+						progressNotifier.addListener(listener);
 					}
 				}
+				
+				new DbChangeSetExecutor(set.dbConn, set.parallelism, progressNotifier).execute(set.groups);
 			}
 		}
 		
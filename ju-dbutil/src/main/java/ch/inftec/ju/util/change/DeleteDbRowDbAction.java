@@ -2,9 +2,6 @@ package ch.inftec.ju.util.change;
 
 import ch.inftec.ju.db.DbConnection;
 import ch.inftec.ju.db.DbRow;
-import ch.inftec.ju.db.JuDbException;
-import ch.inftec.ju.util.JuRuntimeException;
-import ch.inftec.ju.util.XString;
 
 /**
  * DbRow based implementation of a DbAction that performs a delete of a row.
@@ -36,16 +33,10 @@ class DeleteDbRowDbAction extends AbstractDbRowDbAction {
 	}
 	
 	@Override
-	public void execute() {
-		XString deleteQry = null;
-		try {
-			deleteQry = new XString("DELETE FROM " + this.getTableName() + " WHERE " + this.getPrimaryKeyValue().getColumnName() + "=?");
-
-			int res = this.getDbConnection().getQueryRunner().update(deleteQry.toString(), this.getPrimaryKeyValue().getOriginalValue());
-			if (res != 1) throw new JuDbException("Execution of query returned " + res + ", expected 1: " + deleteQry);
-		} catch (Exception ex) {
-			throw new JuRuntimeException("Failed to execute delete: " + deleteQry, ex);
-		}
+	SqlStatement createStatement() {
+		Object[] params = this.getPrimaryKeyValues(new Object[this.getPrimaryKeyColumnNames().size()], 0);
+		
+		return new SqlStatement("delete", SqlTemplates.getDeleteSql(this.getTableName(), this.getPrimaryKeyColumnNames()), params);
 	}
 
 	@Override
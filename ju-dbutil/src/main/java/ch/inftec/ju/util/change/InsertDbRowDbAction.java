@@ -1,14 +1,9 @@
 package ch.inftec.ju.util.change;
 
-import java.util.ArrayList;
-
 import ch.inftec.ju.db.DbConnection;
 import ch.inftec.ju.db.DbRow;
 import ch.inftec.ju.db.DbRowUtils;
 import ch.inftec.ju.db.DbRowUtils.DbRowBuilder;
-import ch.inftec.ju.db.JuDbException;
-import ch.inftec.ju.util.JuRuntimeException;
-import ch.inftec.ju.util.XString;
 
 /**
  * DbRow based implementation of a DbAction that performs an insert of a row.
@@ -33,30 +28,15 @@ class InsertDbRowDbAction extends AbstractDbRowDbAction {
 	}
 	
 	@Override
-	public void execute() {
-		XString insertQry = null;
-		try {
-			insertQry = new XString("INSERT INTO " + this.getTableName() + " (");
-			
-			ArrayList<Object> values = new ArrayList<Object>();
-			XString valuesQry = new XString("VALUES (");
-			for (int i = 0; i < this.getRow().getColumnCount(); i++) {
-				String columnName = this.getRow().getColumnName(i);
-				insertQry.assertText("(", ", ");
-				insertQry.addText(columnName);
-				valuesQry.assertText("(", ", ");
-				valuesQry.addText("?");
-				values.add(this.getVal(columnName).getValue());
-			}
-			insertQry.addText(") ");
-			insertQry.addText(valuesQry);
-			insertQry.addText(")");
-						
-			int res = this.getDbConnection().getQueryRunner().update(insertQry.toString(), (Object[])values.toArray(new Object[0]));
-			if (res != 1) throw new JuDbException("Execution of query returned " + res + ", expected 1: " + insertQry);
-		} catch (Exception ex) {
-			throw new JuRuntimeException("Failed to execute insert: " + insertQry, ex);
+	SqlStatement createStatement() {
+		String[] columnNames = new String[this.getRow().getColumnCount()];
+		Object[] values = new Object[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++) {
+			columnNames[i] = this.getRow().getColumnName(i);
+			values[i] = this.getVal(columnNames[i]).getValue();
 		}
+		
+		return new SqlStatement("insert", SqlTemplates.getInsertSql(this.getTableName(), columnNames), values);
 	}
 
 	@Override
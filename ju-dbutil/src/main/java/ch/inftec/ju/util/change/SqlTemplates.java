@@ -0,0 +1,176 @@
+package ch.inftec.ju.util.change;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.inftec.ju.db.DbKeyUtils;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Cache of the SQL statements used by the DbRow based actions.
+ * <p>
+ * The SQL of an action only depends on the table, the operation, the affected columns and
+ * the primary key columns, so it is created once for every combination and reused by all actions.
+ * Executing an action only needs to collect the parameters. As the same String instance is returned
+ * for equal statements, DbActionBatch can compare them cheaply.
+ * <p>
+ * The number of cached statements is limited as updates may produce a statement for every
+ * combination of changed columns. If the limit is reached, the least recently used statement is removed.
+ * @author Martin
+ *
+ */
+final class SqlTemplates {
+	/**
+	 * Maximum number of cached statements.
+	 */
+	static final int MAX_SIZE = 2000;
+	
+	private static final LinkedHashMap<TemplateKey, String> templates = new LinkedHashMap<TemplateKey, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TemplateKey, String> eldest) {
+			return this.size() > SqlTemplates.MAX_SIZE;
+		}
+	};
+	
+	private SqlTemplates() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Gets the SQL to insert a row, e.g. INSERT INTO T (A, B) VALUES (?, ?)
+	 * @param tableName Table name
+	 * @param columnNames Names of all columns to be inserted
+	 * @return SQL with ? place holders for the column values
+	 */
+	static String getInsertSql(String tableName, String[] columnNames) {
+		TemplateKey key = new TemplateKey("insert", tableName, columnNames, null);
+		
+		String sql = SqlTemplates.get(key);
+		if (sql == null) {
+			StringBuilder insertQry = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+			StringBuilder valuesQry = new StringBuilder("VALUES (");
+			for (int i = 0; i < columnNames.length; i++) {
+				if (i > 0) {
+					insertQry.append(", ");
+					valuesQry.append(", ");
+				}
+				insertQry.append(columnNames[i]);
+				valuesQry.append("?");
+			}
+			insertQry.append(") ").append(valuesQry).append(")");
+			
+			sql = SqlTemplates.put(key, insertQry.toString());
+		}
+		
+		return sql;
+	}
+	
+	/**
+	 * Gets the SQL to update a row by its primary key, e.g. UPDATE T SET B=?, C=? WHERE A=?
+	 * @param tableName Table name
+	 * @param columnNames Names of the changed columns
+	 * @param pkColumnNames Names of the primary key columns
+	 * @return SQL with ? place holders for the changed values, followed by the key values
+	 */
+	static String getUpdateSql(String tableName, String[] columnNames, List<String> pkColumnNames) {
+		TemplateKey key = new TemplateKey("update", tableName, columnNames, pkColumnNames);
+		
+		String sql = SqlTemplates.get(key);
+		if (sql == null) {
+			StringBuilder updateQry = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+			for (int i = 0; i < columnNames.length; i++) {
+				if (i > 0) updateQry.append(", ");
+				updateQry.append(columnNames[i]).append("=?");
+			}
+			updateQry.append(" WHERE ").append(DbKeyUtils.getKeyCondition(pkColumnNames));
+			
+			sql = SqlTemplates.put(key, updateQry.toString());
+		}
+		
+		return sql;
+	}
+	
+	/**
+	 * Gets the SQL to delete a row by its primary key, e.g. DELETE FROM T WHERE A=?
+	 * @param tableName Table name
+	 * @param pkColumnNames Names of the primary key columns
+	 * @return SQL with ? place holders for the key values
+	 */
+	static String getDeleteSql(String tableName, List<String> pkColumnNames) {
+		TemplateKey key = new TemplateKey("delete", tableName, null, pkColumnNames);
+		
+		String sql = SqlTemplates.get(key);
+		if (sql == null) {
+			sql = SqlTemplates.put(key, "DELETE FROM " + tableName + " WHERE " + DbKeyUtils.getKeyCondition(pkColumnNames));
+		}
+		
+		return sql;
+	}
+	
+	private static String get(TemplateKey key) {
+		synchronized (SqlTemplates.templates) {
+			return SqlTemplates.templates.get(key);
+		}
+	}
+	
+	/**
+	 * Caches the specified SQL, removing the least recently used SQL if the cache is full.
+	 * @return Cached SQL, i.e. the SQL of a concurrent thread if it was faster
+	 */
+	private static String put(TemplateKey key, String sql) {
+		synchronized (SqlTemplates.templates) {
+			String existingSql = SqlTemplates.templates.get(key);
+			if (existingSql != null) return existingSql;
+			
+			SqlTemplates.templates.put(key, sql);
+			return sql;
+		}
+	}
+	
+	private static final class TemplateKey {
+		private final String operation;
+		private final String tableName;
+		private final String[] columnNames;
+		private final List<String> pkColumnNames;
+		private final int hashCode;
+		
+		private TemplateKey(String operation, String tableName, String[] columnNames, List<String> pkColumnNames) {
+			this.operation = operation;
+			this.tableName = tableName;
+			this.columnNames = columnNames;
+			this.pkColumnNames = pkColumnNames;
+			
+			int hashCode = operation.hashCode();
+			hashCode = 31 * hashCode + tableName.hashCode();
+			hashCode = 31 * hashCode + Arrays.hashCode(columnNames);
+			hashCode = 31 * hashCode + (pkColumnNames == null ? 0 : pkColumnNames.hashCode());
+			this.hashCode = hashCode;
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TemplateKey)) return false;
+			
+			TemplateKey other = (TemplateKey) obj;
+			return this.hashCode == other.hashCode
+					&& this.operation.equals(other.operation)
+					&& this.tableName.equals(other.tableName)
+					&& Arrays.equals(this.columnNames, other.columnNames)
+					&& (this.pkColumnNames == null ? other.pkColumnNames == null : this.pkColumnNames.equals(other.pkColumnNames));
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "operation", this.operation, "tableName", this.tableName, "columnNames", Arrays.toString(this.columnNames));
+		}
+	}
+}
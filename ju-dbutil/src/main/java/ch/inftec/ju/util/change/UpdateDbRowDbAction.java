@@ -3,10 +3,7 @@ package ch.inftec.ju.util.change;
 import ch.inftec.ju.db.DbConnection;
 import ch.inftec.ju.db.DbRow;
 import ch.inftec.ju.db.DbRowUtils;
-import ch.inftec.ju.db.JuDbException;
 import ch.inftec.ju.db.DbRowUtils.DbRowBuilder;
-import ch.inftec.ju.util.JuRuntimeException;
-import ch.inftec.ju.util.XString;
 
 /**
  * DbRow based implementation of a DbAction that performs an update of a row.
@@ -31,32 +28,21 @@ class UpdateDbRowDbAction extends AbstractDbRowDbAction {
 	}
 	
 	@Override
-	public void execute() {
-		XString updateQry = null;
-		try {
-			Val[] changedColumns = this.getChangedColumns();
-			if (changedColumns.length < 1) return;
-			
-			Object[] changedVals = new Object[changedColumns.length + 1];
-			
-			updateQry = new XString("UPDATE " + this.getTableName() + " SET ");
-			
-			int i = 0;
-			for (Val changedColumn : changedColumns) {
-				updateQry.assertText("SET ", ", ");
-				updateQry.addText(changedColumn.getColumnName() + "=?");
-				changedVals[i] = changedColumns[i].getChangedValue();
-				i++;
-			}
-			
-			updateQry.addText(" WHERE " + this.getPrimaryKeyValue().getColumnName() + "=?");
-			changedVals[i] = this.getPrimaryKeyValue().getOriginalValue();
-			
-			int res = this.getDbConnection().getQueryRunner().update(updateQry.toString(), changedVals);
-			if (res != 1) throw new JuDbException("Execution of query returned " + res + ", expected 1: " + updateQry);
-		} catch (Exception ex) {
-			throw new JuRuntimeException("Failed to execute update: " + updateQry, ex);
+	SqlStatement createStatement() {
+		Val[] changedColumns = this.getChangedColumns();
+		if (changedColumns.length < 1) return null;
+		
+		// Only the changed columns are updated
+		String[] columnNames = new String[changedColumns.length];
+		Object[] params = new Object[changedColumns.length + this.getPrimaryKeyColumnNames().size()];
+		for (int i = 0; i < changedColumns.length; i++) {
+			columnNames[i] = changedColumns[i].getColumnName();
+			params[i] = changedColumns[i].getChangedValue();
 		}
+		this.getPrimaryKeyValues(params, changedColumns.length);
+		
+		String sql = SqlTemplates.getUpdateSql(this.getTableName(), columnNames, this.getPrimaryKeyColumnNames());
+		return new SqlStatement("update", sql, params);
 	}
 
 	@Override
@@ -1,13 +1,28 @@
 package ch.inftec.ju.util.persistable;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 
+import org.hibernate.jdbc.Work;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import ch.inftec.ju.db.ConnectionInfo;
+import ch.inftec.ju.db.JuDbUtils;
 import ch.inftec.ju.util.JuStringUtils;
 import ch.inftec.ju.util.persistable.GenericMemento.MementoAttribute;
 import ch.inftec.ju.util.persistable.GenericMementoUtils.GenericMementoBuilder;
@@ -25,6 +40,18 @@ import ch.inftec.ju.util.persistable.GenericMementoUtils.GenericMementoBuilder;
  *  <li><b>.executionTime</b>: ATTR_EXECUTION_TIME. Execution time of the Memento's parent's execution</li>
  * </ul>
  * There's a constant in DbPersistenceStorage for each of them.
+ * <p>
+ * By default, the memento tree is stored as a graph of MementoObject and AttributeObject
+ * entities, resulting in an INSERT statement for every node and attribute. For large mementos,
+ * use setStorageMode to store the tree as batch inserted rows of a flat table (StorageMode.BATCH)
+ * or as one serialized blob (StorageMode.BLOB). The root is always stored as a MementoObject
+ * that records the mode, so loadMemento can load mementos stored in any mode.
+ * <p>
+ * Root mementos that don't contain an execution time attribute are stored with the time they were
+ * persisted. loadMementos lists the root mementos by descending execution time using keyset pagination.
+ * Roots without execution time (persisted by older versions) are listed after all others, by descending ID.
+ * The listed items only load their memento tree when getMemento is called, which requires
+ * the EntityManager to still be available.
  * @author Martin
  *
  */
@@ -38,30 +65,159 @@ public final class DbPersistenceStorage implements MementoStorage {
 	public static final String ATTR_CONNECTION_NAME = ".connectionName";
 	public static final String ATTR_EXECUTION_TIME = ".executionTime";
 	
+	/**
+	 * Number of flat rows sent to the database in one JDBC batch.
+	 */
+	private static final int BATCH_SIZE = 1000;
+	
+	/**
+	 * Maximum number of parent IDs in the IN list of a query loading a level of the entity graph.
+	 */
+	private static final int IN_LIST_SIZE = 500;
+	
+	/**
+	 * Modes to store the memento tree in.
+	 * @author Martin
+	 *
+	 */
+	public enum StorageMode {
+		/**
+		 * Graph of MementoObject and AttributeObject entities, persisted by JPA.
+		 */
+		ENTITY,
+		
+		/**
+		 * Rows of the flat MEMENTO_FLAT_ATTRIBUTE table, inserted and loaded by JDBC batches.
+		 */
+		BATCH,
+		
+		/**
+		 * One serialized blob in the root MementoObject.
+		 */
+		BLOB;
+	}
+	
+	private StorageMode storageMode = StorageMode.ENTITY;
+	
+	/**
+	 * Sets the mode new mementos are stored in. Defaults to StorageMode.ENTITY.
+	 * @param storageMode StorageMode
+	 */
+	public void setStorageMode(StorageMode storageMode) {
+		this.storageMode = storageMode;
+	}
+	
 	@Override
 	public Long persistMemento(GenericMemento memento, String type) {
-		Long id = null;
+		MementoObject mo = null;
 		
-		MementoObject mo = this.createMementoObject(memento, type);
+		switch (this.storageMode) {
+		case BATCH:
+			mo = this.createRootObject(memento, type, StorageMode.BATCH);
+			if (mo.getExecutionTime() == null) mo.setExecutionTime(new Date());
+			this.em.persist(mo);
+			this.insertFlatRows(mo.getId(), memento);
+			break;
+		case BLOB:
+			mo = this.createRootObject(memento, type, StorageMode.BLOB);
+			if (mo.getExecutionTime() == null) mo.setExecutionTime(new Date());
+			mo.setData(MementoBlobCodec.encode(memento));
+			this.em.persist(mo);
+			break;
+		default:
+			mo = this.createMementoObject(memento, type);
+			if (mo.getExecutionTime() == null) mo.setExecutionTime(new Date());
+			this.em.persist(mo);
+		}
 		
-		this.em.persist(mo);
-		id = mo.getId();
-
-		return id;
+		return mo.getId();
 	}
 	
 	@Override
 	public GenericMementoItem loadMemento(Long id) {
-		MementoObject mo =this.em.find(MementoObject.class, id);
+		MementoObject mo = this.em.find(MementoObject.class, id);
+		if (mo == null) return null;
 		
-		GenericMementoBuilder builder = GenericMementoUtils.builder();
-		this.buildGenericMemento(mo, builder);
-		return GenericMementoUtils.newGenericMementoItem(builder.build(), id, mo.getType());			
+		GenericMemento memento = null;
+		if (mo.getStorageMode() == StorageMode.BLOB) {
+			memento = MementoBlobCodec.decode(mo.getData());
+		} else if (mo.getStorageMode() == StorageMode.BATCH) {
+			memento = this.loadFlatRows(id);
+		} else {
+			memento = this.loadEntityGraph(id);
+		}
+		
+		return GenericMementoUtils.newGenericMementoItem(memento, id, mo.getType());
 	}
 
 	@Override
 	public List<GenericMementoItem> loadMementos(int maxCount) {
-		throw new UnsupportedOperationException("Not yet implemented");
+		return this.loadMementos(maxCount, null);
+	}
+	
+	/**
+	 * Gets a page of root mementos, ordered by descending execution time and ID. Roots without execution
+	 * time follow all others, ordered by descending ID.
+	 * <p>
+	 * The page is loaded with a single query (two at the transition to the roots without execution time)
+	 * that doesn't load the memento trees. The tree of an item is loaded when its getMemento method is
+	 * called for the first time.
+	 * @param maxCount Maximum count of mementos to be returned
+	 * @param lastId ID of the last memento of the previous page, null to get the first page
+	 * @return List of mementos following the memento with lastId. An empty list if there are no more mementos
+	 * or if the memento with lastId doesn't exist
+	 */
+	public List<GenericMementoItem> loadMementos(int maxCount, Long lastId) {
+		String select = "select mo.id, mo.type from MementoObject mo where mo.parent is null";
+		
+		List<GenericMementoItem> items = new ArrayList<>();
+		
+		Date lastTime = null;
+		if (lastId != null) {
+			List<Date> lastTimes = this.em.createQuery("select mo.executionTime from MementoObject mo where mo.id = :id", Date.class)
+					.setParameter("id", lastId)
+					.getResultList();
+			if (lastTimes.isEmpty()) return items;
+			
+			lastTime = lastTimes.get(0);
+		}
+		
+		if (lastId == null || lastTime != null) {
+			TypedQuery<Object[]> query = null;
+			if (lastId == null) {
+				query = this.em.createQuery(select + " and mo.executionTime is not null"
+						+ " order by mo.executionTime desc, mo.id desc", Object[].class);
+			} else {
+				query = this.em.createQuery(select + " and mo.executionTime is not null"
+						+ " and (mo.executionTime < :time or (mo.executionTime = :time and mo.id < :id))"
+						+ " order by mo.executionTime desc, mo.id desc", Object[].class)
+						.setParameter("time", lastTime)
+						.setParameter("id", lastId);
+			}
+			
+			this.addItems(items, query, maxCount);
+			if (items.size() == maxCount) return items;
+			
+			// Continue with the roots without execution time
+			lastId = null;
+		}
+		
+		TypedQuery<Object[]> query = null;
+		if (lastId == null) {
+			query = this.em.createQuery(select + " and mo.executionTime is null order by mo.id desc", Object[].class);
+		} else {
+			query = this.em.createQuery(select + " and mo.executionTime is null and mo.id < :id order by mo.id desc", Object[].class)
+					.setParameter("id", lastId);
+		}
+		this.addItems(items, query, maxCount - items.size());
+		
+		return items;
+	}
+	
+	private void addItems(List<GenericMementoItem> items, TypedQuery<Object[]> query, int maxCount) {
+		for (Object[] row : query.setMaxResults(maxCount).getResultList()) {
+			items.add(new LazyMementoItem((Long) row[0], (String) row[1]));
+		}
 	}
 	
 	/**
@@ -72,14 +228,7 @@ public final class DbPersistenceStorage implements MementoStorage {
 	 * to an EntityManager
 	 */
 	private MementoObject createMementoObject(GenericMemento memento, String type) {
-		MementoObject mo = new MementoObject();
-		
-		GenericMementoX moX = GenericMementoUtils.asX(memento);
-		mo.setDbName(moX.getStringValue(".connectionName"));
-		mo.setExecutionTime(moX.getDateValue(".executionTime"));
-		
-		// Set MetaData
-		mo.setType(type);
+		MementoObject mo = this.createRootObject(memento, type, null);
 		
 		// Add children
 		for (GenericMemento mementoChild : memento.getChildren()) {
@@ -101,22 +250,271 @@ public final class DbPersistenceStorage implements MementoStorage {
 	}
 
 	/**
-	 * Creates a GenericMemento instance for the specified MementoObject.
-	 * @param mo MementoObject as loaded from the DB
-	 * @param builder GenericMementoBuilder used to build the memento or null for the root memento
-	 * @return GenericMemento instance
+	 * Creates a MementoObject containing only the meta data of the specified memento.
+	 * @param memento GenericMemento
+	 * @param type Type of the GenericMemento
+	 * @param storageMode StorageMode of the memento tree, null for the entity graph
+	 * @return MementoObject without children and attributes
+	 */
+	private MementoObject createRootObject(GenericMemento memento, String type, StorageMode storageMode) {
+		MementoObject mo = new MementoObject();
+		
+		GenericMementoX moX = GenericMementoUtils.asX(memento);
+		mo.setDbName(moX.getStringValue(DbPersistenceStorage.ATTR_CONNECTION_NAME));
+		mo.setExecutionTime(moX.getDateValue(DbPersistenceStorage.ATTR_EXECUTION_TIME));
+		
+		// Set MetaData
+		mo.setType(type);
+		mo.setStorageMode(storageMode);
+		
+		return mo;
+	}
+	
+	/**
+	 * Inserts the nodes and attributes of the specified memento as flat rows using JDBC batches.
+	 * @param rootId ID of the root MementoObject
+	 * @param memento GenericMemento
 	 */
-	private void buildGenericMemento(MementoObject mo, GenericMementoBuilder builder) {
+	private void insertFlatRows(final Long rootId, GenericMemento memento) {
+		final List<Object[]> rows = new ArrayList<>();
+		this.addFlatRows(rows, memento, null);
+		
+		JuDbUtils.doWork(this.em, new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				String insert = "INSERT INTO " + FlatAttributeObject.TABLE_NAME
+						+ " (ROOT_ID, POSITION, NODE, PARENT_NODE, KEY_NAME, STRING_VALUE, DATE_VALUE, LONG_VALUE)"
+						+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+				
+				try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+					for (int i = 0; i < rows.size(); i++) {
+						Object[] row = rows.get(i);
+						
+						stmt.setLong(1, rootId);
+						stmt.setInt(2, i);
+						stmt.setInt(3, (Integer) row[0]);
+						stmt.setObject(4, row[1], Types.INTEGER);
+						stmt.setObject(5, row[2], Types.VARCHAR);
+						stmt.setObject(6, row[3], Types.VARCHAR);
+						stmt.setObject(7, row[4], Types.TIMESTAMP);
+						stmt.setObject(8, row[5], Types.BIGINT);
+						stmt.addBatch();
+						
+						if ((i + 1) % DbPersistenceStorage.BATCH_SIZE == 0) stmt.executeBatch();
+					}
+					
+					if (rows.size() % DbPersistenceStorage.BATCH_SIZE != 0) stmt.executeBatch();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Recursively adds the flat rows of the specified memento in pre-order, i.e. a row for the node
+	 * followed by its attribute rows and its children.
+	 * @param rows List to add the rows to, containing node, parent node, key and values
+	 * @param memento GenericMemento
+	 * @param parentNode Node index of the parent, null for the root
+	 */
+	private void addFlatRows(List<Object[]> rows, GenericMemento memento, Integer parentNode) {
+		Integer node = rows.isEmpty() ? 0 : (Integer) rows.get(rows.size() - 1)[0] + 1;
+		rows.add(new Object[] {node, parentNode, null, null, null, null});
+		
+		for (MementoAttribute attribute : memento.getAttributes()) {
+			Timestamp dateValue = attribute.getDateValue() == null ? null : new Timestamp(attribute.getDateValue().getTime());
+			rows.add(new Object[] {node, parentNode, attribute.getKey(), attribute.getStringValue(), dateValue, attribute.getLongValue()});
+		}
+		
+		for (GenericMemento child : memento.getChildren()) {
+			this.addFlatRows(rows, child, node);
+		}
+	}
+	
+	/**
+	 * Loads a memento stored as flat rows with a single query.
+	 * @param rootId ID of the root MementoObject
+	 * @return GenericMemento
+	 */
+	private GenericMemento loadFlatRows(final Long rootId) {
+		final GenericMementoBuilder rootBuilder = GenericMementoUtils.builder();
+		
+		JuDbUtils.doWork(this.em, new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				String query = "SELECT NODE, PARENT_NODE, KEY_NAME, STRING_VALUE, DATE_VALUE, LONG_VALUE FROM "
+						+ FlatAttributeObject.TABLE_NAME + " WHERE ROOT_ID=? ORDER BY POSITION";
+				
+				// Builders of the current node and its ancestors
+				Deque<Integer> nodes = new ArrayDeque<>();
+				Deque<GenericMementoBuilder> builders = new ArrayDeque<>();
+				
+				try (PreparedStatement stmt = connection.prepareStatement(query)) {
+					stmt.setLong(1, rootId);
+					
+					try (ResultSet rs = stmt.executeQuery()) {
+						while (rs.next()) {
+							int node = rs.getInt(1);
+							String key = rs.getString(3);
+							
+							// The first row of a node is the node row, all following rows are attributes
+							if (nodes.isEmpty() || nodes.peek() != node) {
+								if (node == 0) {
+									builders.push(rootBuilder);
+								} else {
+									int parentNode = rs.getInt(2);
+									while (nodes.peek() != parentNode) {
+										nodes.pop();
+										builders.pop().childDone();
+									}
+									builders.push(builders.peek().newChild());
+								}
+								nodes.push(node);
+							} else {
+								String stringValue = rs.getString(4);
+								Timestamp dateValue = rs.getTimestamp(5);
+								long longValue = rs.getLong(6);
+								
+								builders.peek().add(key
+										, stringValue
+										, dateValue == null ? null : new Date(dateValue.getTime())
+										, rs.wasNull() ? null : longValue);
+							}
+						}
+					}
+				}
+				
+				while (builders.size() > 1) {
+					builders.pop().childDone();
+				}
+			}
+		});
+		
+		return rootBuilder.build();
+	}
+	
+	/**
+	 * Loads a memento stored as graph of MementoObject and AttributeObject entities. Rather than
+	 * walking the lazy collections of the entities, the graph is loaded level by level, using one
+	 * query for the children and one for the attributes of all nodes of a level.
+	 * @param rootId ID of the root MementoObject
+	 * @return GenericMemento
+	 */
+	private GenericMemento loadEntityGraph(Long rootId) {
+		Map<Long, List<Long>> children = new HashMap<>();
+		Map<Long, List<Object[]>> attributes = new HashMap<>();
+		
+		List<Long> level = new ArrayList<>();
+		level.add(rootId);
+		
+		while (!level.isEmpty()) {
+			List<Long> nextLevel = new ArrayList<>();
+			
+			for (int i = 0; i < level.size(); i += DbPersistenceStorage.IN_LIST_SIZE) {
+				List<Long> parentIds = level.subList(i, Math.min(i + DbPersistenceStorage.IN_LIST_SIZE, level.size()));
+				
+				List<Object[]> attributeRows = this.em.createQuery(
+						"select a.parent.id, a.key, a.stringValue, a.dateValue, a.longValue from AttributeObject a"
+						+ " where a.parent.id in :ids order by a.id", Object[].class)
+						.setParameter("ids", parentIds)
+						.getResultList();
+				for (Object[] row : attributeRows) {
+					DbPersistenceStorage.getList(attributes, (Long) row[0]).add(row);
+				}
+				
+				List<Object[]> childRows = this.em.createQuery(
+						"select mo.parent.id, mo.id from MementoObject mo where mo.parent.id in :ids order by mo.id", Object[].class)
+						.setParameter("ids", parentIds)
+						.getResultList();
+				for (Object[] row : childRows) {
+					DbPersistenceStorage.getList(children, (Long) row[0]).add((Long) row[1]);
+					nextLevel.add((Long) row[1]);
+				}
+			}
+			
+			level = nextLevel;
+		}
+		
+		GenericMementoBuilder builder = GenericMementoUtils.builder();
+		this.buildGenericMemento(rootId, children, attributes, builder);
+		
+		return builder.build();
+	}
+	
+	private static <T> List<T> getList(Map<Long, List<T>> map, Long key) {
+		List<T> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<>();
+			map.put(key, list);
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Recursively builds the GenericMemento of the specified node of a loaded entity graph.
+	 * @param id ID of the MementoObject
+	 * @param children Child IDs by parent ID
+	 * @param attributes Parent ID, key and values of the attributes by parent ID
+	 * @param builder GenericMementoBuilder used to build the memento
+	 */
+	private void buildGenericMemento(Long id, Map<Long, List<Long>> children, Map<Long, List<Object[]>> attributes, GenericMementoBuilder builder) {
 		// Add children
-		for (MementoObject mementoChild : mo.getChildren()) {
-			GenericMementoBuilder childBuilder = builder.newChild();
-			this.buildGenericMemento(mementoChild, childBuilder);
-			childBuilder.childDone();
+		if (children.containsKey(id)) {
+			for (Long childId : children.get(id)) {
+				GenericMementoBuilder childBuilder = builder.newChild();
+				this.buildGenericMemento(childId, children, attributes, childBuilder);
+				childBuilder.childDone();
+			}
 		}
 		
 		// Add attributes
-		for (AttributeObject attr : mo.getAttributes()) {
-			builder.add(attr);
+		if (attributes.containsKey(id)) {
+			for (Object[] attr : attributes.get(id)) {
+				builder.add((String) attr[1], (String) attr[2], (Date) attr[3], (Long) attr[4]);
+			}
+		}
+	}
+	
+	/**
+	 * GenericMementoItem that loads its memento when it is accessed for the first time.
+	 * @author Martin
+	 *
+	 */
+	private final class LazyMementoItem implements GenericMementoItem {
+		private final Long id;
+		private final String type;
+		private GenericMemento memento;
+		
+		private LazyMementoItem(Long id, String type) {
+			this.id = id;
+			this.type = type;
+		}
+		
+		@Override
+		public GenericMemento getMemento() {
+			if (this.memento == null) {
+				GenericMementoItem item = DbPersistenceStorage.this.loadMemento(this.id);
+				if (item == null) throw new IllegalStateException("Memento doesn't exist anymore: " + this.id);
+				
+				this.memento = item.getMemento();
+			}
+			
+			return this.memento;
+		}
+		
+		@Override
+		public Long getId() {
+			return this.id;
+		}
+		
+		@Override
+		public String getType() {
+			return this.type;
+		}
+		
+		@Override
+		public String toString() {
+			return JuStringUtils.toString(this, "id", this.getId(), "type", this.getType());
 		}
 	}
 	
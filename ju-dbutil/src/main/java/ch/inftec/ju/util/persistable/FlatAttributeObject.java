@@ -0,0 +1,128 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.apache.commons.lang3.ObjectUtils;
+
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Flat representation of a memento node or attribute, used by DbPersistenceStorage
+ * in StorageMode.BATCH.
+ * <p>
+ * All nodes and attributes of a root memento are stored as rows of this table, ordered
+ * by their position. Every node is represented by a row without key and values, followed by a
+ * row for each of its attributes. Nodes are numbered in pre-order, the root being node 0.
+ * <p>
+ * The rows are written and read by JDBC, the entity is only used to define the table.
+ * @author Martin
+ *
+ */
+@Entity
+@Table(name=FlatAttributeObject.TABLE_NAME)
+@IdClass(FlatAttributeObject.Key.class)
+final class FlatAttributeObject {
+	static final String TABLE_NAME = "MEMENTO_FLAT_ATTRIBUTE";
+	
+	@Id
+	@Column(name="ROOT_ID")
+	private Long rootId;
+	
+	@Id
+	@Column(name="POSITION")
+	private Integer position;
+	
+	@Column(name="NODE", nullable=false)
+	private Integer node;
+	
+	@Column(name="PARENT_NODE")
+	private Integer parentNode;
+	
+	@Column(name="KEY_NAME")
+	private String key;
+	
+	@Column(name="STRING_VALUE")
+	private String stringValue;
+	
+	@Column(name="DATE_VALUE")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date dateValue;
+	
+	@Column(name="LONG_VALUE")
+	private Long longValue;
+	
+	public Long getRootId() {
+		return rootId;
+	}
+	
+	public Integer getPosition() {
+		return position;
+	}
+	
+	public Integer getNode() {
+		return node;
+	}
+	
+	public Integer getParentNode() {
+		return parentNode;
+	}
+	
+	public String getKey() {
+		return key;
+	}
+	
+	public String getStringValue() {
+		return stringValue;
+	}
+	
+	public Date getDateValue() {
+		return dateValue;
+	}
+	
+	public Long getLongValue() {
+		return longValue;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(FlatAttributeObject.class,
+				"rootId", this.getRootId(),
+				"position", this.getPosition(),
+				"node", this.getNode(),
+				"key", this.getKey());
+	}
+	
+	/**
+	 * Primary key class of FlatAttributeObject.
+	 * @author Martin
+	 *
+	 */
+	static final class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		private Long rootId;
+		private Integer position;
+		
+		@Override
+		public int hashCode() {
+			return 31 * ObjectUtils.hashCode(this.rootId) + ObjectUtils.hashCode(this.position);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			
+			Key other = (Key) obj;
+			return ObjectUtils.equals(this.rootId, other.rootId) && ObjectUtils.equals(this.position, other.position);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Serializes a GenericMemento tree to a compressed byte array and back. Used by
+ * DbPersistenceStorage in StorageMode.BLOB.
+ * <p>
+ * The first byte contains the format version, followed by the deflated tree as encoded
+ * by the GenericMementoCodec.
+ * @author Martin
+ *
+ */
+final class MementoBlobCodec {
+	private static final byte VERSION = 2;
+	
+	private MementoBlobCodec() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Serializes the specified memento, including all of its children.
+	 * @param memento GenericMemento
+	 * @return Serialized memento
+	 */
+	static byte[] encode(GenericMemento memento) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(VERSION);
+		
+		try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+			GenericMementoCodec.newEncoder(out).encode(memento);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Couldn't serialize memento", ex);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Deserializes a memento that was serialized by encode.
+	 * @param data Serialized memento
+	 * @return GenericMemento
+	 */
+	static GenericMemento decode(byte[] data) {
+		if (data.length == 0 || data[0] != VERSION) {
+			throw new IllegalArgumentException("Unsupported memento data version: " + (data.length == 0 ? "empty" : data[0]));
+		}
+		
+		try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data, 1, data.length - 1))) {
+			return GenericMementoCodec.newDecoder(in).decode();
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Couldn't deserialize memento", ex);
+		}
+	}
+}
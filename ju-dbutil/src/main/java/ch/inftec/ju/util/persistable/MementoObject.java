@@ -4,16 +4,25 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import javax.persistence.Basic;
 import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.Index;
+
 import ch.inftec.ju.util.JuStringUtils;
+import ch.inftec.ju.util.persistable.DbPersistenceStorage.StorageMode;
 
 @Entity
 final class MementoObject {
@@ -26,7 +35,22 @@ final class MementoObject {
 	private String type;
 	
 	@Temporal(TemporalType.TIMESTAMP)
+	@Index(name="MEMENTO_EXECUTION_TIME_IX")
 	private Date executionTime;
+	
+	/**
+	 * Mode the memento tree was stored with. Null for mementos stored as entity graph.
+	 */
+	@Enumerated(EnumType.STRING)
+	private StorageMode storageMode;
+	
+	/**
+	 * Serialized memento tree if the memento was stored in StorageMode.BLOB.
+	 */
+	@Lob
+	@Basic(fetch=FetchType.LAZY)
+	@Column(length=Integer.MAX_VALUE)
+	private byte[] data;
 
 	@OneToMany(targetEntity=AttributeObject.class, mappedBy="parent", cascade=CascadeType.ALL)
 	private List<AttributeObject> attributes = new ArrayList<>();
@@ -69,6 +93,22 @@ final class MementoObject {
 		this.executionTime = executionTime;
 	}
 	
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+	
+	protected void setStorageMode(StorageMode storageMode) {
+		this.storageMode = storageMode;
+	}
+	
+	public byte[] getData() {
+		return data;
+	}
+	
+	protected void setData(byte[] data) {
+		this.data = data;
+	}
+	
 	public List<AttributeObject> getAttributes() {
 		return attributes;
 	}
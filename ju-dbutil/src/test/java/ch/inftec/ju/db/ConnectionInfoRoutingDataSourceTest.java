@@ -0,0 +1,128 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ConnectionInfoRoutingDataSourceTest {
+	private ConnectionInfoImpl newConnectionInfo(String name) {
+		ConnectionInfoImpl connectionInfo = new ConnectionInfoImpl();
+		connectionInfo.setName(name);
+		connectionInfo.setConnectionString("jdbc:derby:memory:routingTest" + name + ";create=true");
+		connectionInfo.setUserName("sa");
+		connectionInfo.setPassword("");
+		
+		return connectionInfo;
+	}
+	
+	private String getUrl(ConnectionInfoRoutingDataSource dataSource) throws SQLException {
+		try (Connection conn = dataSource.getConnection()) {
+			return conn.getMetaData().getURL();
+		}
+	}
+	
+	@Test
+	public void targets_canBeAddedAndRemoved_atRuntime() throws Exception {
+		ConnectionInfoContextHolder contextHolder = new ConnectionInfoContextHolder();
+		
+		ConnectionInfoDriverManagerDataSource dataSourceA = new ConnectionInfoDriverManagerDataSource();
+		dataSourceA.setConnectionInfo(this.newConnectionInfo("A"));
+		
+		ConnectionInfoRoutingDataSource routingDataSource = new ConnectionInfoRoutingDataSource();
+		ReflectionTestUtils.setField(routingDataSource, "contextHolder", contextHolder);
+		routingDataSource.setTargetConnectionInfoDataSources(Arrays.asList(dataSourceA));
+		routingDataSource.setDefaultTargetDataSource(dataSourceA);
+		routingDataSource.afterPropertiesSet();
+		
+		Assert.assertEquals(1, contextHolder.getAvailableConnectionInfos().size());
+		Assert.assertFalse(contextHolder.hasConnectionInfo("B"));
+		
+		ConnectionInfoPooledDataSource dataSourceB = new ConnectionInfoPooledDataSource();
+		dataSourceB.setConnectionInfo(this.newConnectionInfo("B"));
+		try {
+			routingDataSource.addTargetDataSource(dataSourceB);
+			Assert.assertEquals(2, contextHolder.getAvailableConnectionInfos().size());
+			
+			contextHolder.setConnectionInfoByName("B");
+			Assert.assertTrue(this.getUrl(routingDataSource).contains("routingTestB"));
+			
+			contextHolder.setConnectionInfoByName("A");
+			Assert.assertTrue(this.getUrl(routingDataSource).contains("routingTestA"));
+			
+			// Removing the target closes its pool, the holder doesn't offer the ConnectionInfo anymore
+			contextHolder.setConnectionInfoByName("B");
+			Assert.assertTrue(routingDataSource.removeTargetDataSource("B"));
+			Assert.assertFalse(routingDataSource.removeTargetDataSource("B"));
+			Assert.assertFalse(contextHolder.hasConnectionInfo("B"));
+			Assert.assertEquals(1, contextHolder.getAvailableConnectionInfos().size());
+			Assert.assertTrue(dataSourceB.isClosed());
+			
+			// ConnectionInfos without target use the default DataSource
+			Assert.assertTrue(this.getUrl(routingDataSource).contains("routingTestA"));
+		} finally {
+			dataSourceB.destroy();
+		}
+	}
+	
+	@Test
+	public void connectionInfos_areAvailable_onlyOnceTheyCanBeRouted() throws Exception {
+		final ConnectionInfoRoutingDataSource routingDataSource = new ConnectionInfoRoutingDataSource();
+		final List<String> routedUrls = new ArrayList<>();
+		
+		ConnectionInfoContextHolder contextHolder = new ConnectionInfoContextHolder() {
+			@Override
+			synchronized void setAvailableConnectionInfos(Collection<ConnectionInfo> availableConnectionInfos) {
+				// Route to all ConnectionInfos right before the holder offers them
+				ConnectionInfo previousConnectionInfo = this.getConnectionInfo();
+				try {
+					for (ConnectionInfo connectionInfo : availableConnectionInfos) {
+						this.setConnectionInfo(connectionInfo);
+						routedUrls.add(ConnectionInfoRoutingDataSourceTest.this.getUrl(routingDataSource));
+					}
+				} catch (SQLException ex) {
+					throw new JuDbException(ex);
+				} finally {
+					this.setConnectionInfo(previousConnectionInfo);
+				}
+				
+				super.setAvailableConnectionInfos(availableConnectionInfos);
+			}
+		};
+		
+		ConnectionInfoDriverManagerDataSource dataSourceA = new ConnectionInfoDriverManagerDataSource();
+		dataSourceA.setConnectionInfo(this.newConnectionInfo("A"));
+		
+		ReflectionTestUtils.setField(routingDataSource, "contextHolder", contextHolder);
+		routingDataSource.setTargetConnectionInfoDataSources(Arrays.asList(dataSourceA));
+		routingDataSource.setLenientFallback(false);
+		routingDataSource.afterPropertiesSet();
+		Assert.assertEquals(1, routedUrls.size());
+		
+		ConnectionInfoDriverManagerDataSource dataSourceB = new ConnectionInfoDriverManagerDataSource();
+		dataSourceB.setConnectionInfo(this.newConnectionInfo("B"));
+		routingDataSource.addTargetDataSource(dataSourceB);
+		Assert.assertEquals(3, routedUrls.size());
+		Assert.assertTrue(routedUrls.get(1).contains("routingTestA"));
+		Assert.assertTrue(routedUrls.get(2).contains("routingTestB"));
+		
+		// A removed target isn't routed to anymore
+		routingDataSource.removeTargetDataSource("B");
+		contextHolder.setConnectionInfo(dataSourceB.getConnectionInfo());
+		try {
+			this.getUrl(routingDataSource);
+			Assert.fail("B has been removed and there is no fallback");
+		} catch (IllegalStateException ex) {
+			// Expected
+		} finally {
+			contextHolder.clearConnectionInfo();
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package ch.inftec.ju.db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests DbConnectionImpl on two in-memory Derby databases that are routed by a
+ * ConnectionInfoRoutingDataSource.
+ * @author Martin
+ *
+ */
+public class DbConnectionImplTest {
+	private ConnectionInfoContextHolder contextHolder;
+	private ConnectionInfoDriverManagerDataSource dataSourceA;
+	private ConnectionInfoDriverManagerDataSource dataSourceB;
+	private DbConnectionImpl dbConn;
+	private TransactionTemplate transactionTemplate;
+	
+	@Before
+	public void createDatabases() throws Exception {
+		this.contextHolder = new ConnectionInfoContextHolder();
+		this.dataSourceA = this.createDataSource("A");
+		this.dataSourceB = this.createDataSource("B");
+		
+		ConnectionInfoRoutingDataSource routingDataSource = new ConnectionInfoRoutingDataSource();
+		ReflectionTestUtils.setField(routingDataSource, "contextHolder", this.contextHolder);
+		routingDataSource.setTargetConnectionInfoDataSources(Arrays.asList(this.dataSourceA, this.dataSourceB));
+		routingDataSource.setDefaultTargetDataSource(this.dataSourceA);
+		routingDataSource.afterPropertiesSet();
+		
+		this.dbConn = new DbConnectionImpl();
+		ReflectionTestUtils.setField(this.dbConn, "dataSource", routingDataSource);
+		ReflectionTestUtils.setField(this.dbConn, "contextHolder", this.contextHolder);
+		ReflectionTestUtils.setField(this.dbConn, "name", "DbConnectionImplTest");
+		
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(routingDataSource));
+	}
+	
+	private ConnectionInfoDriverManagerDataSource createDataSource(String name) throws SQLException {
+		ConnectionInfoImpl connectionInfo = new ConnectionInfoImpl();
+		connectionInfo.setName(name);
+		connectionInfo.setConnectionString("jdbc:derby:memory:dbConnectionImplTest" + name + ";create=true");
+		connectionInfo.setUserName("sa");
+		connectionInfo.setPassword("");
+		
+		ConnectionInfoDriverManagerDataSource dataSource = new ConnectionInfoDriverManagerDataSource();
+		dataSource.setConnectionInfo(connectionInfo);
+		
+		// Each database contains a row with its name
+		try (Connection conn = dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE DB_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))");
+			stmt.execute("INSERT INTO DB_TEST VALUES (1, '" + name + "')");
+		}
+		
+		return dataSource;
+	}
+	
+	@After
+	public void dropDatabases() {
+		this.dbConn.shutdown();
+		this.contextHolder.clearConnectionInfo();
+		
+		for (ConnectionInfoDriverManagerDataSource dataSource : Arrays.asList(this.dataSourceA, this.dataSourceB)) {
+			try {
+				DriverManager.getConnection(dataSource.getConnectionInfo().getConnectionString().replace(";create=true", ";drop=true"));
+			} catch (SQLException ex) {
+				// Derby reports a dropped database by an exception
+			}
+		}
+	}
+	
+	private <T> T doInTransaction(final Callable<T> work) {
+		return this.transactionTemplate.execute(new TransactionCallback<T>() {
+			@Override
+			public T doInTransaction(TransactionStatus status) {
+				status.setRollbackOnly();
+				try {
+					return work.call();
+				} catch (Exception ex) {
+					throw new JuDbException(ex);
+				}
+			}
+		});
+	}
+	
+	@Test
+	public void asyncQueries_useConnectionInfo_ofCallingThread() throws Exception {
+		this.contextHolder.setConnectionInfoByName("B");
+		
+		DbRows rows = this.dbConn.getQueryRunner().queryAsync("SELECT TEXT FROM DB_TEST WHERE ID=?", 1).get();
+		Assert.assertEquals(1, rows.getRowCount());
+		Assert.assertEquals("B", rows.getRow(0).getValue("TEXT"));
+		
+		Assert.assertEquals(Integer.valueOf(1), this.dbConn.getQueryRunner().updateAsync("INSERT INTO DB_TEST VALUES (2, 'B2')").get());
+		Assert.assertEquals(2, this.dbConn.getQueryRunner().queryAsync("SELECT * FROM DB_TEST").get().getRowCount());
+		
+		this.contextHolder.setConnectionInfoByName("A");
+		Assert.assertEquals(1, this.dbConn.getQueryRunner().queryAsync("SELECT * FROM DB_TEST").get().getRowCount());
+	}
+	
+	@Test
+	public void asyncQuery_runByCallingThread_joinsTransaction_ofSameConnectionInfo() {
+		this.dbConn.setAsyncExecutor(new CallerRunsExecutor());
+		this.contextHolder.setConnectionInfoByName("A");
+		
+		this.doInTransaction(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				DbQueryRunner qr = DbConnectionImplTest.this.dbConn.getQueryRunner();
+				qr.update("INSERT INTO DB_TEST VALUES (2, 'A2')");
+				
+				// The uncommitted row is visible as the task uses the connection of the transaction
+				Assert.assertEquals(2, qr.queryAsync("SELECT * FROM DB_TEST").get().getRowCount());
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	public void metaData_isCached_perConnectionInfo() throws SQLException {
+		try (Connection conn = this.dataSourceB.getConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE DB_TEST_B (ID INTEGER PRIMARY KEY)");
+			stmt.execute("ALTER TABLE DB_TEST ADD COLUMN TEXT_B VARCHAR(20)");
+		}
+		
+		this.contextHolder.setConnectionInfoByName("A");
+		Assert.assertEquals(Arrays.asList("DB_TEST"), this.dbConn.getTableNames());
+		Assert.assertEquals(Arrays.asList("ID", "TEXT"), this.dbConn.getColumnNames("DB_TEST"));
+		
+		this.contextHolder.setConnectionInfoByName("B");
+		Assert.assertEquals(Arrays.asList("DB_TEST", "DB_TEST_B"), this.dbConn.getTableNames());
+		Assert.assertEquals(Arrays.asList("ID", "TEXT", "TEXT_B"), this.dbConn.getColumnNames("DB_TEST"));
+		
+		// DDL only invalidates the meta data of the ConnectionInfo it was executed on
+		this.dbConn.getQueryRunner().update("DROP TABLE DB_TEST_B");
+		Assert.assertEquals(Arrays.asList("DB_TEST"), this.dbConn.getTableNames());
+		
+		this.contextHolder.setConnectionInfoByName("A");
+		Assert.assertEquals(Arrays.asList("ID", "TEXT"), this.dbConn.getColumnNames("DB_TEST"));
+	}
+	
+	@Test
+	public void scatterQuery_returnsRows_ofAllConnectionInfos() {
+		List<ConnectionInfo> connectionInfos = Arrays.asList(this.dataSourceA.getConnectionInfo(), this.dataSourceB.getConnectionInfo());
+		
+		DbRows rows = this.dbConn.getQueryRunner().scatterQuery(connectionInfos, 10000, "SELECT TEXT FROM DB_TEST");
+		this.assertScatterRows(rows, "A", "A", "B", "B");
+	}
+	
+	/**
+	 * Derby function used to simulate slow queries.
+	 * @param millis Time to sleep in milliseconds
+	 * @return 0
+	 */
+	public static int sleep(long millis) throws InterruptedException {
+		Thread.sleep(millis);
+		return 0;
+	}
+	
+	@Test
+	public void scatterQuery_timesOut_perConnectionInfo() throws SQLException {
+		for (ConnectionInfoDriverManagerDataSource dataSource : Arrays.asList(this.dataSourceA, this.dataSourceB)) {
+			try (Connection conn = dataSource.getConnection();
+					Statement stmt = conn.createStatement()) {
+				stmt.execute("CREATE FUNCTION SLEEP(MILLIS BIGINT) RETURNS INTEGER LANGUAGE JAVA PARAMETER STYLE JAVA NO SQL "
+						+ "EXTERNAL NAME '" + DbConnectionImplTest.class.getName() + ".sleep'");
+			}
+		}
+		
+		List<ConnectionInfo> connectionInfos = Arrays.asList(this.dataSourceA.getConnectionInfo(), this.dataSourceB.getConnectionInfo());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			this.dbConn.setAsyncExecutor(executor);
+			
+			// B waits for A, the scatter query takes longer than the timeout
+			DbRows rows = this.dbConn.getQueryRunner().scatterQuery(connectionInfos, 1500, "SELECT TEXT, SLEEP(1000) FROM DB_TEST");
+			Assert.assertEquals(2, rows.getRowCount());
+			
+			try {
+				this.dbConn.getQueryRunner().scatterQuery(connectionInfos, 200, "SELECT TEXT, SLEEP(1000) FROM DB_TEST");
+				Assert.fail("Query on A should time out");
+			} catch (JuDbException ex) {
+				Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Query on A timed out after 200 ms"));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void scatterQuery_runByCallingThread_inTransaction_usesConnection_ofEachConnectionInfo() {
+		this.dbConn.setAsyncExecutor(new CallerRunsExecutor());
+		this.contextHolder.setConnectionInfoByName("A");
+		
+		this.doInTransaction(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				DbQueryRunner qr = DbConnectionImplTest.this.dbConn.getQueryRunner();
+				qr.update("INSERT INTO DB_TEST VALUES (2, 'A2')");
+				
+				List<ConnectionInfo> connectionInfos = Arrays.asList(DbConnectionImplTest.this.dataSourceA.getConnectionInfo(),
+						DbConnectionImplTest.this.dataSourceB.getConnectionInfo());
+				DbRows rows = qr.scatterQuery(connectionInfos, 10000, "SELECT TEXT FROM DB_TEST ORDER BY ID");
+				
+				// A joins the transaction, B must not use its connection
+				DbConnectionImplTest.this.assertScatterRows(rows, "A", "A", "A", "A2", "B", "B");
+				
+				// The transaction is still bound to the calling thread
+				Assert.assertEquals(2, qr.query("SELECT * FROM DB_TEST").getRowCount());
+				return null;
+			}
+		});
+		
+		Assert.assertEquals("A", this.contextHolder.getConnectionInfo().getName());
+	}
+	
+	@Test
+	public void primaryKeysQuery_inParallel_usesConnectionInfo_ofCallingThread() {
+		this.contextHolder.setConnectionInfoByName("B");
+		DbQueryRunner qr = this.dbConn.getQueryRunner();
+		for (int i = 2; i <= 10; i++) {
+			qr.update("INSERT INTO DB_TEST VALUES (?, ?)", i, "B" + i);
+		}
+		
+		// Chunks of 3 keys, queried by 2 parallel tasks
+		this.dbConn.setInListLimit(3);
+		List<Integer> keys = new ArrayList<>();
+		for (int i = 1; i <= 11; i++) {
+			keys.add(i);
+		}
+		Map<Object, DbRow> rows = qr.primaryKeysQuery("DB_TEST", keys, 2);
+		
+		Assert.assertEquals(10, rows.size());
+		Assert.assertEquals("B", rows.get(1).getValue("TEXT"));
+		Assert.assertEquals("B10", rows.get(10).getValue("TEXT"));
+		Assert.assertFalse(rows.containsKey(11));
+	}
+	
+	@Test
+	public void primaryKeysQuery_inTransaction_seesUncommittedRows() {
+		this.contextHolder.setConnectionInfoByName("B");
+		this.dbConn.setInListLimit(2);
+		
+		this.doInTransaction(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				DbQueryRunner qr = DbConnectionImplTest.this.dbConn.getQueryRunner();
+				qr.update("INSERT INTO DB_TEST VALUES (2, 'B2')");
+				qr.update("INSERT INTO DB_TEST VALUES (3, 'B3')");
+				
+				Map<Object, DbRow> rows = qr.primaryKeysQuery("DB_TEST", Arrays.asList(1, 2, 3), 2);
+				Assert.assertEquals(3, rows.size());
+				Assert.assertEquals("B3", rows.get(3).getValue("TEXT"));
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	public void primaryKeysQuery_withCompositeKeys_returnsRequestedKeysOnly() {
+		DbQueryRunner qr = this.dbConn.getQueryRunner();
+		qr.update("CREATE TABLE DB_COMPOSITE (A_ID INTEGER, B_ID BIGINT, TEXT VARCHAR(20), PRIMARY KEY (A_ID, B_ID))");
+		for (int a = 1; a <= 3; a++) {
+			for (int b = 1; b <= 3; b++) {
+				qr.update("INSERT INTO DB_COMPOSITE VALUES (?, ?, ?)", a, b, a + "/" + b);
+			}
+		}
+		
+		this.dbConn.setInListLimit(6);
+		List<Object> keys = new ArrayList<>();
+		keys.add(Arrays.asList(1, 1L));
+		keys.add(new Object[] {2, 3L});
+		keys.add(Arrays.asList(3, 2L));
+		keys.add(Arrays.asList(3, 4L));
+		Map<Object, DbRow> rows = qr.primaryKeysQuery("DB_COMPOSITE", keys);
+		
+		Assert.assertEquals(3, rows.size());
+		Assert.assertEquals("2/3", rows.get(DbKeyUtils.newKey(2, 3L)).getValue("TEXT"));
+		
+		// Keys of other numeric types match the normalized keys
+		Map<Object, DbRow> normalizedRows = new HashMap<>();
+		for (Map.Entry<Object, DbRow> row : rows.entrySet()) {
+			normalizedRows.put(DbKeyUtils.normalizeKey(row.getKey()), row.getValue());
+		}
+		Assert.assertEquals("3/2", normalizedRows.get(DbKeyUtils.normalizeKey(Arrays.asList(new BigDecimal("3.0"), 2))).getValue("TEXT"));
+	}
+	
+	@Test
+	public void asyncQueries_useThreadBinding_ofCallingThread() throws Exception {
+		BindingDataSource bindingDataSource = new BindingDataSource();
+		ReflectionTestUtils.setField(this.dbConn, "dataSource", bindingDataSource);
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			this.dbConn.setAsyncExecutor(executor);
+			
+			bindingDataSource.setThreadBinding(this.dataSourceB);
+			Assert.assertEquals("B", this.dbConn.getQueryRunner().queryAsync("SELECT TEXT FROM DB_TEST").get().getRow(0).getValue("TEXT"));
+			
+			// The binding of the executor thread is restored after the task
+			bindingDataSource.setThreadBinding(null);
+			Assert.assertEquals("A", this.dbConn.getQueryRunner().queryAsync("SELECT TEXT FROM DB_TEST").get().getRow(0).getValue("TEXT"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private void assertScatterRows(DbRows rows, String... namesAndTexts) {
+		Assert.assertEquals(namesAndTexts.length / 2, rows.getRowCount());
+		for (int i = 0; i < rows.getRowCount(); i++) {
+			Assert.assertEquals(namesAndTexts[i * 2], rows.getRow(i).getValue(DbQueryRunner.CONNECTION_NAME_COLUMN));
+			Assert.assertEquals(namesAndTexts[i * 2 + 1], rows.getRow(i).getValue("TEXT"));
+		}
+	}
+	
+	/**
+	 * Executor that runs all tasks in the calling thread, like a saturated executor
+	 * with a CallerRunsPolicy.
+	 * @author Martin
+	 *
+	 */
+	private static class CallerRunsExecutor extends AbstractExecutorService {
+		private volatile boolean shutdown;
+		
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+		
+		@Override
+		public void shutdown() {
+			this.shutdown = true;
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			this.shutdown = true;
+			return Collections.emptyList();
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			return this.shutdown;
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			return this.shutdown;
+		}
+		
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+	
+	/**
+	 * DataSource that connects to the DataSource bound to the thread, to database A if none is bound.
+	 * @author Martin
+	 *
+	 */
+	private class BindingDataSource extends AbstractDataSource implements ThreadBindingDataSource {
+		private final ThreadLocal<Object> binding = new ThreadLocal<>();
+		
+		@Override
+		public Object getThreadBinding() {
+			return this.binding.get();
+		}
+		
+		@Override
+		public void setThreadBinding(Object binding) {
+			this.binding.set(binding);
+		}
+		
+		@Override
+		public Connection getConnection() throws SQLException {
+			DataSource dataSource = (DataSource) this.binding.get();
+			return dataSource != null ? dataSource.getConnection() : DbConnectionImplTest.this.dataSourceA.getConnection();
+		}
+		
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package ch.inftec.ju.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class DbKeyUtilsTest {
+	@Test
+	public void normalizeKey_makesNumericValuesEqual() {
+		Assert.assertEquals(1L, DbKeyUtils.normalizeKey(1));
+		Assert.assertEquals(1L, DbKeyUtils.normalizeKey((short)1));
+		Assert.assertEquals(1L, DbKeyUtils.normalizeKey(new BigDecimal("1.00")));
+		Assert.assertEquals(1L, DbKeyUtils.normalizeKey(BigInteger.ONE));
+		Assert.assertEquals(1L, DbKeyUtils.normalizeKey(1.0));
+		Assert.assertEquals(0L, DbKeyUtils.normalizeKey(new BigDecimal("0.000")));
+		Assert.assertEquals(Long.MAX_VALUE, DbKeyUtils.normalizeKey(new BigDecimal(Long.MAX_VALUE)));
+		
+		Assert.assertEquals(new BigDecimal("1.5"), DbKeyUtils.normalizeKey(new BigDecimal("1.50")));
+		Assert.assertEquals(DbKeyUtils.normalizeKey(1.5), DbKeyUtils.normalizeKey(new BigDecimal("1.50")));
+		Assert.assertEquals(new BigDecimal("9223372036854775808"), DbKeyUtils.normalizeKey(new BigInteger("9223372036854775808")));
+		
+		Assert.assertEquals("1", DbKeyUtils.normalizeKey("1"));
+		Assert.assertNull(DbKeyUtils.normalizeKey(null));
+	}
+	
+	@Test
+	public void normalizeKey_ofCompositeKeys() {
+		Object key = DbKeyUtils.normalizeKey(Arrays.asList(1, "A", new BigDecimal("2")));
+		Assert.assertEquals(Arrays.asList(1L, "A", 2L), key);
+		Assert.assertEquals(key, DbKeyUtils.normalizeKey(new Object[] {1L, "A", 2}));
+		Assert.assertEquals(key.hashCode(), DbKeyUtils.normalizeKey(new Object[] {1L, "A", 2}).hashCode());
+	}
+	
+	@Test
+	public void keyValues_andCondition_ofCompositeKeys() {
+		Assert.assertTrue(Arrays.equals(new Object[] {1, "A"}, DbKeyUtils.getKeyValues(Arrays.asList(1, "A"), 2)));
+		Assert.assertTrue(Arrays.equals(new Object[] {1, "A"}, DbKeyUtils.getKeyValues(new Object[] {1, "A"}, 2)));
+		Assert.assertEquals("A_ID=? AND B_ID=?", DbKeyUtils.getKeyCondition(Arrays.asList("A_ID", "B_ID")));
+		
+		try {
+			DbKeyUtils.getKeyValues(1, 2);
+			Assert.fail("Expected composite key");
+		} catch (JuDbException ex) {
+			// Expected
+		}
+	}
+}
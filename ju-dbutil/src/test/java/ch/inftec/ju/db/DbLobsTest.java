@@ -0,0 +1,178 @@
+package ch.inftec.ju.db;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class DbLobsTest {
+	private static final String LARGE_TEXT = StringUtils.repeat("Large text ä", 100);
+	private static final byte[] LARGE_BYTES = new byte[1000];
+	
+	private DriverManagerDataSource dataSource;
+	private DbConnection dbConn;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbLobsTest;create=true");
+		this.dbConn = TestDbConnections.newDbConnection("DbLobsTest", this.dataSource);
+		
+		Arrays.fill(DbLobsTest.LARGE_BYTES, (byte)7);
+		
+		try (Connection conn = this.dataSource.getConnection()) {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("CREATE TABLE LOB_TEST (ID INTEGER PRIMARY KEY, TEXT CLOB, DATA BLOB)");
+			}
+			try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO LOB_TEST VALUES (?, ?, ?)")) {
+				this.insert(stmt, 1, "Small", new byte[] {1, 2});
+				this.insert(stmt, 2, DbLobsTest.LARGE_TEXT, DbLobsTest.LARGE_BYTES);
+				this.insert(stmt, 3, null, null);
+			}
+		}
+	}
+	
+	private void insert(PreparedStatement stmt, int id, String text, byte[] data) throws SQLException {
+		stmt.setInt(1, id);
+		stmt.setString(2, text);
+		stmt.setBytes(3, data);
+		stmt.executeUpdate();
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("DROP TABLE LOB_TEST");
+		}
+	}
+	
+	private DbRows queryLobs(DbLob.Mode lobMode) {
+		return this.dbConn.getQueryRunner().query(lobMode, "SELECT TEXT, DATA FROM LOB_TEST ORDER BY ID");
+	}
+	
+	private DbRowCursor queryLobsCursor(DbLob.Mode lobMode) {
+		return this.dbConn.getQueryRunner().queryCursor(10, lobMode, 100, "SELECT TEXT, DATA FROM LOB_TEST ORDER BY ID");
+	}
+	
+	private static File getFile(Object lob) throws Exception {
+		Field field = lob.getClass().getDeclaredField("file");
+		field.setAccessible(true);
+		return (File)field.get(lob);
+	}
+	
+	@Test
+	public void stringMode_convertsClobsToStrings() {
+		DbRows rows = this.dbConn.getQueryRunner().query("SELECT TEXT, DATA FROM LOB_TEST ORDER BY ID");
+		
+		Assert.assertEquals("Small", rows.getRow(0).getValue("TEXT"));
+		Assert.assertEquals(DbLobsTest.LARGE_TEXT, rows.getRow(1).getValue("TEXT"));
+		Assert.assertNull(rows.getRow(2).getValue("TEXT"));
+	}
+	
+	@Test
+	public void lazyMode_readsLobsOnDemand_withinTransaction() {
+		new TransactionTemplate(new DataSourceTransactionManager(this.dataSource)).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				DbRows rows = DbLobsTest.this.queryLobs(DbLob.Mode.LAZY);
+				
+				DbLob text = (DbLob)rows.getRow(1).getValue("TEXT");
+				Assert.assertTrue(text.isCharacter());
+				Assert.assertEquals(DbLobsTest.LARGE_TEXT.length(), text.length());
+				Assert.assertEquals(DbLobsTest.LARGE_TEXT, text.getString());
+				
+				DbLob data = (DbLob)rows.getRow(1).getValue("DATA");
+				Assert.assertFalse(data.isCharacter());
+				Assert.assertTrue(Arrays.equals(DbLobsTest.LARGE_BYTES, data.getBytes()));
+				
+				try {
+					data.getReader();
+					Assert.fail("BLOB has no Reader");
+				} catch (IllegalStateException ex) {
+					// Expected
+				}
+				
+				Assert.assertNull(rows.getRow(2).getValue("DATA"));
+				DbRowUtils.freeLobs(rows);
+			}
+		});
+	}
+	
+	@Test
+	public void lobMode_appliesToSingleQuery() {
+		DbRows rows = this.queryLobs(DbLob.Mode.LAZY);
+		Assert.assertTrue(rows.getRow(0).getValue("TEXT") instanceof DbLob);
+		DbRowUtils.freeLobs(rows);
+		
+		Assert.assertEquals("Small", this.dbConn.getQueryRunner().query("SELECT TEXT FROM LOB_TEST WHERE ID = 1").getRow(0).getValue("TEXT"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void spillMode_isNotSupported_forDbRows() {
+		this.queryLobs(DbLob.Mode.SPILL);
+	}
+	
+	@Test
+	public void spillMode_writesLargeLobsToFiles_untilCursorIsClosed() throws Exception {
+		File textFile;
+		File dataFile;
+		try (DbRowCursor cursor = this.queryLobsCursor(DbLob.Mode.SPILL)) {
+			// Small LOBs are kept in memory
+			DbRow smallRow = cursor.next();
+			Assert.assertEquals("Small", ((DbLob)smallRow.getValue("TEXT")).getString());
+			Assert.assertTrue(Arrays.equals(new byte[] {1, 2}, ((DbLob)smallRow.getValue("DATA")).getBytes()));
+			
+			DbRow largeRow = cursor.next();
+			DbLob largeText = (DbLob)largeRow.getValue("TEXT");
+			DbLob largeData = (DbLob)largeRow.getValue("DATA");
+			textFile = DbLobsTest.getFile(largeText);
+			dataFile = DbLobsTest.getFile(largeData);
+			Assert.assertTrue(textFile.exists());
+			Assert.assertTrue(dataFile.exists());
+			
+			// Spilled LOBs are still valid after the connection has been released
+			Assert.assertNull(cursor.next().getValue("TEXT"));
+			Assert.assertFalse(cursor.hasNext());
+			
+			Assert.assertEquals(DbLobsTest.LARGE_TEXT.length(), largeText.length());
+			Assert.assertEquals(DbLobsTest.LARGE_TEXT, largeText.getString());
+			Assert.assertTrue(Arrays.equals(DbLobsTest.LARGE_BYTES, largeData.getBytes()));
+		}
+		
+		Assert.assertFalse(textFile.exists());
+		Assert.assertFalse(dataFile.exists());
+	}
+	
+	@Test
+	public void spillMode_cursorFreesLobs_onClose() throws Exception {
+		File textFile = null;
+		try (DbRowCursor cursor = this.queryLobsCursor(DbLob.Mode.SPILL)) {
+			while (cursor.hasNext()) {
+				DbRow row = cursor.next();
+				if (cursor.getRowCount() == 2) {
+					textFile = DbLobsTest.getFile(row.getValue("TEXT"));
+				}
+			}
+			
+			// Reading the last row releases the JDBC resources, but keeps the spilled LOBs
+			Assert.assertTrue(textFile.exists());
+		}
+		
+		Assert.assertFalse(textFile.exists());
+	}
+}
@@ -0,0 +1,102 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+public class DbMetaDataCacheTest {
+	private DriverManagerDataSource dataSource;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbMetaDataCacheTest;create=true");
+		this.execute("CREATE TABLE META_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String tableName : new String[] {"META_TEST", "META_NEW"}) {
+				try {
+					stmt.execute("DROP TABLE " + tableName);
+				} catch (SQLException ex) {
+					// Table doesn't exist
+				}
+			}
+		}
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	@Test
+	public void schemaChanges_areDetected() {
+		Assert.assertTrue(DbMetaDataCache.isSchemaChange("CREATE TABLE A (ID INTEGER)"));
+		Assert.assertTrue(DbMetaDataCache.isSchemaChange("  alter table A add column B INTEGER"));
+		Assert.assertTrue(DbMetaDataCache.isSchemaChange("DROP\tTABLE A"));
+		Assert.assertTrue(DbMetaDataCache.isSchemaChange("RENAME TABLE A TO B"));
+		
+		Assert.assertFalse(DbMetaDataCache.isSchemaChange("UPDATE A SET CREATED=1"));
+		Assert.assertFalse(DbMetaDataCache.isSchemaChange("INSERT INTO DROPS VALUES (1)"));
+		Assert.assertFalse(DbMetaDataCache.isSchemaChange("CREATED"));
+		Assert.assertFalse(DbMetaDataCache.isSchemaChange(null));
+	}
+	
+	@Test
+	public void metaData_isCached_untilInvalidated() throws SQLException {
+		DbMetaDataCache cache = new DbMetaDataCache();
+		Assert.assertEquals(Arrays.asList("ID", "TEXT"), cache.getMetaData("test", this.dataSource, null).getColumnNames("META_TEST"));
+		
+		this.execute("ALTER TABLE META_TEST ADD COLUMN NUM INTEGER");
+		Assert.assertEquals(Arrays.asList("ID", "TEXT"), cache.getMetaData("test", this.dataSource, null).getColumnNames("META_TEST"));
+		
+		cache.invalidate("test");
+		Assert.assertEquals(Arrays.asList("ID", "TEXT", "NUM"), cache.getMetaData("test", this.dataSource, null).getColumnNames("meta_test"));
+	}
+	
+	@Test
+	public void metaData_isReloaded_afterTimeToLive() throws Exception {
+		DbMetaDataCache cache = new DbMetaDataCache();
+		Assert.assertTrue(cache.toString().contains("timeToLive=" + DbMetaDataCache.DEFAULT_TIME_TO_LIVE));
+		
+		cache.setTimeToLive(50);
+		Assert.assertFalse(cache.getMetaData("test", this.dataSource, null).getTableNames().contains("META_NEW"));
+		
+		this.execute("CREATE TABLE META_NEW (ID INTEGER PRIMARY KEY)");
+		Thread.sleep(100);
+		
+		Assert.assertTrue(cache.getMetaData("test", this.dataSource, null).getTableNames().contains("META_NEW"));
+	}
+	
+	@Test
+	public void ddlExecutedByQueryRunner_invalidatesMetaData() {
+		DbConnection dbConn = TestDbConnections.newDbConnection("DbMetaDataCacheTest", this.dataSource);
+		Assert.assertEquals(Arrays.asList("ID", "TEXT"), dbConn.getColumnNames("META_TEST"));
+		Assert.assertFalse(dbConn.getTableNames().contains("META_NEW"));
+		
+		dbConn.getQueryRunner().update("ALTER TABLE META_TEST ADD COLUMN NUM INTEGER");
+		Assert.assertEquals(Arrays.asList("ID", "TEXT", "NUM"), dbConn.getColumnNames("META_TEST"));
+		
+		dbConn.getQueryRunner().update("CREATE TABLE META_NEW (A_ID INTEGER, B_ID INTEGER, PRIMARY KEY (A_ID, B_ID))");
+		Assert.assertTrue(dbConn.getTableNames().contains("META_NEW"));
+		Assert.assertEquals(Arrays.asList("A_ID", "B_ID"), dbConn.getPrimaryKeyColumnNames("META_NEW"));
+		
+		dbConn.getQueryRunner().update("DROP TABLE META_NEW");
+		Assert.assertFalse(dbConn.getTableNames().contains("META_NEW"));
+	}
+}
@@ -0,0 +1,117 @@
+package ch.inftec.ju.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class PreparedStatementCacheTest {
+	private final DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:derby:memory:statementCacheTest;create=true");
+	
+	private void assertStats(StatementCacheStats stats, long hits, long misses, long evictions) {
+		Assert.assertEquals("hits", hits, stats.getHits());
+		Assert.assertEquals("misses", misses, stats.getMisses());
+		Assert.assertEquals("evictions", evictions, stats.getEvictions());
+	}
+	
+	@Test
+	public void leastRecentlyUsedStatement_isEvictedAndClosed() throws Exception {
+		PreparedStatementCache.Counters counters = new PreparedStatementCache.Counters();
+		
+		try (Connection conn = this.dataSource.getConnection();
+				PreparedStatementCache cache = new PreparedStatementCache(conn, 2, counters)) {
+			PreparedStatement stmt1 = cache.prepare("VALUES 1");
+			PreparedStatement stmt2 = cache.prepare("VALUES 2");
+			
+			// Using statement 1 makes statement 2 the least recently used
+			Assert.assertSame(stmt1, cache.prepare("VALUES 1"));
+			PreparedStatement stmt3 = cache.prepare("VALUES 3");
+			
+			Assert.assertTrue(stmt2.isClosed());
+			Assert.assertFalse(stmt1.isClosed());
+			Assert.assertFalse(stmt3.isClosed());
+			this.assertStats(counters.getStats(), 1, 3, 1);
+			
+			// Evicted statements are prepared again
+			Assert.assertNotSame(stmt2, cache.prepare("VALUES 2"));
+			Assert.assertTrue(stmt1.isClosed());
+			this.assertStats(counters.getStats(), 1, 4, 2);
+		}
+	}
+	
+	@Test
+	public void invalidatedAndClosedStatements_arePreparedAgain() throws Exception {
+		PreparedStatementCache.Counters counters = new PreparedStatementCache.Counters();
+		
+		try (Connection conn = this.dataSource.getConnection()) {
+			PreparedStatementCache cache = new PreparedStatementCache(conn, 10, counters);
+			
+			PreparedStatement stmt1 = cache.prepare("VALUES 1");
+			cache.invalidate("VALUES 1");
+			Assert.assertTrue(stmt1.isClosed());
+			
+			PreparedStatement stmt2 = cache.prepare("VALUES 1");
+			Assert.assertNotSame(stmt1, stmt2);
+			
+			// Statements closed by someone else aren't returned
+			stmt2.close();
+			PreparedStatement stmt3 = cache.prepare("VALUES 1");
+			Assert.assertFalse(stmt3.isClosed());
+			
+			PreparedStatement stmt4 = cache.prepare("VALUES 2");
+			cache.close();
+			Assert.assertTrue(stmt3.isClosed());
+			Assert.assertTrue(stmt4.isClosed());
+			
+			this.assertStats(counters.getStats(), 0, 4, 0);
+		}
+	}
+	
+	@Test
+	public void dbConnection_cachesStatements_untilTransactionCompletes() throws Exception {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE CACHE_TEST (ID INTEGER PRIMARY KEY)");
+		}
+		
+		try {
+			final DbConnectionImpl dbConn = (DbConnectionImpl)TestDbConnections.newDbConnection("PreparedStatementCacheTest", this.dataSource);
+			dbConn.setStatementCacheSize(1);
+			TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(this.dataSource));
+			
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					DbQueryRunner qr = dbConn.getQueryRunner();
+					qr.query("SELECT * FROM CACHE_TEST WHERE ID=?", 1);
+					qr.query("SELECT * FROM CACHE_TEST WHERE ID=?", 2);
+					qr.update("INSERT INTO CACHE_TEST VALUES (?)", 1);
+					qr.query("SELECT * FROM CACHE_TEST WHERE ID=?", 3);
+				}
+			});
+			PreparedStatementCacheTest.this.assertStats(dbConn.getStatementCacheStats(), 1, 3, 2);
+			
+			// The statements are closed with the transaction, the next one prepares them again
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					dbConn.getQueryRunner().query("SELECT * FROM CACHE_TEST WHERE ID=?", 1);
+				}
+			});
+			PreparedStatementCacheTest.this.assertStats(dbConn.getStatementCacheStats(), 1, 4, 2);
+		} finally {
+			try (Connection conn = this.dataSource.getConnection();
+					Statement stmt = conn.createStatement()) {
+				stmt.execute("DROP TABLE CACHE_TEST");
+			}
+		}
+	}
+}
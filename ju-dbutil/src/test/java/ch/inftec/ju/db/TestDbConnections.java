@@ -0,0 +1,33 @@
+package ch.inftec.ju.db;
+
+import javax.sql.DataSource;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Helper class to create DbConnections for tests that don't load a Spring context.
+ * @author Martin
+ *
+ */
+public final class TestDbConnections {
+	private TestDbConnections() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Creates a DbConnection that uses the specified DataSource.
+	 * <p>
+	 * Without a transaction, the connections obtained by the DbConnection aren't released, so use
+	 * a DataSource that opens a new connection for every request.
+	 * @param name Name of the DbConnection
+	 * @param dataSource DataSource
+	 * @return DbConnection instance
+	 */
+	public static DbConnection newDbConnection(String name, DataSource dataSource) {
+		DbConnectionImpl dbConn = new DbConnectionImpl();
+		ReflectionTestUtils.setField(dbConn, "dataSource", dataSource);
+		ReflectionTestUtils.setField(dbConn, "name", name);
+		
+		return dbConn;
+	}
+}
@@ -0,0 +1,94 @@
+package ch.inftec.ju.db.auth;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import junit.framework.Assert;
+
+import org.hibernate.ejb.Ejb3Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.inftec.ju.db.auth.entity.AuthRole;
+import ch.inftec.ju.db.auth.entity.AuthUser;
+
+/**
+ * Tests for the AuthDao.
+ * <p>
+ * The mapping file renames the join table of the roles, so the tests make sure provisionRoles
+ * uses the table of the mapping.
+ * @author Martin
+ *
+ */
+public class AuthDaoTest {
+	private EntityManagerFactory emf;
+	private EntityManager em;
+	private AuthDao authDao;
+	
+	@Before
+	public void createDao() {
+		this.emf = new Ejb3Configuration()
+				.addResource("META-INF/orm-authUserRoles.xml")
+				.addAnnotatedClass(AuthUser.class)
+				.addAnnotatedClass(AuthRole.class)
+				.setProperty("hibernate.dialect", "org.hibernate.dialect.DerbyTenSevenDialect")
+				.setProperty("hibernate.connection.driver_class", "org.apache.derby.jdbc.EmbeddedDriver")
+				.setProperty("hibernate.connection.url", "jdbc:derby:memory:authDaoTest;create=true")
+				.setProperty("hibernate.hbm2ddl.auto", "create-drop")
+				.buildEntityManagerFactory();
+		
+		this.em = this.emf.createEntityManager();
+		this.em.getTransaction().begin();
+		
+		this.authDao = new AuthDao();
+		ReflectionTestUtils.setField(this.authDao, "em", this.em);
+	}
+	
+	@After
+	public void closeDao() {
+		this.em.getTransaction().rollback();
+		this.em.close();
+		this.emf.close();
+	}
+	
+	private void persistUser(String name) {
+		AuthUser user = new AuthUser();
+		user.setName(name);
+		this.em.persist(user);
+	}
+	
+	private List<?> getAssignments() {
+		return this.em.createNativeQuery("SELECT u.name AS USER_NAME, r.name AS ROLE_NAME FROM AUTH_USER_ROLES ur "
+				+ "JOIN AuthUser u ON u.id = ur.USER_ID JOIN AuthRole r ON r.id = ur.ROLE_ID ORDER BY 1, 2").getResultList();
+	}
+	
+	@Test
+	public void provisionRoles_writesJoinTable_ofMapping() {
+		this.persistUser("user1");
+		this.persistUser("user2");
+		
+		Map<String, List<String>> userRoles = new HashMap<>();
+		userRoles.put("user1", Arrays.asList("role1", "role2"));
+		userRoles.put("user2", Arrays.asList("role1"));
+		
+		RoleProvisioningResult result = this.authDao.provisionRoles(userRoles);
+		Assert.assertEquals(3, result.getAddedAssignmentCount());
+		Assert.assertEquals(3, this.getAssignments().size());
+		
+		userRoles.put("user1", Arrays.asList("role2"));
+		result = this.authDao.provisionRoles(userRoles);
+		Assert.assertEquals(1, result.getRemovedAssignmentCount());
+		
+		List<?> assignments = this.getAssignments();
+		Assert.assertEquals(2, assignments.size());
+		Assert.assertEquals("[user1, role2]", Arrays.toString((Object[])assignments.get(0)));
+		Assert.assertEquals("[user2, role1]", Arrays.toString((Object[])assignments.get(1)));
+	}
+}
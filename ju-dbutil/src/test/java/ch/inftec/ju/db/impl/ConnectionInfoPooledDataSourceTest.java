@@ -0,0 +1,51 @@
+package ch.inftec.ju.db.impl;
+
+import java.sql.Connection;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import ch.inftec.ju.db.ConnectionInfoImpl;
+import ch.inftec.ju.db.ConnectionInfoPooledDataSource;
+import ch.inftec.ju.db.ConnectionPoolStats;
+
+public class ConnectionInfoPooledDataSourceTest {
+	@Test
+	public void pooledConnections() throws Exception {
+		ConnectionInfoImpl connectionInfo = new ConnectionInfoImpl();
+		connectionInfo.setName("PoolTest");
+		connectionInfo.setConnectionString("jdbc:derby:memory:poolTest;create=true");
+		connectionInfo.setUserName("sa");
+		connectionInfo.setPassword("");
+		
+		ConnectionInfoPooledDataSource dataSource = new ConnectionInfoPooledDataSource();
+		dataSource.setConnectionInfo(connectionInfo);
+		
+		try {
+			Assert.assertEquals("VALUES 1", dataSource.getValidationQuery());
+			
+			Connection conn1 = dataSource.getConnection();
+			Connection conn2 = dataSource.getConnection();
+			
+			ConnectionPoolStats stats = dataSource.getStats();
+			Assert.assertEquals(2, stats.getActive());
+			Assert.assertEquals(0, stats.getIdle());
+			
+			conn1.close();
+			conn2.close();
+			
+			// Connections are returned to the pool and reused
+			try (Connection conn3 = dataSource.getConnection()) {
+				Assert.assertFalse(conn3.isClosed());
+			}
+			
+			stats = dataSource.getStats();
+			Assert.assertEquals(0, stats.getActive());
+			Assert.assertEquals(2, stats.getIdle());
+			Assert.assertEquals(3, stats.getBorrowCount());
+		} finally {
+			dataSource.destroy();
+		}
+	}
+}
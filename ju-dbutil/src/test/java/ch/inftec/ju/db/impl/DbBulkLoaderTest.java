@@ -0,0 +1,75 @@
+package ch.inftec.ju.db.impl;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import ch.inftec.ju.db.DbBulkLoadStats;
+import ch.inftec.ju.db.DbBulkLoader;
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.util.event.JuEventUtils;
+import ch.inftec.ju.util.event.JuEventUtils.TestUpdateListener;
+
+public class DbBulkLoaderTest {
+	@Test
+	public void loadCsv() throws Exception {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:derby:memory:bulkLoaderTest;create=true");
+		
+		try (Connection conn = dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE BULK_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20), DATE_FIELD DATE)");
+			
+			StringBuilder csv = new StringBuilder("id;text;date_field\n");
+			for (int i = 1; i <= 25; i++) {
+				csv.append(i).append(";Row ").append(i).append(";").append(i == 1 ? "" : "2013-01-01").append("\n");
+			}
+			
+			TestUpdateListener<DbBulkLoadStats> listener = JuEventUtils.newTestUpdateListener();
+			DbBulkLoader loader = DbBulkLoader.build(dataSource)
+					.batchSize(5)
+					.commitInterval(10)
+					.progressListener(listener)
+					.create();
+			
+			DbBulkLoadStats stats = loader.loadCsv("BULK_TEST", new StringReader(csv.toString()));
+			Assert.assertEquals(25, stats.getRowCount());
+			Assert.assertEquals(25, stats.getCommittedRowCount());
+			
+			// Two periodic commits and the final one
+			Assert.assertEquals(3, listener.getCalls());
+			
+			try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COUNT(DATE_FIELD) FROM BULK_TEST")) {
+				rs.next();
+				Assert.assertEquals(25, rs.getInt(1));
+				Assert.assertEquals(24, rs.getInt(2));
+			}
+			
+			// A failing load keeps the rows of the committed batches
+			try {
+				loader.loadCsv("BULK_TEST", new StringReader("ID;TEXT\n100;A\n101;B\n1;Duplicate\n"));
+				Assert.fail("Expected duplicate key");
+			} catch (JuDbException ex) {
+				// Expected
+			}
+			
+			DbBulkLoader smallBatchLoader = DbBulkLoader.build(dataSource).batchSize(1).commitInterval(1).create();
+			try {
+				smallBatchLoader.loadCsv("BULK_TEST", new StringReader("ID;TEXT\n100;A\n101;B\n1;Duplicate\n"));
+				Assert.fail("Expected duplicate key");
+			} catch (JuDbException ex) {
+				// Expected
+			}
+			
+			try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM BULK_TEST")) {
+				rs.next();
+				Assert.assertEquals(27, rs.getInt(1));
+			}
+		}
+	}
+}
@@ -21,6 +21,9 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
 import ch.inftec.ju.db.ConnectionInfo;
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.DbRow;
+import ch.inftec.ju.db.DbRowCursor;
 import ch.inftec.ju.db.data.entity.CustomObject;
 
 /**
@@ -44,6 +47,9 @@ public class DbConnectionTest {
 	@Autowired
 	private DataSource dataSource;
 	
+	@Autowired
+	private DbConnection dbConnection;
+	
 	/**
 	 * Use the EntityManager to make sure the DB is initiated.
 	 */
@@ -88,6 +94,30 @@ public class DbConnectionTest {
 		// conn.close(); Must not close Connection
 	}
 	
+	@Test
+	public void queryCursor() {
+		for (int i = 1; i <= 5; i++) {
+			this.jdbcTemplate.update("insert into CustomObject (id, text) values (?, ?)", -i, "cursor" + i);
+		}
+		
+		try (DbRowCursor cursor = this.dbConnection.getQueryRunner().queryCursor(2, "select id, text from CustomObject where id<? order by id desc", 0)) {
+			Assert.assertEquals(2, cursor.getColumnCount());
+			Assert.assertEquals("ID", cursor.getColumnName(0));
+			Assert.assertEquals("TEXT", cursor.getColumnName(1));
+			
+			long expectedId = -1;
+			while (cursor.hasNext()) {
+				DbRow row = cursor.next();
+				Assert.assertEquals(expectedId, row.getValue("id"));
+				Assert.assertEquals("cursor" + -expectedId, row.getValue("text"));
+				expectedId--;
+			}
+			
+			Assert.assertEquals(5, cursor.getRowCount());
+			Assert.assertFalse(cursor.hasNext());
+		}
+	}
+
 //	/**
 //	 * Tests the creation of a DbConnectionFactory using the default connection.xml path.
 //	 */
@@ -1,12 +1,25 @@
 package ch.inftec.ju.db.impl;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
+import ch.inftec.ju.db.DbConnection;
 import ch.inftec.ju.db.DbRow;
+import ch.inftec.ju.db.DbRowCursor;
 import ch.inftec.ju.db.DbRowUtils;
 import ch.inftec.ju.db.DbRowUtils.DbRowBuilder;
+import ch.inftec.ju.db.DbRows;
+import ch.inftec.ju.db.PrimitiveDbRow;
+import ch.inftec.ju.db.TestDbConnections;
 
 public class DbRowUtilsTest {
 	@Test
@@ -77,4 +90,169 @@ public class DbRowUtilsTest {
 			// Expected
 		}
 	}
+	
+	@Test
+	public void testDuplicateColumn() {
+		try {
+			DbRowUtils.newDbRow()
+				.addValue("col", 1, 1)
+				.addValue("COL", 1, 2);
+			Assert.fail("Adding duplicate column should throw IllegalArgumentException");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testPrimitiveAccessors() {
+		PrimitiveDbRow row = (PrimitiveDbRow)DbRowUtils.newDbRow()
+				.addValue("int", Types.INTEGER, 1)
+				.addValue("double", Types.DOUBLE, 1.5)
+				.addValue("null", Types.INTEGER, null)
+				.addValue("text", Types.VARCHAR, "text")
+				.getRow();
+		
+		Assert.assertEquals(1, row.getInt(0));
+		Assert.assertEquals(1L, row.getLong(0));
+		Assert.assertEquals(1.0, row.getDouble(0));
+		Assert.assertEquals(1, row.getInt(1));
+		Assert.assertEquals(1.5, row.getDouble(1));
+		Assert.assertEquals(1.5, row.getValue(1));
+		
+		Assert.assertFalse(row.isNull(0));
+		Assert.assertTrue(row.isNull(2));
+		Assert.assertEquals(0L, row.getLong(2));
+		
+		try {
+			row.getLong(3);
+			Assert.fail("Non numeric column should throw IllegalArgumentException");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testStaticAccessors_ofForeignRows() {
+		final DbRow builderRow = DbRowUtils.newDbRow()
+				.addValue("int", Types.INTEGER, 1)
+				.addValue("null", Types.INTEGER, null)
+				.addValue("text", Types.VARCHAR, "text")
+				.getRow();
+		
+		// DbRow implemented outside of this library that only provides the name based accessor
+		DbRow row = new DbRow() {
+			@Override
+			public Object getValue(String columnName) {
+				return builderRow.getValue(columnName);
+			}
+			
+			@Override
+			public int getColumnCount() {
+				return builderRow.getColumnCount();
+			}
+			
+			@Override
+			public String getColumnName(int index) {
+				return builderRow.getColumnName(index);
+			}
+			
+			@Override
+			public int getColumnType(int index) {
+				return builderRow.getColumnType(index);
+			}
+		};
+		
+		Assert.assertEquals(1, DbRowUtils.getValue(row, 0));
+		Assert.assertEquals(1, DbRowUtils.getInt(row, 0));
+		Assert.assertEquals(1.0, DbRowUtils.getDouble(row, 0));
+		Assert.assertTrue(DbRowUtils.isNull(row, 1));
+		Assert.assertEquals(0L, DbRowUtils.getLong(row, 1));
+		Assert.assertEquals("text", DbRowUtils.getValue(row, 2));
+		
+		try {
+			DbRowUtils.getLong(row, 2);
+			Assert.fail("Non numeric column should throw IllegalArgumentException");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		}
+		
+		Assert.assertEquals(1L, DbRowUtils.getLong(builderRow, 0));
+		Assert.assertTrue(DbRowUtils.isNull(builderRow, 1));
+	}
+	
+	@Test
+	public void testQueriedRows_areCachedViews() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbRowUtilsTest;create=true");
+		DbConnection dbConn = TestDbConnections.newDbConnection("DbRowUtilsTest", dataSource);
+		
+		DbRows rows = dbConn.getQueryRunner().query("SELECT * FROM (VALUES (1, 1.5, CAST(NULL AS INTEGER)), (2, 2.5, 3)) AS T (A, B, C)");
+		Assert.assertEquals(2, rows.getRowCount());
+		Assert.assertSame(rows.getRow(0), rows.getRow(0));
+		
+		Iterator<DbRow> iterator = rows.iterator();
+		Assert.assertSame(rows.getRow(0), iterator.next());
+		Assert.assertSame(rows.getRow(1), iterator.next());
+		
+		PrimitiveDbRow row = (PrimitiveDbRow)rows.getRow(1);
+		Assert.assertEquals(2L, row.getLong(0));
+		Assert.assertEquals(2.5, row.getDouble(1));
+		Assert.assertEquals(3, row.getInt(2));
+		Assert.assertTrue(((PrimitiveDbRow)rows.getRow(0)).isNull(2));
+	}
+	
+	/**
+	 * Gets the value of the specified field of the object, looking it up in the class hierarchy.
+	 */
+	private static Object getField(Object obj, String name) throws Exception {
+		for (Class<?> clazz = obj.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+			try {
+				Field field = clazz.getDeclaredField(name);
+				field.setAccessible(true);
+				return field.get(obj);
+			} catch (NoSuchFieldException ex) {
+				// Try super class
+			}
+		}
+		
+		throw new NoSuchFieldException(name);
+	}
+	
+	/**
+	 * Gets the names of the instance fields of the object's class hierarchy, excluding synthetic ones.
+	 */
+	private static Set<String> getFieldNames(Object obj) {
+		Set<String> names = new TreeSet<>();
+		for (Class<?> clazz = obj.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) names.add(field.getName());
+			}
+		}
+		
+		return names;
+	}
+	
+	@Test
+	public void testQueriedRows_shareColumns() throws Exception {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbRowUtilsTest;create=true");
+		DbConnection dbConn = TestDbConnections.newDbConnection("DbRowUtilsTest", dataSource);
+		String query = "SELECT * FROM (VALUES (1, 'a'), (2, 'b'), (3, 'c')) AS T (A, B)";
+		
+		// DbRows: The rows are views that only hold their index besides the shared columns
+		DbRows rows = dbConn.getQueryRunner().query(query);
+		Object columns = DbRowUtilsTest.getField(rows, "columns");
+		for (DbRow row : rows) {
+			Assert.assertSame(columns, DbRowUtilsTest.getField(row, "columns"));
+			Assert.assertEquals("[columns, row]", DbRowUtilsTest.getFieldNames(row).toString());
+		}
+		
+		// DbRowCursor: Every row holds its value array and cached hash code besides the columns of the cursor
+		try (DbRowCursor cursor = dbConn.getQueryRunner().queryCursor(query)) {
+			Object cursorColumns = DbRowUtilsTest.getField(cursor, "columns");
+			while (cursor.hasNext()) {
+				DbRow row = cursor.next();
+				Assert.assertSame(cursorColumns, DbRowUtilsTest.getField(row, "columns"));
+				Assert.assertEquals("[columns, hashCode, values]", DbRowUtilsTest.getFieldNames(row).toString());
+			}
+		}
+	}
 }
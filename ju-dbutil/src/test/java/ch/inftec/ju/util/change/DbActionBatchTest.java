@@ -0,0 +1,251 @@
+package ch.inftec.ju.util.change;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.DbQueryRunner;
+import ch.inftec.ju.db.TestDbConnections;
+
+public class DbActionBatchTest {
+	private DriverManagerDataSource dataSource;
+	private RecordingDbConnection recorder;
+	private DbConnection dbConn;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbActionBatchTest;create=true");
+		this.recorder = new RecordingDbConnection(TestDbConnections.newDbConnection("DbActionBatchTest", this.dataSource));
+		this.dbConn = this.recorder.newProxy();
+		
+		this.execute("CREATE TABLE BATCH_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"CREATE TABLE NO_INFO_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"INSERT INTO BATCH_TEST VALUES (1, 'A'), (2, 'B'), (3, 'C')",
+				"INSERT INTO NO_INFO_TEST VALUES (1, 'A'), (2, 'B'), (3, 'C')");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		this.execute("DROP TABLE BATCH_TEST", "DROP TABLE NO_INFO_TEST");
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	private AbstractDbRowDbAction newUpdateAction(String tableName, int id, String text) {
+		return (AbstractDbRowDbAction)DbActionUtils.newUpdateAction(this.dbConn, tableName, id).setValue("TEXT", text).getAction();
+	}
+	
+	private String getText(String tableName, int id) {
+		return (String)this.dbConn.getQueryRunner().primaryKeyQuery(tableName, id).getValue("TEXT");
+	}
+	
+	private void doInTransaction(final Runnable work) {
+		new TransactionTemplate(new DataSourceTransactionManager(this.dataSource)).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				work.run();
+			}
+		});
+	}
+	
+	@Test
+	public void actionsWithSameSql_areExecutedInOneBatch_untilSqlChanges() {
+		DbActionBatch batch = new DbActionBatch();
+		batch.add(this.newUpdateAction("BATCH_TEST", 1, "A1"));
+		batch.add(this.newUpdateAction("BATCH_TEST", 2, "B1"));
+		batch.add(this.newUpdateAction("BATCH_TEST", 3, "C1"));
+		Assert.assertTrue(this.recorder.calls.isEmpty());
+		
+		// A different SQL flushes the batch
+		batch.add((AbstractDbRowDbAction)DbActionUtils.newInsertAction(this.dbConn, "BATCH_TEST").setValue("ID", 4).setValue("TEXT", "D").getAction());
+		Assert.assertEquals(Arrays.asList("batch:3"), this.recorder.calls);
+		
+		batch.flush();
+		Assert.assertEquals(Arrays.asList("batch:3", "update"), this.recorder.calls);
+		
+		Assert.assertEquals("A1", this.getText("BATCH_TEST", 1));
+		Assert.assertEquals("C1", this.getText("BATCH_TEST", 3));
+		Assert.assertEquals("D", this.getText("BATCH_TEST", 4));
+		
+		// Flushing an empty batch doesn't do anything
+		batch.flush();
+		Assert.assertEquals(2, this.recorder.calls.size());
+	}
+	
+	@Test
+	public void batch_fails_ifAnEntryDoesntChangeExactlyOneRow() throws SQLException {
+		DbActionBatch batch = new DbActionBatch();
+		batch.add(this.newUpdateAction("BATCH_TEST", 1, "A1"));
+		batch.add(this.newUpdateAction("BATCH_TEST", 2, "B1"));
+		this.execute("DELETE FROM BATCH_TEST WHERE ID = 2");
+		
+		try {
+			batch.flush();
+			Assert.fail("Expected update count 0");
+		} catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Failed to execute update batch"));
+		}
+	}
+	
+	@Test
+	public void missingUpdateCounts_fallBackToSingleExecution() {
+		this.recorder.noInfo = true;
+		
+		this.doInTransaction(new Runnable() {
+			@Override
+			public void run() {
+				DbActionBatchTest test = DbActionBatchTest.this;
+				
+				DbActionBatch batch = new DbActionBatch();
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 1, "A1"));
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 2, "B1"));
+				batch.flush();
+				
+				// The batch is rolled back and its actions are executed one by one
+				Assert.assertEquals(Arrays.asList("batch:2", "update", "update"), test.recorder.calls);
+				Assert.assertEquals("A1", test.getText("NO_INFO_TEST", 1));
+				Assert.assertEquals("B1", test.getText("NO_INFO_TEST", 2));
+				
+				// The SQL isn't batched anymore, so wrong counts are detected
+				test.recorder.calls.clear();
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 1, "A2"));
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 3, "C2"));
+				test.dbConn.getQueryRunner().update("DELETE FROM NO_INFO_TEST WHERE ID = 3");
+				test.recorder.calls.clear();
+				
+				try {
+					batch.flush();
+					Assert.fail("Expected update count 0");
+				} catch (RuntimeException ex) {
+					Assert.assertEquals(Arrays.asList("update", "update"), test.recorder.calls);
+				}
+			}
+		});
+	}
+	
+	@Test
+	public void missingUpdateCounts_onlyDisableBatchingOfThatDbConnection() {
+		this.recorder.noInfo = true;
+		final RecordingDbConnection otherRecorder = new RecordingDbConnection(TestDbConnections.newDbConnection("DbActionBatchTest2", this.dataSource));
+		final DbConnection otherDbConn = otherRecorder.newProxy();
+		
+		this.doInTransaction(new Runnable() {
+			@Override
+			public void run() {
+				DbActionBatchTest test = DbActionBatchTest.this;
+				
+				DbActionBatch batch = new DbActionBatch();
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 1, "A1"));
+				batch.add(test.newUpdateAction("NO_INFO_TEST", 2, "B1"));
+				batch.flush();
+				Assert.assertEquals(Arrays.asList("batch:2", "update", "update"), test.recorder.calls);
+				
+				// The same SQL on a DbConnection whose driver reports counts is still batched
+				batch.add((AbstractDbRowDbAction)DbActionUtils.newUpdateAction(otherDbConn, "NO_INFO_TEST", 1).setValue("TEXT", "A2").getAction());
+				batch.add((AbstractDbRowDbAction)DbActionUtils.newUpdateAction(otherDbConn, "NO_INFO_TEST", 2).setValue("TEXT", "B2").getAction());
+				batch.flush();
+				Assert.assertEquals(Arrays.asList("batch:2"), otherRecorder.calls);
+				Assert.assertEquals("B2", test.getText("NO_INFO_TEST", 2));
+			}
+		});
+	}
+	
+	@Test
+	public void missingUpdateCounts_withoutTransaction_keepBatch() {
+		this.recorder.noInfo = true;
+		
+		DbActionBatch batch = new DbActionBatch();
+		batch.add(this.newUpdateAction("NO_INFO_TEST", 1, "A1"));
+		batch.add(this.newUpdateAction("NO_INFO_TEST", 2, "B1"));
+		batch.flush();
+		
+		// The batch cannot be rolled back, so the counts aren't checked. The batch doesn't get a connection
+		// of its own to find out, as it wouldn't be released outside a transaction
+		Assert.assertEquals(Arrays.asList("batch:2"), this.recorder.calls);
+		Assert.assertEquals("B1", this.getText("NO_INFO_TEST", 2));
+	}
+	
+	/**
+	 * Wraps a DbConnection to record the calls of batch and update on its DbQueryRunner. Can simulate
+	 * a driver that doesn't report update counts for batches.
+	 * @author Martin
+	 *
+	 */
+	private static class RecordingDbConnection {
+		private final DbConnection dbConn;
+		private final List<String> calls = new ArrayList<>();
+		private boolean noInfo;
+		
+		private RecordingDbConnection(DbConnection dbConn) {
+			this.dbConn = dbConn;
+		}
+		
+		private DbConnection newProxy() {
+			return (DbConnection)Proxy.newProxyInstance(DbConnection.class.getClassLoader(), new Class<?>[] {DbConnection.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("getQueryRunner")) {
+						return RecordingDbConnection.this.newQueryRunnerProxy(RecordingDbConnection.this.dbConn.getQueryRunner());
+					} else if (method.getName().equals("getConnection")) {
+						RecordingDbConnection.this.calls.add("getConnection");
+					}
+					
+					return RecordingDbConnection.invoke(RecordingDbConnection.this.dbConn, method, args);
+				}
+			});
+		}
+		
+		private DbQueryRunner newQueryRunnerProxy(final DbQueryRunner queryRunner) {
+			return (DbQueryRunner)Proxy.newProxyInstance(DbQueryRunner.class.getClassLoader(), new Class<?>[] {DbQueryRunner.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("batch")) {
+						RecordingDbConnection.this.calls.add("batch:" + ((Object[][])args[1]).length);
+						int[] res = (int[])RecordingDbConnection.invoke(queryRunner, method, args);
+						if (RecordingDbConnection.this.noInfo) Arrays.fill(res, Statement.SUCCESS_NO_INFO);
+						
+						return res;
+					} else if (method.getName().equals("update")) {
+						RecordingDbConnection.this.calls.add("update");
+					}
+					
+					return RecordingDbConnection.invoke(queryRunner, method, args);
+				}
+			});
+		}
+		
+		private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+		}
+	}
+}
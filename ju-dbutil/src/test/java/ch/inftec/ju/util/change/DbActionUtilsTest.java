@@ -0,0 +1,133 @@
+package ch.inftec.ju.util.change;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.DbRow;
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.db.TestDbConnections;
+
+public class DbActionUtilsTest {
+	private DriverManagerDataSource dataSource;
+	private DbConnection dbConn;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbActionUtilsTest;create=true");
+		this.dbConn = TestDbConnections.newDbConnection("DbActionUtilsTest", this.dataSource);
+		
+		// The key column order differs from the column order of the table
+		this.execute("CREATE TABLE ACTION_COMPOSITE (B_ID INTEGER, A_ID INTEGER, TEXT VARCHAR(20), PRIMARY KEY (A_ID, B_ID))",
+				"INSERT INTO ACTION_COMPOSITE VALUES (1, 1, 'A'), (2, 1, 'B'), (1, 2, 'C')");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		this.execute("DROP TABLE ACTION_COMPOSITE");
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	private String getText(int aId, int bId) {
+		DbRow row = this.dbConn.getQueryRunner().primaryKeyQuery("ACTION_COMPOSITE", Arrays.asList(aId, bId));
+		return row == null ? null : (String)row.getValue("TEXT");
+	}
+	
+	@Test
+	public void primaryKeyColumnNames_areInKeySequenceOrder() {
+		Assert.assertEquals(Arrays.asList("A_ID", "B_ID"), this.dbConn.getPrimaryKeyColumnNames("ACTION_COMPOSITE"));
+	}
+	
+	@Test
+	public void updateAction_changesRowWithCompositeKey_only() {
+		DbAction action = DbActionUtils.newUpdateAction(this.dbConn, "ACTION_COMPOSITE", new Object[] {1, 2})
+				.setValue("TEXT", "B1")
+				.getAction();
+		action.getHandler().execute();
+		
+		Assert.assertEquals("A", this.getText(1, 1));
+		Assert.assertEquals("B1", this.getText(1, 2));
+		Assert.assertEquals("C", this.getText(2, 1));
+		
+		action.createUndoAction().getHandler().execute();
+		Assert.assertEquals("B", this.getText(1, 2));
+	}
+	
+	@Test
+	public void updateAction_canChangeKeyColumn() {
+		DbAction action = DbActionUtils.newUpdateAction(this.dbConn, "ACTION_COMPOSITE", Arrays.asList(1, 2))
+				.setValue("B_ID", 3)
+				.getAction();
+		action.getHandler().execute();
+		
+		Assert.assertNull(this.getText(1, 2));
+		Assert.assertEquals("B", this.getText(1, 3));
+		Assert.assertEquals("A", this.getText(1, 1));
+		
+		// The undo action finds the row by its new key
+		action.createUndoAction().getHandler().execute();
+		Assert.assertEquals("B", this.getText(1, 2));
+		Assert.assertNull(this.getText(1, 3));
+	}
+	
+	@Test
+	public void deleteAction_deletesRowWithCompositeKey_only() {
+		DbAction action = DbActionUtils.newDeleteAction(this.dbConn, "ACTION_COMPOSITE", Arrays.asList(2L, 1L));
+		action.getHandler().execute();
+		
+		Assert.assertNull(this.getText(2, 1));
+		Assert.assertEquals("A", this.getText(1, 1));
+		Assert.assertEquals("B", this.getText(1, 2));
+		
+		action.createUndoAction().getHandler().execute();
+		Assert.assertEquals("C", this.getText(2, 1));
+	}
+	
+	@Test
+	public void deleteAction_fails_ifRowWasDeletedMeanwhile() throws SQLException {
+		DbAction action = DbActionUtils.newDeleteAction(this.dbConn, "ACTION_COMPOSITE", Arrays.asList(1, 1));
+		this.execute("DELETE FROM ACTION_COMPOSITE WHERE A_ID = 1 AND B_ID = 1");
+		
+		try {
+			action.getHandler().execute();
+			Assert.fail("Expected update count 0");
+		} catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Failed to execute delete"));
+		}
+		Assert.assertEquals("B", this.getText(1, 2));
+	}
+	
+	@Test
+	public void compositeKey_withWrongValueCount_isRejected() {
+		try {
+			DbActionUtils.newDeleteAction(this.dbConn, "ACTION_COMPOSITE", 1);
+			Assert.fail("Expected composite key");
+		} catch (JuDbException ex) {
+			// Expected
+		}
+		
+		try {
+			DbActionUtils.newUpdateAction(this.dbConn, "ACTION_COMPOSITE", Arrays.asList(1, 1, 1));
+			Assert.fail("Expected composite key of two values");
+		} catch (JuDbException ex) {
+			// Expected
+		}
+	}
+}
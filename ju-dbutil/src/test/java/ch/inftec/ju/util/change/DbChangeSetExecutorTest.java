@@ -0,0 +1,208 @@
+package ch.inftec.ju.util.change;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.TestDbConnections;
+import ch.inftec.ju.util.event.JuEventObject;
+import ch.inftec.ju.util.event.UpdateListener;
+
+public class DbChangeSetExecutorTest {
+	private DriverManagerDataSource dataSource;
+	private DbConnection dbConn;
+	private ProgressListener progressListener;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbChangeSetExecutorTest;create=true");
+		this.dbConn = TestDbConnections.newDbConnection("DbChangeSetExecutorTest", this.dataSource);
+		this.progressListener = new ProgressListener();
+		
+		this.execute("CREATE TABLE CHANGE_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"INSERT INTO CHANGE_TEST VALUES (1, 'A'), (2, 'B'), (3, 'C')");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		this.execute("DROP TABLE CHANGE_TEST");
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	private String getText(int id) {
+		return (String)this.dbConn.getQueryRunner().primaryKeyQuery("CHANGE_TEST", id).getValue("TEXT");
+	}
+	
+	@Test
+	public void serialExecution_rollsBackFailingGroup_toItsSavepoint() {
+		new TransactionTemplate(new DataSourceTransactionManager(this.dataSource)).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				DbChangeSetExecutorTest test = DbChangeSetExecutorTest.this;
+				
+				PersistableChangeItem changeSet = DbChangeUtils.buildChangeSet(test.dbConn)
+						.name("Serial")
+						.description("Serial")
+						.progressListener(test.progressListener)
+						.newGroup("G1", "Update 1")
+							.newUpdateAction("CHANGE_TEST", 1).setValue("TEXT", "A1").endAction()
+						.endGroup()
+						.newGroup("G2", "Update 2, then fail")
+							.newUpdateAction("CHANGE_TEST", 2).setValue("TEXT", "B2").endAction()
+							.newInsertAction("CHANGE_TEST").setValue("ID", 1).setValue("TEXT", "Duplicate").endAction()
+						.endGroup()
+						.newGroup("G3", "Not executed")
+							.newUpdateAction("CHANGE_TEST", 3).setValue("TEXT", "C3").endAction()
+						.endGroup()
+						.build();
+				
+				try {
+					changeSet.getHandler().execute();
+					Assert.fail("Expected duplicate key");
+				} catch (RuntimeException ex) {
+					// Expected
+				}
+				
+				// The transaction keeps the changes of the first group only
+				Assert.assertEquals("A1", test.getText(1));
+				Assert.assertEquals("B", test.getText(2));
+				Assert.assertEquals("C", test.getText(3));
+				
+				Assert.assertEquals(2, test.progressListener.progresses.size());
+				DbChangeSetProgress progress = test.progressListener.getLastProgress();
+				Assert.assertEquals(3, progress.getGroupCount());
+				Assert.assertEquals(1, progress.getCompletedGroupCount());
+				Assert.assertEquals(1, progress.getFailedGroupCount());
+				Assert.assertEquals(4, progress.getActionCount());
+				Assert.assertEquals(1, progress.getCompletedActionCount());
+				Assert.assertEquals(1, progress.getParallelism());
+				Assert.assertFalse(progress.isComplete());
+			}
+		});
+	}
+	
+	@Test
+	public void parallelExecution_splitsIndependentGroups() {
+		DbChangeUtils.buildChangeSet(this.dbConn)
+				.name("Parallel")
+				.description("Parallel")
+				.parallelism(2)
+				.progressListener(this.progressListener)
+				.newGroup("G1", "Update 1")
+					.newUpdateAction("CHANGE_TEST", 1).setValue("TEXT", "A1").endAction()
+				.endGroup()
+				.newGroup("G2", "Update 2")
+					.newUpdateAction("CHANGE_TEST", 2).setValue("TEXT", "B2").endAction()
+				.endGroup()
+				.newGroup("G3", "Update 3")
+					.newUpdateAction("CHANGE_TEST", 3).setValue("TEXT", "C3").endAction()
+				.endGroup()
+				.build().getHandler().execute();
+		
+		Assert.assertEquals("A1", this.getText(1));
+		Assert.assertEquals("B2", this.getText(2));
+		Assert.assertEquals("C3", this.getText(3));
+		
+		Assert.assertEquals(3, this.progressListener.progresses.size());
+		DbChangeSetProgress progress = this.progressListener.getLastProgress();
+		Assert.assertTrue(progress.isComplete());
+		Assert.assertEquals(3, progress.getCompletedActionCount());
+		Assert.assertEquals(2, progress.getParallelism());
+	}
+	
+	@Test
+	public void parallelExecution_keepsGroupsChangingTheSameRow_inOrder() {
+		DbChangeUtils.buildChangeSet(this.dbConn)
+				.name("Parallel")
+				.description("Parallel")
+				.parallelism(4)
+				.progressListener(this.progressListener)
+				.newGroup("G1", "Delete 1")
+					.newDeleteAction("CHANGE_TEST", 1)
+				.endGroup()
+				.newGroup("G2", "Update 2")
+					.newUpdateAction("CHANGE_TEST", 2).setValue("TEXT", "B2").endAction()
+				.endGroup()
+				// Table name and key type differ from the delete action, but the row is the same
+				.newGroup("G3", "Insert 1")
+					.newInsertAction("change_test").setValue("ID", 1L).setValue("TEXT", "A3").endAction()
+				.endGroup()
+				.build().getHandler().execute();
+		
+		Assert.assertEquals("A3", this.getText(1));
+		Assert.assertEquals("B2", this.getText(2));
+		
+		DbChangeSetProgress progress = this.progressListener.getLastProgress();
+		Assert.assertTrue(progress.isComplete());
+		Assert.assertEquals(2, progress.getParallelism());
+	}
+	
+	@Test
+	public void parallelExecution_commitsCompletedGroups_ifAGroupFails() {
+		try {
+			DbChangeUtils.buildChangeSet(this.dbConn)
+					.name("Parallel")
+					.description("Parallel")
+					.parallelism(2)
+					.progressListener(this.progressListener)
+					.newGroup("G1", "Update 1")
+						.newUpdateAction("CHANGE_TEST", 1).setValue("TEXT", "A1").endAction()
+					.endGroup()
+					.newGroup("G2", "Insert duplicate")
+						.newInsertAction("CHANGE_TEST").setValue("ID", 4).setValue("TEXT", "D").endAction()
+						.newInsertAction("CHANGE_TEST").setValue("ID", 4).setValue("TEXT", "Duplicate").endAction()
+					.endGroup()
+					.build().getHandler().execute();
+			Assert.fail("Expected duplicate key");
+		} catch (RuntimeException ex) {
+			// Expected
+		}
+		
+		Assert.assertNull(this.dbConn.getQueryRunner().primaryKeyQuery("CHANGE_TEST", 4));
+		
+		// G1 is skipped if its worker only starts after G2 failed, otherwise it is committed
+		DbChangeSetProgress progress = this.progressListener.getLastProgress();
+		Assert.assertEquals(1, progress.getFailedGroupCount());
+		Assert.assertEquals(progress.getCompletedGroupCount() == 1 ? "A1" : "A", this.getText(1));
+	}
+	
+	/**
+	 * Listener recording all progress events.
+	 * @author Martin
+	 *
+	 */
+	private static class ProgressListener implements UpdateListener<DbChangeSetProgress> {
+		private final List<DbChangeSetProgress> progresses = new ArrayList<>();
+		
+		@Override
+		public synchronized void updated(JuEventObject<DbChangeSetProgress> event) {
+			this.progresses.add(event.getSource());
+		}
+		
+		private synchronized DbChangeSetProgress getLastProgress() {
+			return this.progresses.get(this.progresses.size() - 1);
+		}
+	}
+}
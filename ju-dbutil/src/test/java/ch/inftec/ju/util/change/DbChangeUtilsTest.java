@@ -0,0 +1,100 @@
+package ch.inftec.ju.util.change;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import ch.inftec.ju.db.DbConnection;
+import ch.inftec.ju.db.TestDbConnections;
+
+public class DbChangeUtilsTest {
+	private DriverManagerDataSource dataSource;
+	private DbConnection dbConn;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbChangeUtilsTest;create=true");
+		this.dbConn = TestDbConnections.newDbConnection("DbChangeUtilsTest", this.dataSource);
+		
+		this.execute("CREATE TABLE CHANGE_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"CREATE TABLE CHANGE_COMPOSITE (A_ID INTEGER, B_ID INTEGER, TEXT VARCHAR(20), PRIMARY KEY (A_ID, B_ID))",
+				"INSERT INTO CHANGE_TEST VALUES (1, 'A'), (2, 'B')",
+				"INSERT INTO CHANGE_COMPOSITE VALUES (1, 1, 'A'), (1, 2, 'B'), (2, 1, 'C')");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		this.execute("DROP TABLE CHANGE_TEST", "DROP TABLE CHANGE_COMPOSITE");
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	@Test
+	public void prefetchedRows_areFound_withKeysOfOtherNumericTypes() throws SQLException {
+		DbChangeUtils.DbChangeGroupBuilder groupBuilder = DbChangeUtils.buildChangeSet(this.dbConn)
+				.name("Prefetch")
+				.description("Prefetch")
+				.newGroup("Group", "Group")
+					.prefetch("change_test", Arrays.asList(1L, 2L))
+					.prefetch("CHANGE_COMPOSITE", Arrays.asList(Arrays.asList(1L, 2L), new Object[] {2, 1}));
+		
+		// Actions for rows that were prefetched don't query the DB anymore
+		this.execute("DELETE FROM CHANGE_TEST", "DELETE FROM CHANGE_COMPOSITE");
+		
+		groupBuilder.newDeleteAction("CHANGE_TEST", 1);
+		groupBuilder.newDeleteAction("Change_Test", 2L);
+		groupBuilder.newDeleteAction("CHANGE_COMPOSITE", new Object[] {1, 2});
+		groupBuilder.newDeleteAction("CHANGE_COMPOSITE", Arrays.asList(2L, 1L));
+		
+		try {
+			groupBuilder.newDeleteAction("CHANGE_COMPOSITE", Arrays.asList(1, 1));
+			Assert.fail("Row (1, 1) wasn't prefetched and has been deleted");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void updateActions_areCreated_forBulkLoadedRows() throws SQLException {
+		DbChangeUtils.DbChangeSetBuilder setBuilder = DbChangeUtils.buildChangeSet(this.dbConn)
+				.name("Update")
+				.description("Update");
+		DbChangeUtils.DbChangeGroupBuilder groupBuilder = setBuilder.newGroup("Group", "Group");
+		
+		List<DbChangeUtils.DbChangeGroupActionBuilder> actionBuilders = groupBuilder.newUpdateActions("CHANGE_TEST", Arrays.asList(2, 1));
+		Assert.assertEquals(2, actionBuilders.size());
+		actionBuilders.get(0).setValue("TEXT", "B2").endAction();
+		actionBuilders.get(1).setValue("TEXT", "A2").endAction();
+		
+		setBuilder.build().getHandler().execute();
+		Assert.assertEquals("A2", this.dbConn.getQueryRunner().primaryKeyQuery("CHANGE_TEST", 1).getValue("TEXT"));
+		Assert.assertEquals("B2", this.dbConn.getQueryRunner().primaryKeyQuery("CHANGE_TEST", 2).getValue("TEXT"));
+		
+		// The rows have been prefetched for the set
+		this.execute("DELETE FROM CHANGE_TEST");
+		groupBuilder.newDeleteAction("CHANGE_TEST", 1);
+		
+		try {
+			groupBuilder.newUpdateActions("CHANGE_COMPOSITE", Arrays.asList(Arrays.asList(1, 1), Arrays.asList(3, 3)));
+			Assert.fail("Row (3, 3) doesn't exist");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		}
+	}
+}
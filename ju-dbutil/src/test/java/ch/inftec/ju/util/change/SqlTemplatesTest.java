@@ -0,0 +1,67 @@
+package ch.inftec.ju.util.change;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SqlTemplatesTest {
+	@After
+	public void clearTemplates() throws Exception {
+		Field templates = SqlTemplates.class.getDeclaredField("templates");
+		templates.setAccessible(true);
+		((Map<?, ?>)templates.get(null)).clear();
+	}
+	
+	@Test
+	public void insertSql_isCached() {
+		String sql = SqlTemplates.getInsertSql("T", new String[] {"A", "B"});
+		Assert.assertEquals("INSERT INTO T (A, B) VALUES (?, ?)", sql);
+		Assert.assertSame(sql, SqlTemplates.getInsertSql("T", new String[] {"A", "B"}));
+		
+		Assert.assertEquals("INSERT INTO T (B, A) VALUES (?, ?)", SqlTemplates.getInsertSql("T", new String[] {"B", "A"}));
+		Assert.assertEquals("INSERT INTO T2 (A, B) VALUES (?, ?)", SqlTemplates.getInsertSql("T2", new String[] {"A", "B"}));
+	}
+	
+	@Test
+	public void updateSql_isCached() {
+		String sql = SqlTemplates.getUpdateSql("T", new String[] {"B", "C"}, Arrays.asList("A", "D"));
+		Assert.assertEquals("UPDATE T SET B=?, C=? WHERE A=? AND D=?", sql);
+		Assert.assertSame(sql, SqlTemplates.getUpdateSql("T", new String[] {"B", "C"}, Arrays.asList("A", "D")));
+		
+		Assert.assertEquals("UPDATE T SET B=? WHERE A=? AND D=?", SqlTemplates.getUpdateSql("T", new String[] {"B"}, Arrays.asList("A", "D")));
+		Assert.assertEquals("UPDATE T SET B=?, C=? WHERE A=?", SqlTemplates.getUpdateSql("T", new String[] {"B", "C"}, Arrays.asList("A")));
+	}
+	
+	@Test
+	public void deleteSql_isCached() {
+		String sql = SqlTemplates.getDeleteSql("T", Arrays.asList("A", "D"));
+		Assert.assertEquals("DELETE FROM T WHERE A=? AND D=?", sql);
+		Assert.assertSame(sql, SqlTemplates.getDeleteSql("T", Arrays.asList("A", "D")));
+		
+		Assert.assertEquals("DELETE FROM T WHERE A=?", SqlTemplates.getDeleteSql("T", Arrays.asList("A")));
+	}
+	
+	@Test
+	public void leastRecentlyUsedStatement_isRemoved_ifMaxSizeIsExceeded() {
+		String firstSql = SqlTemplates.getInsertSql("T0", new String[] {"A"});
+		String secondSql = SqlTemplates.getInsertSql("T1", new String[] {"A"});
+		for (int i = 2; i < SqlTemplates.MAX_SIZE; i++) {
+			SqlTemplates.getInsertSql("T" + i, new String[] {"A"});
+		}
+		
+		// Using T0 makes T1 the least recently used statement
+		Assert.assertSame(firstSql, SqlTemplates.getInsertSql("T0", new String[] {"A"}));
+		
+		String sql = SqlTemplates.getInsertSql("T_FULL", new String[] {"A"});
+		Assert.assertEquals("INSERT INTO T_FULL (A) VALUES (?)", sql);
+		Assert.assertSame(sql, SqlTemplates.getInsertSql("T_FULL", new String[] {"A"}));
+		
+		Assert.assertSame(firstSql, SqlTemplates.getInsertSql("T0", new String[] {"A"}));
+		Assert.assertNotSame(secondSql, SqlTemplates.getInsertSql("T1", new String[] {"A"}));
+	}
+}
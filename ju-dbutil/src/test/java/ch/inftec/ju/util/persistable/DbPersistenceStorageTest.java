@@ -1,5 +1,23 @@
 package ch.inftec.ju.util.persistable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import junit.framework.Assert;
+
+import org.hibernate.ejb.Ejb3Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.inftec.ju.util.persistable.DbPersistenceStorage.StorageMode;
+import ch.inftec.ju.util.persistable.MementoStorage.GenericMementoItem;
 
 /**
  * Tests for the DbPersistenceStorage implementation of a MementoStorage.
@@ -7,57 +25,198 @@ package ch.inftec.ju.util.persistable;
  *
  */
 public class DbPersistenceStorageTest {
-	// TODO: Refactor or remove
-//	private static DbConnectionFactory dcf = DbConnectionFactoryLoader.createInstance();
-//	
-//	@Test
-//	public void mementoStorage() {
-//		try (DbConnection dbConn = dcf.openDbConnection("PU_mementoObject")) {
-//			TestObject o1 = new TestObject("o1", 1L);
-//			o1.setId(1L); // Makes assertion comparison easier
-//			
-//			EntityManager em = dbConn.getEntityManager();
-//			em.createQuery("delete from TestObject").executeUpdate(); // Clear from previous/unrelated runs
-//			em.persist(o1);
-//			em.flush();
-//			
-//			DbAction updateAction1 = dbConn.getQueryRunner().getUpdateAction("TestObject", o1.getId());
-//			DbAction updateAction2 = dbConn.getQueryRunner().getUpdateAction("TestObject", o1.getId());
-//			DbAction updateAction3 = dbConn.getQueryRunner().getUpdateAction("TestObject", o1.getId());
-//			
-//			updateAction1.setValue("text", "o1_new");
-//			updateAction2.setValue("value", -1L);
-//			updateAction3.setValue("value", 2);
-//			
-//			PersistableChangeItem changeItem = DbChangeUtils.buildChangeSet(dbConn)
-//				.name("Memento Test")
-//				.description("Memento Test")
-//				.newGroup("G1", "Group1")
-//					.addAction(updateAction1)
-//					.addAction(updateAction2)
-//					.endGroup()
-//				.newGroup("G2", "Group2")
-//					.addAction(updateAction3)
-//					.endGroup()
-//				.build();
-//			
-//			GenericMemento memento = changeItem.createMemento();
-//			
-//			// Store to StringStorage to check contents
-//			TestUtils.assertEqualsResource("DbPersistenceStorageTest_mementoStorage.txt", GenericMementoUtils.persistToString(memento, "DbChangeSet"));
-//			
-//			// Store to DbPersistenceStorage
-//			MementoStorage dbStorage = new DbPersistenceStorage(dbConn);
-//			
-//			Long id = dbStorage.persistMemento(memento, "ChangeSet");
-//			
-//			// Load from DbPersistenceStorage
-//			GenericMementoItem loadedMementoItem = dbStorage.loadMemento(id);
-//			
-//			Assert.assertEquals(id, loadedMementoItem.getId());
-//			
-//			TestUtils.assertEqualsResource("DbPersistenceStorageTest_mementoStorage.txt", 
-//					GenericMementoUtils.persistToString(loadedMementoItem.getMemento(), "ChangeSet"));
-//		}
-//	}
+	private EntityManagerFactory emf;
+	private EntityManager em;
+	private DbPersistenceStorage storage;
+	
+	@Before
+	public void createStorage() {
+		// The mapping file renames the key column that is reserved in Derby
+		this.emf = new Ejb3Configuration()
+				.addResource("META-INF/orm-mementoObject.xml")
+				.addAnnotatedClass(MementoObject.class)
+				.addAnnotatedClass(AttributeObject.class)
+				.addAnnotatedClass(FlatAttributeObject.class)
+				.setProperty("hibernate.dialect", "org.hibernate.dialect.DerbyTenSevenDialect")
+				.setProperty("hibernate.connection.driver_class", "org.apache.derby.jdbc.EmbeddedDriver")
+				.setProperty("hibernate.connection.url", "jdbc:derby:memory:dbPersistenceStorageTest;create=true")
+				.setProperty("hibernate.hbm2ddl.auto", "create-drop")
+				.buildEntityManagerFactory();
+		
+		this.em = this.emf.createEntityManager();
+		this.em.getTransaction().begin();
+		
+		this.storage = new DbPersistenceStorage();
+		ReflectionTestUtils.setField(this.storage, "em", this.em);
+	}
+	
+	@After
+	public void closeStorage() {
+		this.em.getTransaction().rollback();
+		this.em.close();
+		this.emf.close();
+	}
+	
+	private GenericMemento createMemento() {
+		return GenericMementoUtils.builder()
+				.add(DbPersistenceStorage.ATTR_EXECUTION_TIME, new Date(1000))
+				.addString("string", "root")
+				.addLong("long", -1L)
+				.addString("nullValue", null)
+				.add(null, "nullKey", null, null)
+				.add(null, null, null, null)
+				.newChild()
+					.addDate("date", new Date(2000))
+					.newChild()
+						.addString("string", "grandchild")
+						.add("all", "a", new Date(3000), 3L)
+						.childDone()
+					.newChild()
+						.childDone()
+					.childDone()
+				.newChild()
+					.addString("string", "child2")
+					.childDone()
+				.build();
+	}
+	
+	private void assertRoundTrip(StorageMode storageMode) {
+		GenericMemento memento = this.createMemento();
+		
+		this.storage.setStorageMode(storageMode);
+		Long id = this.storage.persistMemento(memento, "type");
+		
+		// Make sure the memento is loaded from the database
+		this.em.flush();
+		this.em.clear();
+		
+		GenericMementoItem item = this.storage.loadMemento(id);
+		Assert.assertEquals(id, item.getId());
+		Assert.assertEquals("type", item.getType());
+		Assert.assertEquals(GenericMementoUtils.persistToString(memento, "type"),
+				GenericMementoUtils.persistToString(item.getMemento(), "type"));
+	}
+	
+	@Test
+	public void entityMode_roundTrip() {
+		this.assertRoundTrip(StorageMode.ENTITY);
+	}
+	
+	@Test
+	public void batchMode_roundTrip() {
+		this.assertRoundTrip(StorageMode.BATCH);
+	}
+	
+	@Test
+	public void blobMode_roundTrip() {
+		this.assertRoundTrip(StorageMode.BLOB);
+	}
+	
+	@Test
+	public void loadMemento_returnsNull_forUnknownId() {
+		Assert.assertNull(this.storage.loadMemento(-1L));
+	}
+	
+	private Long persistRoot(String type, Long time) {
+		GenericMemento memento = GenericMementoUtils.builder()
+				.add(DbPersistenceStorage.ATTR_EXECUTION_TIME, time == null ? null : new Date(time))
+				.addString("type", type)
+				.build();
+		
+		Long id = this.storage.persistMemento(memento, type);
+		
+		// Simulate a root persisted by a version that didn't set the execution time
+		if (time == null) {
+			this.em.createQuery("update MementoObject mo set mo.executionTime = null where mo.id = :id")
+					.setParameter("id", id)
+					.executeUpdate();
+		}
+		
+		return id;
+	}
+	
+	private List<String> loadAllTypes(int pageSize) {
+		List<String> types = new ArrayList<>();
+		
+		Long lastId = null;
+		while (true) {
+			List<GenericMementoItem> items = this.storage.loadMementos(pageSize, lastId);
+			Assert.assertTrue(items.size() <= pageSize);
+			if (items.isEmpty()) return types;
+			
+			for (GenericMementoItem item : items) {
+				types.add(item.getType());
+			}
+			lastId = items.get(items.size() - 1).getId();
+		}
+	}
+	
+	@Test
+	public void loadMementos_pagesByExecutionTimeAndId_includingTies() {
+		this.storage.setStorageMode(StorageMode.BLOB);
+		
+		this.persistRoot("E", 1000L);
+		this.persistRoot("B", 2000L);
+		this.persistRoot("C", 2000L);
+		this.persistRoot("A", 3000L);
+		this.persistRoot("D", 2000L);
+		
+		List<String> expected = Arrays.asList("A", "D", "C", "B", "E");
+		for (int pageSize = 1; pageSize <= 6; pageSize++) {
+			Assert.assertEquals("Page size " + pageSize, expected, this.loadAllTypes(pageSize));
+		}
+	}
+	
+	@Test
+	public void loadMementos_listsRootsWithoutExecutionTime_last() {
+		this.storage.setStorageMode(StorageMode.BLOB);
+		
+		this.persistRoot("F", null);
+		this.persistRoot("A", 2000L);
+		this.persistRoot("G", null);
+		this.persistRoot("B", 1000L);
+		this.em.clear();
+		
+		List<String> expected = Arrays.asList("A", "B", "G", "F");
+		for (int pageSize = 1; pageSize <= 5; pageSize++) {
+			Assert.assertEquals("Page size " + pageSize, expected, this.loadAllTypes(pageSize));
+		}
+	}
+	
+	@Test
+	public void loadMementos_returnsEmptyList_forUnknownLastId() {
+		this.persistRoot("A", 1000L);
+		
+		Assert.assertEquals(1, this.storage.loadMementos(10).size());
+		Assert.assertTrue(this.storage.loadMementos(10, -1L).isEmpty());
+	}
+	
+	@Test
+	public void loadMementos_loadsMementoTree_onFirstGetMemento() {
+		this.storage.setStorageMode(StorageMode.BLOB);
+		
+		Long idA = this.persistRoot("A", 2000L);
+		Long idB = this.persistRoot("B", 1000L);
+		
+		List<GenericMementoItem> items = this.storage.loadMementos(10);
+		Assert.assertEquals(2, items.size());
+		Assert.assertEquals(idA, items.get(0).getId());
+		Assert.assertEquals(idB, items.get(1).getId());
+		
+		GenericMemento mementoA = items.get(0).getMemento();
+		Assert.assertEquals("A", mementoA.getAttributes().get(1).getStringValue());
+		
+		// The trees are not loaded by loadMementos, so B fails after it was removed
+		this.em.remove(this.em.find(MementoObject.class, idA));
+		this.em.remove(this.em.find(MementoObject.class, idB));
+		this.em.flush();
+		
+		Assert.assertSame(mementoA, items.get(0).getMemento());
+		try {
+			items.get(1).getMemento();
+			Assert.fail("Expected removed memento");
+		} catch (IllegalStateException ex) {
+			Assert.assertEquals("Memento doesn't exist anymore: " + idB, ex.getMessage());
+		}
+	}
 }
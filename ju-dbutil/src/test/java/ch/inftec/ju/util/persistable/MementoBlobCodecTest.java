@@ -0,0 +1,39 @@
+package ch.inftec.ju.util.persistable;
+
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests for the MementoBlobCodec used by DbPersistenceStorage.
+ * @author Martin
+ *
+ */
+public class MementoBlobCodecTest {
+	@Test
+	public void encodeAndDecode() {
+		GenericMemento memento = GenericMementoUtils.builder()
+				.add(DbPersistenceStorage.ATTR_CONNECTION_NAME, "conn")
+				.add(DbPersistenceStorage.ATTR_EXECUTION_TIME, new Date(1000L))
+				.newChild()
+					.add("text", "äöü")
+					.add("value", 2L)
+					.add("empty", null, null, null)
+					.newChild()
+						.add("all", "s", new Date(2000L), 3L)
+						.childDone()
+					.childDone()
+				.newChild()
+					.childDone()
+				.build();
+		
+		byte[] data = MementoBlobCodec.encode(memento);
+		GenericMemento decoded = MementoBlobCodec.decode(data);
+		
+		Assert.assertEquals(GenericMementoUtils.persistToString(memento, "test"), GenericMementoUtils.persistToString(decoded, "test"));
+		Assert.assertEquals(2, decoded.getChildren().size());
+		Assert.assertEquals(new Date(2000L), decoded.getChildren().get(0).getChildren().get(0).getAttributes().get(0).getDateValue());
+	}
+}
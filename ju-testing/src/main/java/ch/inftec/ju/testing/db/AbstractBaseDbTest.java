@@ -32,6 +32,14 @@ import ch.inftec.ju.util.comparison.ValueComparator;
  * <p>
  * Extending classes must be annotated with @ContextConfiguration and provide an
  * appropriated Spring context.
+ * <p>
+ * To run the tests in parallel threads (e.g. using the parallel option of surefire), the context must
+ * use a DerbyWorkerDataSource that gives every thread a database of its own. The default context
+ * does so if the Spring profile parallelDbTests is active.
+ * <p>
+ * If the context defines DbDataSnapshots, clean imports only reload the tables changed since the last
+ * import of the same data. The imported data is committed, so all tests must import the data they rely on.
+ * The default context does so if the Spring profile snapshotDbData is active.
  *
  * @author tgdmemae
  *
@@ -87,6 +95,9 @@ public abstract class AbstractBaseDbTest {
 	@Autowired(required=false)
 	private DefaultDataTypeFactory dataTypeFactor;
 	
+	@Autowired(required=false)
+	private DbDataSnapshots dbDataSnapshots;
+	
 	@Autowired
 	private JuDbUtils juDbUtils;
 	
@@ -100,6 +111,7 @@ public abstract class AbstractBaseDbTest {
 		if (this.dataTypeFactor != null) {
 			util.setConfigProperty("http://www.dbunit.org/properties/datatypeFactory", this.dataTypeFactor);
 		}
+		util.setSnapshots(this.dbDataSnapshots);
 		
 		return util;
 	}
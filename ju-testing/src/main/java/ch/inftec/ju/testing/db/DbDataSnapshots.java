@@ -0,0 +1,265 @@
+package ch.inftec.ju.testing.db;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.FilteredDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.filter.SequenceTableFilter;
+import org.dbunit.dataset.xml.FlatXmlDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.operation.DatabaseOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.testing.db.DbDataUtil.DbUnitWork;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Keeps the data of clean imports committed in the database, so importing the same data set again only has
+ * to reload the tables that have been changed since.
+ * <p>
+ * Tests run in transactions that are rolled back, so a clean import normally deletes and inserts the whole data
+ * set before every test. With snapshots, the first clean import of a data set commits the data in a separate
+ * connection and records the data set of every table in the table JU_DATA_SNAPSHOT. Triggers on the tables
+ * delete that record when the table is changed. As the triggers run in the transaction of the change, changes
+ * rolled back at the end of a test leave the record in place. The next clean import of the same data set skips
+ * all tables that still contain it and only reloads the tables from the first changed one on (following tables
+ * may reference it). Parsed data sets are cached as well.
+ * <p>
+ * Note that the imported data stays in the database after the test, i.e. tests that don't import any data see
+ * the data of previous tests rather than empty tables. Derby doesn't allow to truncate tables with DELETE triggers,
+ * so the tables of a snapshot cannot be truncated.
+ * <p>
+ * Snapshots are only supported on Derby. If a transaction holds locks on any of the tables to reload, e.g. because
+ * the transaction of the import has changed them (or other databases are used), the data is imported in the
+ * transaction as without snapshots.
+ * <p>
+ * Define an instance with the DataSource of the test as Spring bean to enable snapshots. AbstractBaseDbTest
+ * will pass it to the DbDataUtil instances it creates. The default test context does so if the Spring profile
+ * snapshotDbData is active.
+ * @author Martin
+ *
+ */
+public class DbDataSnapshots {
+	/**
+	 * Name of the table recording the data set of the tables.
+	 */
+	public static final String SNAPSHOT_TABLE = "JU_DATA_SNAPSHOT";
+	
+	private static final String TRIGGER_PREFIX = "JU_SNAP_";
+	
+	private final Logger logger = LoggerFactory.getLogger(DbDataSnapshots.class);
+	
+	private final Map<String, FlatXmlDataSet> dataSets = new ConcurrentHashMap<>();
+	
+	private DataSource dataSource;
+	
+	/**
+	 * Sets the DataSource to get the connections to commit the data with. Must connect to the same database
+	 * as the transaction of the test.
+	 * @param dataSource DataSource
+	 */
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+	
+	/**
+	 * Gets the parsed data set of the specified XML, parsing it only on the first call.
+	 * @param xmlUrl URL to the FlatXml file
+	 * @return FlatXmlDataSet
+	 */
+	FlatXmlDataSet getDataSet(URL xmlUrl) {
+		String key = xmlUrl.toExternalForm();
+		FlatXmlDataSet dataSet = this.dataSets.get(key);
+		if (dataSet == null) {
+			try {
+				dataSet = new FlatXmlDataSetBuilder()
+					.setColumnSensing(true)
+					.build(xmlUrl);
+			} catch (Exception ex) {
+				throw new JuDbException("Couldn't import data from XML: " + xmlUrl, ex);
+			}
+			this.dataSets.put(key, dataSet);
+		}
+		
+		return dataSet;
+	}
+	
+	/**
+	 * Performs a clean insert of the data set, reloading only the tables that don't contain the data set anymore.
+	 * @param dbDataUtil DbDataUtil of the current transaction
+	 * @param xmlUrl URL of the data set, identifying it in the snapshot
+	 * @param dataSet Data set
+	 */
+	void cleanInsert(final DbDataUtil dbDataUtil, final URL xmlUrl, final IDataSet dataSet) {
+		dbDataUtil.execute(new DbUnitWork() {
+			@Override
+			public void execute(IDatabaseConnection conn) {
+				try {
+					Connection txConn = conn.getConnection();
+					if (!txConn.getMetaData().getDatabaseProductName().contains("Derby")) {
+						DatabaseOperation.CLEAN_INSERT.execute(conn, dataSet);
+						return;
+					}
+					
+					String[] reloadTables = DbDataSnapshots.this.getTablesToReload(txConn, xmlUrl.toExternalForm(), dataSet);
+					if (reloadTables.length == 0) {
+						DbDataSnapshots.this.logger.debug("Data of {} is unchanged", xmlUrl);
+					} else if (DbDataSnapshots.this.isAnyLocked(txConn, reloadTables)) {
+						DbDataSnapshots.this.logger.debug("Tables of {} are locked, importing data in transaction", xmlUrl);
+						DatabaseOperation.CLEAN_INSERT.execute(conn, dataSet);
+					} else {
+						DbDataSnapshots.this.logger.debug("Reloading tables {} of {}", Arrays.toString(reloadTables), xmlUrl);
+						DbDataSnapshots.this.reload(dbDataUtil, xmlUrl.toExternalForm(), new FilteredDataSet(new SequenceTableFilter(reloadTables), dataSet));
+					}
+				} catch (JuDbException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					throw new JuDbException("Couldn't clean and insert data into DB", ex);
+				}
+			}
+		});
+	}
+	
+	private String[] getTablesToReload(Connection conn, String dataSetKey, IDataSet dataSet) throws Exception {
+		Map<String, String> snapshot = new HashMap<>();
+		if (this.hasSnapshotTable(conn)) {
+			// Only trust records of tables that still have their triggers, i.e. haven't been recreated
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery(String.format("SELECT s.TABLE_NAME, s.DATA_SET FROM %s s"
+							+ " WHERE EXISTS (SELECT * FROM SYS.SYSTRIGGERS t WHERE t.TRIGGERNAME = '%s' || s.TABLE_NAME || '_D')",
+							DbDataSnapshots.SNAPSHOT_TABLE, DbDataSnapshots.TRIGGER_PREFIX))) {
+				while (rs.next()) {
+					snapshot.put(rs.getString(1), rs.getString(2));
+				}
+			}
+		}
+		
+		String[] tableNames = dataSet.getTableNames();
+		for (int i = 0; i < tableNames.length; i++) {
+			if (!dataSetKey.equals(snapshot.get(tableNames[i].toUpperCase()))) {
+				return Arrays.copyOfRange(tableNames, i, tableNames.length);
+			}
+		}
+		
+		return new String[0];
+	}
+	
+	private boolean hasSnapshotTable(Connection conn) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getTables(null, null, DbDataSnapshots.SNAPSHOT_TABLE, null)) {
+			return rs.next();
+		}
+	}
+	
+	private boolean isAnyLocked(Connection conn, String[] tableNames) throws SQLException {
+		// The reload connection would have to wait for the locks of any user transaction, including the one of conn.
+		// Derby's background tasks (e.g. reclaiming the space of deleted rows) lock tables temporarily in internal
+		// transactions, so their locks are ignored.
+		Set<String> lockedTables = new HashSet<>();
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT DISTINCT l.TABLENAME FROM SYSCS_DIAG.LOCK_TABLE l"
+						+ " JOIN SYSCS_DIAG.TRANSACTION_TABLE t ON l.XID = t.XID WHERE t.TYPE = 'UserTransaction'")) {
+			while (rs.next()) {
+				lockedTables.add(rs.getString(1));
+			}
+		}
+		
+		if (lockedTables.contains(DbDataSnapshots.SNAPSHOT_TABLE)) return true;
+		for (String tableName : tableNames) {
+			if (lockedTables.contains(tableName.toUpperCase())) return true;
+		}
+		
+		return false;
+	}
+	
+	private void reload(DbDataUtil dbDataUtil, String dataSetKey, final IDataSet dataSet) throws Exception {
+		try (Connection conn = this.dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				if (!this.hasSnapshotTable(conn)) {
+					try (Statement stmt = conn.createStatement()) {
+						stmt.executeUpdate(String.format("CREATE TABLE %s (TABLE_NAME VARCHAR(128) NOT NULL PRIMARY KEY, DATA_SET VARCHAR(2000) NOT NULL)",
+								DbDataSnapshots.SNAPSHOT_TABLE));
+					}
+				}
+				
+				List<String> tableNames = new ArrayList<>();
+				for (String tableName : dataSet.getTableNames()) {
+					tableNames.add(tableName.toUpperCase());
+				}
+				this.createTriggers(conn, tableNames);
+				
+				dbDataUtil.doExecute(conn, new DbUnitWork() {
+					@Override
+					public void execute(IDatabaseConnection conn) {
+						try {
+							DatabaseOperation.CLEAN_INSERT.execute(conn, dataSet);
+						} catch (Exception ex) {
+							throw new JuDbException("Couldnt clean and insert data into DB", ex);
+						}
+					}
+				});
+				
+				try (PreparedStatement delete = conn.prepareStatement(String.format("DELETE FROM %s WHERE TABLE_NAME = ?",
+						DbDataSnapshots.SNAPSHOT_TABLE));
+						PreparedStatement insert = conn.prepareStatement(String.format("INSERT INTO %s (TABLE_NAME, DATA_SET) VALUES (?, ?)",
+								DbDataSnapshots.SNAPSHOT_TABLE))) {
+					for (String tableName : tableNames) {
+						delete.setString(1, tableName);
+						delete.addBatch();
+						insert.setString(1, tableName);
+						insert.setString(2, dataSetKey);
+						insert.addBatch();
+					}
+					delete.executeBatch();
+					insert.executeBatch();
+				}
+				
+				conn.commit();
+			} catch (Exception ex) {
+				conn.rollback();
+				throw ex;
+			}
+		}
+	}
+	
+	private void createTriggers(Connection conn, List<String> tableNames) throws SQLException {
+		try (PreparedStatement query = conn.prepareStatement("SELECT COUNT(*) FROM SYS.SYSTRIGGERS WHERE TRIGGERNAME = ?");
+				Statement stmt = conn.createStatement()) {
+			for (String tableName : tableNames) {
+				query.setString(1, DbDataSnapshots.TRIGGER_PREFIX + tableName + "_D");
+				try (ResultSet rs = query.executeQuery()) {
+					rs.next();
+					if (rs.getInt(1) > 0) continue;
+				}
+				
+				for (String event : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+					stmt.executeUpdate(String.format("CREATE TRIGGER %s%s_%s AFTER %s ON %s FOR EACH STATEMENT DELETE FROM %s WHERE TABLE_NAME = '%s'",
+							DbDataSnapshots.TRIGGER_PREFIX, tableName, event.charAt(0), event, tableName, DbDataSnapshots.SNAPSHOT_TABLE, tableName));
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "dataSets", this.dataSets.size());
+	}
+}
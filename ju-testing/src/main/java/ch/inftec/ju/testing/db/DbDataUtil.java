@@ -17,7 +17,9 @@ import org.dbunit.DatabaseUnitException;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
 import org.dbunit.database.QueryDataSet;
+import org.dbunit.dataset.FilteredDataSet;
 import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.filter.ExcludeTableFilter;
 import org.dbunit.dataset.xml.FlatXmlDataSet;
 import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
 import org.dbunit.ext.oracle.Oracle10DataTypeFactory;
@@ -48,6 +50,8 @@ public class DbDataUtil {
 	private String schemaName = null;
 	
 	private Map<String, Object> configProperties = new HashMap<>();
+	
+	private DbDataSnapshots snapshots;
 
 	/**
 	 * Creates a new DbDataUtil instance using the specifiec Connection.
@@ -117,7 +121,18 @@ public class DbDataUtil {
 		return this;
 	}
 	
-	private void execute(final DbUnitWork work) {
+	/**
+	 * Sets the DbDataSnapshots to use for clean imports from XML resources. The data will only be reloaded
+	 * if it has been changed since the last import.
+	 * @param snapshots DbDataSnapshots or null to import the whole data on every clean import
+	 * @return This instance to allow for chaining
+	 */
+	public DbDataUtil setSnapshots(DbDataSnapshots snapshots) {
+		this.snapshots = snapshots;
+		return this;
+	}
+	
+	void execute(final DbUnitWork work) {
 		if (this.connection != null) {
 			this.doExecute(this.connection, work);
 		} else if (this.em != null){
@@ -132,7 +147,7 @@ public class DbDataUtil {
 		}
 	}
 	
-	private void doExecute(Connection connection, DbUnitWork work) {
+	void doExecute(Connection connection, DbUnitWork work) {
 		/**
 		 * Due to a JDBC 1.4 spec imcompatibility of the Oracle driver
 		 * (doesn't return IS_AUTOINCREMENT in table meta data), we need
@@ -162,6 +177,13 @@ public class DbDataUtil {
 		}
 	}
 	
+	/**
+	 * Creates a data set of all tables, excluding the table of the DbDataSnapshots.
+	 */
+	private static IDataSet createDataSet(IDatabaseConnection conn) throws SQLException {
+		return new FilteredDataSet(new ExcludeTableFilter(new String[] {DbDataSnapshots.SNAPSHOT_TABLE}), conn.createDataSet());
+	}
+	
 	public void cleanImport(String resourcePath) {
 		this.buildImport().from(resourcePath).executeCleanInsert();
 	}
@@ -198,7 +220,7 @@ public class DbDataUtil {
 	 * <T> Return value
 	 *
 	 */
-	private static interface DbUnitWork {
+	static interface DbUnitWork {
 		public void execute(IDatabaseConnection conn);
 	}
 	
@@ -300,7 +322,7 @@ public class DbDataUtil {
 					public void execute(IDatabaseConnection conn) {
 						try {
 							try {
-								this.setReturnValue(conn.createDataSet());
+								this.setReturnValue(DbDataUtil.createDataSet(conn));
 							} catch (Exception ex) {
 								throw new JuDbException("Couldn't create DataSet from DB");
 							}
@@ -352,6 +374,7 @@ public class DbDataUtil {
 	public static class ImportBuilder {
 		private final DbDataUtil dbDataUtil;
 		private FlatXmlDataSet flatXmlDataSet;
+		private URL xmlUrl;
 		
 		private ImportBuilder(DbDataUtil dbDataUtil) {
 			this.dbDataUtil = dbDataUtil;	
@@ -372,6 +395,12 @@ public class DbDataUtil {
 		 * @param xmlUrl URL to XML file location
 		 */
 		public ImportBuilder from(URL xmlUrl) {
+			this.xmlUrl = xmlUrl;
+			if (this.dbDataUtil.snapshots != null) {
+				flatXmlDataSet = this.dbDataUtil.snapshots.getDataSet(xmlUrl);
+				return this;
+			}
+			
 			try {
 				flatXmlDataSet = new FlatXmlDataSetBuilder()
 					.setColumnSensing(true)
@@ -385,8 +414,15 @@ public class DbDataUtil {
 		/**
 		 * Performs a clean import of the data into the DB, i.e. cleans any existing
 		 * data in affected tables and imports the rows specified in in this builder.
+		 * <p>
+		 * If DbDataSnapshots are set, only the tables changed since the last import are reloaded.
 		 */
 		public void executeCleanInsert() {
+			if (this.dbDataUtil.snapshots != null) {
+				this.dbDataUtil.snapshots.cleanInsert(this.dbDataUtil, this.xmlUrl, flatXmlDataSet);
+				return;
+			}
+			
 			this.dbDataUtil.execute(new DbUnitWork() {
 				@Override
 				public void execute(IDatabaseConnection conn) {
@@ -469,7 +505,7 @@ public class DbDataUtil {
 				@Override
 				public void execute(IDatabaseConnection conn) {
 					try {
-						IDataSet  dbDataSet = conn.createDataSet();
+						IDataSet  dbDataSet = DbDataUtil.createDataSet(conn);
 						Assertion.assertEquals(flatXmlDataSet, dbDataSet);
 					} catch (Exception ex) {
 						throw new JuDbException("Couldn't assert DB data", ex);
@@ -1,5 +1,12 @@
 package ch.inftec.ju.testing.db.data;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
 import ch.inftec.ju.db.JuDbException;
 import ch.inftec.ju.db.JuDbUtils;
 import ch.inftec.ju.testing.db.data.TestDbUtils.AbstractTestDb;
@@ -51,16 +58,40 @@ class DerbyTestDb extends AbstractTestDb {
 		this.jdbcTemplate.update("DROP TABLE TEST_A");
 	}
 	
+	/**
+	 * Restarts the IDs of the entity tables with 10.
+	 * <p>
+	 * The restart is committed in a separate connection. Altering the tables in the transaction of the
+	 * test would lock them until the end of the test. Tables whose IDs already start with 10 aren't altered.
+	 */
 	@Override
 	protected void resetPlatformSpecificData() throws JuDbException {
-		for (Class<?> clazz : JuDbUtils.getManagedTypesAsClass(this.em)) {
-			// Note: This works as long as the table name is not changed by an annotation
-			// or a configuration file...
-			// TODO: Get TableName by EntityManager
-			String tableName = clazz.getSimpleName().toUpperCase();
+		try (Connection conn = this.dataSource.getConnection()) {
+			Set<String> resetTables = new HashSet<>();
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT t.TABLENAME FROM SYS.SYSCOLUMNS c JOIN SYS.SYSTABLES t ON c.REFERENCEID = t.TABLEID"
+							+ " WHERE c.COLUMNNAME = 'ID' AND c.AUTOINCREMENTVALUE = 10")) {
+				while (rs.next()) {
+					resetTables.add(rs.getString(1));
+				}
+			}
+			
+			try (Statement stmt = conn.createStatement()) {
+				for (Class<?> clazz : JuDbUtils.getManagedTypesAsClass(this.em)) {
+					// Note: This works as long as the table name is not changed by an annotation
+					// or a configuration file...
+					// TODO: Get TableName by EntityManager
+					String tableName = clazz.getSimpleName().toUpperCase();
+					if (resetTables.contains(tableName)) continue;
+					
+					// TODO: Works as long as the table has an auto incremented ID column... Make more robust!
+					stmt.executeUpdate(String.format("ALTER TABLE %s ALTER COLUMN ID RESTART WITH 10", tableName));
+				}
+			}
 			
-			// TODO: Works as long as the table has an auto incremented ID column... Make more robust!
-			this.jdbcTemplate.update(String.format("ALTER TABLE %s ALTER COLUMN ID RESTART WITH 10", tableName));
+			if (!conn.getAutoCommit()) conn.commit();
+		} catch (SQLException ex) {
+			throw new JuDbException("Couldn't reset IDs", ex);
 		}
 	}
 }
@@ -0,0 +1,245 @@
+package ch.inftec.ju.testing.db.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import ch.inftec.ju.db.ConnectionInfo;
+import ch.inftec.ju.db.ConnectionInfoDataSource;
+import ch.inftec.ju.db.JuDbException;
+import ch.inftec.ju.db.ThreadBindingDataSource;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * DataSource that gives every thread its own in-memory Derby database, so DB tests can run in parallel
+ * threads sharing the same Spring context.
+ * <p>
+ * Until createTemplate is called, all connections go to the database of the ConnectionInfo (the template
+ * database), so the EntityManagerFactory and the TestDb create the tables there. createTemplate
+ * backs up the template database. From then on, every thread gets a database of its own, created from
+ * the backup on its first connection. AbstractTestDb calls createTemplate automatically after it has
+ * created the tables.
+ * <p>
+ * The database of a thread is its thread binding (see ThreadBindingDataSource). The DbConnection passes
+ * the binding to the threads of its async executor, so async queries, scatter queries and parallel change sets
+ * use the database of the thread submitting them. Tasks submitted to other executors have to pass the binding
+ * themselves, using getThreadBinding and setThreadBinding. Otherwise, they get a database of their own.
+ * <p>
+ * Surefire forks don't need this DataSource as in-memory databases aren't shared between JVMs.
+ * <p>
+ * The connection string of the ConnectionInfo must be a Derby in-memory connection string, e.g.
+ * jdbc:derby:memory:juTestingDb;create=true
+ * @author Martin
+ *
+ */
+public class DerbyWorkerDataSource extends AbstractDataSource implements ConnectionInfoDataSource, ThreadBindingDataSource {
+	private static final String MEMORY_PREFIX = "jdbc:derby:memory:";
+	
+	private final Logger logger = LoggerFactory.getLogger(DerbyWorkerDataSource.class);
+	
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final List<String> workerDbNames = new ArrayList<>();
+	
+	private final ThreadLocal<WorkerDb> workerDb = new ThreadLocal<WorkerDb>() {
+		@Override
+		protected WorkerDb initialValue() {
+			return new WorkerDb();
+		}
+	};
+	
+	private ConnectionInfo connectionInfo;
+	private String dbName;
+	private String templateUrl;
+	
+	private volatile File backupDir;
+	
+	/**
+	 * Sets the ConnectionInfo of the template database.
+	 * @param connectionInfo ConnectionInfo with a Derby in-memory connection string
+	 */
+	public void setConnectionInfo(ConnectionInfo connectionInfo) {
+		String connectionString = connectionInfo.getConnectionString();
+		if (!connectionString.startsWith(DerbyWorkerDataSource.MEMORY_PREFIX)) {
+			throw new JuDbException("Not a Derby in-memory connection string: " + connectionString);
+		}
+		
+		int attributesStart = connectionString.indexOf(';');
+		this.dbName = attributesStart < 0
+				? connectionString.substring(DerbyWorkerDataSource.MEMORY_PREFIX.length())
+				: connectionString.substring(DerbyWorkerDataSource.MEMORY_PREFIX.length(), attributesStart);
+		this.templateUrl = connectionString;
+		this.connectionInfo = connectionInfo;
+	}
+	
+	@Override
+	public ConnectionInfo getConnectionInfo() {
+		return this.connectionInfo;
+	}
+	
+	/**
+	 * Backs up the template database. Subsequent connections go to the databases of the threads,
+	 * created from the backup.
+	 * <p>
+	 * Calls after the first one are ignored.
+	 * @throws JuDbException If the backup fails
+	 */
+	public synchronized void createTemplate() throws JuDbException {
+		if (this.backupDir != null) return;
+		
+		try {
+			File backupDir = Files.createTempDirectory("ju-derby-template").toFile();
+			
+			try (Connection conn = DriverManager.getConnection(this.templateUrl, this.connectionInfo.getUserName(), this.connectionInfo.getPassword());
+					CallableStatement stmt = conn.prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)")) {
+				stmt.setString(1, backupDir.getAbsolutePath());
+				stmt.execute();
+			}
+			
+			// The backup is written to a sub directory named after the database
+			File[] backups = backupDir.listFiles();
+			if (backups == null || backups.length != 1) {
+				throw new JuDbException("Couldn't find backup of template database in " + backupDir);
+			}
+			
+			this.backupDir = backups[0];
+			this.logger.info("Created template of {} in {}", this.dbName, this.backupDir);
+		} catch (IOException | SQLException ex) {
+			throw new JuDbException("Couldn't create template of " + this.dbName, ex);
+		}
+	}
+	
+	/**
+	 * Gets the worker database of the current thread. The database is created on the first connection,
+	 * so threads sharing the binding share the database, no matter which of them connects first.
+	 * @return Worker database of the current thread
+	 */
+	@Override
+	public Object getThreadBinding() {
+		return this.workerDb.get();
+	}
+	
+	@Override
+	public void setThreadBinding(Object binding) {
+		if (binding == null) {
+			this.workerDb.remove();
+		} else {
+			this.workerDb.set((WorkerDb) binding);
+		}
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		return this.getConnection(this.connectionInfo.getUserName(), this.connectionInfo.getPassword());
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		if (this.backupDir == null) {
+			return DriverManager.getConnection(this.templateUrl, username, password);
+		}
+		
+		WorkerDb workerDb = this.workerDb.get();
+		synchronized (workerDb) {
+			if (workerDb.url == null) {
+				String workerDbName = this.dbName + "_w" + this.workerCount.incrementAndGet();
+				String url = DerbyWorkerDataSource.MEMORY_PREFIX + workerDbName;
+				
+				Connection conn = DriverManager.getConnection(url + ";createFrom=" + this.backupDir.getAbsolutePath(), username, password);
+				synchronized (this.workerDbNames) {
+					this.workerDbNames.add(workerDbName);
+				}
+				workerDb.url = url;
+				this.logger.debug("Created database {} for thread {}", workerDbName, Thread.currentThread().getName());
+				
+				return conn;
+			}
+		}
+		
+		return DriverManager.getConnection(workerDb.url, username, password);
+	}
+	
+	/**
+	 * Gets the number of databases created for threads.
+	 * @return Number of worker databases
+	 */
+	public int getWorkerCount() {
+		return this.workerCount.get();
+	}
+	
+	/**
+	 * Drops the databases of the threads and deletes the backup of the template.
+	 */
+	@PreDestroy
+	public void close() {
+		synchronized (this.workerDbNames) {
+			for (String workerDbName : this.workerDbNames) {
+				try {
+					DriverManager.getConnection(DerbyWorkerDataSource.MEMORY_PREFIX + workerDbName + ";drop=true");
+				} catch (SQLException ex) {
+					// Derby signals a successful drop with an exception
+					if (!"08006".equals(ex.getSQLState())) {
+						this.logger.warn("Couldn't drop database " + workerDbName, ex);
+					}
+				}
+			}
+			this.workerDbNames.clear();
+		}
+		
+		if (this.backupDir != null) {
+			try {
+				DerbyWorkerDataSource.deleteRecursively(this.backupDir.getParentFile().toPath());
+			} catch (IOException ex) {
+				this.logger.warn("Couldn't delete template backup " + this.backupDir, ex);
+			}
+		}
+	}
+	
+	private static void deleteRecursively(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+				if (ex != null) throw ex;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "connectionInfoName",
+				this.connectionInfo == null ? null : ObjectUtils.toString(this.connectionInfo.getName()),
+				"workerCount", this.workerCount.get());
+	}
+	
+	/**
+	 * Worker database bound to one or more threads. The URL is set once the database has been created.
+	 */
+	private static final class WorkerDb {
+		private volatile String url;
+	}
+}
@@ -1,7 +1,8 @@
 package ch.inftec.ju.testing.db.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -80,7 +81,7 @@ public final class TestDbUtils {
 	abstract static class AbstractTestDb implements TestDb {
 		final Logger log = LoggerFactory.getLogger(AbstractTestDb.class);
 		
-		private static List<ConnectionInfo> initializedConnections = new ArrayList<>();
+		private static Set<ConnectionInfo> initializedConnections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionInfo, Boolean>());
 		
 		@PersistenceContext
 		protected EntityManager em;
@@ -95,7 +96,7 @@ public final class TestDbUtils {
 		protected JuDbUtils juDbUtils;
 		
 		@Autowired
-		private DataSource dataSource;
+		protected DataSource dataSource;
 		
 		@PostConstruct
 		private void init() {
@@ -103,6 +104,11 @@ public final class TestDbUtils {
 			this.juDbUtils.setEntityManagerFactory(this.em.getEntityManagerFactory()); // TODO: Would be nicer to do this in context.xml
 			this.juDbUtils.createDefaultTables();
 			this.createTables();
+			
+			if (this.dataSource instanceof DerbyWorkerDataSource) {
+				// The tables are created, so the threads of parallel tests can get their databases now
+				((DerbyWorkerDataSource) this.dataSource).createTemplate();
+			}
 		}
 		
 		/**
@@ -125,10 +131,9 @@ public final class TestDbUtils {
 		
 		@Override
 		public void initDb() throws JuDbException {
-			if (!initializedConnections.contains(this.connectionInfo)) {
+			if (initializedConnections.add(this.connectionInfo)) {
 				// Create default JPA tables
 				log.debug("Initializing DB {}", this.connectionInfo);
-				initializedConnections.add(this.connectionInfo);
 				this.juDbUtils.createDefaultTables();
 				
 				this.createTables();
@@ -0,0 +1,184 @@
+package ch.inftec.ju.testing.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests for the DbDataSnapshots.
+ * <p>
+ * Triggers of the tests log the tables DbUnit inserts data into to the table IMPORT_LOG, so the tests
+ * can tell which tables an import has reloaded.
+ * @author Martin
+ *
+ */
+public class DbDataSnapshotsTest {
+	private static final String DATA_SET = "DbDataSnapshotsTest_data.xml";
+	
+	private DriverManagerDataSource dataSource;
+	private DbDataSnapshots snapshots;
+	
+	@Before
+	public void createTables() throws SQLException {
+		this.dataSource = new DriverManagerDataSource("jdbc:derby:memory:dbDataSnapshotsTest;create=true");
+		this.snapshots = new DbDataSnapshots();
+		this.snapshots.setDataSource(this.dataSource);
+		
+		this.execute("CREATE TABLE SNAP_A (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"CREATE TABLE SNAP_B (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"CREATE TABLE IMPORT_LOG (ID INTEGER GENERATED ALWAYS AS IDENTITY, TABLE_NAME VARCHAR(20))",
+				"CREATE TRIGGER LOG_SNAP_A AFTER INSERT ON SNAP_A FOR EACH STATEMENT INSERT INTO IMPORT_LOG (TABLE_NAME) VALUES ('SNAP_A')",
+				"CREATE TRIGGER LOG_SNAP_B AFTER INSERT ON SNAP_B FOR EACH STATEMENT INSERT INTO IMPORT_LOG (TABLE_NAME) VALUES ('SNAP_B')");
+	}
+	
+	@After
+	public void dropTables() throws SQLException {
+		// Dropping the tables drops their triggers as well
+		this.execute("DROP TABLE SNAP_A", "DROP TABLE SNAP_B", "DROP TABLE IMPORT_LOG", "DROP TABLE " + DbDataSnapshots.SNAPSHOT_TABLE);
+	}
+	
+	/**
+	 * Executes the SQL statements in a separate connection and commits them.
+	 */
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	private void cleanImport(Connection txConn) {
+		new DbDataUtil(txConn).setSnapshots(this.snapshots).cleanImport(DbDataSnapshotsTest.DATA_SET);
+	}
+	
+	/**
+	 * Imports the data set in a transaction that is rolled back afterwards, like the one of a test.
+	 * @return Tables the import has inserted data into
+	 */
+	private String cleanImport() throws SQLException {
+		this.execute("DELETE FROM IMPORT_LOG");
+		
+		try (Connection txConn = this.dataSource.getConnection()) {
+			txConn.setAutoCommit(false);
+			this.cleanImport(txConn);
+			txConn.rollback();
+		}
+		
+		return this.query("SELECT TABLE_NAME FROM IMPORT_LOG GROUP BY TABLE_NAME ORDER BY MIN(ID)");
+	}
+	
+	private String query(Connection conn, String sql) throws SQLException {
+		List<String> values = new ArrayList<>();
+		
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				values.add(rs.getString(1));
+			}
+		}
+		
+		return values.toString();
+	}
+	
+	private String query(String sql) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection()) {
+			return this.query(conn, sql);
+		}
+	}
+	
+	private String getTexts(Connection conn) throws SQLException {
+		return this.query(conn, "SELECT TEXT FROM SNAP_A UNION ALL SELECT TEXT FROM SNAP_B ORDER BY 1");
+	}
+	
+	private String getTexts() throws SQLException {
+		try (Connection conn = this.dataSource.getConnection()) {
+			return this.getTexts(conn);
+		}
+	}
+	
+	private String getSnapshot() throws SQLException {
+		return this.query("SELECT TABLE_NAME FROM " + DbDataSnapshots.SNAPSHOT_TABLE + " ORDER BY TABLE_NAME");
+	}
+	
+	@Test
+	public void unchangedImport_isSkipped() throws SQLException {
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.cleanImport());
+		Assert.assertEquals("[A1, A2, B1]", this.getTexts());
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.getSnapshot());
+		
+		Assert.assertEquals("[]", this.cleanImport());
+		Assert.assertEquals("[A1, A2, B1]", this.getTexts());
+	}
+	
+	@Test
+	public void committedChange_reloadsTables_fromChangedTableOn() throws SQLException {
+		this.cleanImport();
+		
+		this.execute("UPDATE SNAP_B SET TEXT = 'B2'");
+		Assert.assertEquals("[SNAP_A]", this.getSnapshot());
+		
+		Assert.assertEquals("[SNAP_B]", this.cleanImport());
+		Assert.assertEquals("[A1, A2, B1]", this.getTexts());
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.getSnapshot());
+		
+		// SNAP_B follows the changed table and may reference it, so it is reloaded as well
+		this.execute("DELETE FROM SNAP_A WHERE ID = 2");
+		
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.cleanImport());
+		Assert.assertEquals("[A1, A2, B1]", this.getTexts());
+	}
+	
+	@Test
+	public void rolledBackChange_keepsSnapshot() throws SQLException {
+		this.cleanImport();
+		
+		try (Connection txConn = this.dataSource.getConnection()) {
+			txConn.setAutoCommit(false);
+			try (Statement stmt = txConn.createStatement()) {
+				stmt.executeUpdate("UPDATE SNAP_A SET TEXT = 'A3' WHERE ID = 1");
+			}
+			txConn.rollback();
+		}
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.getSnapshot());
+		
+		Assert.assertEquals("[]", this.cleanImport());
+	}
+	
+	@Test(timeout = 30000)
+	public void changeInTransaction_importsDataInTransaction() throws SQLException {
+		this.cleanImport();
+		this.execute("DELETE FROM IMPORT_LOG");
+		
+		try (Connection txConn = this.dataSource.getConnection()) {
+			txConn.setAutoCommit(false);
+			try (Statement stmt = txConn.createStatement()) {
+				stmt.executeUpdate("UPDATE SNAP_A SET TEXT = 'A3' WHERE ID = 1");
+				stmt.executeUpdate("INSERT INTO SNAP_B VALUES (2, 'B2')");
+			}
+			
+			// Reloading in a separate connection would wait for the locks of the transaction
+			this.cleanImport(txConn);
+			Assert.assertEquals("[A1, A2, B1]", this.getTexts(txConn));
+			
+			txConn.rollback();
+		}
+		
+		// Both the change and the import have been rolled back
+		Assert.assertEquals("[A1, A2, B1]", this.getTexts());
+		Assert.assertEquals("[SNAP_A, SNAP_B]", this.getSnapshot());
+		
+		Assert.assertEquals("[]", this.cleanImport());
+	}
+}
@@ -0,0 +1,211 @@
+package ch.inftec.ju.testing.db.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.env.StandardEnvironment;
+
+import ch.inftec.ju.db.ConnectionInfo;
+import ch.inftec.ju.db.ConnectionInfoImpl;
+
+/**
+ * Tests for the DerbyWorkerDataSource, as defined by the parallelDbTests profile of the default context.
+ * @author Martin
+ *
+ */
+public class DerbyWorkerDataSourceTest {
+	private DerbyWorkerDataSource dataSource;
+	
+	@Before
+	public void createDataSource() throws SQLException {
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.setActiveProfiles("parallelDbTests");
+		
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(beanFactory);
+		reader.setEnvironment(environment);
+		reader.loadBeanDefinitions("classpath:ch/inftec/ju/testing/db/AbstractBaseDbTest-context.xml");
+		
+		Assert.assertEquals(DerbyWorkerDataSource.class.getName(), beanFactory.getBeanDefinition("dataSource").getBeanClassName());
+		
+		// Build the DataSource from the definitions, without instantiating the rest of the context
+		MutablePropertyValues connectionInfoValues = beanFactory.getBeanDefinition("juConnectionInfo").getPropertyValues();
+		ConnectionInfoImpl connectionInfo = new ConnectionInfoImpl();
+		connectionInfo.setName(DerbyWorkerDataSourceTest.getValue(connectionInfoValues, "name"));
+		connectionInfo.setConnectionString(DerbyWorkerDataSourceTest.getValue(connectionInfoValues, "connectionString"));
+		connectionInfo.setUserName(DerbyWorkerDataSourceTest.getValue(connectionInfoValues, "userName"));
+		connectionInfo.setPassword(DerbyWorkerDataSourceTest.getValue(connectionInfoValues, "password"));
+		
+		this.dataSource = new DerbyWorkerDataSource();
+		this.dataSource.setConnectionInfo(connectionInfo);
+		
+		this.execute("CREATE TABLE WORKER_TEST (ID INTEGER PRIMARY KEY, TEXT VARCHAR(20))",
+				"INSERT INTO WORKER_TEST VALUES (1, 'Template')");
+	}
+	
+	@After
+	public void closeDataSource() throws SQLException {
+		this.dataSource.close();
+		
+		// The template database is shared with the other tests of this JVM
+		try (Connection conn = this.getTemplateConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("DROP TABLE WORKER_TEST");
+		}
+	}
+	
+	private static String getValue(MutablePropertyValues values, String name) {
+		return ((TypedStringValue) values.getPropertyValue(name).getValue()).getValue();
+	}
+	
+	private Connection getTemplateConnection() throws SQLException {
+		ConnectionInfo connectionInfo = this.dataSource.getConnectionInfo();
+		return DriverManager.getConnection(connectionInfo.getConnectionString(), connectionInfo.getUserName(), connectionInfo.getPassword());
+	}
+	
+	private void execute(String... sqls) throws SQLException {
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement()) {
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+		}
+	}
+	
+	private List<String> getTexts() throws SQLException {
+		List<String> texts = new ArrayList<>();
+		
+		try (Connection conn = this.dataSource.getConnection();
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT TEXT FROM WORKER_TEST ORDER BY ID")) {
+			while (rs.next()) {
+				texts.add(rs.getString(1));
+			}
+		}
+		
+		return texts;
+	}
+	
+	@Test
+	public void threads_getIsolatedDatabases_createdFromTemplate() throws Exception {
+		this.dataSource.createTemplate();
+		
+		// Changes of the template after createTemplate are not copied to the worker databases
+		try (Connection conn = this.getTemplateConnection();
+				Statement stmt = conn.createStatement()) {
+			stmt.execute("INSERT INTO WORKER_TEST VALUES (3, 'Late')");
+		}
+		
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<List<String>>> results = new ArrayList<>();
+			for (final String name : new String[] {"T1", "T2"}) {
+				results.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						DerbyWorkerDataSourceTest test = DerbyWorkerDataSourceTest.this;
+						
+						List<String> templateTexts = test.getTexts();
+						
+						// Both threads insert the same key before any of them reads the rows
+						test.execute("INSERT INTO WORKER_TEST VALUES (2, '" + name + "')");
+						barrier.await(10, TimeUnit.SECONDS);
+						
+						List<String> texts = test.getTexts();
+						texts.addAll(0, templateTexts);
+						return texts;
+					}
+				}));
+			}
+			
+			Assert.assertEquals("[Template, Template, T1]", results.get(0).get().toString());
+			Assert.assertEquals("[Template, Template, T2]", results.get(1).get().toString());
+		} finally {
+			executor.shutdown();
+		}
+		
+		Assert.assertEquals(2, this.dataSource.getWorkerCount());
+	}
+	
+	@Test
+	public void threads_shareDatabase_ofThreadBinding() throws Exception {
+		this.dataSource.createTemplate();
+		final Object binding = this.dataSource.getThreadBinding();
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// The database of the binding is created by the first thread connecting to it
+			executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					DerbyWorkerDataSourceTest test = DerbyWorkerDataSourceTest.this;
+					
+					test.dataSource.setThreadBinding(binding);
+					try {
+						test.execute("INSERT INTO WORKER_TEST VALUES (2, 'Bound')");
+					} finally {
+						test.dataSource.setThreadBinding(null);
+					}
+					return null;
+				}
+			}).get();
+			
+			Assert.assertEquals("[Template, Bound]", this.getTexts().toString());
+			Assert.assertEquals(1, this.dataSource.getWorkerCount());
+			
+			// Without the binding, the thread gets a database of its own
+			List<String> texts = executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					return DerbyWorkerDataSourceTest.this.getTexts();
+				}
+			}).get();
+			Assert.assertEquals("[Template]", texts.toString());
+			Assert.assertEquals(2, this.dataSource.getWorkerCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void connections_goToTemplate_untilCreateTemplate() throws SQLException {
+		this.execute("INSERT INTO WORKER_TEST VALUES (2, 'Before')");
+		Assert.assertEquals(0, this.dataSource.getWorkerCount());
+		
+		this.dataSource.createTemplate();
+		this.execute("INSERT INTO WORKER_TEST VALUES (3, 'After')");
+		
+		// The worker database of this thread contains all rows, the template only the ones before createTemplate
+		Assert.assertEquals("[Template, Before, After]", this.getTexts().toString());
+		Assert.assertEquals(1, this.dataSource.getWorkerCount());
+		
+		try (Connection conn = this.getTemplateConnection();
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM WORKER_TEST")) {
+			rs.next();
+			Assert.assertEquals(2, rs.getInt(1));
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.inftec.ju.util.JuRuntimeException;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Implementation of the MementoStorage interface that appends mementos to a file, encoded
+ * with the GenericMementoCodec.
+ * <p>
+ * Every memento is stored as a record containing the record length, the ID, the type and the
+ * encoded memento tree. The storage keeps an index of the offsets of all records in memory that is built
+ * by scanning the record headers when the file is opened. An incomplete record at the end of the file,
+ * e.g. after a crash, is truncated.
+ * <p>
+ * Use the GenericMementoUtils.newFileMementoStorage method to get an instance of this storage and close
+ * it when it's no longer needed. The storage is thread safe, but a file must only be opened by one storage
+ * at a time.
+ * @author Martin
+ *
+ */
+public final class FileMementoStorage implements MementoStorage, Closeable {
+	private final Logger log = LoggerFactory.getLogger(FileMementoStorage.class);
+	
+	private final File file;
+	private final RandomAccessFile raf;
+	
+	/**
+	 * Offsets of the records by memento ID.
+	 */
+	private final TreeMap<Long, Long> offsets = new TreeMap<>();
+	
+	/**
+	 * Opens the storage, creating the file if it doesn't exist yet.
+	 * @param file Storage file
+	 * @throws JuRuntimeException If the file cannot be opened or read
+	 */
+	FileMementoStorage(File file) throws JuRuntimeException {
+		this.file = file;
+		
+		try {
+			this.raf = new RandomAccessFile(file, "rw");
+			this.readIndex();
+		} catch (IOException ex) {
+			throw new JuRuntimeException("Couldn't open memento storage " + file, ex);
+		}
+	}
+	
+	private void readIndex() throws IOException {
+		long offset = 0;
+		long length = this.raf.length();
+		
+		while (offset + 12 <= length) {
+			this.raf.seek(offset);
+			int recordLength = this.raf.readInt();
+			if (recordLength < 8 || offset + 4 + recordLength > length) break;
+			
+			this.offsets.put(this.raf.readLong(), offset);
+			offset += 4 + recordLength;
+		}
+		
+		if (offset < length) {
+			this.log.warn("Truncating incomplete record at offset {} of memento storage {}", offset, this.file);
+			this.raf.setLength(offset);
+		}
+	}
+	
+	@Override
+	public synchronized Long persistMemento(GenericMemento memento, String type) {
+		long id = this.offsets.isEmpty() ? 0 : this.offsets.lastKey() + 1;
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			
+			out.writeInt(0); // Placeholder for the record length
+			out.writeLong(id);
+			out.writeBoolean(type != null);
+			if (type != null) out.writeUTF(type);
+			GenericMementoCodec.newEncoder(out).encode(memento);
+			out.flush();
+			
+			byte[] record = bytes.toByteArray();
+			int recordLength = record.length - 4;
+			record[0] = (byte) (recordLength >>> 24);
+			record[1] = (byte) (recordLength >>> 16);
+			record[2] = (byte) (recordLength >>> 8);
+			record[3] = (byte) recordLength;
+			
+			long offset = this.raf.length();
+			this.raf.seek(offset);
+			this.raf.write(record);
+			
+			this.offsets.put(id, offset);
+		} catch (IOException ex) {
+			throw new JuRuntimeException("Couldn't write memento to " + this.file, ex);
+		}
+		
+		return id;
+	}
+	
+	@Override
+	public synchronized GenericMementoItem loadMemento(Long id) {
+		Long offset = this.offsets.get(id);
+		if (offset == null) return null;
+		
+		try {
+			this.raf.seek(offset);
+			byte[] record = new byte[this.raf.readInt()];
+			this.raf.readFully(record);
+			
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+			in.readLong(); // ID
+			String type = in.readBoolean() ? in.readUTF() : null;
+			GenericMemento memento = GenericMementoCodec.newDecoder(in).decode();
+			
+			return GenericMementoUtils.newGenericMementoItem(memento, id, type);
+		} catch (IOException ex) {
+			throw new JuRuntimeException("Couldn't read memento " + id + " from " + this.file, ex);
+		}
+	}
+	
+	@Override
+	public synchronized List<GenericMementoItem> loadMementos(int maxCount) {
+		List<GenericMementoItem> list = new ArrayList<>();
+		
+		Iterator<Long> i = this.offsets.descendingKeySet().iterator();
+		while (list.size() < maxCount && i.hasNext()) {
+			list.add(this.loadMemento(i.next()));
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Closes the storage file.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			this.raf.close();
+		} catch (IOException ex) {
+			this.log.warn("Couldn't close memento storage " + this.file, ex);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "file", this.file, "mementos", this.offsets.size());
+	}
+}
@@ -0,0 +1,302 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.inftec.ju.util.JuRuntimeException;
+import ch.inftec.ju.util.persistable.GenericMemento.MementoAttribute;
+import ch.inftec.ju.util.persistable.GenericMementoUtils.GenericMementoBuilder;
+
+/**
+ * Compact binary encoding of GenericMemento trees.
+ * <p>
+ * The encoding is designed to keep large mementos small and cheap to write:
+ * <ul>
+ *  <li>Counts, dates (as epoch milliseconds) and long values are written as variable length integers,
+ *      using zig-zag encoding for signed values</li>
+ *  <li>Keys and String values are kept in a dictionary. The first occurrence of a String is written
+ *      as UTF-8, all following occurrences as the index in the dictionary</li>
+ * </ul>
+ * An Encoder writes a stream of mementos that has to be read by a Decoder in the same order, as the
+ * dictionary is shared by all mementos of the stream. Use the static encode and decode methods
+ * to serialize single mementos.
+ * @author Martin
+ *
+ */
+public final class GenericMementoCodec {
+	/**
+	 * Version of the encoding, written at the start of every stream.
+	 */
+	static final int VERSION = 1;
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final int FLAG_STRING = 1;
+	private static final int FLAG_DATE = 2;
+	private static final int FLAG_LONG = 4;
+	
+	private GenericMementoCodec() {
+		throw new AssertionError("use only statically");
+	}
+	
+	/**
+	 * Encodes the specified memento, including all of its children.
+	 * @param memento GenericMemento
+	 * @return Encoded memento
+	 */
+	public static byte[] encode(GenericMemento memento) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GenericMementoCodec.newEncoder(out).encode(memento);
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes a memento that was encoded by the encode method.
+	 * @param data Encoded memento
+	 * @return GenericMemento
+	 * @throws JuRuntimeException If the data cannot be decoded
+	 */
+	public static GenericMemento decode(byte[] data) throws JuRuntimeException {
+		return GenericMementoCodec.newDecoder(new ByteArrayInputStream(data)).decode();
+	}
+	
+	/**
+	 * Creates a new Encoder that writes mementos to the specified stream.
+	 * <p>
+	 * The stream isn't buffered by the encoder, so use a buffered stream if it isn't backed by memory.
+	 * @param out OutputStream
+	 * @return Encoder
+	 */
+	public static Encoder newEncoder(OutputStream out) {
+		return new Encoder(out);
+	}
+	
+	/**
+	 * Creates a new Decoder that reads mementos from the specified stream.
+	 * @param in InputStream
+	 * @return Decoder
+	 */
+	public static Decoder newDecoder(InputStream in) {
+		return new Decoder(in);
+	}
+	
+	/**
+	 * Streaming encoder of mementos. Use GenericMementoCodec.newEncoder to get an instance.
+	 * <p>
+	 * Encoders are not thread safe.
+	 * @author Martin
+	 *
+	 */
+	public static final class Encoder {
+		private final OutputStream out;
+		private final Map<String, Integer> dictionary = new HashMap<>();
+		private boolean headerWritten = false;
+		
+		private Encoder(OutputStream out) {
+			this.out = out;
+		}
+		
+		/**
+		 * Writes the specified memento to the stream.
+		 * @param memento GenericMemento
+		 * @throws JuRuntimeException If the memento cannot be written
+		 */
+		public void encode(GenericMemento memento) throws JuRuntimeException {
+			try {
+				if (!this.headerWritten) {
+					this.writeVarInt(GenericMementoCodec.VERSION);
+					this.headerWritten = true;
+				}
+				
+				this.writeMemento(memento);
+			} catch (IOException ex) {
+				throw new JuRuntimeException("Couldn't encode memento", ex);
+			}
+		}
+		
+		private void writeMemento(GenericMemento memento) throws IOException {
+			List<MementoAttribute> attributes = memento.getAttributes();
+			this.writeVarInt(attributes.size());
+			for (MementoAttribute attribute : attributes) {
+				this.writeString(attribute.getKey());
+				
+				int flags = (attribute.getStringValue() != null ? FLAG_STRING : 0)
+						| (attribute.getDateValue() != null ? FLAG_DATE : 0)
+						| (attribute.getLongValue() != null ? FLAG_LONG : 0);
+				this.out.write(flags);
+				
+				if (attribute.getStringValue() != null) this.writeString(attribute.getStringValue());
+				if (attribute.getDateValue() != null) this.writeVarLong(GenericMementoCodec.zigZag(attribute.getDateValue().getTime()));
+				if (attribute.getLongValue() != null) this.writeVarLong(GenericMementoCodec.zigZag(attribute.getLongValue()));
+			}
+			
+			List<GenericMemento> children = memento.getChildren();
+			this.writeVarInt(children.size());
+			for (GenericMemento child : children) {
+				this.writeMemento(child);
+			}
+		}
+		
+		/**
+		 * Writes a String. 0 stands for null, odd values for a new String with the length
+		 * in the upper bits, followed by the UTF-8 bytes, even values for the dictionary index + 1
+		 * in the upper bits.
+		 */
+		private void writeString(String s) throws IOException {
+			if (s == null) {
+				this.writeVarInt(0);
+			} else {
+				Integer index = this.dictionary.get(s);
+				if (index != null) {
+					this.writeVarInt((index + 1) << 1);
+				} else {
+					byte[] bytes = s.getBytes(UTF_8);
+					this.writeVarInt((bytes.length << 1) | 1);
+					this.out.write(bytes);
+					
+					this.dictionary.put(s, this.dictionary.size());
+				}
+			}
+		}
+		
+		private void writeVarInt(int value) throws IOException {
+			this.writeVarLong(value & 0xFFFFFFFFL);
+		}
+		
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				this.out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			this.out.write((int) value);
+		}
+	}
+	
+	/**
+	 * Streaming decoder of mementos. Use GenericMementoCodec.newDecoder to get an instance.
+	 * <p>
+	 * Decoders are not thread safe.
+	 * @author Martin
+	 *
+	 */
+	public static final class Decoder {
+		private final InputStream in;
+		private final List<String> dictionary = new ArrayList<>();
+		private boolean headerRead = false;
+		
+		private Decoder(InputStream in) {
+			this.in = in;
+		}
+		
+		/**
+		 * Reads the next memento from the stream.
+		 * @return GenericMemento
+		 * @throws JuRuntimeException If the memento cannot be read
+		 */
+		public GenericMemento decode() throws JuRuntimeException {
+			try {
+				if (!this.headerRead) {
+					int version = this.readVarInt();
+					if (version != GenericMementoCodec.VERSION) {
+						throw new JuRuntimeException("Unsupported memento encoding version: " + version);
+					}
+					this.headerRead = true;
+				}
+				
+				GenericMementoBuilder builder = GenericMementoUtils.builder();
+				this.readMemento(builder);
+				
+				return builder.build();
+			} catch (IOException ex) {
+				throw new JuRuntimeException("Couldn't decode memento", ex);
+			}
+		}
+		
+		private void readMemento(GenericMementoBuilder builder) throws IOException {
+			int attributeCount = this.readVarInt();
+			for (int i = 0; i < attributeCount; i++) {
+				String key = this.readString();
+				int flags = this.readByte();
+				
+				String stringValue = (flags & FLAG_STRING) != 0 ? this.readString() : null;
+				Date dateValue = (flags & FLAG_DATE) != 0 ? new Date(GenericMementoCodec.unZigZag(this.readVarLong())) : null;
+				Long longValue = (flags & FLAG_LONG) != 0 ? GenericMementoCodec.unZigZag(this.readVarLong()) : null;
+				
+				builder.add(key, stringValue, dateValue, longValue);
+			}
+			
+			int childCount = this.readVarInt();
+			for (int i = 0; i < childCount; i++) {
+				GenericMementoBuilder childBuilder = builder.newChild();
+				this.readMemento(childBuilder);
+				childBuilder.childDone();
+			}
+		}
+		
+		private String readString() throws IOException {
+			int value = this.readVarInt();
+			
+			if (value == 0) {
+				return null;
+			} else if ((value & 1) == 0) {
+				int index = (value >>> 1) - 1;
+				if (index >= this.dictionary.size()) throw new IOException("Invalid dictionary index: " + index);
+				
+				return this.dictionary.get(index);
+			} else {
+				byte[] bytes = new byte[value >>> 1];
+				for (int offset = 0; offset < bytes.length; ) {
+					int count = this.in.read(bytes, offset, bytes.length - offset);
+					if (count < 0) throw new EOFException();
+					offset += count;
+				}
+				
+				String s = new String(bytes, UTF_8);
+				this.dictionary.add(s);
+				
+				return s;
+			}
+		}
+		
+		private int readByte() throws IOException {
+			int b = this.in.read();
+			if (b < 0) throw new EOFException();
+			
+			return b;
+		}
+		
+		private int readVarInt() throws IOException {
+			return (int) this.readVarLong();
+		}
+		
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = this.readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			
+			throw new IOException("Malformed variable length integer");
+		}
+	}
+	
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
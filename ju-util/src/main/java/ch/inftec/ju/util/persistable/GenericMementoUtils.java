@@ -1,5 +1,6 @@
 package ch.inftec.ju.util.persistable;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -73,6 +74,18 @@ public final class GenericMementoUtils {
 		return new StringMementoStorage();
 	}
 	
+	/**
+	 * Creates a new MementoStorage that appends Mementos to the specified file, encoded
+	 * with the GenericMementoCodec. If the file exists, its Mementos are available in the storage.
+	 * <p>
+	 * The storage must be closed when it's no longer needed.
+	 * @param file Storage file
+	 * @return File based MementoStorage
+	 */
+	public static FileMementoStorage newFileMementoStorage(File file) {
+		return new FileMementoStorage(file);
+	}
+	
 	/**
 	 * Persists the specified memento to a String using a StringMementoStorage and
 	 * returns the yielded String.
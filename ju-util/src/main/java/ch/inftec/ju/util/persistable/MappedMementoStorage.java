@@ -0,0 +1,516 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.inftec.ju.util.JuRuntimeException;
+import ch.inftec.ju.util.JuStringUtils;
+
+/**
+ * Implementation of the MementoStorage interface that appends mementos to a log of memory
+ * mapped segment files, encoded with the GenericMementoCodec.
+ * <p>
+ * Every record consists of the length of its body, the CRC32 checksum of the body, the body (ID, type
+ * and encoded memento) and the length again, so the log can be read backwards. A length of 0 marks the end
+ * of the data in a segment.
+ * <p>
+ * The id-to-offset index is kept in memory and written to an index checkpoint file periodically and when the
+ * storage is closed. When the storage is opened, the index is read from the checkpoint and the records
+ * written after the checkpoint are recovered by scanning the tail of the log. Scanning stops at the first record
+ * with an invalid checksum, i.e. the remains of a write that was interrupted by a crash are discarded.
+ * <p>
+ * Use the build method to get a builder to create new instances. Close the storage when it's no longer
+ * needed. The storage is thread safe, but a directory must only be opened by one storage at a time.
+ * @author Martin
+ *
+ */
+public final class MappedMementoStorage implements MementoStorage, Closeable {
+	/**
+	 * Default size of a segment file.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * Default number of records after which the index checkpoint is written.
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	
+	private static final String INDEX_FILE_NAME = "index.dat";
+	private static final int INDEX_VERSION = 1;
+	
+	/**
+	 * Length, checksum and trailing length of a record.
+	 */
+	private static final int RECORD_OVERHEAD = 12;
+	
+	private final Logger log = LoggerFactory.getLogger(MappedMementoStorage.class);
+	
+	private final File directory;
+	private final int segmentSize;
+	private final int checkpointInterval;
+	private final boolean forceOnWrite;
+	
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	
+	/**
+	 * End of the data in each segment.
+	 */
+	private final List<Integer> segmentEnds = new ArrayList<>();
+	
+	/**
+	 * Positions of the records by memento ID. The position contains the segment number
+	 * in the upper and the offset in the lower 32 bits.
+	 */
+	private final TreeMap<Long, Long> positions = new TreeMap<>();
+	
+	private int uncheckpointedRecords = 0;
+	private boolean closed = false;
+	
+	private MappedMementoStorage(File directory, int segmentSize, int checkpointInterval, boolean forceOnWrite) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.checkpointInterval = checkpointInterval;
+		this.forceOnWrite = forceOnWrite;
+	}
+	
+	/**
+	 * Gets a builder to create a new MappedMementoStorage.
+	 * @return MappedMementoStorageBuilder
+	 */
+	public static MappedMementoStorageBuilder build() {
+		return new MappedMementoStorageBuilder();
+	}
+	
+	/**
+	 * Builder to create MappedMementoStorage instances.
+	 * @author Martin
+	 *
+	 */
+	public static final class MappedMementoStorageBuilder {
+		private File directory;
+		private int segmentSize = MappedMementoStorage.DEFAULT_SEGMENT_SIZE;
+		private int checkpointInterval = MappedMementoStorage.DEFAULT_CHECKPOINT_INTERVAL;
+		private boolean forceOnWrite = false;
+		
+		private MappedMementoStorageBuilder() {
+		}
+		
+		/**
+		 * Sets the directory of the segment and index files. The directory is created if it
+		 * doesn't exist.
+		 * @param directory Storage directory
+		 * @return This builder to allow for chaining
+		 */
+		public MappedMementoStorageBuilder directory(File directory) {
+			this.directory = directory;
+			return this;
+		}
+		
+		/**
+		 * Sets the size of new segment files. Records that are larger than the segment size
+		 * get a segment of their own.
+		 * @param segmentSize Segment size in bytes
+		 * @return This builder to allow for chaining
+		 */
+		public MappedMementoStorageBuilder segmentSize(int segmentSize) {
+			if (segmentSize <= RECORD_OVERHEAD) throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+			
+			this.segmentSize = segmentSize;
+			return this;
+		}
+		
+		/**
+		 * Sets the number of records after which the index checkpoint is written. The larger the
+		 * interval, the more records have to be scanned when the storage is opened after a crash.
+		 * @param checkpointInterval Checkpoint interval
+		 * @return This builder to allow for chaining
+		 */
+		public MappedMementoStorageBuilder checkpointInterval(int checkpointInterval) {
+			if (checkpointInterval < 1) throw new IllegalArgumentException("Checkpoint interval must be greater than 0: " + checkpointInterval);
+			
+			this.checkpointInterval = checkpointInterval;
+			return this;
+		}
+		
+		/**
+		 * Sets whether every record is forced to the storage device before persistMemento returns.
+		 * If false, records are written by the operating system and may be lost if the system (not just the
+		 * JVM) crashes. Defaults to false.
+		 * @param forceOnWrite Whether to force every write
+		 * @return This builder to allow for chaining
+		 */
+		public MappedMementoStorageBuilder forceOnWrite(boolean forceOnWrite) {
+			this.forceOnWrite = forceOnWrite;
+			return this;
+		}
+		
+		/**
+		 * Opens the storage, recovering the index if necessary.
+		 * @return MappedMementoStorage
+		 * @throws JuRuntimeException If the storage cannot be opened
+		 */
+		public MappedMementoStorage create() throws JuRuntimeException {
+			if (this.directory == null) throw new IllegalStateException("Directory must be set");
+			
+			MappedMementoStorage storage = new MappedMementoStorage(this.directory, this.segmentSize, this.checkpointInterval, this.forceOnWrite);
+			storage.open();
+			
+			return storage;
+		}
+	}
+	
+	private void open() throws JuRuntimeException {
+		try {
+			if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+				throw new IOException("Couldn't create directory");
+			}
+			
+			for (int i = 0; this.getSegmentFile(i).exists(); i++) {
+				this.segments.add(this.map(this.getSegmentFile(i), 0));
+				this.segmentEnds.add(0);
+			}
+			
+			long scanPosition = this.readCheckpoint();
+			this.recover(scanPosition);
+		} catch (IOException ex) {
+			throw new JuRuntimeException("Couldn't open memento storage " + this.directory, ex);
+		}
+	}
+	
+	private File getSegmentFile(int segment) {
+		return new File(this.directory, String.format("segment-%08d.log", segment));
+	}
+	
+	private MappedByteBuffer map(File file, int minSize) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			// The mapping stays valid after the channel is closed
+			long size = Math.max(raf.length(), minSize);
+			return channel.map(MapMode.READ_WRITE, 0, size);
+		}
+	}
+	
+	/**
+	 * Reads the index checkpoint, i.e. the segment ends and the positions of all records up to the end
+	 * of the last segment known to the checkpoint.
+	 * @return Position of the log up to which the index is complete, 0 if there is no valid checkpoint
+	 */
+	private long readCheckpoint() throws IOException {
+		File indexFile = new File(this.directory, INDEX_FILE_NAME);
+		if (!indexFile.exists()) return 0;
+		
+		byte[] data = Files.readAllBytes(indexFile.toPath());
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		
+		if (data.length < 20 || buffer.getInt(0) != INDEX_VERSION || MappedMementoStorage.crc(data, 0, data.length - 8) != buffer.getLong(data.length - 8)) {
+			this.log.warn("Ignoring invalid index checkpoint of memento storage {}", this.directory);
+			return 0;
+		}
+		
+		int segmentCount = buffer.getInt(4);
+		int recordCount = buffer.getInt(8);
+		if (data.length != 20 + segmentCount * 4 + recordCount * 16 || segmentCount > this.segments.size()) {
+			this.log.warn("Ignoring index checkpoint not matching memento storage {}", this.directory);
+			return 0;
+		}
+		
+		MappedMementoStorage.position(buffer, 12);
+		for (int i = 0; i < segmentCount; i++) {
+			this.segmentEnds.set(i, buffer.getInt());
+		}
+		for (int i = 0; i < recordCount; i++) {
+			this.positions.put(buffer.getLong(), buffer.getLong());
+		}
+		
+		return segmentCount == 0 ? 0 : MappedMementoStorage.toPosition(segmentCount - 1, this.segmentEnds.get(segmentCount - 1));
+	}
+	
+	/**
+	 * Scans the log starting at the specified position, adding all valid records to the index. Invalid data
+	 * following the last valid record of a segment is cleared.
+	 */
+	private void recover(long scanPosition) {
+		int indexed = this.positions.size();
+		
+		int offset = MappedMementoStorage.getOffset(scanPosition);
+		for (int segment = MappedMementoStorage.getSegment(scanPosition); segment < this.segments.size(); segment++, offset = 0) {
+			int end = this.scanEnd(segment, offset);
+			this.segmentEnds.set(segment, end);
+			
+			MappedByteBuffer buffer = this.segments.get(segment);
+			boolean clean = true;
+			for (int i = end; i < buffer.capacity() && clean; i++) {
+				clean = buffer.get(i) == 0;
+			}
+			
+			if (!clean) {
+				this.log.warn("Discarding invalid data at offset {} of segment {} of memento storage {}", new Object[] {end, segment, this.directory});
+				for (int i = end; i < buffer.capacity(); i++) {
+					buffer.put(i, (byte) 0);
+				}
+				buffer.force();
+			}
+		}
+		
+		if (this.positions.size() > indexed) {
+			this.log.info("Recovered {} mementos not contained in the index checkpoint of memento storage {}", this.positions.size() - indexed, this.directory);
+		}
+	}
+	
+	/**
+	 * Gets the end of the valid records of a segment, starting at the specified offset. The records
+	 * are added to the index.
+	 * @param segment Segment number
+	 * @param offset Offset of the first record
+	 * @return Offset following the last valid record
+	 */
+	private int scanEnd(int segment, int offset) {
+		MappedByteBuffer buffer = this.segments.get(segment);
+		
+		while (offset + RECORD_OVERHEAD <= buffer.capacity()) {
+			int length = buffer.getInt(offset);
+			if (length <= 8 || offset + length + RECORD_OVERHEAD > buffer.capacity()) break;
+			
+			byte[] body = this.read(buffer, offset + 8, length);
+			if (buffer.getInt(offset + 8 + length) != length || MappedMementoStorage.crc(body, 0, length) != (buffer.getInt(offset + 4) & 0xFFFFFFFFL)) break;
+			
+			this.positions.put(ByteBuffer.wrap(body).getLong(0), MappedMementoStorage.toPosition(segment, offset));
+			offset += length + RECORD_OVERHEAD;
+		}
+		
+		return offset;
+	}
+	
+	@Override
+	public synchronized Long persistMemento(GenericMemento memento, String type) {
+		this.assertOpen();
+		
+		long id = this.positions.isEmpty() ? 0 : this.positions.lastKey() + 1;
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(id);
+			out.writeBoolean(type != null);
+			if (type != null) out.writeUTF(type);
+			GenericMementoCodec.newEncoder(out).encode(memento);
+			out.flush();
+			
+			byte[] body = bytes.toByteArray();
+			int recordLength = body.length + RECORD_OVERHEAD;
+			
+			// Append to the last segment if the record and the end marker fit
+			int segment = this.segments.size() - 1;
+			if (segment < 0 || this.segmentEnds.get(segment) + recordLength > this.segments.get(segment).capacity()) {
+				segment++;
+				this.segments.add(this.map(this.getSegmentFile(segment), Math.max(this.segmentSize, recordLength)));
+				this.segmentEnds.add(0);
+			}
+			
+			MappedByteBuffer buffer = this.segments.get(segment);
+			int offset = this.segmentEnds.get(segment);
+			
+			ByteBuffer record = MappedMementoStorage.position(((ByteBuffer) buffer).duplicate(), offset);
+			record.putInt(body.length);
+			record.putInt((int) MappedMementoStorage.crc(body, 0, body.length));
+			record.put(body);
+			record.putInt(body.length);
+			
+			if (this.forceOnWrite) buffer.force();
+			
+			this.segmentEnds.set(segment, offset + recordLength);
+			this.positions.put(id, MappedMementoStorage.toPosition(segment, offset));
+		} catch (IOException ex) {
+			throw new JuRuntimeException("Couldn't write memento to " + this.directory, ex);
+		}
+		
+		// The record is persisted at this point. A missing checkpoint only makes recovery scan a longer tail.
+		if (++this.uncheckpointedRecords >= this.checkpointInterval) {
+			try {
+				this.writeCheckpoint();
+			} catch (IOException ex) {
+				// Retry after the next interval
+				this.uncheckpointedRecords = 0;
+				this.log.warn("Couldn't write index checkpoint of memento storage " + this.directory, ex);
+			}
+		}
+		
+		return id;
+	}
+	
+	@Override
+	public synchronized GenericMementoItem loadMemento(Long id) {
+		this.assertOpen();
+		
+		Long position = this.positions.get(id);
+		if (position == null) return null;
+		
+		return this.readRecord(MappedMementoStorage.getSegment(position), MappedMementoStorage.getOffset(position));
+	}
+	
+	/**
+	 * Gets the most recently persisted mementos by reading the log backwards from its end.
+	 */
+	@Override
+	public synchronized List<GenericMementoItem> loadMementos(int maxCount) {
+		this.assertOpen();
+		
+		List<GenericMementoItem> list = new ArrayList<>();
+		
+		int segment = this.segments.size() - 1;
+		int end = segment < 0 ? 0 : this.segmentEnds.get(segment);
+		
+		while (list.size() < maxCount && segment >= 0) {
+			if (end == 0) {
+				segment--;
+				if (segment >= 0) end = this.segmentEnds.get(segment);
+			} else {
+				int length = this.segments.get(segment).getInt(end - 4);
+				int offset = end - length - RECORD_OVERHEAD;
+				
+				list.add(this.readRecord(segment, offset));
+				end = offset;
+			}
+		}
+		
+		return list;
+	}
+	
+	private GenericMementoItem readRecord(int segment, int offset) {
+		MappedByteBuffer buffer = this.segments.get(segment);
+		int length = buffer.getInt(offset);
+		byte[] body = this.read(buffer, offset + 8, length);
+		
+		if (MappedMementoStorage.crc(body, 0, length) != (buffer.getInt(offset + 4) & 0xFFFFFFFFL)) {
+			throw new JuRuntimeException(String.format("Checksum error at offset %d of segment %d of memento storage %s", offset, segment, this.directory));
+		}
+		
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+			Long id = in.readLong();
+			String type = in.readBoolean() ? in.readUTF() : null;
+			GenericMemento memento = GenericMementoCodec.newDecoder(in).decode();
+			
+			return GenericMementoUtils.newGenericMementoItem(memento, id, type);
+		} catch (IOException ex) {
+			throw new JuRuntimeException(String.format("Couldn't read record at offset %d of segment %d of memento storage %s", offset, segment, this.directory), ex);
+		}
+	}
+	
+	private byte[] read(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		
+		MappedMementoStorage.position(buffer.duplicate(), offset).get(bytes);
+		
+		return bytes;
+	}
+	
+	/**
+	 * Forces all segments to the storage device and writes the index checkpoint. The checkpoint is written
+	 * to a temporary file that replaces the current checkpoint, so there's always a valid checkpoint.
+	 */
+	private void writeCheckpoint() throws IOException {
+		for (MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(20 + this.segments.size() * 4 + this.positions.size() * 16);
+		buffer.putInt(INDEX_VERSION);
+		buffer.putInt(this.segments.size());
+		buffer.putInt(this.positions.size());
+		for (int end : this.segmentEnds) {
+			buffer.putInt(end);
+		}
+		for (Map.Entry<Long, Long> entry : this.positions.entrySet()) {
+			buffer.putLong(entry.getKey());
+			buffer.putLong(entry.getValue());
+		}
+		buffer.putLong(MappedMementoStorage.crc(buffer.array(), 0, buffer.position()));
+		
+		File tempFile = new File(this.directory, INDEX_FILE_NAME + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tempFile)) {
+			out.write(buffer.array());
+			out.getFD().sync();
+		}
+		Files.move(tempFile.toPath(), new File(this.directory, INDEX_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		this.uncheckpointedRecords = 0;
+	}
+	
+	/**
+	 * Writes the index checkpoint and closes the storage.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.closed) return;
+		
+		try {
+			this.writeCheckpoint();
+		} catch (IOException ex) {
+			this.log.warn("Couldn't write index checkpoint of memento storage " + this.directory, ex);
+		}
+		
+		// The mappings are released by the garbage collector
+		this.segments.clear();
+		this.closed = true;
+	}
+	
+	private void assertOpen() {
+		if (this.closed) throw new IllegalStateException("Memento storage is closed: " + this.directory);
+	}
+	
+	/**
+	 * Sets the position of a buffer. Buffer methods are called on the Buffer type so the class runs on Java 7
+	 * even if it's compiled by a later JDK that overrides them with covariant return types.
+	 */
+	private static ByteBuffer position(Buffer buffer, int position) {
+		buffer.position(position);
+		return (ByteBuffer) buffer;
+	}
+	
+	private static long crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		
+		return crc.getValue();
+	}
+	
+	private static long toPosition(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+	
+	private static int getSegment(long position) {
+		return (int) (position >>> 32);
+	}
+	
+	private static int getOffset(long position) {
+		return (int) position;
+	}
+	
+	@Override
+	public String toString() {
+		return JuStringUtils.toString(this, "directory", this.directory, "segments", this.segments.size(), "mementos", this.positions.size());
+	}
+}
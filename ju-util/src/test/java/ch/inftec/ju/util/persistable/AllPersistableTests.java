@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ GenericMementoTest.class, PersistenceManagerTest.class })
+@SuiteClasses({ GenericMementoTest.class, GenericMementoCodecTest.class, FileMementoStorageTest.class, MappedMementoStorageTest.class, PersistenceManagerTest.class })
 public class AllPersistableTests {
 
 }
@@ -0,0 +1,78 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.inftec.ju.util.persistable.MementoStorage.GenericMementoItem;
+
+/**
+ * Tests for the FileMementoStorage.
+ * @author Martin
+ *
+ */
+public class FileMementoStorageTest {
+	private File file;
+	
+	@Before
+	public void createFile() throws Exception {
+		this.file = File.createTempFile("ju-memento", ".dat");
+	}
+	
+	@After
+	public void deleteFile() {
+		this.file.delete();
+	}
+	
+	@Test
+	public void persistAndLoad() {
+		try (FileMementoStorage storage = GenericMementoUtils.newFileMementoStorage(this.file)) {
+			Assert.assertEquals(new Long(0L), storage.persistMemento(GenericMementoCodecTest.createMemento(0L), "T0"));
+			Assert.assertEquals(new Long(1L), storage.persistMemento(GenericMementoCodecTest.createMemento(1L), null));
+			
+			GenericMementoItem item = storage.loadMemento(0L);
+			Assert.assertEquals("T0", item.getType());
+			Assert.assertEquals(GenericMementoUtils.persistToString(GenericMementoCodecTest.createMemento(0L), "test")
+					, GenericMementoUtils.persistToString(item.getMemento(), "test"));
+			Assert.assertNull(storage.loadMemento(2L));
+		}
+	}
+	
+	@Test
+	public void incompleteWrite_isDiscarded() throws Exception {
+		try (FileMementoStorage storage = GenericMementoUtils.newFileMementoStorage(this.file)) {
+			Assert.assertEquals(new Long(0L), storage.persistMemento(GenericMementoCodecTest.createMemento(0L), "T0"));
+			Assert.assertEquals(new Long(1L), storage.persistMemento(GenericMementoCodecTest.createMemento(1L), null));
+			Assert.assertEquals(new Long(2L), storage.persistMemento(GenericMementoCodecTest.createMemento(2L), "T2"));
+		}
+		
+		// Simulate an incomplete write
+		try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+			raf.seek(raf.length());
+			raf.writeInt(1000);
+			raf.writeLong(3L);
+		}
+		
+		try (FileMementoStorage storage = GenericMementoUtils.newFileMementoStorage(this.file)) {
+			GenericMementoItem item = storage.loadMemento(1L);
+			Assert.assertNull(item.getType());
+			Assert.assertEquals(GenericMementoUtils.persistToString(GenericMementoCodecTest.createMemento(1L), "test")
+					, GenericMementoUtils.persistToString(item.getMemento(), "test"));
+			
+			Assert.assertNull(storage.loadMemento(3L));
+			
+			List<GenericMementoItem> items = storage.loadMementos(2);
+			Assert.assertEquals(2, items.size());
+			Assert.assertEquals("T2", items.get(0).getType());
+			Assert.assertEquals(new Long(1L), items.get(1).getId());
+			
+			Assert.assertEquals(new Long(3L), storage.persistMemento(GenericMementoCodecTest.createMemento(3L), "T3"));
+		}
+	}
+}
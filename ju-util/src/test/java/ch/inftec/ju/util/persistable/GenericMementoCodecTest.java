@@ -0,0 +1,72 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import ch.inftec.ju.util.persistable.GenericMementoCodec.Decoder;
+import ch.inftec.ju.util.persistable.GenericMementoCodec.Encoder;
+
+/**
+ * Tests for the GenericMementoCodec.
+ * @author Martin
+ *
+ */
+public class GenericMementoCodecTest {
+	/**
+	 * Creates a memento using all value types, nested children and null keys and values.
+	 * @param value Value of the memento's long and date attributes
+	 * @return GenericMemento
+	 */
+	static GenericMemento createMemento(long value) {
+		return GenericMementoUtils.builder()
+				.add("string", "äöü")
+				.add("long", value)
+				.add("negativeLong", -value)
+				.add("date", new Date(-1000L * value))
+				.add(null, "nullKey")
+				.add("nullValue", null, null, null)
+				.add("all", "string", new Date(value), Long.MIN_VALUE)
+				.newChild()
+					.add("string", "äöü")
+					.add("long", Long.MAX_VALUE)
+					.newChild()
+						.childDone()
+					.childDone()
+				.build();
+	}
+	
+	@Test
+	public void encodeAndDecode() {
+		GenericMemento memento = GenericMementoCodecTest.createMemento(12345L);
+		
+		byte[] data = GenericMementoCodec.encode(memento);
+		GenericMemento decoded = GenericMementoCodec.decode(data);
+		
+		Assert.assertEquals(GenericMementoUtils.persistToString(memento, "test"), GenericMementoUtils.persistToString(decoded, "test"));
+		Assert.assertEquals(new Date(12345L), GenericMementoUtils.asX(decoded).getDateValue("all"));
+		Assert.assertEquals(new Long(Long.MIN_VALUE), GenericMementoUtils.asX(decoded).getLongValue("all"));
+	}
+	
+	@Test
+	public void stream_sharesDictionary() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Encoder encoder = GenericMementoCodec.newEncoder(out);
+		
+		encoder.encode(GenericMementoCodecTest.createMemento(1L));
+		int firstLength = out.size();
+		encoder.encode(GenericMementoCodecTest.createMemento(2L));
+		
+		// The second memento only references the Strings of the first one
+		int standaloneLength = GenericMementoCodec.encode(GenericMementoCodecTest.createMemento(2L)).length;
+		Assert.assertTrue(out.size() - firstLength < standaloneLength - 20);
+		
+		Decoder decoder = GenericMementoCodec.newDecoder(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertEquals(new Long(1L), GenericMementoUtils.asX(decoder.decode()).getLongValue("long"));
+		Assert.assertEquals(new Long(2L), GenericMementoUtils.asX(decoder.decode()).getLongValue("long"));
+	}
+}
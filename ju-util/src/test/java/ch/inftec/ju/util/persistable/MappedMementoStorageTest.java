@@ -0,0 +1,124 @@
+package ch.inftec.ju.util.persistable;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.inftec.ju.util.persistable.MementoStorage.GenericMementoItem;
+
+/**
+ * Tests for the MappedMementoStorage.
+ * @author Martin
+ *
+ */
+public class MappedMementoStorageTest {
+	private File dir;
+	
+	@Before
+	public void createDirectory() throws Exception {
+		this.dir = Files.createTempDirectory("ju-memento").toFile();
+	}
+	
+	@After
+	public void deleteDirectory() {
+		for (File file : this.dir.listFiles()) {
+			file.delete();
+		}
+		this.dir.delete();
+	}
+	
+	private void assertMemento(long value, GenericMementoItem item) {
+		Assert.assertEquals(new Long(value), item.getId());
+		Assert.assertEquals(GenericMementoUtils.persistToString(GenericMementoCodecTest.createMemento(value), "test")
+				, GenericMementoUtils.persistToString(item.getMemento(), "test"));
+	}
+	
+	@Test
+	public void recoversAfterCrash() throws Exception {
+		// Use small segments to span multiple files. The storage isn't closed to simulate a crash.
+		MappedMementoStorage crashed = MappedMementoStorage.build()
+				.directory(this.dir)
+				.segmentSize(512)
+				.checkpointInterval(4)
+				.create();
+		for (long i = 0; i < 10; i++) {
+			Assert.assertEquals(new Long(i), crashed.persistMemento(GenericMementoCodecTest.createMemento(i), i % 2 == 0 ? "T" + i : null));
+		}
+		
+		// Simulate an incomplete write at the end of the last segment
+		File[] segments = this.dir.listFiles();
+		File lastSegment = null;
+		for (File segment : segments) {
+			if (segment.getName().startsWith("segment-") && (lastSegment == null || segment.getName().compareTo(lastSegment.getName()) > 0)) {
+				lastSegment = segment;
+			}
+		}
+		Assert.assertTrue(segments.length > 3);
+		try (RandomAccessFile raf = new RandomAccessFile(lastSegment, "rw")) {
+			raf.seek(raf.length() - 8);
+			raf.writeInt(1000);
+			raf.writeInt(1);
+		}
+		
+		try (MappedMementoStorage storage = MappedMementoStorage.build().directory(this.dir).segmentSize(512).create()) {
+			for (long i = 0; i < 10; i++) {
+				this.assertMemento(i, storage.loadMemento(i));
+			}
+			Assert.assertNull(storage.loadMemento(10L));
+			
+			List<GenericMementoItem> items = storage.loadMementos(3);
+			Assert.assertEquals(3, items.size());
+			Assert.assertEquals(new Long(9L), items.get(0).getId());
+			Assert.assertNull(items.get(0).getType());
+			Assert.assertEquals("T8", items.get(1).getType());
+			Assert.assertEquals(new Long(7L), items.get(2).getId());
+			Assert.assertEquals(10, storage.loadMementos(100).size());
+			
+			Assert.assertEquals(new Long(10L), storage.persistMemento(GenericMementoCodecTest.createMemento(10L), "T10"));
+		}
+		
+		// Reopen from the checkpoint written on close
+		try (MappedMementoStorage storage = MappedMementoStorage.build().directory(this.dir).create()) {
+			Assert.assertEquals("T10", storage.loadMementos(1).get(0).getType());
+			Assert.assertEquals(new Long(11L), storage.persistMemento(GenericMementoCodecTest.createMemento(11L), null));
+		}
+	}
+	
+	@Test
+	public void failingCheckpoint_doesntFailPersist() throws Exception {
+		// A directory in place of the temporary checkpoint file makes writing the checkpoint fail
+		File blocker = new File(this.dir, "index.dat.tmp");
+		Assert.assertTrue(blocker.mkdir());
+		
+		try (MappedMementoStorage storage = MappedMementoStorage.build()
+				.directory(this.dir)
+				.segmentSize(512)
+				.checkpointInterval(2)
+				.create()) {
+			for (long i = 0; i < 5; i++) {
+				Assert.assertEquals(new Long(i), storage.persistMemento(GenericMementoCodecTest.createMemento(i), null));
+			}
+			this.assertMemento(4L, storage.loadMemento(4L));
+			
+			// The checkpoint is written again once the problem is gone
+			Assert.assertTrue(blocker.delete());
+			Assert.assertEquals(new Long(5L), storage.persistMemento(GenericMementoCodecTest.createMemento(5L), null));
+			Assert.assertTrue(new File(this.dir, "index.dat").exists());
+			
+			Assert.assertEquals(new Long(6L), storage.persistMemento(GenericMementoCodecTest.createMemento(6L), null));
+		}
+		
+		try (MappedMementoStorage storage = MappedMementoStorage.build().directory(this.dir).create()) {
+			for (long i = 0; i < 7; i++) {
+				this.assertMemento(i, storage.loadMemento(i));
+			}
+		}
+	}
+}